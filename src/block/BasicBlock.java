@@ -1,6 +1,7 @@
 package block;
 
 import physics.collision.shapes.PolygonShape;
+import physics.collision.shapes.Shape;
 import physics.common.Settings;
 import physics.common.Vec2;
 import physics.dynamics.FixtureDef;
@@ -41,14 +42,27 @@ public class BasicBlock extends Block {
 
 	@Override
 	public FixtureDef[] getPhysics(int x, int y, BlockGroup parent) {
+		return new FixtureDef[] {box(x, y, 1, 1, new BlockFixtureData(x, y, parent), parent)};
+	}
+
+	@Override
+	public boolean isSolidBox(int x, int y, BlockGroup parent) { return true; }
+
+	/** A box of the basic block material covering w by h blocks from (x, y) */
+	static FixtureDef box(int x, int y, int w, int h, BlockFixtureData data, BlockGroup parent) {
+		return material(new PolygonShape().setAsBox(parent.scale * 0.5 * w, parent.scale * 0.5 * h, new Vec2((x + (w - 1) * 0.5 + parent.xoffset) * parent.scale, (y + (h - 1) * 0.5 + parent.yoffset) * parent.scale), 0.0), data);
+	}
+
+	/** A fixture of the basic block material */
+	static FixtureDef material(Shape shape, BlockFixtureData data) {
 		FixtureDef fd = new FixtureDef();
 		fd.filter.categoryBits = Constants.SHIP_BIT | Constants.SHIP_SELECTED_BIT;
 		fd.friction = 0.3;
 		fd.restitution = 0.9;
-		fd.shape = new PolygonShape().setAsBox(parent.scale * 0.5, parent.scale * 0.5, new Vec2((x + parent.xoffset) * parent.scale, (y + parent.yoffset) * parent.scale), 0.0);
+		fd.shape = shape;
 		fd.density = 10.0;
-		fd.userData = new BlockFixtureData(x, y, parent);
-		return new FixtureDef[] {fd};
+		fd.userData = data;
+		return fd;
 	}
 
 	/** This tick is for heat flows, 1st pass calculates new heat, second pass sets it */
@@ -1,16 +1,36 @@
 package block;
 
 import io.user.click.Clickable;
+import physics.common.Vec2;
 
 /** Represents the data needed to place a fixture within a blockgroup */
 public class BlockFixtureData implements Clickable {
 	public int x;
 	public int y;
 	public BlockGroup owner;
+	/** set for fixtures merged from several blocks, which cover width by height blocks from (x, y) */
+	public boolean merged;
+	public int width = 1;
+	public int height = 1;
 	
 	public BlockFixtureData(int x, int y, BlockGroup owner) {
 		this.x = x;
 		this.y = y;
 		this.owner = owner;
 	}
+
+	public BlockFixtureData(int x, int y, int width, int height, BlockGroup owner) {
+		this(x, y, owner);
+		this.width = width;
+		this.height = height;
+		merged = true;
+	}
+
+	/** Finds the block under point, given in block units relative to the centre of (x, y). The point is moved to be relative to the block found */
+	public int[] blockAt(Vec2 point) {
+		int dx = Math.max(0, Math.min(width - 1, (int) Math.floor(point.x + 0.5)));
+		int dy = Math.max(0, Math.min(height - 1, (int) Math.floor(point.y + 0.5)));
+		point.addLocal(-dx, -dy);
+		return new int[] {x + dx, y + dy};
+	}
 }
@@ -4,20 +4,29 @@ import java.util.Arrays;
 import java.util.stream.IntStream;
 
 import main.Game;
-import physics.collision.shapes.PolygonShape;
+import physics.collision.shapes.GridShape;
 import physics.common.Vec2;
 import physics.dynamics.Body;
 import physics.dynamics.BodyDef;
 import physics.dynamics.BodyType;
 import physics.dynamics.Fixture;
 import physics.dynamics.FixtureDef;
-import physics.link.Constants;
 
 public class BlockGroup extends Body {
 	static SelectedBlock selected;
 
+	/** Solid box blocks share one grid fixture per CHUNK by CHUNK blocks, set before creating groups */
+	public static boolean mergeFixtures = true;
+
+	/** The largest scale of any group made, the furthest a cell offered by pick can lie outside the fixtures of its group */
+	public static double maxScale;
+	static final int CHUNK = 16;
+
 	BlockGroupRenderer renderer;
 
+	//set by the physics thread, read by the renderer
+	volatile BlockGroupSnapshot snapshot;
+
 	//used variables, need synchronization if multithreadedness happens
 	public int width;
 	public int height;
@@ -34,6 +43,9 @@ public class BlockGroup extends Body {
 
 	public int number;
 
+	final boolean merge = mergeFixtures;
+	private final boolean[] cells = new boolean[(CHUNK + 2) * (CHUNK + 2)];
+
 	/** Use when building one from scratch */
 	public BlockGroup(int id, double angle, Vec2 position, double scale) {
 		BodyDef def = new BodyDef();
@@ -48,6 +60,7 @@ public class BlockGroup extends Body {
 		width = 1;
 		height = 1;
 		this.scale = scale;
+		maxScale = Math.max(maxScale, scale);
 		Block initial = Block.getBlock(id);
 		number = initial.getTextureLayers(0, 0, this) + 1; //the one is for the selection box, a more sensible system is needed
 
@@ -93,38 +106,27 @@ public class BlockGroup extends Body {
 		this.width = width;
 		this.height = height;
 		this.scale = scale;
+		maxScale = Math.max(maxScale, scale);
 		number = 1;
 		FixtureDef[] fd = null;
 
-		//(0, 0) is at 1, 1
-		int[] sensors = new int[(width + 2) * (height + 2)];
-
 		for(int i = 0; i < ids.length; i++) {
 			Block b = Block.getBlock(id(i));
 			number += b.getTextureLayers(x(i), y(i), this);
 
-			if(b.canBePlaced(Direction.RIGHT, 0, x(i), y(i), this))
-				sensors[fi(x(i) + 1, y(i))] |= 1;
-			if(b.canBePlaced(Direction.LEFT, 0, x(i), y(i), this))
-				sensors[fi(x(i) - 1, y(i))] |= 1;
-			if(b.canBePlaced(Direction.UP, 0, x(i), y(i), this))
-				sensors[fi(x(i), y(i) + 1)] |= 1;
-			if(b.canBePlaced(Direction.DOWN, 0, x(i), y(i), this))
-				sensors[fi(x(i), y(i) - 1)] |= 1;
+			if(isMergeable(x(i), y(i)))
+				continue;
 
 			fd = b.getPhysics(x(i), y(i), this);
 
-			if(fd != null) {
+			if(fd != null)
 				createFixture(fd);
-				sensors[fi(x(i), y(i))] = 2;
-			}
 		}
 
-		for(int i = 0; i < sensors.length; i++) {
-			if(sensors[i] == 1) {
-				createSensor((i % (width + 2)) - 1, (i / (width + 2)) - 1);
-			}
-		}
+		if(merge)
+			for(int y = Math.floorDiv(yoffset, CHUNK) * CHUNK - yoffset; y < height; y += CHUNK)
+				for(int x = Math.floorDiv(xoffset, CHUNK) * CHUNK - xoffset; x < width; x += CHUNK)
+					rebuildChunk(Math.max(x, 0), Math.max(y, 0));
 	}
 
 	public void tick() {
@@ -190,21 +192,26 @@ public class BlockGroup extends Body {
 
 	/** sets a block without expanding, checking legality or updating */
 	public void setBlockRaw(int x, int y, int id) {
+		boolean wasMerged = isMergeable(x, y);
+
 		number -= getBlock(x, y).getTextureLayers(x, y, this);
 
 		blocks[x + width * y] = id;
 
 		number += Block.getBlock(id).getTextureLayers(x, y, this);
 
+		if(wasMerged != isMergeable(x, y))
+			rebuildChunks(x, y);
+
+		if(isMergeable(x, y))
+			return;
+
 		FixtureDef[] fd = Block.getBlock(id).getPhysics(x, y, this);
 
-		if(fd != null) {
+		if(fd != null)
 			createFixture(fd);
-		} else {
-			if(hasBlockAdjacent(x, y)) {
-				createSensor(x, y);
-			}
-		}
+		else
+			destroyFixtures(x, y);
 	}
 
 	public void removeBlock(int x, int y) {
@@ -213,7 +220,6 @@ public class BlockGroup extends Body {
 
 		setBlockRaw(x, y, 0);
 		signalBlockChange(x, y);
-		updateSensors(x, y, 0);
 
 		renderer.resizeBuffer();
 
@@ -228,7 +234,6 @@ public class BlockGroup extends Body {
 
 		setBlockRaw(x, y, id);
 		signalBlockChange(x, y);
-		updateSensors(x, y, id);
 		renderer.resizeBuffer();
 	}
 
@@ -243,7 +248,6 @@ public class BlockGroup extends Body {
 
 		setBlockRaw(x, y, id);
 		signalBlockChange(x, y);
-		updateSensors(x, y, id);
 		renderer.resizeBuffer();
 
 		Block.getBlock(id).onPlace(x, y, this);
@@ -258,38 +262,6 @@ public class BlockGroup extends Body {
 		getBlock(id(x - 1, y)).blockChange(Direction.RIGHT, x - 1, y, this);
 	}
 
-	public void updateSensors(int x, int y, int id) {
-		Block block = Block.getBlock(id);
-
-		if(block.canBePlaced(Direction.UP, 0, x, y, this)) {
-			if(fixtures[fi(x, y + 1)] == null)
-				createSensor(x, y + 1);
-		} else
-			if(fixtures[fi(x, y + 1)] != null && fixtures[fi(x, y + 1)][0].m_isSensor && !hasBlockAdjacent(x, y + 1))
-				removeSensor(x, y + 1);
-
-		if(block.canBePlaced(Direction.DOWN, 0, x, y, this)) {
-			if(fixtures[fi(x, y - 1)] == null)
-				createSensor(x, y - 1);
-		} else
-			if(fixtures[fi(x, y - 1)] != null && fixtures[fi(x, y - 1)][0].m_isSensor && !hasBlockAdjacent(x, y - 1))
-				removeSensor(x, y - 1);
-
-		if(block.canBePlaced(Direction.RIGHT, 0, x, y, this)) {
-			if(fixtures[fi(x + 1, y)] == null)
-				createSensor(x + 1, y);
-		} else
-			if(fixtures[fi(x + 1, y)] != null && fixtures[fi(x + 1, y)][0].m_isSensor && !hasBlockAdjacent(x + 1, y))
-				removeSensor(x + 1, y);
-
-		if(block.canBePlaced(Direction.LEFT, 0, x, y, this)) {
-			if(fixtures[fi(x - 1, y)] == null)
-				createSensor(x - 1, y);
-		} else
-			if(fixtures[fi(x - 1, y)] != null && fixtures[fi(x - 1, y)][0].m_isSensor && !hasBlockAdjacent(x - 1, y))
-				removeSensor(x - 1, y);
-	}
-
 	private final int[] POOL = new int[2];
 
 	public int[] expandTo(int x, int y) {
@@ -319,6 +291,22 @@ public class BlockGroup extends Body {
 		return POOL;
 	}
 
+	/** Finds the cell under a world point from the grid, either a block or an empty cell next to one that a block could be placed in, null if neither */
+	public BlockFixtureData pick(Vec2 point) {
+		Vec2 local = getLocalPoint(point);
+		int x = (int) Math.floor(local.x / scale + 0.5) - xoffset;
+		int y = (int) Math.floor(local.y / scale + 0.5) - yoffset;
+
+		//placing may expand the group by one block on any side
+		if(x < -1 || y < -1 || x > width || y > height)
+			return null;
+
+		if(id(x, y) != 0 || hasBlockAdjacent(x, y))
+			return new BlockFixtureData(x, y, this);
+
+		return null;
+	}
+
 	/** checks if there is a supporting block next to (x, y) */
 	public boolean hasBlockAdjacent(int x, int y) {
 		return 	getBlock(x, y + 1).canBePlaced(Direction.DOWN, 0, x, y + 1, this) || 
@@ -357,19 +345,85 @@ public class BlockGroup extends Body {
 		return false;
 	}
 
-	private void createSensor(int x, int y) {
-		FixtureDef fd = new FixtureDef();
-		fd.shape = new PolygonShape().setAsBox(scale * 0.5, scale * 0.5, new Vec2((x + xoffset) * scale, (y + yoffset) * scale), 0.0);
-		fd.setSensor(true);
-		fd.filter.categoryBits = Constants.SHIP_SELECTED_BIT;
-		fd.userData = new BlockFixtureData(x, y, this);
+	/** true if the block at (x, y) is covered by a merged fixture */
+	boolean isMergeable(int x, int y) {
+		return merge && getBlock(x, y).isSolidBox(x, y, this);
+	}
+
+	/** Replaces the grid fixture of the chunk holding (x, y) */
+	void rebuildChunk(int x, int y) {
+		int x0 = Math.floorDiv(x + xoffset, CHUNK) * CHUNK - xoffset;
+		int y0 = Math.floorDiv(y + yoffset, CHUNK) * CHUNK - yoffset;
+		int x1 = Math.min(x0 + CHUNK, width);
+		int y1 = Math.min(y0 + CHUNK, height);
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+
+		for(int cy = y0; cy < y1; cy++) {
+			for(int cx = x0; cx < x1; cx++) {
+				Fixture[] old = fixtures[fi(cx, cy)];
+				if(old == null)
+					continue;
+
+				BlockFixtureData bfd = (BlockFixtureData) old[0].getUserData();
+				if(bfd.merged) {
+					super.destroyFixture(old[0]);
+					for(int j = 0; j < bfd.height; j++)
+						for(int i = 0; i < bfd.width; i++)
+							if(fixtures[fi(bfd.x + i, bfd.y + j)] == old)
+								fixtures[fi(bfd.x + i, bfd.y + j)] = null;
+				} else if(isMergeable(cx, cy)) {
+					for(Fixture f : old)
+						super.destroyFixture(f);
+					fixtures[fi(cx, cy)] = null;
+				}
+			}
+		}
+
+		//the border holds the neighbouring chunks' blocks, so the faces between chunks do not collide
+		int w = x1 - x0;
+		int h = y1 - y0;
+		boolean any = false;
+		for(int cy = -1; cy <= h; cy++) {
+			for(int cx = -1; cx <= w; cx++) {
+				boolean solid = isMergeable(x0 + cx, y0 + cy);
+				cells[(cx + 1) + (cy + 1) * (w + 2)] = solid;
+				any |= solid && cx >= 0 && cy >= 0 && cx < w && cy < h;
+			}
+		}
+
+		if(!any)
+			return;
 
-		createFixture(new FixtureDef[] {fd});
+		GridShape shape = new GridShape().set(cells, w, h, scale, new Vec2((x0 + xoffset - 0.5) * scale, (y0 + yoffset - 0.5) * scale));
+		Fixture[] grid = new Fixture[] {super.createFixture(BasicBlock.material(shape, new BlockFixtureData(x0, y0, w, h, this)))};
+		for(int cy = y0; cy < y1; cy++)
+			for(int cx = x0; cx < x1; cx++)
+				if(isMergeable(cx, cy))
+					fixtures[fi(cx, cy)] = grid;
 	}
 
-	private void removeSensor(int x, int y) {
+	/** Rebuilds the chunk holding (x, y), and the chunks around it whose border holds (x, y) */
+	void rebuildChunks(int x, int y) {
+		int cx = Math.floorMod(x + xoffset, CHUNK);
+		int cy = Math.floorMod(y + yoffset, CHUNK);
+
+		for(int j = -1; j <= 1; j++)
+			for(int i = -1; i <= 1; i++)
+				if((i == 0 || cx == (i < 0 ? 0 : CHUNK - 1)) && (j == 0 || cy == (j < 0 ? 0 : CHUNK - 1)))
+					if(x + i >= 0 && y + j >= 0 && x + i < width && y + j < height)
+						rebuildChunk(x + i, y + j);
+	}
+
+	/** destroys the fixtures of the block at (x, y), merged fixtures are left to rebuildChunk */
+	private void destroyFixtures(int x, int y) {
 		int index = fi(x, y);
-		super.destroyFixture(fixtures[index][0]);
+
+		if(fixtures[index] == null || ((BlockFixtureData) fixtures[index][0].getUserData()).merged)
+			return;
+
+		for(Fixture f : fixtures[index])
+			super.destroyFixture(f);
 		fixtures[index] = null;
 	}
 
@@ -393,14 +447,14 @@ public class BlockGroup extends Body {
 		fixtures = newFixtures;
 
 		Fixture next = super.getFixtureList();
-		yoffset--;
+		yoffset -= amount;
 
 		if(selected != null && selected.parent == this)
-			selected.y++;
+			selected.y += amount;
 
 		while(next != null) {
 			BlockFixtureData bfd = (BlockFixtureData) next.getUserData();
-			bfd.y++;
+			bfd.y += amount;
 			next = next.getNext();
 		}
 	}
@@ -424,16 +478,16 @@ public class BlockGroup extends Body {
 		heat = newHeat;
 
 		width += amount;
-		xoffset--;
+		xoffset -= amount;
 
 		if(selected != null && selected.parent == this)
-			selected.x++;
+			selected.x += amount;
 
 		Fixture next = super.getFixtureList();
 
 		while(next != null) {
 			BlockFixtureData bfd = (BlockFixtureData) next.getUserData();
-			bfd.x++;
+			bfd.x += amount;
 			next = next.getNext();
 		}
 	}
@@ -494,6 +548,16 @@ public class BlockGroup extends Body {
 		return (x + 1) + (width + 2) * (y + 1);
 	}
 
+	/** Publishes the current state for the renderer, call from the thread that steps the world, see FixedStepDriver.getStepTime */
+	public void publishSnapshot(long time, double dt) {
+		snapshot = new BlockGroupSnapshot(this, time, dt);
+	}
+
+	/** The last published snapshot, null unless the world is stepped on its own thread */
+	public BlockGroupSnapshot getSnapshot() {
+		return snapshot;
+	}
+
 	public long getUpdateOffset() {
 		return 0; //OPTI implement subBuffer updates
 	}
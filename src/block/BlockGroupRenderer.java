@@ -18,6 +18,8 @@ import org.lwjgl.opengl.GL33;
 import org.lwjgl.opengl.GL42;
 import org.newdawn.slick.opengl.PNGDecoder;
 
+import main.Game;
+import physics.common.Transform;
 import render.Renderer;
 import render.Texture;
 
@@ -98,7 +100,10 @@ public class BlockGroupRenderer {
 	}
 
 	int GPUData;
+	int bufferNumber;
+	volatile boolean resize;
 	BlockGroup parent;
+	final Transform xf = new Transform();
 
 	public BlockGroupRenderer(BlockGroup parent) {
 		this.parent = parent;
@@ -110,6 +115,7 @@ public class BlockGroupRenderer {
 		GPUData = Renderer.getBufferID();
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, GPUData);
 		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, parent.number * BLOCK_DATA_SIZE * Float.BYTES, GL15.GL_DYNAMIC_DRAW);
+		bufferNumber = parent.number;
 
 		GL30.glBindVertexArray(VAO);
 
@@ -148,13 +154,40 @@ public class BlockGroupRenderer {
 
 		Renderer.checkGL();
 		
+		//with a physics thread the group belongs to it, only the snapshot it published may be read
+		BlockGroupSnapshot snapshot = parent.getSnapshot();
+		int[] array;
+		int number;
+		long offset;
+		double scale;
+
+		if(snapshot != null) {
+			array = snapshot.renderData;
+			number = snapshot.number;
+			offset = snapshot.updateOffset;
+			scale = snapshot.scale;
+			snapshot.getTransform(System.nanoTime(), xf);
+		} else {
+			array = parent.getRenderData();
+			number = parent.number;
+			offset = parent.getUpdateOffset();
+			scale = parent.scale;
+			Game.getStepDriver().getInterpolatedTransform(parent, xf);
+		}
+
+		if(resize || number > bufferNumber) {
+			resize = false;
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, GPUData);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, number * BLOCK_DATA_SIZE * Float.BYTES, GL15.GL_DYNAMIC_DRAW);
+			bufferNumber = number;
+		}
+
 		//if(parent.updateRender) {
-		int[] array = parent.getRenderData();
 		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, GPUData);
 		
 		Renderer.checkGL();
 		
-		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, parent.getUpdateOffset(), (IntBuffer) BufferUtils.createIntBuffer(array.length).put(array).flip());
+		GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, offset, (IntBuffer) BufferUtils.createIntBuffer(array.length).put(array).flip());
 		//}
 
 		Renderer.checkGL();
@@ -163,9 +196,9 @@ public class BlockGroupRenderer {
 		GL20.glUseProgram(PROGRAM);
 		GL13.glActiveTexture(GL13.GL_TEXTURE0);
 
-		GL20.glUniform1f(0, (float) parent.scale);
-		GL20.glUniform2f(1, (float) parent.m_xf.q.c, (float) parent.m_xf.q.s);
-		GL20.glUniform2f(2, (float) parent.getPosition().x, (float) parent.getPosition().y);
+		GL20.glUniform1f(0, (float) scale);
+		GL20.glUniform2f(1, (float) xf.q.c, (float) xf.q.s);
+		GL20.glUniform2f(2, (float) xf.p.x, (float) xf.p.y);
 		//GL20.glUniform2f(3, (float) parent.getLocalCenter().x, (float) parent.getLocalCenter().y);
 
 		GL20.glUniform2f(4, (float) Renderer.position.x, (float) Renderer.position.y);
@@ -174,13 +207,13 @@ public class BlockGroupRenderer {
 		GL11.glBindTexture(GL30.GL_TEXTURE_2D_ARRAY, TEXTURE);
 		GL13.glActiveTexture(GL13.GL_TEXTURE1);
 		GL11.glBindTexture(GL11.GL_TEXTURE_1D, HEAT);
-		GL31.glDrawArraysInstanced(GL11.GL_TRIANGLES, 0, 6, parent.number);
+		GL31.glDrawArraysInstanced(GL11.GL_TRIANGLES, 0, 6, number);
 		Renderer.checkGL();
 	}
 
+	/** The buffer is reallocated on the next render, so this can be called from the physics thread */
 	public void resizeBuffer() {
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, GPUData);
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, parent.number * BLOCK_DATA_SIZE * Float.BYTES, GL15.GL_DYNAMIC_DRAW);
+		resize = true;
 	}
 	
 	/** ID clashes are not checked, be sure or pay the price */
@@ -0,0 +1,37 @@
+package block;
+
+import physics.common.Transform;
+import physics.dynamics.FixedStepDriver;
+
+/** An immutable copy of what the renderer needs from a BlockGroup, taken on the physics thread after a step */
+public final class BlockGroupSnapshot {
+	public final int[] renderData;
+	public final int number;
+	public final long updateOffset;
+	public final double scale;
+
+	//the transforms before and after the last step
+	private final Transform xf0 = new Transform();
+	private final Transform xf = new Transform();
+
+	//System.nanoTime() the step was due at and the length of a step in seconds
+	private final long time;
+	private final double dt;
+
+	BlockGroupSnapshot(BlockGroup group, long time, double dt) {
+		renderData = group.getRenderData();
+		number = group.number;
+		updateOffset = group.getUpdateOffset();
+		scale = group.scale;
+		xf0.set(group.m_xf0);
+		xf.set(group.m_xf);
+		this.time = time;
+		this.dt = dt;
+	}
+
+	/** Interpolates the transform at time now (from System.nanoTime()), this trails the simulation by up to a step */
+	public void getTransform(long now, Transform out) {
+		double alpha = Math.min(1, Math.max(0, (now - time) * 1e-9 / dt));
+		FixedStepDriver.interpolate(xf0, xf, alpha, out);
+	}
+}
@@ -38,6 +38,9 @@ public class CornerBlock extends DataBlock {
 		return fd;
 	}
 
+	@Override
+	public boolean isSolidBox(int x, int y, BlockGroup parent) { return false; }
+
 	@Override
 	public int[][] getTextures(int x, int y, BlockGroup parent) {
 		texture[0][3] = getData(x, y, parent);
@@ -1,6 +1,7 @@
 package io.user.click;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.lwjgl.LWJGLException;
 import org.lwjgl.input.Cursor;
@@ -8,15 +9,22 @@ import org.lwjgl.input.Mouse;
 import org.newdawn.slick.opengl.CursorLoader;
 
 import physics.common.Vec2;
+import main.Game;
 import io.user.Console;
 import io.user.KeyBinds;
 import io.user.KeyIO;
 
-/** These are cycled through by clicking click.cycle, different cycles may be defined by making sepperate loops */
+/**
+ * These are cycled through by clicking click.cycle, different cycles may be defined by making sepperate loops.
+ * The static methods run on the render thread, they read the mouse and the current mode there and hand primary,
+ * secondary, hover and deactivate to the world's thread, see Game.invokeInWorld. activate sets the cursor and stays here.
+ */
 public abstract class ClickMode {
 	public static ClickMode CREATIVE_BUILD_MODE = new CreativeBuildMode();
 	public static ClickMode MOVE_MODE = new MoveMode();
 	static ClickMode current = CREATIVE_BUILD_MODE;
+	//set while a hover waits for the world, so a slow step doesn't pile them up
+	static final AtomicBoolean hoverQueued = new AtomicBoolean();
 	
 	public static void initialize() {
 		KeyBinds.add(ClickMode::primary, 0, KeyIO.MOUSE_BUTTON_PRESSED, "click.primary");
@@ -29,31 +37,46 @@ public abstract class ClickMode {
 	}
 	
 	public static void tick() {
-		ClickTest test = new ClickTest();
-		current.hover(test.fixture == null ? null : (Clickable) test.fixture.getUserData(), test.point);
+		if(!hoverQueued.compareAndSet(false, true))
+			return;
+		
+		ClickMode mode = current;
+		Vec2 point = KeyBinds.getMousePos();
+		Game.invokeInWorld(() -> {
+			hoverQueued.set(false);
+			ClickTest test = new ClickTest(point);
+			mode.hover(test.clickable, test.point);
+		});
 	}
 	
 	/** select and unselect will always be called */
 	public static void set(ClickMode c) {
-		current.deactivate();
+		ClickMode old = current;
 		current = c;
+		Game.invokeInWorld(old::deactivate);
 		c.activate();
 	}
 	
 	public static void cycle() {
-		current.deactivate();
-		current = KeyIO.isCtrlDown() ? current.previous : current.next;
-		current.activate();
+		set(KeyIO.isCtrlDown() ? current.previous : current.next);
 	}
 	
 	public static void secondary() {
-		ClickTest test = new ClickTest();
-		current.secondary(test.fixture == null ? null : (Clickable) test.fixture.getUserData(), test.point);
+		ClickMode mode = current;
+		Vec2 point = KeyBinds.getMousePos();
+		Game.invokeInWorld(() -> {
+			ClickTest test = new ClickTest(point);
+			mode.secondary(test.clickable, test.point);
+		});
 	}
 	
 	public static void primary() {
-		ClickTest test = new ClickTest();
-		current.primary(test.fixture == null ? null : (Clickable) test.fixture.getUserData(), test.point);
+		ClickMode mode = current;
+		Vec2 point = KeyBinds.getMousePos();
+		Game.invokeInWorld(() -> {
+			ClickTest test = new ClickTest(point);
+			mode.primary(test.clickable, test.point);
+		});
 	}
 	
 	ClickMode next;
@@ -91,7 +114,7 @@ public abstract class ClickMode {
 	/** clickable may be null, point is the point in world space that the mouse is, called every frame */
 	public abstract void hover(Clickable c, Vec2 point);
 	
-	/** called when this clickmode is activated */
+	/** called when this clickmode is activated, on the render thread */
 	public void activate() {
 		try {
 			Mouse.setNativeCursor(icon);
@@ -100,7 +123,7 @@ public abstract class ClickMode {
 		}
 	}
 	
-	/** called when this clickmode is deactivated */
+	/** called when this clickmode is deactivated, on the world's thread */
 	public void deactivate() {
 		
 	}
@@ -1,33 +1,69 @@
 package io.user.click;
 
+import java.util.ArrayList;
+
+import block.BlockFixtureData;
+import block.BlockGroup;
 import io.user.KeyBinds;
 import main.Game;
 import physics.callbacks.QueryCallback;
 import physics.collision.AABB;
 import physics.common.Vec2;
+import physics.dynamics.Body;
 import physics.dynamics.Fixture;
 
-/** detects the first fixture intersecting a point that is clickable */
+/** detects what is clickable at a point, blocks are read from the grid of the block groups the broadphase finds near it, anything else from the first clickable fixture */
 
 public class ClickTest implements QueryCallback {
 	public Vec2 point;
-	public Fixture fixture;
+	public Clickable clickable;
+
+	//the first clickable fixture that is not part of a block group, used when no group has a cell at the point
+	private Clickable other;
+	private final ArrayList<BlockGroup> tested = new ArrayList<>();
 
+	/** tests at the mouse, only call this from the thread that owns both the input and the world */
 	public ClickTest() {
-		this.point = KeyBinds.getMousePos();
+		this(KeyBinds.getMousePos());
+	}
+
+	/** tests at point in world space */
+	public ClickTest(Vec2 point) {
+		this.point = point;
+
+		//an empty cell next to a block can lie up to a block outside the fixtures of its group
+		double margin = Math.max(.001f, BlockGroup.maxScale);
 		AABB broardTest = new AABB();
-		broardTest.lowerBound.set(point.x - .001f, point.y - .001f);
-		broardTest.upperBound.set(point.x + .001f, point.y + .001f);
+		broardTest.lowerBound.set(point.x - margin, point.y - margin);
+		broardTest.upperBound.set(point.x + margin, point.y + margin);
 		Game.getWorld().queryAABB(this, broardTest);
+
+		if(clickable == null)
+			clickable = other;
 	}
 
 	@Override
 	public boolean reportFixture(Fixture argFixture) {
-		if (argFixture.getUserData() instanceof Clickable && argFixture.testPoint(point)) {
-			fixture = argFixture;
-			return false;
+		Body b = argFixture.getBody();
+		if(b instanceof BlockGroup) {
+			//a group is reported once for each of its fixtures, and a grid fixture once for each proxy
+			if(tested.contains(b))
+				return true;
+			tested.add((BlockGroup) b);
+
+			BlockFixtureData bfd = ((BlockGroup) b).pick(point);
+			if(bfd == null)
+				return true;
+
+			//a block beats an empty cell of another group
+			clickable = bfd;
+			return bfd.owner.id(bfd.x, bfd.y) == 0;
 		}
 
+		Object data = argFixture.getUserData();
+		if (other == null && data instanceof Clickable && argFixture.testPoint(point))
+			other = (Clickable) data;
+
 		return true;
 	}
 }
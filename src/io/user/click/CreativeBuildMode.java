@@ -1,6 +1,5 @@
 package io.user.click;
 
-import physics.common.Transform;
 import physics.common.Vec2;
 import block.Block;
 import block.BlockFixtureData;
@@ -17,11 +16,10 @@ public class CreativeBuildMode extends ClickMode {
 	public void primary(Clickable c, Vec2 point) {
 		if(c instanceof BlockFixtureData) {
 			BlockFixtureData bfd = (BlockFixtureData) c;
-			point = Transform.mul(bfd.owner.getTransform().invert(), point);
-			point.mulLocal(1 / bfd.owner.scale);
-			point.addLocal(- bfd.owner.xoffset - bfd.x, - bfd.owner.yoffset - bfd.y);
+			point = toBlock(bfd, point);
+			int[] xy = bfd.blockAt(point);
 
-			bfd.owner.setBlock(bfd.x, bfd.y, Block.getBlock(id).getID(point, bfd.x, bfd.y, bfd.owner));
+			bfd.owner.setBlock(xy[0], xy[1], Block.getBlock(id).getID(point, xy[0], xy[1], bfd.owner));
 		}
 	}
 
@@ -29,7 +27,8 @@ public class CreativeBuildMode extends ClickMode {
 	public void secondary(Clickable c, Vec2 point) {
 		if(c instanceof BlockFixtureData) {
 			BlockFixtureData bfd = (BlockFixtureData) c;
-			bfd.owner.removeBlock(bfd.x, bfd.y);
+			int[] xy = bfd.blockAt(toBlock(bfd, point));
+			bfd.owner.removeBlock(xy[0], xy[1]);
 		}
 	}
 
@@ -40,10 +39,19 @@ public class CreativeBuildMode extends ClickMode {
 		
 		if(c instanceof BlockFixtureData) {
 			BlockFixtureData bfd = (BlockFixtureData) c;
-			bfd.owner.setSelected(bfd.x, bfd.y);
+			int[] xy = bfd.blockAt(toBlock(bfd, point));
+			bfd.owner.setSelected(xy[0], xy[1]);
 		}
 	}
 	
+	/** converts a world point to block units relative to the centre of the fixture's first block */
+	static Vec2 toBlock(BlockFixtureData bfd, Vec2 point) {
+		point = bfd.owner.getLocalPoint(point);
+		point.mulLocal(1 / bfd.owner.scale);
+		point.addLocal(- bfd.owner.xoffset - bfd.x, - bfd.owner.yoffset - bfd.y);
+		return point;
+	}
+	
 	@Override
 	public void deactivate() {
 		BlockGroup.unselect();
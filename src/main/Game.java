@@ -4,6 +4,10 @@ import io.user.Console;
 import io.user.KeyIO;
 import io.user.click.ClickMode;
 
+import java.util.Arrays;
+
+import mob.Player;
+
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.GL11;
@@ -13,6 +17,8 @@ import physics.common.Settings;
 import physics.common.Vec2;
 import physics.dynamics.BodyDef;
 import physics.dynamics.BodyType;
+import physics.dynamics.FixedStepDriver;
+import physics.dynamics.PhysicsThread;
 import physics.dynamics.World;
 import physics.link.ContactResponse;
 import render.LineRenderer;
@@ -31,8 +37,14 @@ public class Game {
 	public static boolean drawPhys = false;
 	public static Clock frameClock = new Clock();
 	public static World world = new World(new Vec2());
+	public static FixedStepDriver stepDriver = new FixedStepDriver(world, Settings.DELTA, 8, 8);
+	/** null unless started with -physicsthread, then the world and block groups belong to it */
+	public static PhysicsThread physicsThread;
 	
 	public static void main(String[] args) {
+		if(Arrays.asList(args).contains("-physicsthread"))
+			physicsThread = new PhysicsThread(stepDriver);
+
 		innit();
 		
 		try {
@@ -66,6 +78,19 @@ public class Game {
 		BlockGroupRenderer bgr1 = new BlockGroupRenderer(bg1);
 		bgr1.setupRender();
 		
+		stepDriver.setStepListener(dt -> {
+			bg1.tick();
+			Player.applyInput();
+		});
+		
+		if(physicsThread != null) {
+			physicsThread.setPublisher(() -> bg1.publishSnapshot(stepDriver.getStepTime(), stepDriver.getTimeStep()));
+			//a task that failed, like a click on a block that was just removed, is skipped, a failed step is fatal
+			physicsThread.setTaskErrorHandler(e -> Console.warn("A task on the physics thread failed: " + e, "PHYSICS"));
+			physicsThread.setUncaughtExceptionHandler((t, e) -> Console.error(e, "PHYSICS"));
+			physicsThread.start();
+		}
+		
 		GUI.setDebug(true);
 		TextRenderer.initialize("kristen");
 		
@@ -74,20 +99,23 @@ public class Game {
 			Display.update();
 			GL11.glClear(GL11.GL_COLOR_BUFFER_BIT);
 			
-			world.step(Settings.DELTA, 8, 8);
-			
 			frameClock.tick();
+			
+			if(physicsThread == null)
+				stepDriver.update();
 			ClickMode.tick();
+			
 			KeyIO.tick();
+			Player.publishInput();
 			GUI.INSTANCE.tick();
 			
-			bg1.tick();
 			bgr1.render();
 			
 			TextRenderer.render();
 			LineRenderer.render();
 			
-			if(drawPhys)
+			//the debug draw reads the world, which the physics thread may be stepping
+			if(drawPhys && physicsThread == null)
 				world.drawDebugData();
 
 			Renderer.checkGL();
@@ -105,10 +133,25 @@ public class Game {
 	public static void cleanup() {
 		//TODO technically the context should clean up after me, but...
 
+		if(physicsThread != null)
+			physicsThread.shutdown();
+
 		Display.destroy();
 	}
 
+	/** runs a task that reads or edits the world, on the physics thread if there is one, otherwise right away */
+	public static void invokeInWorld(Runnable task) {
+		if(physicsThread == null)
+			task.run();
+		else
+			physicsThread.invokeLater(task);
+	}
+
 	public static World getWorld() {
 		return world;
 	}
+
+	public static FixedStepDriver getStepDriver() {
+		return stepDriver;
+	}
 }
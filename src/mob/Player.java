@@ -25,14 +25,32 @@ public class Player extends Mob {
 	public static final double STRENGTH = 0.05;
 	public static final double SPEED = 10;
 	static Player controlled;
+
+	static final int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8;
+	//the jetpack keys held this frame, only touched by the input thread
+	static int pressed;
+	//the jetpack keys held in the last frame, read once per step, by the physics thread when there is one
+	static volatile int held;
 	
 	static {
-		KeyBinds.add(() -> {if(controlled != null) controlled.up();}, Keyboard.KEY_W, KeyIO.KEY_DOWN, "player.jetpack.up");
-		KeyBinds.add(() -> {if(controlled != null) controlled.down();}, Keyboard.KEY_S, KeyIO.KEY_DOWN, "player.jetpack.down");
-		KeyBinds.add(() -> {if(controlled != null) controlled.left();}, Keyboard.KEY_A, KeyIO.KEY_DOWN, "player.jetpack.left");
-		KeyBinds.add(() -> {if(controlled != null) controlled.right();}, Keyboard.KEY_D, KeyIO.KEY_DOWN, "player.jetpack.right");
-		KeyBinds.add(() -> {if(controlled != null) controlled.toggleJetpack();}, Keyboard.KEY_R, KeyIO.KEY_PRESSED, "player.jetpack.toggle");
-		KeyBinds.add(() -> {if(controlled != null) controlled.grab();}, Keyboard.KEY_G, KeyIO.KEY_PRESSED, "player.grab.true");
+		KeyBinds.add(() -> pressed |= UP, Keyboard.KEY_W, KeyIO.KEY_DOWN, "player.jetpack.up");
+		KeyBinds.add(() -> pressed |= DOWN, Keyboard.KEY_S, KeyIO.KEY_DOWN, "player.jetpack.down");
+		KeyBinds.add(() -> pressed |= LEFT, Keyboard.KEY_A, KeyIO.KEY_DOWN, "player.jetpack.left");
+		KeyBinds.add(() -> pressed |= RIGHT, Keyboard.KEY_D, KeyIO.KEY_DOWN, "player.jetpack.right");
+		KeyBinds.add(() -> Game.invokeInWorld(() -> {if(controlled != null) controlled.toggleJetpack();}), Keyboard.KEY_R, KeyIO.KEY_PRESSED, "player.jetpack.toggle");
+		KeyBinds.add(() -> Game.invokeInWorld(() -> {if(controlled != null) controlled.grab();}), Keyboard.KEY_G, KeyIO.KEY_PRESSED, "player.grab.true");
+	}
+
+	/** hands the jetpack keys held this frame to the world, call once a frame after KeyIO.tick */
+	public static void publishInput() {
+		held = pressed;
+		pressed = 0;
+	}
+
+	/** pushes the controlled player with the held jetpack keys, call once after every fixed step so the thrust does not follow the frame rate */
+	public static void applyInput() {
+		if(controlled != null)
+			controlled.thrust(held);
 	}
 	
 	double[] aim;
@@ -120,10 +138,14 @@ public class Player extends Mob {
 			root.applyTorque(-root.getAngle() * 0.01);
 	}
 	
-	void    up() {	if(jetpackon) root.applyForceToCenter(new Vec2(0, 1));	}
-	void  down() {	if(jetpackon) root.applyForceToCenter(new Vec2(0, -1));	}
-	void  left() {	if(jetpackon) root.applyForceToCenter(new Vec2(-1, 0));	}
-	void right() {	if(jetpackon) root.applyForceToCenter(new Vec2(1, 0));	}
+	void thrust(int keys) {
+		if(!jetpackon || keys == 0)
+			return;
+
+		double x = ((keys & RIGHT) != 0 ? 1 : 0) - ((keys & LEFT) != 0 ? 1 : 0);
+		double y = ((keys & UP) != 0 ? 1 : 0) - ((keys & DOWN) != 0 ? 1 : 0);
+		root.applyForceToCenter(new Vec2(x, y));
+	}
 	
 	void toggleJetpack() {
 		jetpackon = !jetpackon;
@@ -26,4 +26,10 @@ package physics.callbacks;
 // updated to rev 100
 public interface PairCallback {
 	public void addPair(Object userDataA, Object userDataB);
+
+	/**
+	 * Called by broad-phases that track overlaps when a pair stops overlapping. Others leave it to
+	 * the client to notice.
+	 */
+	public default void removePair(Object userDataA, Object userDataB) {}
 }
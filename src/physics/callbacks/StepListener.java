@@ -0,0 +1,14 @@
+package physics.callbacks;
+
+/**
+ * Implement this to run game logic in lock step with the world when it is driven by a
+ * {@link physics.dynamics.FixedStepDriver}.
+ */
+public interface StepListener {
+
+	/**
+	 * Called after every fixed step of the world.
+	 * @param dt the length of the step, in seconds.
+	 */
+	public void postStep(double dt);
+}
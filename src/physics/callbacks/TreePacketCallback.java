@@ -0,0 +1,27 @@
+package physics.callbacks;
+
+/**
+ * Callback for a packet query of a broad-phase tree. A packet is a group of up to 64 queries
+ * walked through the tree together, bit i of a mask standing for query i of the packet.
+ */
+public interface TreePacketCallback {
+
+	/**
+	 * Called for each internal node and leaf the walk reaches.
+	 * @param lowerX
+	 * @param lowerY
+	 * @param upperX
+	 * @param upperY the fat bounds of the node.
+	 * @param mask the queries of the packet still active at this node.
+	 * @return the queries of the mask that may touch the node, zero to skip it.
+	 */
+	public long testNode(double lowerX, double lowerY, double upperX, double upperY, long mask);
+
+	/**
+	 * Called for each proxy at least one query of the packet reached.
+	 * @param proxyId the id of the proxy
+	 * @param mask the queries that reached it.
+	 * @return if the walk should be continued
+	 */
+	public boolean packetCallback(int proxyId, long mask);
+}
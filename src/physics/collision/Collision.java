@@ -45,6 +45,12 @@ import physics.pooling.IWorldPool;
 public class Collision {
   public static final int NULL_FEATURE = Integer.MAX_VALUE;
 
+  /**
+   * No axis cached for {@link #collidePolygons(Manifold, PolygonShape, Transform, PolygonShape,
+   * Transform, int)}.
+   */
+  public static final int NULL_AXIS = -1;
+
   private final IWorldPool pool;
 
   public Collision(IWorldPool argPool) {
@@ -187,7 +193,7 @@ public class Collision {
   // #### COLLISION STUFF (not from collision.h or collision.cpp) ####
 
   // djm pooling
-  private static Vec2 d = new Vec2();
+  private final Vec2 d = new Vec2();
 
   /**
    * Compute the collision manifold between two circles.
@@ -478,6 +484,77 @@ public class Collision {
     results.separation = maxSeparation;
   }
 
+  private int deepestVertex1;
+  private int deepestVertex2;
+
+  /**
+   * Find the separation between poly1 and poly2 along the normal of one edge of poly1, just as
+   * {@link #findMaxSeparation} does for each edge. The deepest two vertices of poly2 are kept for
+   * {@link #findMaxEdgeBound}.
+   */
+  private final double findEdgeSeparation(final PolygonShape poly1, final Transform xf1, int edge,
+      final PolygonShape poly2, final Transform xf2) {
+    int count2 = poly2.m_count;
+    Vec2[] v2s = poly2.m_vertices;
+
+    Transform.mulTransToOutUnsafe(xf2, xf1, xf);
+    Rot.mulToOutUnsafe(xf.q, poly1.m_normals[edge], n);
+    Transform.mulToOutUnsafe(xf, poly1.m_vertices[edge], v1);
+
+    int deepest1 = 0, deepest2 = 0;
+    double s1 = Float.MAX_VALUE, s2 = Float.MAX_VALUE;
+    for (int j = 0; j < count2; ++j) {
+      Vec2 v2sj = v2s[j];
+      double sj = n.x * (v2sj.x - v1.x) + n.y * (v2sj.y - v1.y);
+      if (sj < s1) {
+        s2 = s1;
+        deepest2 = deepest1;
+        s1 = sj;
+        deepest1 = j;
+      } else if (sj < s2) {
+        s2 = sj;
+        deepest2 = j;
+      }
+    }
+    deepestVertex1 = deepest1;
+    deepestVertex2 = deepest2;
+    return s1;
+  }
+
+  /**
+   * Bound the separation {@link #findMaxSeparation} would find along the edge normals of poly1,
+   * leaving out one edge, by taking only two vertices of poly2 instead of the deepest one. Computed
+   * the same way, the bound is never below that separation.
+   */
+  private final double findMaxEdgeBound(final PolygonShape poly1, final Transform xf1, int skip,
+      final PolygonShape poly2, final Transform xf2, int vertex1, int vertex2) {
+    int count1 = poly1.m_count;
+    Vec2[] n1s = poly1.m_normals;
+    Vec2[] v1s = poly1.m_vertices;
+    Vec2 w1 = poly2.m_vertices[vertex1];
+    Vec2 w2 = poly2.m_vertices[vertex2];
+
+    Transform.mulTransToOutUnsafe(xf2, xf1, xf);
+    final Rot xfq = xf.q;
+
+    double maxBound = -Float.MAX_VALUE;
+    for (int i = 0; i < count1; i++) {
+      if (i == skip) {
+        continue;
+      }
+      Rot.mulToOutUnsafe(xfq, n1s[i], n);
+      Transform.mulToOutUnsafe(xf, v1s[i], v1);
+
+      double s1 = n.x * (w1.x - v1.x) + n.y * (w1.y - v1.y);
+      double s2 = n.x * (w2.x - v1.x) + n.y * (w2.y - v1.y);
+      double bound = s1 < s2 ? s1 : s2;
+      if (bound > maxBound) {
+        maxBound = bound;
+      }
+    }
+    return maxBound;
+  }
+
   public final void findIncidentEdge(final ClipVertex[] c, final PolygonShape poly1,
       final Transform xf1, int edge1, final PolygonShape poly2, final Transform xf2) {
     int count1 = poly1.m_count;
@@ -557,6 +634,54 @@ public class Collision {
   private final ClipVertex[] clipPoints1 = new ClipVertex[2];
   private final ClipVertex[] clipPoints2 = new ClipVertex[2];
 
+  private static final int SEPARATED = -2;
+
+  /**
+   * Test the axis a polygon pair cached. Returns {@link #SEPARATED} if they are still separated
+   * along it, the axis if it is still the reference face the full search would choose, or
+   * {@link #NULL_AXIS} if that could not be shown.
+   */
+  private final int testAxis(final PolygonShape polyA, final Transform xfA,
+      final PolygonShape polyB, final Transform xfB, int axis) {
+    final boolean flip = (axis & 1) != 0;
+    final PolygonShape poly1 = flip ? polyB : polyA;
+    final PolygonShape poly2 = flip ? polyA : polyB;
+    final Transform xf1 = flip ? xfB : xfA;
+    final Transform xf2 = flip ? xfA : xfB;
+    final int edge1 = axis >> 1;
+    final double totalRadius = polyA.m_radius + polyB.m_radius;
+    final double k_tol = 0.1f * Settings.linearSlop;
+
+    double separation = findEdgeSeparation(poly1, xf1, edge1, poly2, xf2);
+    if (separation > totalRadius) {
+      return SEPARATED;
+    }
+
+    // The other edges of poly1 separate no more than from poly2's two deepest vertices, the edges
+    // of poly2 no more than from the ends of edge1.
+    double bound1 = findMaxEdgeBound(poly1, xf1, edge1, poly2, xf2, deepestVertex1, deepestVertex2);
+    int edge1End = edge1 + 1 < poly1.m_count ? edge1 + 1 : 0;
+    double bound2 = findMaxEdgeBound(poly2, xf2, -1, poly1, xf1, edge1, edge1End);
+    boolean holds;
+    if (flip) {
+      holds = bound1 < separation && bound2 + k_tol < separation;
+    } else {
+      holds = bound1 < separation && bound2 <= totalRadius && bound2 <= separation + k_tol;
+    }
+    return holds ? axis : NULL_AXIS;
+  }
+
+  /**
+   * Choose the reference face from results1 and results2, preferring polygon A.
+   */
+  private final int chooseReference() {
+    final double k_tol = 0.1f * Settings.linearSlop;
+    if (results2.separation > results1.separation + k_tol) {
+      return (results2.edgeIndex << 1) | 1;
+    }
+    return results1.edgeIndex << 1;
+  }
+
   /**
    * Compute the collision manifold between two polygons.
    * 
@@ -568,6 +693,21 @@ public class Collision {
    */
   public final void collidePolygons(Manifold manifold, final PolygonShape polyA,
       final Transform xfA, final PolygonShape polyB, final Transform xfB) {
+    collidePolygons(manifold, polyA, xfA, polyB, xfB, NULL_AXIS);
+  }
+
+  /**
+   * Compute the collision manifold between two polygons, trying the axis the last call for the same
+   * pair returned first. If the polygons are still separated along it nothing else is tested. If it
+   * was the reference face and bounds on the separation along every other edge show it still wins,
+   * the search over all edges is skipped. The manifold is always the one that search would give.
+   * 
+   * @param axis the edge index shifted left by one, with the low bit set for an edge of polyB, or
+   *          {@link #NULL_AXIS}.
+   * @return the separating axis or reference face found, to pass in next time.
+   */
+  public final int collidePolygons(Manifold manifold, final PolygonShape polyA,
+      final Transform xfA, final PolygonShape polyB, final Transform xfB, int axis) {
     // Find edge normal of max separation on A - return if separating axis is found
     // Find edge normal of max separation on B - return if separation axis is found
     // Choose reference edge as min(minA, minB)
@@ -579,40 +719,31 @@ public class Collision {
     manifold.pointCount = 0;
     double totalRadius = polyA.m_radius + polyB.m_radius;
 
-    findMaxSeparation(results1, polyA, xfA, polyB, xfB);
-    if (results1.separation > totalRadius) {
-      return;
-    }
-
-    findMaxSeparation(results2, polyB, xfB, polyA, xfA);
-    if (results2.separation > totalRadius) {
-      return;
+    int reference = axis != NULL_AXIS ? testAxis(polyA, xfA, polyB, xfB, axis) : NULL_AXIS;
+    if (reference == SEPARATED) {
+      return axis;
     }
+    if (reference == NULL_AXIS) {
+      findMaxSeparation(results1, polyA, xfA, polyB, xfB);
+      if (results1.separation > totalRadius) {
+        return results1.edgeIndex << 1;
+      }
 
-    final PolygonShape poly1;  // reference polygon
-    final PolygonShape poly2;  // incident polygon
-    Transform xf1, xf2;
-    int edge1;                 // reference edge
-    boolean flip;
-    final double k_tol = 0.1f * Settings.linearSlop;
+      findMaxSeparation(results2, polyB, xfB, polyA, xfA);
+      if (results2.separation > totalRadius) {
+        return (results2.edgeIndex << 1) | 1;
+      }
 
-    if (results2.separation > results1.separation + k_tol) {
-      poly1 = polyB;
-      poly2 = polyA;
-      xf1 = xfB;
-      xf2 = xfA;
-      edge1 = results2.edgeIndex;
-      manifold.type = ManifoldType.FACE_B;
-      flip = true;
-    } else {
-      poly1 = polyA;
-      poly2 = polyB;
-      xf1 = xfA;
-      xf2 = xfB;
-      edge1 = results1.edgeIndex;
-      manifold.type = ManifoldType.FACE_A;
-      flip = false;
+      reference = chooseReference();
     }
+
+    final boolean flip = (reference & 1) != 0;
+    final PolygonShape poly1 = flip ? polyB : polyA;  // reference polygon
+    final PolygonShape poly2 = flip ? polyA : polyB;  // incident polygon
+    final Transform xf1 = flip ? xfB : xfA;
+    final Transform xf2 = flip ? xfA : xfB;
+    final int edge1 = reference >> 1;                 // reference edge
+    manifold.type = flip ? ManifoldType.FACE_B : ManifoldType.FACE_A;
     final Rot xf1q = xf1.q;
 
     findIncidentEdge(incidentEdge, poly1, xf1, edge1, poly2, xf2);
@@ -672,14 +803,14 @@ public class Collision {
     tangent.negateLocal();
 
     if (np < 2) {
-      return;
+      return reference;
     }
 
     // Clip to negative box side 1
     np = clipSegmentToLine(clipPoints2, clipPoints1, tangent, sideOffset2, iv2);
 
     if (np < 2) {
-      return;
+      return reference;
     }
 
     // Now clipPoints2 contains the clipped points.
@@ -709,6 +840,258 @@ public class Collision {
     }
 
     manifold.pointCount = pointCount;
+    return reference;
+  }
+
+  /**
+   * Find the max separation between two boxes like {@link #findMaxSeparation}, unrolled over the
+   * four vertices of box2.
+   */
+  private final void findMaxBoxSeparation(EdgeResults results, final PolygonShape box1,
+      final Transform xf1, final PolygonShape box2, final Transform xf2) {
+    final Vec2[] n1s = box1.m_normals;
+    final Vec2[] v1s = box1.m_vertices;
+    final Vec2[] v2s = box2.m_vertices;
+    final double x0 = v2s[0].x, y0 = v2s[0].y;
+    final double x1 = v2s[1].x, y1 = v2s[1].y;
+    final double x2 = v2s[2].x, y2 = v2s[2].y;
+    final double x3 = v2s[3].x, y3 = v2s[3].y;
+
+    Transform.mulTransToOutUnsafe(xf2, xf1, xf);
+    final double c = xf.q.c, s = xf.q.s;
+    final double px = xf.p.x, py = xf.p.y;
+
+    int bestIndex = 0;
+    double maxSeparation = -Float.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      // Get box1 normal and vertex in frame2.
+      final Vec2 ni = n1s[i];
+      final Vec2 vi = v1s[i];
+      final double nx = c * ni.x - s * ni.y;
+      final double ny = s * ni.x + c * ni.y;
+      final double vx = (c * vi.x - s * vi.y) + px;
+      final double vy = (s * vi.x + c * vi.y) + py;
+
+      // Find deepest point for normal i.
+      double si = nx * (x0 - vx) + ny * (y0 - vy);
+      double sij = nx * (x1 - vx) + ny * (y1 - vy);
+      if (sij < si) {
+        si = sij;
+      }
+      sij = nx * (x2 - vx) + ny * (y2 - vy);
+      if (sij < si) {
+        si = sij;
+      }
+      sij = nx * (x3 - vx) + ny * (y3 - vy);
+      if (sij < si) {
+        si = sij;
+      }
+
+      if (si > maxSeparation) {
+        maxSeparation = si;
+        bestIndex = i;
+      }
+    }
+
+    results.edgeIndex = bestIndex;
+    results.separation = maxSeparation;
+  }
+
+  private static int idKey(int indexA, int indexB, int typeA, int typeB) {
+    return indexA << 24 | indexB << 16 | typeA << 8 | typeB;
+  }
+
+  /**
+   * Compute the collision manifold between two boxes, see {@link PolygonShape#m_box}. This is
+   * {@link #collidePolygons(Manifold, PolygonShape, Transform, PolygonShape, Transform, int)} with
+   * the loops over four vertices unrolled and the incident edge clipped in locals rather than
+   * through {@link ClipVertex} arrays. The arithmetic is the same, so are the manifold and its
+   * contact ids.
+   */
+  public final int collideBoxes(Manifold manifold, final PolygonShape boxA, final Transform xfA,
+      final PolygonShape boxB, final Transform xfB, int axis) {
+    assert (boxA.m_count == 4 && boxB.m_count == 4);
+
+    manifold.pointCount = 0;
+    double totalRadius = boxA.m_radius + boxB.m_radius;
+
+    int reference = axis != NULL_AXIS ? testAxis(boxA, xfA, boxB, xfB, axis) : NULL_AXIS;
+    if (reference == SEPARATED) {
+      return axis;
+    }
+    if (reference == NULL_AXIS) {
+      findMaxBoxSeparation(results1, boxA, xfA, boxB, xfB);
+      if (results1.separation > totalRadius) {
+        return results1.edgeIndex << 1;
+      }
+
+      findMaxBoxSeparation(results2, boxB, xfB, boxA, xfA);
+      if (results2.separation > totalRadius) {
+        return (results2.edgeIndex << 1) | 1;
+      }
+
+      reference = chooseReference();
+    }
+
+    final boolean flip = (reference & 1) != 0;
+    final PolygonShape box1 = flip ? boxB : boxA;  // reference box
+    final PolygonShape box2 = flip ? boxA : boxB;  // incident box
+    final Transform xf1 = flip ? xfB : xfA;
+    final Transform xf2 = flip ? xfA : xfB;
+    final int edge1 = reference >> 1;              // reference edge
+    manifold.type = flip ? ManifoldType.FACE_B : ManifoldType.FACE_A;
+
+    final double c1 = xf1.q.c, s1 = xf1.q.s;
+    final double c2 = xf2.q.c, s2 = xf2.q.s;
+    final int face = ContactID.Type.FACE.ordinal();
+    final int vertex = ContactID.Type.VERTEX.ordinal();
+
+    // Find the incident edge on box2 from the reference normal in box2's frame.
+    final Vec2 n1 = box1.m_normals[edge1];
+    final double tempx = c1 * n1.x - s1 * n1.y;
+    final double tempy = s1 * n1.x + c1 * n1.y;
+    final double normal1x = c2 * tempx + s2 * tempy;
+    final double normal1y = -s2 * tempx + c2 * tempy;
+    final Vec2[] normals2 = box2.m_normals;
+    int index = 0;
+    double minDot = normal1x * normals2[0].x + normal1y * normals2[0].y;
+    double dot = normal1x * normals2[1].x + normal1y * normals2[1].y;
+    if (dot < minDot) {
+      minDot = dot;
+      index = 1;
+    }
+    dot = normal1x * normals2[2].x + normal1y * normals2[2].y;
+    if (dot < minDot) {
+      minDot = dot;
+      index = 2;
+    }
+    dot = normal1x * normals2[3].x + normal1y * normals2[3].y;
+    if (dot < minDot) {
+      index = 3;
+    }
+
+    final int i1 = index;
+    final int i2 = (index + 1) & 3;
+    final Vec2 w1 = box2.m_vertices[i1];
+    final Vec2 w2 = box2.m_vertices[i2];
+    double ax = (c2 * w1.x - s2 * w1.y) + xf2.p.x;
+    double ay = (s2 * w1.x + c2 * w1.y) + xf2.p.y;
+    int aid = idKey(edge1, i1, face, vertex);
+    double bx = (c2 * w2.x - s2 * w2.y) + xf2.p.x;
+    double by = (s2 * w2.x + c2 * w2.y) + xf2.p.y;
+    int bid = idKey(edge1, i2, face, vertex);
+
+    // The reference face.
+    final int iv1 = edge1;
+    final int iv2 = (edge1 + 1) & 3;
+    v11.set(box1.m_vertices[iv1]);
+    v12.set(box1.m_vertices[iv2]);
+    localTangent.x = v12.x - v11.x;
+    localTangent.y = v12.y - v11.y;
+    localTangent.normalize();
+    localNormal.x = 1f * localTangent.y;
+    localNormal.y = -1f * localTangent.x;
+    planePoint.x = (v11.x + v12.x) * .5f;
+    planePoint.y = (v11.y + v12.y) * .5f;
+
+    final double tangentx = c1 * localTangent.x - s1 * localTangent.y;
+    final double tangenty = s1 * localTangent.x + c1 * localTangent.y;
+    final double normalx = 1f * tangenty;
+    final double normaly = -1f * tangentx;
+
+    Transform.mulToOut(xf1, v11, v11);
+    Transform.mulToOut(xf1, v12, v12);
+
+    double frontOffset = normalx * v11.x + normaly * v11.y;
+    double sideOffset1 = -(tangentx * v11.x + tangenty * v11.y) + totalRadius;
+    double sideOffset2 = tangentx * v12.x + tangenty * v12.y + totalRadius;
+
+    // Clip to box side 1, keeping the points behind it in order and adding the crossing.
+    double distance0 = -tangentx * ax + -tangenty * ay - sideOffset1;
+    double distance1 = -tangentx * bx + -tangenty * by - sideOffset1;
+    if (distance0 <= 0.0f) {
+      if (distance1 > 0.0f) {
+        if (distance0 == 0.0f) {
+          return reference;
+        }
+        double interp = distance0 / (distance0 - distance1);
+        bx = ax + interp * (bx - ax);
+        by = ay + interp * (by - ay);
+        bid = idKey(iv1, (aid >> 16) & 0xFF, vertex, face);
+      }
+    } else {
+      if (distance1 >= 0.0f) {
+        return reference;
+      }
+      double interp = distance0 / (distance0 - distance1);
+      double cx = ax + interp * (bx - ax);
+      double cy = ay + interp * (by - ay);
+      int cid = idKey(iv1, (aid >> 16) & 0xFF, vertex, face);
+      ax = bx;
+      ay = by;
+      aid = bid;
+      bx = cx;
+      by = cy;
+      bid = cid;
+    }
+
+    // Clip to negative box side 1
+    distance0 = tangentx * ax + tangenty * ay - sideOffset2;
+    distance1 = tangentx * bx + tangenty * by - sideOffset2;
+    if (distance0 <= 0.0f) {
+      if (distance1 > 0.0f) {
+        if (distance0 == 0.0f) {
+          return reference;
+        }
+        double interp = distance0 / (distance0 - distance1);
+        bx = ax + interp * (bx - ax);
+        by = ay + interp * (by - ay);
+        bid = idKey(iv2, (aid >> 16) & 0xFF, vertex, face);
+      }
+    } else {
+      if (distance1 >= 0.0f) {
+        return reference;
+      }
+      double interp = distance0 / (distance0 - distance1);
+      double cx = ax + interp * (bx - ax);
+      double cy = ay + interp * (by - ay);
+      int cid = idKey(iv2, (aid >> 16) & 0xFF, vertex, face);
+      ax = bx;
+      ay = by;
+      aid = bid;
+      bx = cx;
+      by = cy;
+      bid = cid;
+    }
+
+    manifold.localNormal.set(localNormal);
+    manifold.localPoint.set(planePoint);
+
+    int pointCount = 0;
+    if (normalx * ax + normaly * ay - frontOffset <= totalRadius) {
+      setBoxPoint(manifold.points[pointCount++], ax, ay, aid, xf2, flip);
+    }
+    if (normalx * bx + normaly * by - frontOffset <= totalRadius) {
+      setBoxPoint(manifold.points[pointCount++], bx, by, bid, xf2, flip);
+    }
+    manifold.pointCount = pointCount;
+    return reference;
+  }
+
+  private static void setBoxPoint(ManifoldPoint cp, double x, double y, int id,
+      final Transform xf2, boolean flip) {
+    final double px = x - xf2.p.x;
+    final double py = y - xf2.p.y;
+    cp.localPoint.x = (xf2.q.c * px + xf2.q.s * py);
+    cp.localPoint.y = (-xf2.q.s * px + xf2.q.c * py);
+    cp.id.indexA = (byte) (id >> 24);
+    cp.id.indexB = (byte) (id >> 16);
+    cp.id.typeA = (byte) (id >> 8);
+    cp.id.typeB = (byte) id;
+    if (flip) {
+      // Swap features
+      cp.id.flip();
+    }
   }
 
   private final Vec2 Q = new Vec2();
@@ -850,8 +1233,6 @@ public class Collision {
     collider.collide(manifold, edgeA, xfA, polygonB, xfB);
   }
 
-
-
   /**
    * Java-specific class for returning edge results
    */
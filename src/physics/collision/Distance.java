@@ -26,6 +26,7 @@ package physics.collision;
 import physics.collision.shapes.ChainShape;
 import physics.collision.shapes.CircleShape;
 import physics.collision.shapes.EdgeShape;
+import physics.collision.shapes.GridShape;
 import physics.collision.shapes.PolygonShape;
 import physics.collision.shapes.Shape;
 import physics.common.Rot;
@@ -43,9 +44,11 @@ import physics.common.Vec2;
 public class Distance {
 	public static final int MAX_ITERS = 20;
 
-	public static int GJK_CALLS = 0;
-	public static int GJK_ITERS = 0;
-	public static int GJK_MAX_ITERS = 20;
+	// Statistics of this instance. Each world pool has its own, so narrowphase workers running
+	// distance queries at the same time don't share them.
+	public int gjkCalls = 0;
+	public int gjkIters = 0;
+	public int gjkMaxIters = 0;
 
 	/**
 	 * GJK using Voronoi regions (Christer Ericson) and Barycentric coordinates.
@@ -532,6 +535,12 @@ public class Distance {
 					m_count = 2;
 					m_radius = edge.m_radius;
 					break;
+				case GRID:
+					final GridShape grid = (GridShape) shape;
+					grid.getChildCorners(m_vertices, index);
+					m_count = 4;
+					m_radius = grid.m_radius;
+					break;
 				default:
 					assert (false);
 			}
@@ -617,7 +626,7 @@ public class Distance {
 	 */
 	public final void distance(final DistanceOutput output, final SimplexCache cache,
 		final DistanceInput input) {
-		GJK_CALLS++;
+		gjkCalls++;
 
 		final DistanceProxy proxyA = input.proxyA;
 		final DistanceProxy proxyB = input.proxyB;
@@ -714,7 +723,7 @@ public class Distance {
 
 			// Iteration count is equated to the number of support point calls.
 			++iter;
-			++GJK_ITERS;
+			++gjkIters;
 
 			// Check for duplicate support points. This is the main termination criteria.
 			boolean duplicate = false;
@@ -734,7 +743,7 @@ public class Distance {
 			++simplex.m_count;
 		}
 
-		GJK_MAX_ITERS = Math.max(GJK_MAX_ITERS, iter);
+		gjkMaxIters = Math.max(gjkMaxIters, iter);
 
 		// Prepare output.
 		simplex.getWitnessPoints(output.pointA, output.pointB);
@@ -3,6 +3,7 @@ package physics.collision.broadphase;
 import physics.callbacks.DebugDraw;
 import physics.callbacks.PairCallback;
 import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
 import physics.callbacks.TreeRayCastCallback;
 import physics.collision.AABB;
 import physics.collision.RayCastInput;
@@ -22,6 +23,17 @@ public interface BroadPhase {
    */
   int createProxy(AABB aabb, Object userData);
 
+  /**
+   * Create a proxy, telling the broad-phase whether it belongs to a static body. Static proxies
+   * never pair with each other and may be kept apart from the others.
+   * 
+   * @param aabb
+   * @param userData
+   * @param isStatic
+   * @return
+   */
+  int createProxy(AABB aabb, Object userData, boolean isStatic);
+
   /**
    * Destroy a proxy. It is up to the client to remove any pairs.
    * 
@@ -37,6 +49,15 @@ public interface BroadPhase {
 
   void touchProxy(int proxyId);
 
+  /**
+   * Call when the type of a proxy's body changes. The proxy keeps its id.
+   * 
+   * @param proxyId
+   * @param aabb the proxy's tight AABB.
+   * @param isStatic
+   */
+  void setProxyStatic(int proxyId, AABB aabb, boolean isStatic);
+
   Object getUserData(int proxyId);
 
   AABB getFatAABB(int proxyId);
@@ -79,6 +100,38 @@ public interface BroadPhase {
    */
   void raycast(TreeRayCastCallback callback, RayCastInput input);
 
+  /**
+   * Walk the tree once for a packet of queries. The callback narrows the mask of active queries at
+   * every node and is given each proxy some query reached. The walk keeps its state in the given
+   * stack, not in the tree.
+   * 
+   * @param callback
+   * @param mask the queries of the packet, one bit each.
+   * @param stack scratch for the walk.
+   */
+  void queryPacket(TreePacketCallback callback, long mask, PacketStack stack);
+
+  /**
+   * Set the number of threads {@link #updatePairs(PairCallback)} queries the moved proxies on. The
+   * pairs are reported in the same order whatever the number.
+   * 
+   * @param threads
+   */
+  void setPairThreads(int threads);
+
+  int getPairThreads();
+
+  /**
+   * Put the proxies created since the last update into the tree. Queries do this themselves, call
+   * it before querying from several threads at once.
+   */
+  void flush();
+
+  /**
+   * Rebuild the embedded tree from scratch. Proxy ids are kept.
+   */
+  void rebuild();
+
   /**
    * Get the height of the embedded tree.
    * 
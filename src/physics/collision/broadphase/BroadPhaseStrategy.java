@@ -2,9 +2,11 @@ package physics.collision.broadphase;
 
 import physics.callbacks.DebugDraw;
 import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
 import physics.callbacks.TreeRayCastCallback;
 import physics.collision.AABB;
 import physics.collision.RayCastInput;
+import physics.common.Settings;
 import physics.common.Vec2;
 
 public interface BroadPhaseStrategy {
@@ -31,8 +33,43 @@ public interface BroadPhaseStrategy {
    * 
    * @return true if the proxy was re-inserted.
    */
-  boolean moveProxy(int proxyId, AABB aabb, Vec2 displacement);
-  
+  default boolean moveProxy(int proxyId, AABB aabb, Vec2 displacement) {
+    return moveProxy(proxyId, aabb, Settings.aabbExtension,
+        displacement.x * Settings.aabbMultiplier, displacement.y * Settings.aabbMultiplier);
+  }
+
+  /**
+   * Move a proxy like {@link #moveProxy(int, AABB, Vec2)}, but with a margin of its own. A
+   * re-inserted proxy is fattened by the extension all around and reaches further by the predicted
+   * displacement along it.
+   *
+   * @return true if the proxy was re-inserted.
+   */
+  boolean moveProxy(int proxyId, AABB aabb, double extension, double predictX, double predictY);
+
+  /**
+   * Put the proxies created since the last call into the tree, building them into a subtree of
+   * their own if there are many. Every other call that reads or changes the tree does this first,
+   * call it before walking the tree from several threads at once.
+   */
+  void flush();
+
+  /**
+   * Rebuild the whole tree from its leaves with the surface area heuristic. Proxy ids are kept.
+   */
+  void rebuild();
+
+  /**
+   * Lower the tree's surface area a little without rebuilding it. Up to the given number of nodes
+   * are visited, each one swapping a child with a grandchild if that shrinks its children's
+   * bounds. The next call goes on from the node this one stopped at.
+   *
+   * @param nodeBudget the most nodes to visit.
+   * @param timeBudget the most nanoseconds to spend, 0 for no limit.
+   * @return the number of rotations made.
+   */
+  int optimize(int nodeBudget, long timeBudget);
+
   Object getUserData(int proxyId);
 
   AABB getFatAABB(int proxyId);
@@ -57,6 +94,17 @@ public interface BroadPhaseStrategy {
    */
   void raycast(TreeRayCastCallback callback, RayCastInput input);
 
+  /**
+   * Walk the tree once for a packet of queries. The callback narrows the mask of active queries at
+   * every node and is given each proxy some query reached. The walk keeps its state in the given
+   * stack, not in the tree.
+   * 
+   * @param callback
+   * @param mask the queries of the packet, one bit each.
+   * @param stack scratch for the walk.
+   */
+  void queryPacket(TreePacketCallback callback, long mask, PacketStack stack);
+
   /**
    * Compute the height of the tree.
    */
@@ -24,10 +24,14 @@
 package physics.collision.broadphase;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import physics.callbacks.DebugDraw;
 import physics.callbacks.PairCallback;
 import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
 import physics.callbacks.TreeRayCastCallback;
 import physics.collision.AABB;
 import physics.collision.RayCastInput;
@@ -38,45 +42,144 @@ import physics.common.Vec2;
  * broad-phase does not persist pairs. Instead, this reports potentially new pairs. It is up to the
  * client to consume the new pairs and to track subsequent overlap.
  * 
+ * Given a second tree, the proxies of static bodies are kept in it apart from the rest, so moving
+ * proxies are not re-inserted past static geometry. Proxy ids are the buffer's own and stay the
+ * same when a proxy moves between the trees. Moved proxies look for pairs in both trees, moved
+ * static proxies only among the others, static proxies never colliding with each other.
+ * 
+ * Pairs are kept as longs, the smaller proxy id in the upper half. With more than one
+ * {@link #setPairThreads(int) pair thread} the moved proxies are queried in packets of
+ * {@link #PACKET_SIZE} shared out between the threads, each collecting pairs into a buffer of its
+ * own. The buffers are merged and radix sorted, so the pairs are reported in the same order
+ * whatever the number of threads.
+ * 
  * @author Daniel Murphy
  */
 public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase {
-
-  private final BroadPhaseStrategy m_tree;
+  public static final int DEFAULT_REBUILD_INTERVAL = 64;
+  public static final double DEFAULT_REBUILD_AREA_FACTOR = 1.5;
+  public static final int DEFAULT_REBUILD_BALANCE_SLACK = 4;
+  public static final int DEFAULT_OPTIMIZE_NODES = 64;
+
+  static final int DYNAMIC = 0;
+  static final int STATIC = 1;
+
+  static final int PACKET_SIZE = 64;
+  // fewer moved proxies than this are queried on the calling thread
+  static final int MIN_PARALLEL_MOVES = 2 * PACKET_SIZE;
+  // fewer pairs than this are sorted in place
+  static final int MIN_RADIX_PAIRS = 256;
+  static final int RADIX_BITS = 11;
+
+  // the dynamic tree, then the static one if any
+  private final BroadPhaseStrategy[] m_trees;
+
+  // Each tree is checked every so many updates, and rebuilt once it got this much worse than it was
+  // right after its last rebuild.
+  private int m_rebuildInterval = DEFAULT_REBUILD_INTERVAL;
+  private double m_rebuildAreaFactor = DEFAULT_REBUILD_AREA_FACTOR;
+  private int m_rebuildBalanceSlack = DEFAULT_REBUILD_BALANCE_SLACK;
+  // Between rebuilds the changed trees are optimized a few nodes every update.
+  private int m_optimizeNodes = DEFAULT_OPTIMIZE_NODES;
+  private long m_optimizeTime;
+  private int m_updatesSinceCheck;
+  private final boolean[] m_changedSinceCheck;
+  private final boolean[] m_rebuilt;
+  private final double[] m_rebuiltAreaRatio;
+  private final int[] m_rebuiltBalance;
 
   private int m_proxyCount;
 
+  // Per proxy id its tree and id in there, free ids chained through m_treeIds. Per tree the proxy
+  // id of each tree id.
+  private byte[] m_proxyTrees;
+  private int[] m_treeIds;
+  private int m_proxyCapacity;
+  private int m_proxyIdCount;
+  private int m_freeProxy;
+  private final int[][] m_proxyIds;
+
   private int[] m_moveBuffer;
   private int m_moveCapacity;
   private int m_moveCount;
 
-  private Pair[] m_pairBuffer;
-  private int m_pairCapacity;
+  // per proxy margins, null for the constant ones, and how often the proxies were re-inserted
+  private MarginPolicy m_marginPolicy;
+  private int[] m_reinsertCounts;
+  private long m_reinsertCount;
+  private long m_proxyMoveCount;
+
+  private long[] m_pairBuffer;
+  private long[] m_sortBuffer;
   private int m_pairCount;
+  private final int[] m_radixCounts = new int[1 << RADIX_BITS];
 
   private int m_queryProxyId;
+  private int m_queryTree;
+  private final QueryRemap m_queryRemap = new QueryRemap();
+
+  // parallel queries, null with one thread
+  private ForkJoinPool m_executor;
+  private PairWorker[] m_workers;
+  private double[] m_moveBounds;
+  private final AtomicInteger m_nextPacket = new AtomicInteger();
 
+  /**
+   * A broad-phase keeping all proxies in one tree.
+   */
   public DefaultBroadPhaseBuffer(BroadPhaseStrategy strategy) {
+    this(new BroadPhaseStrategy[] {strategy});
+  }
+
+  /**
+   * A broad-phase keeping the proxies of static bodies in a tree of their own.
+   */
+  public DefaultBroadPhaseBuffer(BroadPhaseStrategy dynamicStrategy,
+      BroadPhaseStrategy staticStrategy) {
+    this(new BroadPhaseStrategy[] {dynamicStrategy, staticStrategy});
+  }
+
+  private DefaultBroadPhaseBuffer(BroadPhaseStrategy[] trees) {
+    m_trees = trees;
+    m_changedSinceCheck = new boolean[trees.length];
+    m_rebuilt = new boolean[trees.length];
+    m_rebuiltAreaRatio = new double[trees.length];
+    m_rebuiltBalance = new int[trees.length];
+
     m_proxyCount = 0;
+    m_proxyCapacity = 16;
+    m_proxyTrees = new byte[m_proxyCapacity];
+    m_treeIds = new int[m_proxyCapacity];
+    m_reinsertCounts = new int[m_proxyCapacity];
+    m_proxyIdCount = 0;
+    m_freeProxy = NULL_PROXY;
+    m_proxyIds = new int[trees.length][16];
 
-    m_pairCapacity = 16;
     m_pairCount = 0;
-    m_pairBuffer = new Pair[m_pairCapacity];
-    for (int i = 0; i < m_pairCapacity; i++) {
-      m_pairBuffer[i] = new Pair();
-    }
+    m_pairBuffer = new long[16];
+    m_sortBuffer = new long[16];
 
     m_moveCapacity = 16;
     m_moveCount = 0;
     m_moveBuffer = new int[m_moveCapacity];
 
-    m_tree = strategy;
     m_queryProxyId = NULL_PROXY;
   }
 
   @Override
   public final int createProxy(final AABB aabb, Object userData) {
-    int proxyId = m_tree.createProxy(aabb, userData);
+    return createProxy(aabb, userData, false);
+  }
+
+  @Override
+  public final int createProxy(final AABB aabb, Object userData, boolean isStatic) {
+    int proxyId = allocateProxy();
+    m_reinsertCounts[proxyId] = 0;
+    if (m_marginPolicy != null) {
+      m_marginPolicy.reset(proxyId);
+    }
+    int tree = isStatic && m_trees.length > 1 ? STATIC : DYNAMIC;
+    link(proxyId, tree, m_trees[tree].createProxy(aabb, userData));
     ++m_proxyCount;
     bufferMove(proxyId);
     return proxyId;
@@ -85,18 +188,85 @@ public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase {
   @Override
   public final void destroyProxy(int proxyId) {
     unbufferMove(proxyId);
+    final int tree = m_proxyTrees[proxyId];
+    m_changedSinceCheck[tree] = true;
     --m_proxyCount;
-    m_tree.destroyProxy(proxyId);
+    m_trees[tree].destroyProxy(m_treeIds[proxyId]);
+    freeProxy(proxyId);
   }
 
   @Override
   public final void moveProxy(int proxyId, final AABB aabb, final Vec2 displacement) {
-    boolean buffer = m_tree.moveProxy(proxyId, aabb, displacement);
+    final BroadPhaseStrategy tree = m_trees[m_proxyTrees[proxyId]];
+    final MarginPolicy policy = m_marginPolicy;
+    boolean buffer;
+    if (policy != null) {
+      policy.update(proxyId, displacement);
+      buffer = tree.moveProxy(m_treeIds[proxyId], aabb, policy.extension, policy.predictX,
+          policy.predictY);
+    } else {
+      buffer = tree.moveProxy(m_treeIds[proxyId], aabb, displacement);
+    }
+    ++m_proxyMoveCount;
     if (buffer) {
+      ++m_reinsertCounts[proxyId];
+      ++m_reinsertCount;
       bufferMove(proxyId);
     }
   }
 
+  @Override
+  public void setProxyStatic(int proxyId, AABB aabb, boolean isStatic) {
+    final int tree = isStatic && m_trees.length > 1 ? STATIC : DYNAMIC;
+    final int oldTree = m_proxyTrees[proxyId];
+    if (tree == oldTree) {
+      return;
+    }
+    Object userData = m_trees[oldTree].getUserData(m_treeIds[proxyId]);
+    m_trees[oldTree].destroyProxy(m_treeIds[proxyId]);
+    m_changedSinceCheck[oldTree] = true;
+    link(proxyId, tree, m_trees[tree].createProxy(aabb, userData));
+    bufferMove(proxyId);
+  }
+
+  private int allocateProxy() {
+    if (m_freeProxy != NULL_PROXY) {
+      int proxyId = m_freeProxy;
+      m_freeProxy = m_treeIds[proxyId];
+      return proxyId;
+    }
+    if (m_proxyIdCount == m_proxyCapacity) {
+      m_proxyCapacity *= 2;
+      byte[] oldTrees = m_proxyTrees;
+      m_proxyTrees = new byte[m_proxyCapacity];
+      System.arraycopy(oldTrees, 0, m_proxyTrees, 0, oldTrees.length);
+      int[] oldIds = m_treeIds;
+      m_treeIds = new int[m_proxyCapacity];
+      System.arraycopy(oldIds, 0, m_treeIds, 0, oldIds.length);
+      int[] oldCounts = m_reinsertCounts;
+      m_reinsertCounts = new int[m_proxyCapacity];
+      System.arraycopy(oldCounts, 0, m_reinsertCounts, 0, oldCounts.length);
+    }
+    return m_proxyIdCount++;
+  }
+
+  private void freeProxy(int proxyId) {
+    m_treeIds[proxyId] = m_freeProxy;
+    m_freeProxy = proxyId;
+  }
+
+  private void link(int proxyId, int tree, int treeId) {
+    m_proxyTrees[proxyId] = (byte) tree;
+    m_treeIds[proxyId] = treeId;
+    int[] proxyIds = m_proxyIds[tree];
+    if (treeId >= proxyIds.length) {
+      int[] old = proxyIds;
+      proxyIds = m_proxyIds[tree] = new int[Math.max(treeId + 1, old.length * 2)];
+      System.arraycopy(old, 0, proxyIds, 0, old.length);
+    }
+    proxyIds[treeId] = proxyId;
+  }
+
   @Override
   public void touchProxy(int proxyId) {
     bufferMove(proxyId);
@@ -104,20 +274,20 @@ public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase {
 
   @Override
   public Object getUserData(int proxyId) {
-    return m_tree.getUserData(proxyId);
+    return m_trees[m_proxyTrees[proxyId]].getUserData(m_treeIds[proxyId]);
   }
 
   @Override
   public AABB getFatAABB(int proxyId) {
-    return m_tree.getFatAABB(proxyId);
+    return m_trees[m_proxyTrees[proxyId]].getFatAABB(m_treeIds[proxyId]);
   }
 
   @Override
   public boolean testOverlap(int proxyIdA, int proxyIdB) {
     // return AABB.testOverlap(proxyA.aabb, proxyB.aabb);
     // return m_tree.overlap(proxyIdA, proxyIdB);
-    final AABB a = m_tree.getFatAABB(proxyIdA);
-    final AABB b = m_tree.getFatAABB(proxyIdB);
+    final AABB a = getFatAABB(proxyIdA);
+    final AABB b = getFatAABB(proxyIdB);
     if (b.lowerBound.x - a.upperBound.x > 0.0f || b.lowerBound.y - a.upperBound.y > 0.0f) {
       return false;
     }
@@ -136,82 +306,418 @@ public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase {
 
   @Override
   public void drawTree(DebugDraw argDraw) {
-    m_tree.drawTree(argDraw);
+    for (BroadPhaseStrategy tree : m_trees) {
+      tree.drawTree(argDraw);
+    }
+  }
+
+  /**
+   * Sets how many updates pass between checks of the trees' quality, 0 never to rebuild them.
+   */
+  public void setRebuildInterval(int interval) {
+    m_rebuildInterval = interval;
+  }
+
+  public int getRebuildInterval() {
+    return m_rebuildInterval;
+  }
+
+  /**
+   * Sets how many times its area ratio right after the last rebuild the tree may reach before it is
+   * rebuilt.
+   */
+  public void setRebuildAreaFactor(double factor) {
+    m_rebuildAreaFactor = factor;
+  }
+
+  public double getRebuildAreaFactor() {
+    return m_rebuildAreaFactor;
+  }
+
+  /**
+   * Sets by how much the tree's maximum balance may grow over the last rebuild's before it is
+   * rebuilt.
+   */
+  public void setRebuildBalanceSlack(int slack) {
+    m_rebuildBalanceSlack = slack;
+  }
+
+  public int getRebuildBalanceSlack() {
+    return m_rebuildBalanceSlack;
+  }
+
+  /**
+   * Sets how many nodes of each changed tree are visited by the optimizer every update, 0 not to
+   * optimize the trees between rebuilds.
+   */
+  public void setOptimizeNodes(int nodes) {
+    m_optimizeNodes = nodes;
+  }
+
+  public int getOptimizeNodes() {
+    return m_optimizeNodes;
+  }
+
+  /**
+   * Sets how many nanoseconds the optimizer may spend on each tree every update, 0 for no limit
+   * but the node count.
+   */
+  public void setOptimizeTime(long nanos) {
+    m_optimizeTime = nanos;
+  }
+
+  public long getOptimizeTime() {
+    return m_optimizeTime;
+  }
+
+  /**
+   * Sets the policy fattening each proxy by a margin of its own, null for the constant margins of
+   * {@link physics.common.Settings}. Proxies keep their fat AABB until they next leave it.
+   */
+  public void setMarginPolicy(MarginPolicy policy) {
+    m_marginPolicy = policy;
+  }
+
+  public MarginPolicy getMarginPolicy() {
+    return m_marginPolicy;
+  }
+
+  /**
+   * Gets how many times the proxies left their fat AABB and were re-inserted since the last
+   * {@link #resetReinsertCounts()}.
+   */
+  public long getReinsertCount() {
+    return m_reinsertCount;
+  }
+
+  /**
+   * Gets how many times the proxies were moved since the last {@link #resetReinsertCounts()},
+   * re-inserted or not.
+   */
+  public long getProxyMoveCount() {
+    return m_proxyMoveCount;
+  }
+
+  /**
+   * Gets how many times the proxy was re-inserted since it was created or the counts were reset.
+   */
+  public int getReinsertCount(int proxyId) {
+    return m_reinsertCounts[proxyId];
+  }
+
+  public void resetReinsertCounts() {
+    m_reinsertCount = 0;
+    m_proxyMoveCount = 0;
+    Arrays.fill(m_reinsertCounts, 0);
+  }
+
+  @Override
+  public void setPairThreads(int threads) {
+    assert (threads > 0);
+    if (threads == getPairThreads()) {
+      return;
+    }
+    if (m_executor != null) {
+      m_executor.shutdown();
+      m_executor = null;
+      m_workers = null;
+    }
+    if (threads > 1) {
+      m_executor = new ForkJoinPool(threads - 1);
+      m_workers = new PairWorker[threads];
+      for (int i = 0; i < threads; i++) {
+        m_workers[i] = new PairWorker();
+      }
+    }
+  }
+
+  @Override
+  public int getPairThreads() {
+    return m_workers == null ? 1 : m_workers.length;
+  }
+
+  @Override
+  public void flush() {
+    for (BroadPhaseStrategy tree : m_trees) {
+      tree.flush();
+    }
+  }
+
+  @Override
+  public void rebuild() {
+    for (int i = 0; i < m_trees.length; i++) {
+      rebuild(i);
+    }
+  }
+
+  private void rebuild(int tree) {
+    m_trees[tree].rebuild();
+    m_rebuilt[tree] = true;
+    m_rebuiltAreaRatio[tree] = m_trees[tree].getAreaRatio();
+    m_rebuiltBalance[tree] = m_trees[tree].getMaxBalance();
+  }
+
+  /**
+   * Rebuilds the trees that have degraded since their last rebuild. Insertions and removals one
+   * at a time slowly loosen a tree, a rebuild now and then keeps queries near the cost of a fresh
+   * one. In between, the trees changed since the last check get a few rotations every update, so
+   * they take longer to degrade that far.
+   */
+  private void checkTrees() {
+    for (int i = 0; i < m_moveCount; i++) {
+      if (m_moveBuffer[i] != NULL_PROXY) {
+        m_changedSinceCheck[m_proxyTrees[m_moveBuffer[i]]] = true;
+      }
+    }
+    if (m_optimizeNodes > 0) {
+      for (int i = 0; i < m_trees.length; i++) {
+        if (m_changedSinceCheck[i]) {
+          m_trees[i].optimize(m_optimizeNodes, m_optimizeTime);
+        }
+      }
+    }
+    if (m_rebuildInterval <= 0 || ++m_updatesSinceCheck < m_rebuildInterval) {
+      return;
+    }
+    m_updatesSinceCheck = 0;
+    for (int i = 0; i < m_trees.length; i++) {
+      if (!m_changedSinceCheck[i]) {
+        continue;
+      }
+      m_changedSinceCheck[i] = false;
+
+      final BroadPhaseStrategy tree = m_trees[i];
+      if (!m_rebuilt[i] || tree.getAreaRatio() > m_rebuiltAreaRatio[i] * m_rebuildAreaFactor
+          || tree.getMaxBalance() > m_rebuiltBalance[i] + m_rebuildBalanceSlack) {
+        rebuild(i);
+      }
+    }
   }
 
   @Override
   public final void updatePairs(PairCallback callback) {
+    checkTrees();
+
     // Reset pair buffer
     m_pairCount = 0;
 
-    // Perform tree queries for all moving proxies.
-    for (int i = 0; i < m_moveCount; ++i) {
-      m_queryProxyId = m_moveBuffer[i];
-      if (m_queryProxyId == NULL_PROXY) {
-        continue;
-      }
+    if (m_workers != null && m_moveCount >= MIN_PARALLEL_MOVES) {
+      queryMovesParallel();
+    } else {
+      // Perform tree queries for all moving proxies.
+      for (int i = 0; i < m_moveCount; ++i) {
+        m_queryProxyId = m_moveBuffer[i];
+        if (m_queryProxyId == NULL_PROXY) {
+          continue;
+        }
 
-      // We have to query the tree with the fat AABB so that
-      // we don't fail to create a pair that may touch later.
-      final AABB fatAABB = m_tree.getFatAABB(m_queryProxyId);
+        // We have to query the tree with the fat AABB so that
+        // we don't fail to create a pair that may touch later.
+        final AABB fatAABB = getFatAABB(m_queryProxyId);
 
-      // Query tree, create pairs and add them pair buffer.
-      // log.debug("quering aabb: "+m_queryProxy.aabb);
-      m_tree.query(this, fatAABB);
+        // Query the trees, create pairs and add them pair buffer.
+        final int trees = m_proxyTrees[m_queryProxyId] == STATIC ? 1 : m_trees.length;
+        for (m_queryTree = 0; m_queryTree < trees; m_queryTree++) {
+          m_trees[m_queryTree].query(this, fatAABB);
+        }
+      }
     }
-    // log.debug("Number of pairs found: "+m_pairCount);
 
     // Reset move buffer
     m_moveCount = 0;
 
     // Sort the pair buffer to expose duplicates.
-    Arrays.sort(m_pairBuffer, 0, m_pairCount);
+    sortPairs();
 
     // Send the pairs back to the client.
+    final long[] pairs = m_pairBuffer;
     int i = 0;
     while (i < m_pairCount) {
-      Pair primaryPair = m_pairBuffer[i];
-      Object userDataA = m_tree.getUserData(primaryPair.proxyIdA);
-      Object userDataB = m_tree.getUserData(primaryPair.proxyIdB);
+      final long pair = pairs[i];
+      Object userDataA = getUserData((int) (pair >>> 32));
+      Object userDataB = getUserData((int) pair);
 
-      // log.debug("returning pair: "+userDataA+", "+userDataB);
       callback.addPair(userDataA, userDataB);
       ++i;
 
       // Skip any duplicate pairs.
-      while (i < m_pairCount) {
-        Pair pair = m_pairBuffer[i];
-        if (pair.proxyIdA != primaryPair.proxyIdA || pair.proxyIdB != primaryPair.proxyIdB) {
-          break;
-        }
+      while (i < m_pairCount && pairs[i] == pair) {
         ++i;
       }
     }
   }
 
+  /**
+   * Queries the moved proxies on all pair threads and appends the workers' pairs to the pair
+   * buffer.
+   */
+  private void queryMovesParallel() {
+    // the workers only read the trees, and the moved proxies' bounds from here
+    flush();
+    if (m_moveBounds == null || m_moveBounds.length < m_moveCount * 4) {
+      m_moveBounds = new double[m_moveCapacity * 4];
+    }
+    for (int i = 0; i < m_moveCount; i++) {
+      final int proxyId = m_moveBuffer[i];
+      if (proxyId == NULL_PROXY) {
+        continue;
+      }
+      final AABB fatAABB = getFatAABB(proxyId);
+      final int q = i * 4;
+      m_moveBounds[q] = fatAABB.lowerBound.x;
+      m_moveBounds[q + 1] = fatAABB.lowerBound.y;
+      m_moveBounds[q + 2] = fatAABB.upperBound.x;
+      m_moveBounds[q + 3] = fatAABB.upperBound.y;
+    }
+    m_nextPacket.set(0);
+
+    final PairWorker[] workers = m_workers;
+    final int packets = (m_moveCount + PACKET_SIZE - 1) / PACKET_SIZE;
+    final int count = Math.min(workers.length, packets);
+    for (int i = 0; i < count; i++) {
+      workers[i].begin();
+    }
+    for (int i = 1; i < count; i++) {
+      m_executor.execute(workers[i]);
+    }
+    workers[0].runPackets();
+    for (int i = 1; i < count; i++) {
+      workers[i].join();
+    }
+
+    for (int i = 0; i < count; i++) {
+      final PairWorker worker = workers[i];
+      ensurePairCapacity(m_pairCount + worker.pairCount);
+      System.arraycopy(worker.pairs, 0, m_pairBuffer, m_pairCount, worker.pairCount);
+      m_pairCount += worker.pairCount;
+    }
+  }
+
+  private void ensurePairCapacity(int capacity) {
+    if (capacity > m_pairBuffer.length) {
+      int newCapacity = Math.max(capacity, m_pairBuffer.length * 2);
+      long[] old = m_pairBuffer;
+      m_pairBuffer = new long[newCapacity];
+      System.arraycopy(old, 0, m_pairBuffer, 0, m_pairCount);
+      m_sortBuffer = new long[newCapacity];
+    }
+  }
+
+  /**
+   * Sorts the pair buffer, least significant digit first. Only the digits proxy ids can reach are
+   * sorted on, and a digit all pairs share is skipped.
+   */
+  private void sortPairs() {
+    final int count = m_pairCount;
+    if (count < MIN_RADIX_PAIRS) {
+      Arrays.sort(m_pairBuffer, 0, count);
+      return;
+    }
+
+    long maxId = 0;
+    for (int i = 0; i < count; i++) {
+      maxId |= m_pairBuffer[i];
+    }
+    final int idBits = 64 - Long.numberOfLeadingZeros(maxId & 0xffffffffL | maxId >>> 32);
+    final int[] counts = m_radixCounts;
+    final int digitMask = (1 << RADIX_BITS) - 1;
+    for (int half = 0; half < 64; half += 32) {
+      for (int shift = half; shift < half + idBits; shift += RADIX_BITS) {
+        Arrays.fill(counts, 0);
+        final long[] from = m_pairBuffer;
+        for (int i = 0; i < count; i++) {
+          counts[(int) (from[i] >>> shift) & digitMask]++;
+        }
+        if (counts[(int) (from[0] >>> shift) & digitMask] == count) {
+          continue;
+        }
+        int offset = 0;
+        for (int d = 0; d <= digitMask; d++) {
+          final int n = counts[d];
+          counts[d] = offset;
+          offset += n;
+        }
+        final long[] to = m_sortBuffer;
+        for (int i = 0; i < count; i++) {
+          final long pair = from[i];
+          to[counts[(int) (pair >>> shift) & digitMask]++] = pair;
+        }
+        m_sortBuffer = from;
+        m_pairBuffer = to;
+      }
+    }
+  }
+
   @Override
   public final void query(final TreeCallback callback, final AABB aabb) {
-    m_tree.query(callback, aabb);
+    final QueryRemap remap = m_queryRemap;
+    remap.callback = callback;
+    remap.stopped = false;
+    for (int i = 0; i < m_trees.length && !remap.stopped; i++) {
+      remap.proxyIds = m_proxyIds[i];
+      m_trees[i].query(remap, aabb);
+    }
+    remap.callback = null;
   }
 
   @Override
   public final void raycast(final TreeRayCastCallback callback, final RayCastInput input) {
-    m_tree.raycast(callback, input);
+    final QueryRemap remap = m_queryRemap;
+    final double maxFraction = input.maxFraction;
+    remap.rayCallback = callback;
+    remap.maxFraction = maxFraction;
+    remap.stopped = false;
+    for (int i = 0; i < m_trees.length && !remap.stopped; i++) {
+      // later trees only look as far as the closest hit so far
+      remap.proxyIds = m_proxyIds[i];
+      input.maxFraction = remap.maxFraction;
+      m_trees[i].raycast(remap, input);
+    }
+    input.maxFraction = maxFraction;
+    remap.rayCallback = null;
+  }
+
+  @Override
+  public final void queryPacket(TreePacketCallback callback, long mask, PacketStack stack) {
+    // the walks of several threads each remap through their own stack
+    if (stack.remap == null) {
+      stack.remap = new PacketRemap();
+    }
+    final PacketRemap remap = stack.remap;
+    remap.callback = callback;
+    remap.stopped = false;
+    for (int i = 0; i < m_trees.length && !remap.stopped; i++) {
+      remap.proxyIds = m_proxyIds[i];
+      m_trees[i].queryPacket(remap, mask, stack);
+    }
+    remap.callback = null;
   }
 
   @Override
   public final int getTreeHeight() {
-    return m_tree.getHeight();
+    int height = 0;
+    for (BroadPhaseStrategy tree : m_trees) {
+      height = Math.max(height, tree.getHeight());
+    }
+    return height;
   }
 
   @Override
   public int getTreeBalance() {
-    return m_tree.getMaxBalance();
+    int balance = 0;
+    for (BroadPhaseStrategy tree : m_trees) {
+      balance = Math.max(balance, tree.getMaxBalance());
+    }
+    return balance;
   }
 
   @Override
   public double getTreeQuality() {
-    return m_tree.getAreaRatio();
+    double quality = 0;
+    for (BroadPhaseStrategy tree : m_trees) {
+      quality = Math.max(quality, tree.getAreaRatio());
+    }
+    return quality;
   }
 
   protected final void bufferMove(int proxyId) {
@@ -238,32 +744,168 @@ public class DefaultBroadPhaseBuffer implements TreeCallback, BroadPhase {
    * This is called from DynamicTree::query when we are gathering pairs.
    */
   @Override
-public final boolean treeCallback(int proxyId) {
+  public final boolean treeCallback(int treeId) {
+    final int proxyId = m_proxyIds[m_queryTree][treeId];
     // A proxy cannot form a pair with itself.
     if (proxyId == m_queryProxyId) {
       return true;
     }
 
     // Grow the pair buffer as needed.
-    if (m_pairCount == m_pairCapacity) {
-      Pair[] oldBuffer = m_pairBuffer;
-      m_pairCapacity *= 2;
-      m_pairBuffer = new Pair[m_pairCapacity];
-      System.arraycopy(oldBuffer, 0, m_pairBuffer, 0, oldBuffer.length);
-      for (int i = oldBuffer.length; i < m_pairCapacity; i++) {
-        m_pairBuffer[i] = new Pair();
+    ensurePairCapacity(m_pairCount + 1);
+    m_pairBuffer[m_pairCount] = pairKey(proxyId, m_queryProxyId);
+    ++m_pairCount;
+    return true;
+  }
+
+  static long pairKey(int proxyIdA, int proxyIdB) {
+    if (proxyIdA < proxyIdB) {
+      return (long) proxyIdA << 32 | proxyIdB;
+    }
+    return (long) proxyIdB << 32 | proxyIdA;
+  }
+
+  /**
+   * Queries packets of moved proxies for one pair thread, collecting the pairs found.
+   */
+  private class PairWorker extends RecursiveAction implements TreePacketCallback {
+    private static final long serialVersionUID = 1L;
+
+    final PacketStack stack = new PacketStack();
+    long[] pairs = new long[64];
+    int pairCount;
+
+    // the packet being walked and the tree it is walked through
+    private int base;
+    private int[] proxyIds;
+    private double unionLowerX, unionLowerY, unionUpperX, unionUpperY;
+
+    void begin() {
+      reinitialize();
+      pairCount = 0;
+    }
+
+    @Override
+    protected void compute() {
+      runPackets();
+    }
+
+    void runPackets() {
+      while ((base = m_nextPacket.getAndIncrement() * PACKET_SIZE) < m_moveCount) {
+        final int size = Math.min(PACKET_SIZE, m_moveCount - base);
+        final double[] bounds = m_moveBounds;
+        long mask = 0, dynamicMask = 0;
+        unionLowerX = unionLowerY = Double.MAX_VALUE;
+        unionUpperX = unionUpperY = -Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+          if (m_moveBuffer[base + i] == NULL_PROXY) {
+            continue;
+          }
+          final int q = (base + i) * 4;
+          unionLowerX = Math.min(unionLowerX, bounds[q]);
+          unionLowerY = Math.min(unionLowerY, bounds[q + 1]);
+          unionUpperX = Math.max(unionUpperX, bounds[q + 2]);
+          unionUpperY = Math.max(unionUpperY, bounds[q + 3]);
+          mask |= 1L << i;
+          if (m_proxyTrees[m_moveBuffer[base + i]] != STATIC) {
+            dynamicMask |= 1L << i;
+          }
+        }
+        for (int tree = 0; tree < m_trees.length; tree++) {
+          // static proxies only pair with the dynamic tree's
+          final long treeMask = tree == STATIC ? dynamicMask : mask;
+          if (treeMask != 0) {
+            proxyIds = m_proxyIds[tree];
+            m_trees[tree].queryPacket(this, treeMask, stack);
+          }
+        }
       }
     }
 
-    if (proxyId < m_queryProxyId) {
-      m_pairBuffer[m_pairCount].proxyIdA = proxyId;
-      m_pairBuffer[m_pairCount].proxyIdB = m_queryProxyId;
-    } else {
-      m_pairBuffer[m_pairCount].proxyIdA = m_queryProxyId;
-      m_pairBuffer[m_pairCount].proxyIdB = proxyId;
+    @Override
+    public long testNode(double lowerX, double lowerY, double upperX, double upperY, long mask) {
+      if (unionLowerX > upperX || unionLowerY > upperY || lowerX > unionUpperX
+          || lowerY > unionUpperY) {
+        return 0;
+      }
+      final double[] bounds = m_moveBounds;
+      long active = 0;
+      for (long m = mask; m != 0; m &= m - 1) {
+        final int i = Long.numberOfTrailingZeros(m);
+        final int q = (base + i) * 4;
+        if (bounds[q] <= upperX && bounds[q + 1] <= upperY && lowerX <= bounds[q + 2]
+            && lowerY <= bounds[q + 3]) {
+          active |= 1L << i;
+        }
+      }
+      return active;
     }
 
-    ++m_pairCount;
-    return true;
+    @Override
+    public boolean packetCallback(int treeId, long mask) {
+      final int proxyId = proxyIds[treeId];
+      for (long m = mask; m != 0; m &= m - 1) {
+        final int queryProxyId = m_moveBuffer[base + Long.numberOfTrailingZeros(m)];
+        // A proxy cannot form a pair with itself.
+        if (proxyId == queryProxyId) {
+          continue;
+        }
+        if (pairCount == pairs.length) {
+          long[] old = pairs;
+          pairs = new long[old.length * 2];
+          System.arraycopy(old, 0, pairs, 0, pairCount);
+        }
+        pairs[pairCount++] = pairKey(proxyId, queryProxyId);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Hands a query's hits in one of the trees on under their proxy ids.
+   */
+  private static class QueryRemap implements TreeCallback, TreeRayCastCallback {
+    TreeCallback callback;
+    TreeRayCastCallback rayCallback;
+    int[] proxyIds;
+    double maxFraction;
+    boolean stopped;
+
+    @Override
+    public boolean treeCallback(int treeId) {
+      stopped = !callback.treeCallback(proxyIds[treeId]);
+      return !stopped;
+    }
+
+    @Override
+    public double raycastCallback(RayCastInput input, int treeId) {
+      double value = rayCallback.raycastCallback(input, proxyIds[treeId]);
+      if (value == 0) {
+        stopped = true;
+      } else if (value > 0 && value < maxFraction) {
+        maxFraction = value;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * The same for packet queries, one kept in each stack.
+   */
+  static class PacketRemap implements TreePacketCallback {
+    TreePacketCallback callback;
+    int[] proxyIds;
+    boolean stopped;
+
+    @Override
+    public long testNode(double lowerX, double lowerY, double upperX, double upperY, long mask) {
+      return callback.testNode(lowerX, lowerY, upperX, upperY, mask);
+    }
+
+    @Override
+    public boolean packetCallback(int treeId, long mask) {
+      stopped = !callback.packetCallback(proxyIds[treeId], mask);
+      return !stopped;
+    }
   }
 }
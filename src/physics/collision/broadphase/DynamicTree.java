@@ -25,6 +25,7 @@ package physics.collision.broadphase;
 
 import physics.callbacks.DebugDraw;
 import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
 import physics.callbacks.TreeRayCastCallback;
 import physics.collision.AABB;
 import physics.collision.RayCastInput;
@@ -43,6 +44,14 @@ import physics.common.Vec2;
 public class DynamicTree implements BroadPhaseStrategy {
   public static final int MAX_STACK_SIZE = 64;
   public static final int NULL_NODE = -1;
+  /** Proxies created together beyond this many are built into the tree in one go. */
+  public static final int BULK_BUILD_MIN = 64;
+  private static final int SAH_BINS = 16;
+  // splits below this depth aim at halving the leaves instead, a bound on pathological inputs
+  private static final int SAH_MAX_DEPTH = 32;
+  // nodes up to this much out of balance get the rotation best for the surface area, beyond it the
+  // taller child is rotated up
+  private static final int ROTATE_MAX_BALANCE = 2;
 
   private DynamicTreeNode m_root;
   private DynamicTreeNode[] m_nodes;
@@ -55,6 +64,26 @@ public class DynamicTree implements BroadPhaseStrategy {
   private DynamicTreeNode[] nodeStack = new DynamicTreeNode[20];
   private int nodeStackIndex = 0;
 
+  // leaves created since the last flush, not in the tree yet
+  private int[] m_pending = new int[16];
+  private int m_pendingCount;
+
+  // djm pooling, building
+  private int[] m_buildLeaves = new int[16];
+  private final int[] m_binCounts = new int[SAH_BINS];
+  private final double[] m_binLowerX = new double[SAH_BINS];
+  private final double[] m_binLowerY = new double[SAH_BINS];
+  private final double[] m_binUpperX = new double[SAH_BINS];
+  private final double[] m_binUpperY = new double[SAH_BINS];
+  private final double[] m_binCosts = new double[SAH_BINS];
+
+  // the node the next optimize call starts at, and the best rotation found at a node
+  private int m_optimizeNode;
+  private double m_rotateGain;
+  private DynamicTreeNode m_rotateUncle;
+  private DynamicTreeNode m_rotateParent;
+  private DynamicTreeNode m_rotateNephew;
+
   public DynamicTree() {
     m_root = null;
     m_nodeCount = 0;
@@ -87,13 +116,20 @@ public class DynamicTree implements BroadPhaseStrategy {
     nodeAABB.upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
     node.userData = userData;
 
-    insertLeaf(proxyId);
+    // Inserted on the next flush, all at once if there are many.
+    if (m_pendingCount == m_pending.length) {
+      int[] old = m_pending;
+      m_pending = new int[old.length * 2];
+      System.arraycopy(old, 0, m_pending, 0, old.length);
+    }
+    m_pending[m_pendingCount++] = proxyId;
 
     return proxyId;
   }
 
   @Override
   public final void destroyProxy(int proxyId) {
+    flush();
     assert (0 <= proxyId && proxyId < m_nodeCapacity);
     DynamicTreeNode node = m_nodes[proxyId];
     assert (node.child1 == null);
@@ -103,7 +139,9 @@ public class DynamicTree implements BroadPhaseStrategy {
   }
 
   @Override
-  public final boolean moveProxy(int proxyId, final AABB aabb, Vec2 displacement) {
+  public final boolean moveProxy(int proxyId, final AABB aabb, double extension, double predictX,
+      double predictY) {
+    flush();
     assert(aabb.isValid());
     assert (0 <= proxyId && proxyId < m_nodeCapacity);
     final DynamicTreeNode node = m_nodes[proxyId];
@@ -121,24 +159,22 @@ public class DynamicTree implements BroadPhaseStrategy {
     // Extend AABB
     final Vec2 lowerBound = nodeAABB.lowerBound;
     final Vec2 upperBound = nodeAABB.upperBound;
-    lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-    lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-    upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-    upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+    lowerBound.x = aabb.lowerBound.x - extension;
+    lowerBound.y = aabb.lowerBound.y - extension;
+    upperBound.x = aabb.upperBound.x + extension;
+    upperBound.y = aabb.upperBound.y + extension;
 
     // Predict AABB displacement.
-    final double dx = displacement.x * Settings.aabbMultiplier;
-    final double dy = displacement.y * Settings.aabbMultiplier;
-    if (dx < 0.0f) {
-      lowerBound.x += dx;
+    if (predictX < 0.0f) {
+      lowerBound.x += predictX;
     } else {
-      upperBound.x += dx;
+      upperBound.x += predictX;
     }
 
-    if (dy < 0.0f) {
-      lowerBound.y += dy;
+    if (predictY < 0.0f) {
+      lowerBound.y += predictY;
     } else {
-      upperBound.y += dy;
+      upperBound.y += predictY;
     }
 
     insertLeaf(proxyId);
@@ -159,6 +195,7 @@ public class DynamicTree implements BroadPhaseStrategy {
 
   @Override
   public final void query(TreeCallback callback, AABB aabb) {
+    flush();
     assert(aabb.isValid());
     nodeStackIndex = 0;
     nodeStack[nodeStackIndex++] = m_root;
@@ -194,6 +231,7 @@ public class DynamicTree implements BroadPhaseStrategy {
 
   @Override
   public void raycast(TreeRayCastCallback callback, RayCastInput input) {
+    flush();
     final Vec2 p1 = input.p1;
     final Vec2 p2 = input.p2;
     double p1x = p1.x, p2x = p2.x, p1y = p1.y, p2y = p2.y;
@@ -303,8 +341,40 @@ public class DynamicTree implements BroadPhaseStrategy {
     }
   }
 
+  @Override
+  public final void queryPacket(TreePacketCallback callback, long mask, PacketStack stack) {
+    flush();
+    if (m_root == null) {
+      return;
+    }
+    stack.count = 0;
+    stack.push(m_root.id, mask);
+
+    while (stack.count > 0) {
+      --stack.count;
+      final DynamicTreeNode node = m_nodes[stack.nodes[stack.count]];
+      final AABB nodeAABB = node.aabb;
+      long active =
+          callback.testNode(nodeAABB.lowerBound.x, nodeAABB.lowerBound.y, nodeAABB.upperBound.x,
+              nodeAABB.upperBound.y, stack.masks[stack.count]);
+      if (active == 0) {
+        continue;
+      }
+
+      if (node.child1 == null) {
+        if (!callback.packetCallback(node.id, active)) {
+          return;
+        }
+      } else {
+        stack.push(node.child1.id, active);
+        stack.push(node.child2.id, active);
+      }
+    }
+  }
+
   @Override
   public final int computeHeight() {
+    flush();
     return computeHeight(m_root);
   }
 
@@ -323,6 +393,7 @@ public class DynamicTree implements BroadPhaseStrategy {
    * Validate this tree. For testing.
    */
   public void validate() {
+    flush();
     validateStructure(m_root);
     validateMetrics(m_root);
 
@@ -342,6 +413,7 @@ public class DynamicTree implements BroadPhaseStrategy {
 
   @Override
   public int getHeight() {
+    flush();
     if (m_root == null) {
       return 0;
     }
@@ -350,6 +422,7 @@ public class DynamicTree implements BroadPhaseStrategy {
 
   @Override
   public int getMaxBalance() {
+    flush();
     int maxBalance = 0;
     for (int i = 0; i < m_nodeCapacity; ++i) {
       final DynamicTreeNode node = m_nodes[i];
@@ -370,6 +443,7 @@ public class DynamicTree implements BroadPhaseStrategy {
 
   @Override
   public double getAreaRatio() {
+    flush();
     if (m_root == null) {
       return 0.0f;
     }
@@ -391,10 +465,182 @@ public class DynamicTree implements BroadPhaseStrategy {
     return totalArea / rootArea;
   }
 
+  @Override
+  public void flush() {
+    if (m_pendingCount == 0) {
+      return;
+    }
+    final int count = m_pendingCount;
+    m_pendingCount = 0;
+    if (count < BULK_BUILD_MIN) {
+      for (int i = 0; i < count; i++) {
+        insertLeaf(m_pending[i]);
+      }
+      return;
+    }
+
+    // The leaves already in the tree, which has one internal node fewer.
+    int treeLeaves = (m_nodeCount - count + 1) / 2;
+    if (count >= treeLeaves) {
+      rebuild();
+    } else {
+      // One subtree for the batch, inserted like a leaf.
+      insertLeaf(build(m_pending, 0, count, 0).id);
+    }
+  }
+
+  @Override
+  public void rebuild() {
+    m_pendingCount = 0;
+    if (m_buildLeaves.length < m_nodeCount) {
+      m_buildLeaves = new int[Math.max(m_buildLeaves.length * 2, m_nodeCount)];
+    }
+
+    // Gather the leaves, free the rest.
+    int count = 0;
+    for (int i = 0; i < m_nodeCapacity; ++i) {
+      final DynamicTreeNode node = m_nodes[i];
+      if (node.height < 0) {
+        // free node in pool
+        continue;
+      }
+
+      if (node.child1 == null) {
+        node.parent = null;
+        m_buildLeaves[count++] = i;
+      } else {
+        freeNode(node);
+      }
+    }
+
+    m_root = count > 0 ? build(m_buildLeaves, 0, count, 0) : null;
+  }
+
+  /**
+   * Builds a subtree over the leaves from start to end, top down. Each range is split along the
+   * longer axis of its leaves' centers, at the bin boundary with the least surface area cost.
+   */
+  private DynamicTreeNode build(int[] leaves, int start, int end, int depth) {
+    if (end - start == 1) {
+      return m_nodes[leaves[start]];
+    }
+
+    double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+    double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+    for (int i = start; i < end; i++) {
+      final AABB leafAABB = m_nodes[leaves[i]].aabb;
+      double cx = (leafAABB.lowerBound.x + leafAABB.upperBound.x) * .5;
+      double cy = (leafAABB.lowerBound.y + leafAABB.upperBound.y) * .5;
+      minX = Math.min(minX, cx);
+      minY = Math.min(minY, cy);
+      maxX = Math.max(maxX, cx);
+      maxY = Math.max(maxY, cy);
+    }
+    final boolean axisX = maxX - minX >= maxY - minY;
+    final double min = axisX ? minX : minY;
+    final double extent = axisX ? maxX - minX : maxY - minY;
+
+    int mid = (start + end) >>> 1;
+    if (extent > 0) {
+      final double scale = SAH_BINS / extent;
+      for (int b = 0; b < SAH_BINS; b++) {
+        m_binCounts[b] = 0;
+        m_binLowerX[b] = m_binLowerY[b] = Double.MAX_VALUE;
+        m_binUpperX[b] = m_binUpperY[b] = -Double.MAX_VALUE;
+      }
+      for (int i = start; i < end; i++) {
+        final AABB leafAABB = m_nodes[leaves[i]].aabb;
+        int b = bin(leafAABB, axisX, min, scale);
+        m_binCounts[b]++;
+        m_binLowerX[b] = Math.min(m_binLowerX[b], leafAABB.lowerBound.x);
+        m_binLowerY[b] = Math.min(m_binLowerY[b], leafAABB.lowerBound.y);
+        m_binUpperX[b] = Math.max(m_binUpperX[b], leafAABB.upperBound.x);
+        m_binUpperY[b] = Math.max(m_binUpperY[b], leafAABB.upperBound.y);
+      }
+      int best = bestSplit(end - start, depth);
+
+      // Partition, the leaves binned up to the split first.
+      int i = start, j = end;
+      while (i < j) {
+        if (bin(m_nodes[leaves[i]].aabb, axisX, min, scale) <= best) {
+          i++;
+        } else {
+          int leaf = leaves[i];
+          leaves[i] = leaves[--j];
+          leaves[j] = leaf;
+        }
+      }
+      mid = i;
+    }
+
+    final DynamicTreeNode child1 = build(leaves, start, mid, depth + 1);
+    final DynamicTreeNode child2 = build(leaves, mid, end, depth + 1);
+    final DynamicTreeNode parent = allocateNode();
+    parent.child1 = child1;
+    parent.child2 = child2;
+    parent.height = 1 + Math.max(child1.height, child2.height);
+    parent.aabb.combine(child1.aabb, child2.aabb);
+    child1.parent = parent;
+    child2.parent = parent;
+    return parent;
+  }
+
+  private static int bin(AABB aabb, boolean axisX, double min, double scale) {
+    double center =
+        axisX ? (aabb.lowerBound.x + aabb.upperBound.x) * .5
+            : (aabb.lowerBound.y + aabb.upperBound.y) * .5;
+    int b = (int) ((center - min) * scale);
+    return b < SAH_BINS ? b : SAH_BINS - 1;
+  }
+
+  /**
+   * @return the last bin left of the cheapest split of the binned leaves.
+   */
+  private int bestSplit(int count, int depth) {
+    // Sweep from the right for the cost of each right side.
+    double lowerX = Double.MAX_VALUE, lowerY = Double.MAX_VALUE;
+    double upperX = -Double.MAX_VALUE, upperY = -Double.MAX_VALUE;
+    int n = 0;
+    for (int b = SAH_BINS - 1; b > 0; b--) {
+      n += m_binCounts[b];
+      lowerX = Math.min(lowerX, m_binLowerX[b]);
+      lowerY = Math.min(lowerY, m_binLowerY[b]);
+      upperX = Math.max(upperX, m_binUpperX[b]);
+      upperY = Math.max(upperY, m_binUpperY[b]);
+      m_binCosts[b] = n > 0 ? 2.0 * (upperX - lowerX + upperY - lowerY) * n : 0;
+    }
+
+    // The leftmost and rightmost centers are in the first and last bin, there is a split.
+    lowerX = lowerY = Double.MAX_VALUE;
+    upperX = upperY = -Double.MAX_VALUE;
+    n = 0;
+    int best = 0;
+    double bestCost = Double.MAX_VALUE;
+    for (int b = 0; b < SAH_BINS - 1; b++) {
+      n += m_binCounts[b];
+      lowerX = Math.min(lowerX, m_binLowerX[b]);
+      lowerY = Math.min(lowerY, m_binLowerY[b]);
+      upperX = Math.max(upperX, m_binUpperX[b]);
+      upperY = Math.max(upperY, m_binUpperY[b]);
+      if (n == 0 || n == count) {
+        continue;
+      }
+      double cost =
+          depth < SAH_MAX_DEPTH ? 2.0 * (upperX - lowerX + upperY - lowerY) * n
+              + m_binCosts[b + 1] : Math.abs(2 * n - count);
+      if (cost < bestCost) {
+        bestCost = cost;
+        best = b;
+      }
+    }
+    return best;
+  }
+
   /**
    * Build an optimal tree. Very expensive. For testing.
    */
   public void rebuildBottomUp() {
+    m_pendingCount = 0;
     int[] nodes = new int[m_nodeCount];
     int count = 0;
 
@@ -459,6 +705,94 @@ public class DynamicTree implements BroadPhaseStrategy {
     validate();
   }
 
+  @Override
+  public int optimize(int nodeBudget, long timeBudget) {
+    flush();
+    if (m_root == null) {
+      return 0;
+    }
+    final long start = timeBudget > 0 ? System.nanoTime() : 0;
+    int rotations = 0;
+    for (int visited = 0; visited < nodeBudget; visited++) {
+      if (timeBudget > 0 && (visited & 15) == 15 && System.nanoTime() - start > timeBudget) {
+        break;
+      }
+      if (m_optimizeNode >= m_nodeCapacity) {
+        m_optimizeNode = 0;
+      }
+      final DynamicTreeNode node = m_nodes[m_optimizeNode++];
+      if (node.height < 2 || !rotate(node)) {
+        continue;
+      }
+      rotations++;
+      for (DynamicTreeNode index = node.parent; index != null; index = index.parent) {
+        int height = 1 + Math.max(index.child1.height, index.child2.height);
+        if (height == index.height) {
+          break;
+        }
+        index.height = height;
+      }
+    }
+    return rotations;
+  }
+
+  /**
+   * Swaps a child of A with a grandchild under the other child, the one of the four swaps that
+   * shrinks the perimeter of that other child most. A keeps its bounds and its leaves, its
+   * ancestors may need their heights fixed.
+   */
+  private boolean rotate(DynamicTreeNode A) {
+    final DynamicTreeNode B = A.child1;
+    final DynamicTreeNode C = A.child2;
+    m_rotateGain = 0;
+    m_rotateUncle = null;
+    if (C.child1 != null) {
+      tryRotation(B, C, C.child1, C.child2);
+      tryRotation(B, C, C.child2, C.child1);
+    }
+    if (B.child1 != null) {
+      tryRotation(C, B, B.child1, B.child2);
+      tryRotation(C, B, B.child2, B.child1);
+    }
+    if (m_rotateUncle == null) {
+      return false;
+    }
+
+    // The uncle takes the nephew's place under the parent and the nephew the uncle's under A.
+    final DynamicTreeNode uncle = m_rotateUncle;
+    final DynamicTreeNode parent = m_rotateParent;
+    final DynamicTreeNode nephew = m_rotateNephew;
+    m_rotateUncle = m_rotateParent = m_rotateNephew = null;
+    if (A.child1 == uncle) {
+      A.child1 = nephew;
+    } else {
+      A.child2 = nephew;
+    }
+    if (parent.child1 == nephew) {
+      parent.child1 = uncle;
+    } else {
+      parent.child2 = uncle;
+    }
+    nephew.parent = A;
+    uncle.parent = parent;
+    parent.aabb.combine(parent.child1.aabb, parent.child2.aabb);
+    parent.height = 1 + Math.max(parent.child1.height, parent.child2.height);
+    A.height = 1 + Math.max(A.child1.height, A.child2.height);
+    return true;
+  }
+
+  private void tryRotation(DynamicTreeNode uncle, DynamicTreeNode parent, DynamicTreeNode nephew,
+      DynamicTreeNode kept) {
+    combinedAABB.combine(uncle.aabb, kept.aabb);
+    double gain = parent.aabb.getPerimeter() - combinedAABB.getPerimeter();
+    if (gain > m_rotateGain) {
+      m_rotateGain = gain;
+      m_rotateUncle = uncle;
+      m_rotateParent = parent;
+      m_rotateNephew = nephew;
+    }
+  }
+
   private final DynamicTreeNode allocateNode() {
     if (m_freeList == NULL_NODE) {
       assert (m_nodeCount == m_nodeCapacity);
@@ -573,7 +907,7 @@ public class DynamicTree implements BroadPhaseStrategy {
     newParent.parent = oldParent;
     newParent.userData = null;
     newParent.aabb.combine(leafAABB, sibling.aabb);
-    newParent.height = sibling.height + 1;
+    newParent.height = Math.max(sibling.height, leaf.height) + 1;
 
     if (oldParent != null) {
       // The sibling was not the root.
@@ -662,7 +996,8 @@ public class DynamicTree implements BroadPhaseStrategy {
     // validate();
   }
 
-  // Perform a left or right rotation if node A is imbalanced.
+  // Perform a left or right rotation if node A is imbalanced, otherwise the rotation that shrinks the
+  // tree's surface area most, if any.
   // Returns the new root index.
   private DynamicTreeNode balance(DynamicTreeNode iA) {
     assert (iA != null);
@@ -681,6 +1016,10 @@ public class DynamicTree implements BroadPhaseStrategy {
     DynamicTreeNode C = iC;
 
     int balance = C.height - B.height;
+    if (-ROTATE_MAX_BALANCE <= balance && balance <= ROTATE_MAX_BALANCE) {
+      rotate(A);
+      return iA;
+    }
 
     // Rotate C up
     if (balance > 1) {
@@ -853,6 +1192,7 @@ public class DynamicTree implements BroadPhaseStrategy {
 
   @Override
   public void drawTree(DebugDraw argDraw) {
+    flush();
     if (m_root == null) {
       return;
     }
@@ -25,6 +25,7 @@ package physics.collision.broadphase;
 
 import physics.callbacks.DebugDraw;
 import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
 import physics.callbacks.TreeRayCastCallback;
 import physics.collision.AABB;
 import physics.collision.RayCastInput;
@@ -33,13 +34,29 @@ import physics.common.Color;
 import physics.common.Settings;
 import physics.common.Vec2;
 
+/**
+ * A dynamic tree kept in flat arrays indexed by node. The bounds of node i are the floats 4i to
+ * 4i + 3 of {@link #m_bounds}, lower x and y then upper x and y, so the walks read both children's
+ * bounds from one array and test them together without touching an object. Leaf bounds are rounded
+ * outward to floats when set, so they still hold the double AABB and the walks read half as much
+ * memory. The fat AABBs handed out are the rounded bounds.
+ */
 public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
   public static final int MAX_STACK_SIZE = 64;
   public static final int NULL_NODE = -1;
   public static final int INITIAL_BUFFER_LENGTH = 16;
+  /** Proxies created together beyond this many are built into the tree in one go. */
+  public static final int BULK_BUILD_MIN = 64;
+  private static final int SAH_BINS = 16;
+  // splits below this depth aim at halving the leaves instead, a bound on pathological inputs
+  private static final int SAH_MAX_DEPTH = 32;
+  // nodes up to this much out of balance get the rotation best for the surface area, beyond it the
+  // taller child is rotated up
+  private static final int ROTATE_MAX_BALANCE = 2;
 
   public int m_root;
-  public AABB[] m_aabb;
+  /** Node bounds, four per node: lower x, lower y, upper x, upper y. */
+  public float[] m_bounds;
   public Object[] m_userData;
   protected int[] m_parent;
   protected int[] m_child1;
@@ -51,8 +68,31 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   private int m_freeList;
 
+  // the fat AABBs handed out for leaves, kept in step with their bounds
+  private AABB[] m_fatAABB;
+
   private final Vec2[] drawVecs = new Vec2[4];
 
+  // leaves created since the last flush, not in the tree yet
+  private int[] m_pending = new int[16];
+  private int m_pendingCount;
+
+  // djm pooling, building
+  private int[] m_buildLeaves = new int[16];
+  private final int[] m_binCounts = new int[SAH_BINS];
+  private final double[] m_binLowerX = new double[SAH_BINS];
+  private final double[] m_binLowerY = new double[SAH_BINS];
+  private final double[] m_binUpperX = new double[SAH_BINS];
+  private final double[] m_binUpperY = new double[SAH_BINS];
+  private final double[] m_binCosts = new double[SAH_BINS];
+
+  // the node the next optimize call starts at, and the best rotation found at a node
+  private int m_optimizeNode;
+  private double m_rotateGain;
+  private int m_rotateUncle;
+  private int m_rotateParent;
+  private int m_rotateNephew;
+
   public DynamicTreeFlatNodes() {
     m_root = NULL_NODE;
     m_nodeCount = 0;
@@ -65,7 +105,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
   }
 
   private void expandBuffers(int oldSize, int newSize) {
-    m_aabb = BufferUtils.reallocateBuffer(AABB.class, m_aabb, oldSize, newSize);
+    m_bounds = BufferUtils.reallocateBuffer(m_bounds, oldSize * 4, newSize * 4);
+    m_fatAABB = BufferUtils.reallocateBuffer(AABB.class, m_fatAABB, oldSize, newSize);
     m_userData = BufferUtils.reallocateBuffer(Object.class, m_userData, oldSize, newSize);
     m_parent = BufferUtils.reallocateBuffer(m_parent, oldSize, newSize);
     m_child1 = BufferUtils.reallocateBuffer(m_child1, oldSize, newSize);
@@ -74,7 +115,6 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
     // Build a linked list for the free list.
     for (int i = oldSize; i < newSize; i++) {
-      m_aabb[i] = new AABB();
       m_parent[i] = (i == newSize - 1) ? NULL_NODE : i + 1;
       m_height[i] = -1;
       m_child1[i] = -1;
@@ -87,20 +127,23 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
   public final int createProxy(final AABB aabb, Object userData) {
     final int node = allocateNode();
     // Fatten the aabb
-    final AABB nodeAABB = m_aabb[node];
-    nodeAABB.lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-    nodeAABB.lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-    nodeAABB.upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-    nodeAABB.upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+    setLeafBounds(node, aabb.lowerBound.x - Settings.aabbExtension,
+        aabb.lowerBound.y - Settings.aabbExtension, aabb.upperBound.x + Settings.aabbExtension,
+        aabb.upperBound.y + Settings.aabbExtension);
     m_userData[node] = userData;
 
-    insertLeaf(node);
+    // Inserted on the next flush, all at once if there are many.
+    if (m_pendingCount == m_pending.length) {
+      m_pending = BufferUtils.reallocateBuffer(m_pending, m_pendingCount, m_pendingCount * 2);
+    }
+    m_pending[m_pendingCount++] = node;
 
     return node;
   }
 
   @Override
   public final void destroyProxy(int proxyId) {
+    flush();
     assert (0 <= proxyId && proxyId < m_nodeCapacity);
     assert (m_child1[proxyId] == NULL_NODE);
 
@@ -109,42 +152,42 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
   }
 
   @Override
-  public final boolean moveProxy(int proxyId, final AABB aabb, Vec2 displacement) {
+  public final boolean moveProxy(int proxyId, final AABB aabb, double extension, double predictX,
+      double predictY) {
+    flush();
     assert (0 <= proxyId && proxyId < m_nodeCapacity);
     final int node = proxyId;
     assert (m_child1[node] == NULL_NODE);
 
-    final AABB nodeAABB = m_aabb[node];
+    final float[] bounds = m_bounds;
+    final int i = node << 2;
     // if (nodeAABB.contains(aabb)) {
-    if (nodeAABB.lowerBound.x <= aabb.lowerBound.x && nodeAABB.lowerBound.y <= aabb.lowerBound.y
-        && aabb.upperBound.x <= nodeAABB.upperBound.x && aabb.upperBound.y <= nodeAABB.upperBound.y) {
+    if (bounds[i] <= aabb.lowerBound.x && bounds[i + 1] <= aabb.lowerBound.y
+        && aabb.upperBound.x <= bounds[i + 2] && aabb.upperBound.y <= bounds[i + 3]) {
       return false;
     }
 
     removeLeaf(node);
 
     // Extend AABB
-    final Vec2 lowerBound = nodeAABB.lowerBound;
-    final Vec2 upperBound = nodeAABB.upperBound;
-    lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
-    lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
-    upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
-    upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+    double lowerX = aabb.lowerBound.x - extension;
+    double lowerY = aabb.lowerBound.y - extension;
+    double upperX = aabb.upperBound.x + extension;
+    double upperY = aabb.upperBound.y + extension;
 
     // Predict AABB displacement.
-    final double dx = displacement.x * Settings.aabbMultiplier;
-    final double dy = displacement.y * Settings.aabbMultiplier;
-    if (dx < 0.0f) {
-      lowerBound.x += dx;
+    if (predictX < 0.0f) {
+      lowerX += predictX;
     } else {
-      upperBound.x += dx;
+      upperX += predictX;
     }
 
-    if (dy < 0.0f) {
-      lowerBound.y += dy;
+    if (predictY < 0.0f) {
+      lowerY += predictY;
     } else {
-      upperBound.y += dy;
+      upperY += predictY;
     }
+    setLeafBounds(node, lowerX, lowerY, upperX, upperY);
 
     insertLeaf(proxyId);
     return true;
@@ -152,14 +195,42 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   @Override
   public final Object getUserData(int proxyId) {
-    assert (0 <= proxyId && proxyId < m_nodeCount);
+    assert (0 <= proxyId && proxyId < m_nodeCapacity);
     return m_userData[proxyId];
   }
 
   @Override
   public final AABB getFatAABB(int proxyId) {
-    assert (0 <= proxyId && proxyId < m_nodeCount);
-    return m_aabb[proxyId];
+    assert (0 <= proxyId && proxyId < m_nodeCapacity);
+    return m_fatAABB[proxyId];
+  }
+
+  private void setLeafBounds(int node, double lowerX, double lowerY, double upperX, double upperY) {
+    final int i = node << 2;
+    m_bounds[i] = roundDown(lowerX);
+    m_bounds[i + 1] = roundDown(lowerY);
+    m_bounds[i + 2] = roundUp(upperX);
+    m_bounds[i + 3] = roundUp(upperY);
+    AABB fatAABB = m_fatAABB[node];
+    if (fatAABB == null) {
+      fatAABB = m_fatAABB[node] = new AABB();
+    }
+    fatAABB.lowerBound.x = m_bounds[i];
+    fatAABB.lowerBound.y = m_bounds[i + 1];
+    fatAABB.upperBound.x = m_bounds[i + 2];
+    fatAABB.upperBound.y = m_bounds[i + 3];
+  }
+
+  /** The largest float not above the value. */
+  private static float roundDown(double value) {
+    float f = (float) value;
+    return f > value ? Math.nextDown(f) : f;
+  }
+
+  /** The smallest float not below the value. */
+  private static float roundUp(double value) {
+    float f = (float) value;
+    return f < value ? Math.nextUp(f) : f;
   }
 
   private int[] nodeStack = new int[20];
@@ -167,106 +238,111 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   @Override
   public final void query(TreeCallback callback, AABB aabb) {
+    flush();
+    if (m_root == NULL_NODE) {
+      return;
+    }
+    final float[] bounds = m_bounds;
+    final double lowerX = aabb.lowerBound.x, lowerY = aabb.lowerBound.y;
+    final double upperX = aabb.upperBound.x, upperY = aabb.upperBound.y;
+    final int r = m_root << 2;
+    if (bounds[r] > upperX || bounds[r + 1] > upperY || lowerX > bounds[r + 2]
+        || lowerY > bounds[r + 3]) {
+      return;
+    }
+    if (m_child1[m_root] == NULL_NODE) {
+      callback.treeCallback(m_root);
+      return;
+    }
+
+    // Only internal nodes that overlap go on the stack, their children are tested together.
     nodeStackIndex = 0;
     nodeStack[nodeStackIndex++] = m_root;
-
     while (nodeStackIndex > 0) {
-      int node = nodeStack[--nodeStackIndex];
-      if (node == NULL_NODE) {
-        continue;
+      final int node = nodeStack[--nodeStackIndex];
+      final int child1 = m_child1[node];
+      final int child2 = m_child2[node];
+      final int i = child1 << 2, j = child2 << 2;
+      final boolean overlap1 =
+          bounds[i] <= upperX & bounds[i + 1] <= upperY & lowerX <= bounds[i + 2]
+              & lowerY <= bounds[i + 3];
+      final boolean overlap2 =
+          bounds[j] <= upperX & bounds[j + 1] <= upperY & lowerX <= bounds[j + 2]
+              & lowerY <= bounds[j + 3];
+      if (nodeStack.length - nodeStackIndex - 2 <= 0) {
+        nodeStack = BufferUtils.reallocateBuffer(nodeStack, nodeStack.length, nodeStack.length * 2);
       }
 
-      if (AABB.testOverlap(m_aabb[node], aabb)) {
-        int child1 = m_child1[node];
-        if (child1 == NULL_NODE) {
-          boolean proceed = callback.treeCallback(node);
-          if (!proceed) {
+      if (overlap1) {
+        if (m_child1[child1] == NULL_NODE) {
+          if (!callback.treeCallback(child1)) {
             return;
           }
         } else {
-          if (nodeStack.length - nodeStackIndex - 2 <= 0) {
-            nodeStack =
-                BufferUtils.reallocateBuffer(nodeStack, nodeStack.length, nodeStack.length * 2);
-          }
           nodeStack[nodeStackIndex++] = child1;
-          nodeStack[nodeStackIndex++] = m_child2[node];
+        }
+      }
+      if (overlap2) {
+        if (m_child1[child2] == NULL_NODE) {
+          if (!callback.treeCallback(child2)) {
+            return;
+          }
+        } else {
+          nodeStack[nodeStackIndex++] = child2;
         }
       }
     }
   }
 
-  private final Vec2 r = new Vec2();
-  private final AABB aabb = new AABB();
   private final RayCastInput subInput = new RayCastInput();
 
   @Override
   public void raycast(TreeRayCastCallback callback, RayCastInput input) {
-    final Vec2 p1 = input.p1;
-    final Vec2 p2 = input.p2;
-    double p1x = p1.x, p2x = p2.x, p1y = p1.y, p2y = p2.y;
-    double vx, vy;
-    double rx, ry;
-    double absVx, absVy;
-    double cx, cy;
-    double hx, hy;
-    double tempx, tempy;
-    r.x = p2x - p1x;
-    r.y = p2y - p1y;
-    assert ((r.x * r.x + r.y * r.y) > 0f);
-    r.normalize();
-    rx = r.x;
-    ry = r.y;
+    flush();
+    if (m_root == NULL_NODE) {
+      return;
+    }
+    final double p1x = input.p1.x, p1y = input.p1.y;
+    final double p2x = input.p2.x, p2y = input.p2.y;
+    final double rx = p2x - p1x, ry = p2y - p1y;
+    final double length = Math.sqrt(rx * rx + ry * ry);
+    assert (length > 0f);
 
     // v is perpendicular to the segment.
-    vx = -1f * ry;
-    vy = 1f * rx;
-    absVx = Math.abs(vx);
-    absVy = Math.abs(vy);
-
-    // Separating axis for segment (Gino, p80).
-    // |dot(v, p1 - c)| > dot(|v|, h)
+    final double vx = -ry / length;
+    final double vy = rx / length;
+    final double absVx = Math.abs(vx);
+    final double absVy = Math.abs(vy);
 
     double maxFraction = input.maxFraction;
 
     // Build a bounding box for the segment.
-    final AABB segAABB = aabb;
-    // Vec2 t = p1 + maxFraction * (p2 - p1);
-    // before inline
-    // temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
-    // Vec2.minToOut(p1, temp, segAABB.lowerBound);
-    // Vec2.maxToOut(p1, temp, segAABB.upperBound);
-    tempx = (p2x - p1x) * maxFraction + p1x;
-    tempy = (p2y - p1y) * maxFraction + p1y;
-    segAABB.lowerBound.x = p1x < tempx ? p1x : tempx;
-    segAABB.lowerBound.y = p1y < tempy ? p1y : tempy;
-    segAABB.upperBound.x = p1x > tempx ? p1x : tempx;
-    segAABB.upperBound.y = p1y > tempy ? p1y : tempy;
-    // end inline
-
+    double tempx = rx * maxFraction + p1x;
+    double tempy = ry * maxFraction + p1y;
+    double segLowerX = p1x < tempx ? p1x : tempx;
+    double segLowerY = p1y < tempy ? p1y : tempy;
+    double segUpperX = p1x > tempx ? p1x : tempx;
+    double segUpperY = p1y > tempy ? p1y : tempy;
+
+    final float[] bounds = m_bounds;
     nodeStackIndex = 0;
     nodeStack[nodeStackIndex++] = m_root;
     while (nodeStackIndex > 0) {
-      int node = nodeStack[--nodeStackIndex] = m_root;
-      if (node == NULL_NODE) {
-        continue;
-      }
-
-      final AABB nodeAABB = m_aabb[node];
-      if (!AABB.testOverlap(nodeAABB, segAABB)) {
+      final int node = nodeStack[--nodeStackIndex];
+      final int i = node << 2;
+      final double lowerX = bounds[i], lowerY = bounds[i + 1];
+      final double upperX = bounds[i + 2], upperY = bounds[i + 3];
+      if (lowerX > segUpperX || lowerY > segUpperY || segLowerX > upperX || segLowerY > upperY) {
         continue;
       }
 
       // Separating axis for segment (Gino, p80).
       // |dot(v, p1 - c)| > dot(|v|, h)
-      // node.aabb.getCenterToOut(c);
-      // node.aabb.getExtentsToOut(h);
-      cx = (nodeAABB.lowerBound.x + nodeAABB.upperBound.x) * .5f;
-      cy = (nodeAABB.lowerBound.y + nodeAABB.upperBound.y) * .5f;
-      hx = (nodeAABB.upperBound.x - nodeAABB.lowerBound.x) * .5f;
-      hy = (nodeAABB.upperBound.y - nodeAABB.lowerBound.y) * .5f;
-      tempx = p1x - cx;
-      tempy = p1y - cy;
-      double separation = Math.abs(vx * tempx + vy * tempy) - (absVx * hx + absVy * hy);
+      final double cx = (lowerX + upperX) * .5;
+      final double cy = (lowerY + upperY) * .5;
+      final double hx = (upperX - lowerX) * .5;
+      final double hy = (upperY - lowerY) * .5;
+      double separation = Math.abs(vx * (p1x - cx) + vy * (p1y - cy)) - (absVx * hx + absVy * hy);
       if (separation > 0.0f) {
         continue;
       }
@@ -289,25 +365,60 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         if (value > 0.0f) {
           // Update segment bounding box.
           maxFraction = value;
-          // temp.set(p2).subLocal(p1).mulLocal(maxFraction).addLocal(p1);
-          // Vec2.minToOut(p1, temp, segAABB.lowerBound);
-          // Vec2.maxToOut(p1, temp, segAABB.upperBound);
-          tempx = (p2x - p1x) * maxFraction + p1x;
-          tempy = (p2y - p1y) * maxFraction + p1y;
-          segAABB.lowerBound.x = p1x < tempx ? p1x : tempx;
-          segAABB.lowerBound.y = p1y < tempy ? p1y : tempy;
-          segAABB.upperBound.x = p1x > tempx ? p1x : tempx;
-          segAABB.upperBound.y = p1y > tempy ? p1y : tempy;
+          tempx = rx * maxFraction + p1x;
+          tempy = ry * maxFraction + p1y;
+          segLowerX = p1x < tempx ? p1x : tempx;
+          segLowerY = p1y < tempy ? p1y : tempy;
+          segUpperX = p1x > tempx ? p1x : tempx;
+          segUpperY = p1y > tempy ? p1y : tempy;
         }
       } else {
+        if (nodeStack.length - nodeStackIndex - 2 <= 0) {
+          nodeStack =
+              BufferUtils.reallocateBuffer(nodeStack, nodeStack.length, nodeStack.length * 2);
+        }
         nodeStack[nodeStackIndex++] = child1;
         nodeStack[nodeStackIndex++] = m_child2[node];
       }
     }
   }
 
+  @Override
+  public final void queryPacket(TreePacketCallback callback, long mask, PacketStack stack) {
+    flush();
+    if (m_root == NULL_NODE) {
+      return;
+    }
+    stack.count = 0;
+    stack.push(m_root, mask);
+
+    while (stack.count > 0) {
+      --stack.count;
+      final int node = stack.nodes[stack.count];
+      final int i = node << 2;
+      final float[] bounds = m_bounds;
+      long active =
+          callback.testNode(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3],
+              stack.masks[stack.count]);
+      if (active == 0) {
+        continue;
+      }
+
+      int child1 = m_child1[node];
+      if (child1 == NULL_NODE) {
+        if (!callback.packetCallback(node, active)) {
+          return;
+        }
+      } else {
+        stack.push(child1, active);
+        stack.push(m_child2[node], active);
+      }
+    }
+  }
+
   @Override
   public final int computeHeight() {
+    flush();
     return computeHeight(m_root);
   }
 
@@ -326,6 +437,7 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
    * Validate this tree. For testing.
    */
   public void validate() {
+    flush();
     validateStructure(m_root);
     validateMetrics(m_root);
 
@@ -343,6 +455,7 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   @Override
   public int getHeight() {
+    flush();
     if (m_root == NULL_NODE) {
       return 0;
     }
@@ -351,6 +464,7 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   @Override
   public int getMaxBalance() {
+    flush();
     int maxBalance = 0;
     for (int i = 0; i < m_nodeCapacity; ++i) {
       if (m_height[i] <= 1) {
@@ -370,12 +484,13 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   @Override
   public double getAreaRatio() {
+    flush();
     if (m_root == NULL_NODE) {
       return 0.0f;
     }
 
     final int root = m_root;
-    double rootArea = m_aabb[root].getPerimeter();
+    double rootArea = perimeter(root);
 
     double totalArea = 0.0f;
     for (int i = 0; i < m_nodeCapacity; ++i) {
@@ -384,79 +499,267 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         continue;
       }
 
-      totalArea += m_aabb[i].getPerimeter();
+      totalArea += perimeter(i);
     }
 
     return totalArea / rootArea;
   }
 
-  // /**
-  // * Build an optimal tree. Very expensive. For testing.
-  // */
-  // public void rebuildBottomUp() {
-  // int[] nodes = new int[m_nodeCount];
-  // int count = 0;
-  //
-  // // Build array of leaves. Free the rest.
-  // for (int i = 0; i < m_nodeCapacity; ++i) {
-  // if (m_nodes[i].height < 0) {
-  // // free node in pool
-  // continue;
-  // }
-  //
-  // DynamicTreeNode node = m_nodes[i];
-  // if (node.isLeaf()) {
-  // node.parent = null;
-  // nodes[count] = i;
-  // ++count;
-  // } else {
-  // freeNode(node);
-  // }
-  // }
-  //
-  // AABB b = new AABB();
-  // while (count > 1) {
-  // double minCost = Float.MAX_VALUE;
-  // int iMin = -1, jMin = -1;
-  // for (int i = 0; i < count; ++i) {
-  // AABB aabbi = m_nodes[nodes[i]].aabb;
-  //
-  // for (int j = i + 1; j < count; ++j) {
-  // AABB aabbj = m_nodes[nodes[j]].aabb;
-  // b.combine(aabbi, aabbj);
-  // double cost = b.getPerimeter();
-  // if (cost < minCost) {
-  // iMin = i;
-  // jMin = j;
-  // minCost = cost;
-  // }
-  // }
-  // }
-  //
-  // int index1 = nodes[iMin];
-  // int index2 = nodes[jMin];
-  // DynamicTreeNode child1 = m_nodes[index1];
-  // DynamicTreeNode child2 = m_nodes[index2];
-  //
-  // DynamicTreeNode parent = allocateNode();
-  // parent.child1 = child1;
-  // parent.child2 = child2;
-  // parent.height = 1 + Math.max(child1.height, child2.height);
-  // parent.aabb.combine(child1.aabb, child2.aabb);
-  // parent.parent = null;
-  //
-  // child1.parent = parent;
-  // child2.parent = parent;
-  //
-  // nodes[jMin] = nodes[count - 1];
-  // nodes[iMin] = parent.id;
-  // --count;
-  // }
-  //
-  // m_root = m_nodes[nodes[0]];
-  //
-  // validate();
-  // }
+  @Override
+  public void flush() {
+    if (m_pendingCount == 0) {
+      return;
+    }
+    final int count = m_pendingCount;
+    m_pendingCount = 0;
+    if (count < BULK_BUILD_MIN) {
+      for (int i = 0; i < count; i++) {
+        insertLeaf(m_pending[i]);
+      }
+      return;
+    }
+
+    // The leaves already in the tree, which has one internal node fewer.
+    int treeLeaves = (m_nodeCount - count + 1) / 2;
+    if (count >= treeLeaves) {
+      rebuild();
+    } else {
+      // One subtree for the batch, inserted like a leaf.
+      insertLeaf(build(m_pending, 0, count, 0));
+    }
+  }
+
+  @Override
+  public void rebuild() {
+    m_pendingCount = 0;
+    if (m_buildLeaves.length < m_nodeCount) {
+      m_buildLeaves = new int[Math.max(m_buildLeaves.length * 2, m_nodeCount)];
+    }
+
+    // Gather the leaves, free the rest.
+    int count = 0;
+    for (int i = 0; i < m_nodeCapacity; ++i) {
+      if (m_height[i] < 0) {
+        // free node in pool
+        continue;
+      }
+
+      if (m_child1[i] == NULL_NODE) {
+        m_parent[i] = NULL_NODE;
+        m_buildLeaves[count++] = i;
+      } else {
+        freeNode(i);
+      }
+    }
+
+    m_root = count > 0 ? build(m_buildLeaves, 0, count, 0) : NULL_NODE;
+  }
+
+  /**
+   * Builds a subtree over the leaves from start to end, top down. Each range is split along the
+   * longer axis of its leaves' centers, at the bin boundary with the least surface area cost.
+   */
+  private int build(int[] leaves, int start, int end, int depth) {
+    if (end - start == 1) {
+      return leaves[start];
+    }
+
+    double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+    double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+    final float[] bounds = m_bounds;
+    for (int i = start; i < end; i++) {
+      final int leaf = leaves[i] << 2;
+      double cx = ((double) bounds[leaf] + bounds[leaf + 2]) * .5;
+      double cy = ((double) bounds[leaf + 1] + bounds[leaf + 3]) * .5;
+      minX = Math.min(minX, cx);
+      minY = Math.min(minY, cy);
+      maxX = Math.max(maxX, cx);
+      maxY = Math.max(maxY, cy);
+    }
+    final boolean axisX = maxX - minX >= maxY - minY;
+    final double min = axisX ? minX : minY;
+    final double extent = axisX ? maxX - minX : maxY - minY;
+
+    int mid = (start + end) >>> 1;
+    if (extent > 0) {
+      final double scale = SAH_BINS / extent;
+      for (int b = 0; b < SAH_BINS; b++) {
+        m_binCounts[b] = 0;
+        m_binLowerX[b] = m_binLowerY[b] = Double.MAX_VALUE;
+        m_binUpperX[b] = m_binUpperY[b] = -Double.MAX_VALUE;
+      }
+      for (int i = start; i < end; i++) {
+        final int leaf = leaves[i] << 2;
+        int b = bin(bounds, leaf, axisX, min, scale);
+        m_binCounts[b]++;
+        m_binLowerX[b] = Math.min(m_binLowerX[b], bounds[leaf]);
+        m_binLowerY[b] = Math.min(m_binLowerY[b], bounds[leaf + 1]);
+        m_binUpperX[b] = Math.max(m_binUpperX[b], bounds[leaf + 2]);
+        m_binUpperY[b] = Math.max(m_binUpperY[b], bounds[leaf + 3]);
+      }
+      int best = bestSplit(end - start, depth);
+
+      // Partition, the leaves binned up to the split first.
+      int i = start, j = end;
+      while (i < j) {
+        if (bin(bounds, leaves[i] << 2, axisX, min, scale) <= best) {
+          i++;
+        } else {
+          int leaf = leaves[i];
+          leaves[i] = leaves[--j];
+          leaves[j] = leaf;
+        }
+      }
+      mid = i;
+    }
+
+    final int child1 = build(leaves, start, mid, depth + 1);
+    final int child2 = build(leaves, mid, end, depth + 1);
+    final int parent = allocateNode();
+    m_child1[parent] = child1;
+    m_child2[parent] = child2;
+    m_userData[parent] = null;
+    m_height[parent] = 1 + Math.max(m_height[child1], m_height[child2]);
+    combine(parent, child1, child2);
+    m_parent[child1] = parent;
+    m_parent[child2] = parent;
+    return parent;
+  }
+
+  private static int bin(float[] bounds, int i, boolean axisX, double min, double scale) {
+    double center = axisX ? ((double) bounds[i] + bounds[i + 2]) * .5
+        : ((double) bounds[i + 1] + bounds[i + 3]) * .5;
+    int b = (int) ((center - min) * scale);
+    return b < SAH_BINS ? b : SAH_BINS - 1;
+  }
+
+  /**
+   * @return the last bin left of the cheapest split of the binned leaves.
+   */
+  private int bestSplit(int count, int depth) {
+    // Sweep from the right for the cost of each right side.
+    double lowerX = Double.MAX_VALUE, lowerY = Double.MAX_VALUE;
+    double upperX = -Double.MAX_VALUE, upperY = -Double.MAX_VALUE;
+    int n = 0;
+    for (int b = SAH_BINS - 1; b > 0; b--) {
+      n += m_binCounts[b];
+      lowerX = Math.min(lowerX, m_binLowerX[b]);
+      lowerY = Math.min(lowerY, m_binLowerY[b]);
+      upperX = Math.max(upperX, m_binUpperX[b]);
+      upperY = Math.max(upperY, m_binUpperY[b]);
+      m_binCosts[b] = n > 0 ? 2.0 * (upperX - lowerX + upperY - lowerY) * n : 0;
+    }
+
+    // The leftmost and rightmost centers are in the first and last bin, there is a split.
+    lowerX = lowerY = Double.MAX_VALUE;
+    upperX = upperY = -Double.MAX_VALUE;
+    n = 0;
+    int best = 0;
+    double bestCost = Double.MAX_VALUE;
+    for (int b = 0; b < SAH_BINS - 1; b++) {
+      n += m_binCounts[b];
+      lowerX = Math.min(lowerX, m_binLowerX[b]);
+      lowerY = Math.min(lowerY, m_binLowerY[b]);
+      upperX = Math.max(upperX, m_binUpperX[b]);
+      upperY = Math.max(upperY, m_binUpperY[b]);
+      if (n == 0 || n == count) {
+        continue;
+      }
+      double cost =
+          depth < SAH_MAX_DEPTH ? 2.0 * (upperX - lowerX + upperY - lowerY) * n
+              + m_binCosts[b + 1] : Math.abs(2 * n - count);
+      if (cost < bestCost) {
+        bestCost = cost;
+        best = b;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public int optimize(int nodeBudget, long timeBudget) {
+    flush();
+    if (m_root == NULL_NODE) {
+      return 0;
+    }
+    final long start = timeBudget > 0 ? System.nanoTime() : 0;
+    int rotations = 0;
+    for (int visited = 0; visited < nodeBudget; visited++) {
+      if (timeBudget > 0 && (visited & 15) == 15 && System.nanoTime() - start > timeBudget) {
+        break;
+      }
+      if (m_optimizeNode >= m_nodeCapacity) {
+        m_optimizeNode = 0;
+      }
+      final int node = m_optimizeNode++;
+      if (m_height[node] < 2 || !rotate(node)) {
+        continue;
+      }
+      rotations++;
+      for (int index = m_parent[node]; index != NULL_NODE; index = m_parent[index]) {
+        int height = 1 + Math.max(m_height[m_child1[index]], m_height[m_child2[index]]);
+        if (height == m_height[index]) {
+          break;
+        }
+        m_height[index] = height;
+      }
+    }
+    return rotations;
+  }
+
+  /**
+   * Swaps a child of A with a grandchild under the other child, the one of the four swaps that
+   * shrinks the perimeter of that other child most. A keeps its bounds and its leaves, its
+   * ancestors may need their heights fixed.
+   */
+  private boolean rotate(int A) {
+    final int B = m_child1[A];
+    final int C = m_child2[A];
+    m_rotateGain = 0;
+    m_rotateUncle = NULL_NODE;
+    if (m_child1[C] != NULL_NODE) {
+      tryRotation(B, C, m_child1[C], m_child2[C]);
+      tryRotation(B, C, m_child2[C], m_child1[C]);
+    }
+    if (m_child1[B] != NULL_NODE) {
+      tryRotation(C, B, m_child1[B], m_child2[B]);
+      tryRotation(C, B, m_child2[B], m_child1[B]);
+    }
+    if (m_rotateUncle == NULL_NODE) {
+      return false;
+    }
+
+    // The uncle takes the nephew's place under the parent and the nephew the uncle's under A.
+    final int uncle = m_rotateUncle;
+    final int parent = m_rotateParent;
+    final int nephew = m_rotateNephew;
+    if (m_child1[A] == uncle) {
+      m_child1[A] = nephew;
+    } else {
+      m_child2[A] = nephew;
+    }
+    if (m_child1[parent] == nephew) {
+      m_child1[parent] = uncle;
+    } else {
+      m_child2[parent] = uncle;
+    }
+    m_parent[nephew] = A;
+    m_parent[uncle] = parent;
+    combine(parent, m_child1[parent], m_child2[parent]);
+    m_height[parent] = 1 + Math.max(m_height[m_child1[parent]], m_height[m_child2[parent]]);
+    m_height[A] = 1 + Math.max(m_height[m_child1[A]], m_height[m_child2[A]]);
+    return true;
+  }
+
+  private void tryRotation(int uncle, int parent, int nephew, int kept) {
+    double gain = perimeter(parent) - combinedPerimeter(uncle, kept);
+    if (gain > m_rotateGain) {
+      m_rotateGain = gain;
+      m_rotateUncle = uncle;
+      m_rotateParent = parent;
+      m_rotateNephew = nephew;
+    }
+  }
 
   private final int allocateNode() {
     if (m_freeList == NULL_NODE) {
@@ -486,7 +789,31 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
     m_nodeCount--;
   }
 
-  private final AABB combinedAABB = new AABB();
+  /** Sets the bounds of a node to the union of two others'. */
+  private void combine(int node, int a, int b) {
+    final float[] bounds = m_bounds;
+    final int n = node << 2, i = a << 2, j = b << 2;
+    bounds[n] = Math.min(bounds[i], bounds[j]);
+    bounds[n + 1] = Math.min(bounds[i + 1], bounds[j + 1]);
+    bounds[n + 2] = Math.max(bounds[i + 2], bounds[j + 2]);
+    bounds[n + 3] = Math.max(bounds[i + 3], bounds[j + 3]);
+  }
+
+  private double perimeter(int node) {
+    final int i = node << 2;
+    return 2.0 * ((double) m_bounds[i + 2] - m_bounds[i] + m_bounds[i + 3] - m_bounds[i + 1]);
+  }
+
+  /** The perimeter of the union of two nodes' bounds. */
+  private double combinedPerimeter(int a, int b) {
+    final float[] bounds = m_bounds;
+    final int i = a << 2, j = b << 2;
+    double lowerX = Math.min(bounds[i], bounds[j]);
+    double lowerY = Math.min(bounds[i + 1], bounds[j + 1]);
+    double upperX = Math.max(bounds[i + 2], bounds[j + 2]);
+    double upperY = Math.max(bounds[i + 3], bounds[j + 3]);
+    return 2.0 * (upperX - lowerX + upperY - lowerY);
+  }
 
   private final void insertLeaf(int leaf) {
     if (m_root == NULL_NODE) {
@@ -496,17 +823,14 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
     }
 
     // find the best sibling
-    AABB leafAABB = m_aabb[leaf];
     int index = m_root;
     while (m_child1[index] != NULL_NODE) {
       final int node = index;
       int child1 = m_child1[node];
       int child2 = m_child2[node];
-      final AABB nodeAABB = m_aabb[node];
-      double area = nodeAABB.getPerimeter();
+      double area = perimeter(node);
 
-      combinedAABB.combine(nodeAABB, leafAABB);
-      double combinedArea = combinedAABB.getPerimeter();
+      double combinedArea = combinedPerimeter(node, leaf);
 
       // Cost of creating a new parent for this node and the new leaf
       double cost = 2.0f * combinedArea;
@@ -516,27 +840,21 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
       // Cost of descending into child1
       double cost1;
-      AABB child1AABB = m_aabb[child1];
       if (m_child1[child1] == NULL_NODE) {
-        combinedAABB.combine(leafAABB, child1AABB);
-        cost1 = combinedAABB.getPerimeter() + inheritanceCost;
+        cost1 = combinedPerimeter(leaf, child1) + inheritanceCost;
       } else {
-        combinedAABB.combine(leafAABB, child1AABB);
-        double oldArea = child1AABB.getPerimeter();
-        double newArea = combinedAABB.getPerimeter();
+        double oldArea = perimeter(child1);
+        double newArea = combinedPerimeter(leaf, child1);
         cost1 = (newArea - oldArea) + inheritanceCost;
       }
 
       // Cost of descending into child2
       double cost2;
-      AABB child2AABB = m_aabb[child2];
       if (m_child1[child2] == NULL_NODE) {
-        combinedAABB.combine(leafAABB, child2AABB);
-        cost2 = combinedAABB.getPerimeter() + inheritanceCost;
+        cost2 = combinedPerimeter(leaf, child2) + inheritanceCost;
       } else {
-        combinedAABB.combine(leafAABB, child2AABB);
-        double oldArea = child2AABB.getPerimeter();
-        double newArea = combinedAABB.getPerimeter();
+        double oldArea = perimeter(child2);
+        double newArea = combinedPerimeter(leaf, child2);
         cost2 = newArea - oldArea + inheritanceCost;
       }
 
@@ -558,8 +876,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
     final int newParent = allocateNode();
     m_parent[newParent] = oldParent;
     m_userData[newParent] = null;
-    m_aabb[newParent].combine(leafAABB, m_aabb[sibling]);
-    m_height[newParent] = m_height[sibling] + 1;
+    combine(newParent, leaf, sibling);
+    m_height[newParent] = Math.max(m_height[sibling], m_height[leaf]) + 1;
 
     if (oldParent != NULL_NODE) {
       // The sibling was not the root.
@@ -594,7 +912,7 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
       assert (child2 != NULL_NODE);
 
       m_height[index] = 1 + Math.max(m_height[child1], m_height[child2]);
-      m_aabb[index].combine(m_aabb[child1], m_aabb[child2]);
+      combine(index, child1, child2);
 
       index = m_parent[index];
     }
@@ -636,7 +954,7 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         int child1 = m_child1[index];
         int child2 = m_child2[index];
 
-        m_aabb[index].combine(m_aabb[child1], m_aabb[child2]);
+        combine(index, child1, child2);
         m_height[index] = 1 + Math.max(m_height[child1], m_height[child2]);
 
         index = m_parent[index];
@@ -650,7 +968,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
     // validate();
   }
 
-  // Perform a left or right rotation if node A is imbalanced.
+  // Perform a left or right rotation if node A is imbalanced, otherwise the rotation that shrinks the
+  // tree's surface area most, if any.
   // Returns the new root index.
   private int balance(int iA) {
     assert (iA != NULL_NODE);
@@ -669,6 +988,10 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
     int C = iC;
 
     int balance = m_height[C] - m_height[B];
+    if (-ROTATE_MAX_BALANCE <= balance && balance <= ROTATE_MAX_BALANCE) {
+      rotate(A);
+      return iA;
+    }
 
     // Rotate C up
     if (balance > 1) {
@@ -703,8 +1026,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         m_child2[C] = iF;
         m_child2[A] = iG;
         m_parent[G] = iA;
-        m_aabb[A].combine(m_aabb[B], m_aabb[G]);
-        m_aabb[C].combine(m_aabb[A], m_aabb[F]);
+        combine(A, B, G);
+        combine(C, A, F);
 
         m_height[A] = 1 + Math.max(m_height[B], m_height[G]);
         m_height[C] = 1 + Math.max(m_height[A], m_height[F]);
@@ -712,8 +1035,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         m_child2[C] = iG;
         m_child2[A] = iF;
         m_parent[F] = iA;
-        m_aabb[A].combine(m_aabb[B], m_aabb[F]);
-        m_aabb[C].combine(m_aabb[A], m_aabb[G]);
+        combine(A, B, F);
+        combine(C, A, G);
 
         m_height[A] = 1 + Math.max(m_height[B], m_height[F]);
         m_height[C] = 1 + Math.max(m_height[A], m_height[G]);
@@ -753,8 +1076,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         m_child2[B] = iD;
         m_child1[A] = iE;
         m_parent[E] = iA;
-        m_aabb[A].combine(m_aabb[C], m_aabb[E]);
-        m_aabb[B].combine(m_aabb[A], m_aabb[D]);
+        combine(A, C, E);
+        combine(B, A, D);
 
         m_height[A] = 1 + Math.max(m_height[C], m_height[E]);
         m_height[B] = 1 + Math.max(m_height[A], m_height[D]);
@@ -762,8 +1085,8 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
         m_child2[B] = iE;
         m_child1[A] = iD;
         m_parent[D] = iA;
-        m_aabb[A].combine(m_aabb[C], m_aabb[D]);
-        m_aabb[B].combine(m_aabb[A], m_aabb[E]);
+        combine(A, C, D);
+        combine(B, A, E);
 
         m_height[A] = 1 + Math.max(m_height[C], m_height[D]);
         m_height[B] = 1 + Math.max(m_height[A], m_height[E]);
@@ -828,11 +1151,12 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
     height = 1 + Math.max(height1, height2);
     assert (m_height[node] == height);
 
-    AABB aabb = new AABB();
-    aabb.combine(m_aabb[child1], m_aabb[child2]);
-
-    assert (aabb.lowerBound.equals(m_aabb[node].lowerBound));
-    assert (aabb.upperBound.equals(m_aabb[node].upperBound));
+    final float[] bounds = m_bounds;
+    final int n = node << 2, i = child1 << 2, j = child2 << 2;
+    assert (bounds[n] == Math.min(bounds[i], bounds[j]));
+    assert (bounds[n + 1] == Math.min(bounds[i + 1], bounds[j + 1]));
+    assert (bounds[n + 2] == Math.max(bounds[i + 2], bounds[j + 2]));
+    assert (bounds[n + 3] == Math.max(bounds[i + 3], bounds[j + 3]));
 
     validateMetrics(child1);
     validateMetrics(child2);
@@ -840,6 +1164,7 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   @Override
   public void drawTree(DebugDraw argDraw) {
+    flush();
     if (m_root == NULL_NODE) {
       return;
     }
@@ -849,9 +1174,13 @@ public class DynamicTreeFlatNodes implements BroadPhaseStrategy {
 
   private final Color color = new Color();
   private final Vec2 textVec = new Vec2();
+  private final AABB drawAABB = new AABB();
 
   public void drawTree(DebugDraw argDraw, int node, int spot, int height) {
-    AABB a = m_aabb[node];
+    final AABB a = drawAABB;
+    final int i = node << 2;
+    a.lowerBound.set(m_bounds[i], m_bounds[i + 1]);
+    a.upperBound.set(m_bounds[i + 2], m_bounds[i + 3]);
     a.getVertices(drawVecs);
 
     color.set(1, (height - spot) * 1f / height, (height - spot) * 1f / height);
@@ -0,0 +1,129 @@
+package physics.collision.broadphase;
+
+import physics.common.Settings;
+import physics.common.Vec2;
+
+/**
+ * Fattens each proxy by a margin of its own, worked out from its recent displacement rather than
+ * the last step's alone. A re-inserted proxy reaches ahead along its smoothed displacement for a
+ * few steps and is padded all around by an extension that grows with its speed, from a small one
+ * at rest up to a cap. Fast proxies leave their fat AABB less often, slow ones stay tight and make
+ * fewer pairs.
+ *
+ * Set it on a {@link DefaultBroadPhaseBuffer}, whose re-insertion counts show how it does against
+ * the constant {@link Settings#aabbExtension} and {@link Settings#aabbMultiplier}.
+ */
+public class MarginPolicy {
+  public static final double DEFAULT_SMOOTHING = 0.25;
+  public static final double DEFAULT_LOOKAHEAD = 4;
+  public static final double DEFAULT_MIN_EXTENSION = Settings.aabbExtension / 2;
+  public static final double DEFAULT_MAX_EXTENSION = Settings.aabbExtension;
+  public static final double DEFAULT_SPEED_EXTENSION = 1;
+
+  private double m_smoothing = DEFAULT_SMOOTHING;
+  private double m_lookahead = DEFAULT_LOOKAHEAD;
+  private double m_minExtension = DEFAULT_MIN_EXTENSION;
+  private double m_maxExtension = DEFAULT_MAX_EXTENSION;
+  private double m_speedExtension = DEFAULT_SPEED_EXTENSION;
+
+  // per proxy id, the smoothed displacement per step
+  private double[] m_displacementX = new double[16];
+  private double[] m_displacementY = new double[16];
+
+  // the margin worked out by the last update
+  double extension;
+  double predictX;
+  double predictY;
+
+  /**
+   * Sets how much of each new displacement goes into the smoothed one, 1 to follow the last step
+   * alone.
+   */
+  public void setSmoothing(double smoothing) {
+    assert (0 < smoothing && smoothing <= 1);
+    m_smoothing = smoothing;
+  }
+
+  public double getSmoothing() {
+    return m_smoothing;
+  }
+
+  /**
+   * Sets for how many steps of its smoothed displacement a proxy reaches ahead.
+   */
+  public void setLookahead(double steps) {
+    m_lookahead = steps;
+  }
+
+  public double getLookahead() {
+    return m_lookahead;
+  }
+
+  /**
+   * Sets the extension of a proxy at rest and the most any proxy gets.
+   */
+  public void setExtensionRange(double min, double max) {
+    assert (0 <= min && min <= max);
+    m_minExtension = min;
+    m_maxExtension = max;
+  }
+
+  public double getMinExtension() {
+    return m_minExtension;
+  }
+
+  public double getMaxExtension() {
+    return m_maxExtension;
+  }
+
+  /**
+   * Sets how much the extension grows per unit of smoothed displacement per step.
+   */
+  public void setSpeedExtension(double factor) {
+    m_speedExtension = factor;
+  }
+
+  public double getSpeedExtension() {
+    return m_speedExtension;
+  }
+
+  /**
+   * Forgets the displacement of a proxy, new or reused.
+   */
+  void reset(int proxyId) {
+    ensureCapacity(proxyId);
+    m_displacementX[proxyId] = 0;
+    m_displacementY[proxyId] = 0;
+  }
+
+  /**
+   * Takes in a proxy's displacement and works out its margin.
+   */
+  void update(int proxyId, Vec2 displacement) {
+    ensureCapacity(proxyId);
+    double x = m_displacementX[proxyId];
+    double y = m_displacementY[proxyId];
+    x += (displacement.x - x) * m_smoothing;
+    y += (displacement.y - y) * m_smoothing;
+    m_displacementX[proxyId] = x;
+    m_displacementY[proxyId] = y;
+
+    double speed = Math.sqrt(x * x + y * y);
+    extension = Math.min(m_minExtension + speed * m_speedExtension, m_maxExtension);
+    predictX = x * m_lookahead;
+    predictY = y * m_lookahead;
+  }
+
+  private void ensureCapacity(int proxyId) {
+    if (proxyId < m_displacementX.length) {
+      return;
+    }
+    int capacity = Math.max(proxyId + 1, m_displacementX.length * 2);
+    double[] oldX = m_displacementX;
+    double[] oldY = m_displacementY;
+    m_displacementX = new double[capacity];
+    m_displacementY = new double[capacity];
+    System.arraycopy(oldX, 0, m_displacementX, 0, oldX.length);
+    System.arraycopy(oldY, 0, m_displacementY, 0, oldY.length);
+  }
+}
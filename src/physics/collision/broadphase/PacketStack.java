@@ -0,0 +1,29 @@
+package physics.collision.broadphase;
+
+/**
+ * The traversal stack of a packet query, the node ids still to visit and the mask of queries
+ * active at each. Queries never share a tree's own stack, so one walk per thread can run at once
+ * as long as the tree is not changed meanwhile.
+ */
+public class PacketStack {
+  public int[] nodes = new int[64];
+  public long[] masks = new long[64];
+  public int count;
+
+  // the id translation of a broad-phase walking several trees
+  DefaultBroadPhaseBuffer.PacketRemap remap;
+
+  public final void push(int node, long mask) {
+    if (count == nodes.length) {
+      int[] newNodes = new int[count * 2];
+      System.arraycopy(nodes, 0, newNodes, 0, count);
+      nodes = newNodes;
+      long[] newMasks = new long[count * 2];
+      System.arraycopy(masks, 0, newMasks, 0, count);
+      masks = newMasks;
+    }
+    nodes[count] = node;
+    masks[count] = mask;
+    count++;
+  }
+}
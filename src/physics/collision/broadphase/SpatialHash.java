@@ -0,0 +1,797 @@
+package physics.collision.broadphase;
+
+import java.util.Arrays;
+
+import physics.callbacks.DebugDraw;
+import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
+import physics.callbacks.TreeRayCastCallback;
+import physics.collision.AABB;
+import physics.collision.RayCastInput;
+import physics.common.Color;
+import physics.common.Settings;
+import physics.common.Vec2;
+
+/**
+ * A broad-phase strategy hashing proxies into a uniform grid of square cells. For many proxies of
+ * about one size, mob limbs, debris or single blocks, it beats a tree: creating, moving or querying
+ * a proxy only touches the cells its fat AABB covers. The cell size should be about the size of a
+ * typical proxy.
+ *
+ * The cells are buckets of proxy ids in an open-addressing table keyed by cell coordinates. A proxy
+ * covering more than {@link #MAX_PROXY_CELLS} cells is kept in a list of its own instead, and every
+ * query tests it.
+ */
+public class SpatialHash implements BroadPhaseStrategy {
+  public static final double DEFAULT_CELL_SIZE = 1.0;
+  public static final int MAX_PROXY_CELLS = 64;
+
+  // packet queries enumerate the cells of regions this small
+  private static final int PACKET_CELLS = 16;
+  private static final long EMPTY = Long.MIN_VALUE;
+  private static final int FREE = -2;
+  private static final int NOT_LARGE = -1;
+  private static final int NULL_PROXY = BroadPhase.NULL_PROXY;
+
+  private final double m_cellSize;
+  private final double m_invCellSize;
+
+  // Proxies, with the range of cells they cover, inclusive.
+  private AABB[] m_aabb;
+  private Object[] m_userData;
+  private int[] m_lowerX;
+  private int[] m_lowerY;
+  private int[] m_upperX;
+  private int[] m_upperY;
+  // index in the large list, NOT_LARGE, or FREE for free proxies
+  private int[] m_largeIndex;
+  private int[] m_nextFree;
+  private int m_proxyCapacity;
+  private int m_freeList;
+
+  private int[] m_large = new int[16];
+  private int m_largeCount;
+
+  // The cell table. Cells emptied keep their slot until the next rehash.
+  private long[] m_keys;
+  private int[][] m_buckets;
+  private int[] m_bucketCounts;
+  private int m_slotCount;
+  private int m_liveCount;
+  // bounds of the cells filled since the last rehash
+  private int m_minCellX, m_minCellY, m_maxCellX, m_maxCellY;
+
+  private final Vec2[] drawVecs = new Vec2[4];
+  private final Color color = new Color(.5f, .5f, .8f);
+
+  public SpatialHash() {
+    this(DEFAULT_CELL_SIZE);
+  }
+
+  public SpatialHash(double cellSize) {
+    assert (cellSize > 0);
+    m_cellSize = cellSize;
+    m_invCellSize = 1 / cellSize;
+
+    m_proxyCapacity = 16;
+    m_aabb = new AABB[m_proxyCapacity];
+    m_userData = new Object[m_proxyCapacity];
+    m_lowerX = new int[m_proxyCapacity];
+    m_lowerY = new int[m_proxyCapacity];
+    m_upperX = new int[m_proxyCapacity];
+    m_upperY = new int[m_proxyCapacity];
+    m_largeIndex = new int[m_proxyCapacity];
+    m_nextFree = new int[m_proxyCapacity];
+    for (int i = 0; i < m_proxyCapacity; i++) {
+      m_aabb[i] = new AABB();
+      m_largeIndex[i] = FREE;
+      m_nextFree[i] = i + 1 < m_proxyCapacity ? i + 1 : NULL_PROXY;
+    }
+    m_freeList = 0;
+
+    resizeTable(64);
+
+    for (int i = 0; i < drawVecs.length; i++) {
+      drawVecs[i] = new Vec2();
+    }
+  }
+
+  public double getCellSize() {
+    return m_cellSize;
+  }
+
+  @Override
+  public final int createProxy(final AABB aabb, Object userData) {
+    assert (aabb.isValid());
+    if (m_freeList == NULL_PROXY) {
+      growProxies();
+    }
+    final int proxyId = m_freeList;
+    m_freeList = m_nextFree[proxyId];
+
+    // Fatten the aabb
+    final AABB proxyAABB = m_aabb[proxyId];
+    proxyAABB.lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
+    proxyAABB.lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
+    proxyAABB.upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
+    proxyAABB.upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+    m_userData[proxyId] = userData;
+    m_largeIndex[proxyId] = NOT_LARGE;
+
+    insertProxy(proxyId);
+    return proxyId;
+  }
+
+  @Override
+  public final void destroyProxy(int proxyId) {
+    assert (0 <= proxyId && proxyId < m_proxyCapacity && m_largeIndex[proxyId] != FREE);
+    removeProxy(proxyId);
+    m_userData[proxyId] = null;
+    m_largeIndex[proxyId] = FREE;
+    m_nextFree[proxyId] = m_freeList;
+    m_freeList = proxyId;
+  }
+
+  @Override
+  public final boolean moveProxy(int proxyId, final AABB aabb, double extension, double predictX,
+      double predictY) {
+    assert (aabb.isValid());
+    assert (0 <= proxyId && proxyId < m_proxyCapacity && m_largeIndex[proxyId] != FREE);
+
+    final AABB proxyAABB = m_aabb[proxyId];
+    if (proxyAABB.lowerBound.x <= aabb.lowerBound.x && proxyAABB.lowerBound.y <= aabb.lowerBound.y
+        && aabb.upperBound.x <= proxyAABB.upperBound.x
+        && aabb.upperBound.y <= proxyAABB.upperBound.y) {
+      return false;
+    }
+
+    // Extend AABB
+    final Vec2 lowerBound = proxyAABB.lowerBound;
+    final Vec2 upperBound = proxyAABB.upperBound;
+    lowerBound.x = aabb.lowerBound.x - extension;
+    lowerBound.y = aabb.lowerBound.y - extension;
+    upperBound.x = aabb.upperBound.x + extension;
+    upperBound.y = aabb.upperBound.y + extension;
+
+    // Predict AABB displacement.
+    if (predictX < 0.0f) {
+      lowerBound.x += predictX;
+    } else {
+      upperBound.x += predictX;
+    }
+
+    if (predictY < 0.0f) {
+      lowerBound.y += predictY;
+    } else {
+      upperBound.y += predictY;
+    }
+
+    final int lowerX = cell(lowerBound.x), lowerY = cell(lowerBound.y);
+    final int upperX = cell(upperBound.x), upperY = cell(upperBound.y);
+    final int oldLowerX = m_lowerX[proxyId], oldLowerY = m_lowerY[proxyId];
+    final int oldUpperX = m_upperX[proxyId], oldUpperY = m_upperY[proxyId];
+    if (lowerX == oldLowerX && lowerY == oldLowerY && upperX == oldUpperX && upperY == oldUpperY) {
+      return true;
+    }
+    if (m_largeIndex[proxyId] != NOT_LARGE || isLarge(lowerX, lowerY, upperX, upperY)) {
+      removeProxy(proxyId);
+      insertProxy(proxyId);
+      return true;
+    }
+
+    // Only the cells left or entered change.
+    for (int y = oldLowerY; y <= oldUpperY; y++) {
+      for (int x = oldLowerX; x <= oldUpperX; x++) {
+        if (x < lowerX || x > upperX || y < lowerY || y > upperY) {
+          removeFromCell(proxyId, x, y);
+        }
+      }
+    }
+    for (int y = lowerY; y <= upperY; y++) {
+      for (int x = lowerX; x <= upperX; x++) {
+        if (x < oldLowerX || x > oldUpperX || y < oldLowerY || y > oldUpperY) {
+          addToCell(proxyId, x, y);
+        }
+      }
+    }
+    m_lowerX[proxyId] = lowerX;
+    m_lowerY[proxyId] = lowerY;
+    m_upperX[proxyId] = upperX;
+    m_upperY[proxyId] = upperY;
+    return true;
+  }
+
+  @Override
+  public final Object getUserData(int proxyId) {
+    assert (0 <= proxyId && proxyId < m_proxyCapacity);
+    return m_userData[proxyId];
+  }
+
+  @Override
+  public final AABB getFatAABB(int proxyId) {
+    assert (0 <= proxyId && proxyId < m_proxyCapacity);
+    return m_aabb[proxyId];
+  }
+
+  @Override
+  public void flush() {}
+
+  /**
+   * Rehashes the cell table, dropping the cells emptied since the last rehash.
+   */
+  @Override
+  public void rebuild() {
+    resizeTable(m_keys.length);
+  }
+
+  @Override
+  public final void query(TreeCallback callback, AABB aabb) {
+    assert (aabb.isValid());
+    for (int i = 0; i < m_largeCount; i++) {
+      int proxyId = m_large[i];
+      if (AABB.testOverlap(m_aabb[proxyId], aabb) && !callback.treeCallback(proxyId)) {
+        return;
+      }
+    }
+
+    final int lowerX = Math.max(cell(aabb.lowerBound.x), m_minCellX);
+    final int lowerY = Math.max(cell(aabb.lowerBound.y), m_minCellY);
+    final int upperX = Math.min(cell(aabb.upperBound.x), m_maxCellX);
+    final int upperY = Math.min(cell(aabb.upperBound.y), m_maxCellY);
+    if (lowerX > upperX || lowerY > upperY) {
+      return;
+    }
+
+    if ((long) (upperX - lowerX + 1) * (upperY - lowerY + 1) > m_keys.length) {
+      // Fewer slots than cells to look up.
+      for (int slot = 0; slot < m_keys.length; slot++) {
+        if (m_bucketCounts[slot] == 0) {
+          continue;
+        }
+        int x = keyX(m_keys[slot]), y = keyY(m_keys[slot]);
+        if (x >= lowerX && x <= upperX && y >= lowerY && y <= upperY
+            && !queryCell(callback, aabb, slot, x, y, lowerX, lowerY)) {
+          return;
+        }
+      }
+      return;
+    }
+
+    for (int y = lowerY; y <= upperY; y++) {
+      for (int x = lowerX; x <= upperX; x++) {
+        int slot = find(x, y);
+        if (slot != -1 && !queryCell(callback, aabb, slot, x, y, lowerX, lowerY)) {
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean queryCell(TreeCallback callback, AABB aabb, int slot, int x, int y, int lowerX,
+      int lowerY) {
+    final int[] bucket = m_buckets[slot];
+    for (int i = 0; i < m_bucketCounts[slot]; i++) {
+      int proxyId = bucket[i];
+      // Each proxy is reported once, from the lowest of its cells the query covers.
+      if (x != Math.max(m_lowerX[proxyId], lowerX) || y != Math.max(m_lowerY[proxyId], lowerY)) {
+        continue;
+      }
+      if (AABB.testOverlap(m_aabb[proxyId], aabb) && !callback.treeCallback(proxyId)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // djm pooling, ray-casts
+  private final AABB segAABB = new AABB();
+  private final RayCastInput subInput = new RayCastInput();
+
+  @Override
+  public void raycast(TreeRayCastCallback callback, RayCastInput input) {
+    final double p1x = input.p1.x, p1y = input.p1.y;
+    final double rx = input.p2.x - p1x, ry = input.p2.y - p1y;
+    final double length = Math.sqrt(rx * rx + ry * ry);
+    assert (length > 0);
+
+    // v is perpendicular to the segment.
+    final double vx = -ry / length;
+    final double vy = rx / length;
+    double maxFraction = input.maxFraction;
+    setSegmentAABB(input, maxFraction);
+
+    // The large proxies first, they may shorten the ray before the walk.
+    for (int i = 0; i < m_largeCount; i++) {
+      final int proxyId = m_large[i];
+      if (!segmentOverlaps(proxyId, p1x, p1y, vx, vy)) {
+        continue;
+      }
+      double value = raycastProxy(callback, input, proxyId, maxFraction);
+      if (value == 0.0f) {
+        return;
+      }
+      if (value > 0.0f) {
+        maxFraction = value;
+        setSegmentAABB(input, maxFraction);
+      }
+    }
+    if (m_liveCount == 0) {
+      return;
+    }
+
+    // Put the ray into cells and clip it to the filled cells' bounds.
+    final double sx = p1x * m_invCellSize, sy = p1y * m_invCellSize;
+    final double dx = rx * m_invCellSize, dy = ry * m_invCellSize;
+    double lower = 0, upper = maxFraction;
+    if (dx == 0) {
+      if (sx < m_minCellX || sx > m_maxCellX + 1) {
+        return;
+      }
+    } else {
+      double t1 = (m_minCellX - sx) / dx;
+      double t2 = (m_maxCellX + 1 - sx) / dx;
+      lower = Math.max(lower, Math.min(t1, t2));
+      upper = Math.min(upper, Math.max(t1, t2));
+    }
+    if (dy == 0) {
+      if (sy < m_minCellY || sy > m_maxCellY + 1) {
+        return;
+      }
+    } else {
+      double t1 = (m_minCellY - sy) / dy;
+      double t2 = (m_maxCellY + 1 - sy) / dy;
+      lower = Math.max(lower, Math.min(t1, t2));
+      upper = Math.min(upper, Math.max(t1, t2));
+    }
+    if (lower > upper) {
+      return;
+    }
+
+    // Walk the cells along the ray (Amanatides and Woo).
+    int x = Math.max(m_minCellX, Math.min(m_maxCellX, (int) Math.floor(sx + dx * lower)));
+    int y = Math.max(m_minCellY, Math.min(m_maxCellY, (int) Math.floor(sy + dy * lower)));
+    final int stepX = dx > 0 ? 1 : -1;
+    final int stepY = dy > 0 ? 1 : -1;
+    final double deltaX = dx != 0 ? Math.abs(1 / dx) : Double.MAX_VALUE;
+    final double deltaY = dy != 0 ? Math.abs(1 / dy) : Double.MAX_VALUE;
+    double nextX = dx != 0 ? ((stepX > 0 ? x + 1 : x) - sx) / dx : Double.MAX_VALUE;
+    double nextY = dy != 0 ? ((stepY > 0 ? y + 1 : y) - sy) / dy : Double.MAX_VALUE;
+    int prevX = Integer.MIN_VALUE, prevY = Integer.MIN_VALUE;
+
+    while (true) {
+      final int slot = find(x, y);
+      if (slot != -1) {
+        final int[] bucket = m_buckets[slot];
+        for (int i = 0; i < m_bucketCounts[slot]; i++) {
+          final int proxyId = bucket[i];
+          // Each proxy is tested once, in the first of its cells along the ray.
+          if (prevX >= m_lowerX[proxyId] && prevX <= m_upperX[proxyId]
+              && prevY >= m_lowerY[proxyId] && prevY <= m_upperY[proxyId]) {
+            continue;
+          }
+          if (!segmentOverlaps(proxyId, p1x, p1y, vx, vy)) {
+            continue;
+          }
+          double value = raycastProxy(callback, input, proxyId, maxFraction);
+          if (value == 0.0f) {
+            return;
+          }
+          if (value > 0.0f) {
+            maxFraction = value;
+            setSegmentAABB(input, maxFraction);
+          }
+        }
+      }
+
+      prevX = x;
+      prevY = y;
+      double t;
+      if (nextX < nextY) {
+        t = nextX;
+        nextX += deltaX;
+        x += stepX;
+      } else {
+        t = nextY;
+        nextY += deltaY;
+        y += stepY;
+      }
+      if (t > Math.min(upper, maxFraction) || x < m_minCellX || y < m_minCellY
+          || x > m_maxCellX || y > m_maxCellY) {
+        return;
+      }
+    }
+  }
+
+  private void setSegmentAABB(RayCastInput input, double maxFraction) {
+    final double p1x = input.p1.x, p1y = input.p1.y;
+    double tempx = (input.p2.x - p1x) * maxFraction + p1x;
+    double tempy = (input.p2.y - p1y) * maxFraction + p1y;
+    segAABB.lowerBound.x = p1x < tempx ? p1x : tempx;
+    segAABB.lowerBound.y = p1y < tempy ? p1y : tempy;
+    segAABB.upperBound.x = p1x > tempx ? p1x : tempx;
+    segAABB.upperBound.y = p1y > tempy ? p1y : tempy;
+  }
+
+  private boolean segmentOverlaps(int proxyId, double p1x, double p1y, double vx, double vy) {
+    final AABB proxyAABB = m_aabb[proxyId];
+    if (!AABB.testOverlap(proxyAABB, segAABB)) {
+      return false;
+    }
+    // Separating axis for segment (Gino, p80).
+    // |dot(v, p1 - c)| > dot(|v|, h)
+    double cx = (proxyAABB.lowerBound.x + proxyAABB.upperBound.x) * .5;
+    double cy = (proxyAABB.lowerBound.y + proxyAABB.upperBound.y) * .5;
+    double hx = (proxyAABB.upperBound.x - proxyAABB.lowerBound.x) * .5;
+    double hy = (proxyAABB.upperBound.y - proxyAABB.lowerBound.y) * .5;
+    double separation =
+        Math.abs(vx * (p1x - cx) + vy * (p1y - cy)) - (Math.abs(vx) * hx + Math.abs(vy) * hy);
+    return separation <= 0.0f;
+  }
+
+  private double raycastProxy(TreeRayCastCallback callback, RayCastInput input, int proxyId,
+      double maxFraction) {
+    subInput.p1.x = input.p1.x;
+    subInput.p1.y = input.p1.y;
+    subInput.p2.x = input.p2.x;
+    subInput.p2.y = input.p2.y;
+    subInput.maxFraction = maxFraction;
+    return callback.raycastCallback(subInput, proxyId);
+  }
+
+  /**
+   * Narrows the packet over halves of the filled cells' bounds down to small regions, whose cells
+   * are looked up. A proxy found in several cells is reported once, with their masks merged, so the
+   * walk sorts its finds by proxy in the stack before calling back.
+   */
+  @Override
+  public final void queryPacket(TreePacketCallback callback, long mask, PacketStack stack) {
+    stack.count = 0;
+    for (int i = 0; i < m_largeCount; i++) {
+      final AABB proxyAABB = m_aabb[m_large[i]];
+      long active =
+          callback.testNode(proxyAABB.lowerBound.x, proxyAABB.lowerBound.y,
+              proxyAABB.upperBound.x, proxyAABB.upperBound.y, mask);
+      if (active != 0) {
+        stack.push(m_large[i], active);
+      }
+    }
+    if (m_liveCount > 0) {
+      collectPacket(callback, stack, m_minCellX, m_minCellY, m_maxCellX, m_maxCellY, mask);
+    }
+
+    sortByProxy(stack);
+    final int count = stack.count;
+    int i = 0;
+    while (i < count) {
+      final int proxyId = stack.nodes[i];
+      long active = stack.masks[i++];
+      while (i < count && stack.nodes[i] == proxyId) {
+        active |= stack.masks[i++];
+      }
+      if (!callback.packetCallback(proxyId, active)) {
+        return;
+      }
+    }
+  }
+
+  private void collectPacket(TreePacketCallback callback, PacketStack stack, int lowerX,
+      int lowerY, int upperX, int upperY, long mask) {
+    long active =
+        callback.testNode(lowerX * m_cellSize, lowerY * m_cellSize, (upperX + 1) * m_cellSize,
+            (upperY + 1) * m_cellSize, mask);
+    if (active == 0) {
+      return;
+    }
+
+    final int width = upperX - lowerX + 1, height = upperY - lowerY + 1;
+    if ((long) width * height > PACKET_CELLS) {
+      if (width >= height) {
+        int mid = lowerX + width / 2;
+        collectPacket(callback, stack, lowerX, lowerY, mid - 1, upperY, active);
+        collectPacket(callback, stack, mid, lowerY, upperX, upperY, active);
+      } else {
+        int mid = lowerY + height / 2;
+        collectPacket(callback, stack, lowerX, lowerY, upperX, mid - 1, active);
+        collectPacket(callback, stack, lowerX, mid, upperX, upperY, active);
+      }
+      return;
+    }
+
+    for (int y = lowerY; y <= upperY; y++) {
+      for (int x = lowerX; x <= upperX; x++) {
+        final int slot = find(x, y);
+        if (slot == -1) {
+          continue;
+        }
+        long cellActive =
+            callback.testNode(x * m_cellSize, y * m_cellSize, (x + 1) * m_cellSize, (y + 1)
+                * m_cellSize, active);
+        if (cellActive == 0) {
+          continue;
+        }
+        final int[] bucket = m_buckets[slot];
+        for (int i = 0; i < m_bucketCounts[slot]; i++) {
+          final AABB proxyAABB = m_aabb[bucket[i]];
+          long proxyActive =
+              callback.testNode(proxyAABB.lowerBound.x, proxyAABB.lowerBound.y,
+                  proxyAABB.upperBound.x, proxyAABB.upperBound.y, cellActive);
+          if (proxyActive != 0) {
+            stack.push(bucket[i], proxyActive);
+          }
+        }
+      }
+    }
+  }
+
+  private static void sortByProxy(PacketStack stack) {
+    final int[] nodes = stack.nodes;
+    final long[] masks = stack.masks;
+    final int count = stack.count;
+    // Shell sort, the finds are few and mostly in order.
+    for (int gap = count / 2; gap > 0; gap /= 2) {
+      for (int i = gap; i < count; i++) {
+        int node = nodes[i];
+        long mask = masks[i];
+        int j = i;
+        while (j >= gap && nodes[j - gap] > node) {
+          nodes[j] = nodes[j - gap];
+          masks[j] = masks[j - gap];
+          j -= gap;
+        }
+        nodes[j] = node;
+        masks[j] = mask;
+      }
+    }
+  }
+
+  /** A hash has no height, the methods about the tree's shape return 0. */
+  @Override
+  public int computeHeight() {
+    return 0;
+  }
+
+  @Override
+  public int getHeight() {
+    return 0;
+  }
+
+  @Override
+  public int getMaxBalance() {
+    return 0;
+  }
+
+  @Override
+  public double getAreaRatio() {
+    return 0;
+  }
+
+  @Override
+  public int optimize(int nodeBudget, long timeBudget) {
+    return 0;
+  }
+
+  @Override
+  public void drawTree(DebugDraw argDraw) {
+    for (int slot = 0; slot < m_keys.length; slot++) {
+      if (m_bucketCounts[slot] == 0) {
+        continue;
+      }
+      double x = keyX(m_keys[slot]) * m_cellSize, y = keyY(m_keys[slot]) * m_cellSize;
+      drawVecs[0].set(x, y);
+      drawVecs[1].set(x + m_cellSize, y);
+      drawVecs[2].set(x + m_cellSize, y + m_cellSize);
+      drawVecs[3].set(x, y + m_cellSize);
+      argDraw.drawPolygon(drawVecs, 4, color);
+    }
+    for (int i = 0; i < m_largeCount; i++) {
+      m_aabb[m_large[i]].getVertices(drawVecs);
+      argDraw.drawPolygon(drawVecs, 4, color);
+    }
+  }
+
+  private int cell(double coordinate) {
+    return (int) Math.floor(coordinate * m_invCellSize);
+  }
+
+  private static boolean isLarge(int lowerX, int lowerY, int upperX, int upperY) {
+    return (long) (upperX - lowerX + 1) * (upperY - lowerY + 1) > MAX_PROXY_CELLS;
+  }
+
+  private void insertProxy(int proxyId) {
+    final AABB proxyAABB = m_aabb[proxyId];
+    final int lowerX = cell(proxyAABB.lowerBound.x), lowerY = cell(proxyAABB.lowerBound.y);
+    final int upperX = cell(proxyAABB.upperBound.x), upperY = cell(proxyAABB.upperBound.y);
+    m_lowerX[proxyId] = lowerX;
+    m_lowerY[proxyId] = lowerY;
+    m_upperX[proxyId] = upperX;
+    m_upperY[proxyId] = upperY;
+
+    if (isLarge(lowerX, lowerY, upperX, upperY)) {
+      if (m_largeCount == m_large.length) {
+        int[] old = m_large;
+        m_large = new int[old.length * 2];
+        System.arraycopy(old, 0, m_large, 0, old.length);
+      }
+      m_largeIndex[proxyId] = m_largeCount;
+      m_large[m_largeCount++] = proxyId;
+      return;
+    }
+    for (int y = lowerY; y <= upperY; y++) {
+      for (int x = lowerX; x <= upperX; x++) {
+        addToCell(proxyId, x, y);
+      }
+    }
+  }
+
+  private void removeProxy(int proxyId) {
+    final int largeIndex = m_largeIndex[proxyId];
+    if (largeIndex != NOT_LARGE) {
+      int last = m_large[--m_largeCount];
+      m_large[largeIndex] = last;
+      m_largeIndex[last] = largeIndex;
+      m_largeIndex[proxyId] = NOT_LARGE;
+      return;
+    }
+    for (int y = m_lowerY[proxyId]; y <= m_upperY[proxyId]; y++) {
+      for (int x = m_lowerX[proxyId]; x <= m_upperX[proxyId]; x++) {
+        removeFromCell(proxyId, x, y);
+      }
+    }
+  }
+
+  private void growProxies() {
+    final int oldCapacity = m_proxyCapacity;
+    m_proxyCapacity *= 2;
+    AABB[] aabbs = new AABB[m_proxyCapacity];
+    System.arraycopy(m_aabb, 0, aabbs, 0, oldCapacity);
+    m_aabb = aabbs;
+    Object[] userData = new Object[m_proxyCapacity];
+    System.arraycopy(m_userData, 0, userData, 0, oldCapacity);
+    m_userData = userData;
+    m_lowerX = grow(m_lowerX, m_proxyCapacity);
+    m_lowerY = grow(m_lowerY, m_proxyCapacity);
+    m_upperX = grow(m_upperX, m_proxyCapacity);
+    m_upperY = grow(m_upperY, m_proxyCapacity);
+    m_largeIndex = grow(m_largeIndex, m_proxyCapacity);
+    m_nextFree = grow(m_nextFree, m_proxyCapacity);
+    for (int i = oldCapacity; i < m_proxyCapacity; i++) {
+      m_aabb[i] = new AABB();
+      m_largeIndex[i] = FREE;
+      m_nextFree[i] = i + 1 < m_proxyCapacity ? i + 1 : NULL_PROXY;
+    }
+    m_freeList = oldCapacity;
+  }
+
+  private static int[] grow(int[] array, int capacity) {
+    int[] grown = new int[capacity];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  private static long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+  private static int keyX(long key) {
+    return (int) (key >> 32);
+  }
+
+  private static int keyY(long key) {
+    return (int) key;
+  }
+
+  private int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & (m_keys.length - 1);
+  }
+
+  /**
+   * @return the slot of the cell, -1 if it has none or is empty.
+   */
+  private int find(int x, int y) {
+    final long key = key(x, y);
+    final int mask = m_keys.length - 1;
+    int slot = hash(key);
+    while (true) {
+      long k = m_keys[slot];
+      if (k == key) {
+        return m_bucketCounts[slot] > 0 ? slot : -1;
+      }
+      if (k == EMPTY) {
+        return -1;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void addToCell(int proxyId, int x, int y) {
+    final long key = key(x, y);
+    int mask = m_keys.length - 1;
+    int slot = hash(key);
+    while (m_keys[slot] != key && m_keys[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    if (m_keys[slot] == EMPTY) {
+      if ((m_slotCount + 1) * 2 > m_keys.length) {
+        // Twice the size if the live cells need it, else just drop the empty ones.
+        resizeTable(m_liveCount * 4 > m_keys.length ? m_keys.length * 2 : m_keys.length);
+        addToCell(proxyId, x, y);
+        return;
+      }
+      m_keys[slot] = key;
+      m_slotCount++;
+    }
+
+    int count = m_bucketCounts[slot];
+    int[] bucket = m_buckets[slot];
+    if (bucket == null) {
+      bucket = m_buckets[slot] = new int[4];
+    } else if (count == bucket.length) {
+      bucket = m_buckets[slot] = grow(bucket, count * 2);
+    }
+    bucket[count] = proxyId;
+    m_bucketCounts[slot] = count + 1;
+    if (count == 0) {
+      m_liveCount++;
+      m_minCellX = Math.min(m_minCellX, x);
+      m_minCellY = Math.min(m_minCellY, y);
+      m_maxCellX = Math.max(m_maxCellX, x);
+      m_maxCellY = Math.max(m_maxCellY, y);
+    }
+  }
+
+  private void removeFromCell(int proxyId, int x, int y) {
+    final int slot = find(x, y);
+    assert (slot != -1);
+    final int[] bucket = m_buckets[slot];
+    final int count = m_bucketCounts[slot] - 1;
+    for (int i = 0; i <= count; i++) {
+      if (bucket[i] == proxyId) {
+        bucket[i] = bucket[count];
+        m_bucketCounts[slot] = count;
+        if (count == 0) {
+          m_liveCount--;
+        }
+        return;
+      }
+    }
+    assert (false);
+  }
+
+  private void resizeTable(int capacity) {
+    final long[] oldKeys = m_keys;
+    final int[][] oldBuckets = m_buckets;
+    final int[] oldCounts = m_bucketCounts;
+    m_keys = new long[capacity];
+    m_buckets = new int[capacity][];
+    m_bucketCounts = new int[capacity];
+    Arrays.fill(m_keys, EMPTY);
+    m_slotCount = 0;
+    m_minCellX = m_minCellY = Integer.MAX_VALUE;
+    m_maxCellX = m_maxCellY = Integer.MIN_VALUE;
+    if (oldKeys == null) {
+      return;
+    }
+
+    // Reinsert the live cells, buckets and all.
+    final int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldCounts[i] == 0) {
+        continue;
+      }
+      final long key = oldKeys[i];
+      int slot = hash(key);
+      while (m_keys[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      m_keys[slot] = key;
+      m_buckets[slot] = oldBuckets[i];
+      m_bucketCounts[slot] = oldCounts[i];
+      m_slotCount++;
+      m_minCellX = Math.min(m_minCellX, keyX(key));
+      m_minCellY = Math.min(m_minCellY, keyY(key));
+      m_maxCellX = Math.max(m_maxCellX, keyX(key));
+      m_maxCellY = Math.max(m_maxCellY, keyY(key));
+    }
+  }
+}
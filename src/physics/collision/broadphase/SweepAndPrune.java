@@ -0,0 +1,594 @@
+package physics.collision.broadphase;
+
+import physics.callbacks.DebugDraw;
+import physics.callbacks.PairCallback;
+import physics.callbacks.TreeCallback;
+import physics.callbacks.TreePacketCallback;
+import physics.callbacks.TreeRayCastCallback;
+import physics.collision.AABB;
+import physics.collision.RayCastInput;
+import physics.common.Color;
+import physics.common.Settings;
+import physics.common.Vec2;
+
+/**
+ * A broad-phase keeping the bounds of the proxies sorted along both axes. Moving a proxy shifts its
+ * endpoints by insertion sort, and every endpoint one passes starts or ends an overlap on that
+ * axis, an overlap of the proxies if they overlap on the other axis as well. The overlaps started
+ * and ended are kept and handed to the pair callback on the next update. Where most proxies move a
+ * little each step the shifts are short, cheaper than querying a tree for every moved proxy.
+ *
+ * Queries scan the x axis from the lower bound less the widest proxy, so a few very wide proxies
+ * make them slower. Destroyed proxies leave their endpoints behind until the next update.
+ */
+public class SweepAndPrune implements BroadPhase {
+  private static final int FREE = 0;
+  private static final int LIVE = 1;
+  private static final int DEAD = 2;
+
+  // Proxies. The bounds the endpoints are sorted by are the fat AABBs.
+  private AABB[] m_aabb;
+  private Object[] m_userData;
+  private int[] m_state;
+  private int[] m_nextFree;
+  private int m_proxyCapacity;
+  private int m_freeList;
+  private int m_proxyCount;
+  private int m_deadCount;
+  private double m_maxExtentX;
+
+  // Endpoints per axis, proxy << 1 for the lower bound and proxy << 1 | 1 for the upper, sorted
+  // by value with lower bounds first on ties. The positions are indexed by endpoint.
+  private int[] m_endsX;
+  private int[] m_endsY;
+  private double[] m_valuesX;
+  private double[] m_valuesY;
+  private int[] m_positionsX;
+  private int[] m_positionsY;
+  private int m_endCount;
+
+  // overlaps started (adds) and ended since the last update, in order
+  private long[] m_events = new long[64];
+  private boolean[] m_eventAdds = new boolean[64];
+  private int m_eventCount;
+
+  private int[] m_touchBuffer = new int[16];
+  private int m_touchCount;
+
+  private final Vec2[] drawVecs = new Vec2[4];
+  private final Color color = new Color(.9f, .3f, .9f);
+
+  public SweepAndPrune() {
+    m_proxyCapacity = 16;
+    m_aabb = new AABB[m_proxyCapacity];
+    m_userData = new Object[m_proxyCapacity];
+    m_state = new int[m_proxyCapacity];
+    m_nextFree = new int[m_proxyCapacity];
+    for (int i = 0; i < m_proxyCapacity; i++) {
+      m_aabb[i] = new AABB();
+      m_nextFree[i] = i + 1 < m_proxyCapacity ? i + 1 : NULL_PROXY;
+    }
+    m_freeList = 0;
+
+    m_endsX = new int[m_proxyCapacity * 2];
+    m_endsY = new int[m_proxyCapacity * 2];
+    m_valuesX = new double[m_proxyCapacity * 2];
+    m_valuesY = new double[m_proxyCapacity * 2];
+    m_positionsX = new int[m_proxyCapacity * 2];
+    m_positionsY = new int[m_proxyCapacity * 2];
+
+    for (int i = 0; i < drawVecs.length; i++) {
+      drawVecs[i] = new Vec2();
+    }
+  }
+
+  @Override
+  public final int createProxy(final AABB aabb, Object userData, boolean isStatic) {
+    return createProxy(aabb, userData);
+  }
+
+  @Override
+  public final int createProxy(final AABB aabb, Object userData) {
+    assert (aabb.isValid());
+    if (m_freeList == NULL_PROXY) {
+      growProxies();
+    }
+    final int proxyId = m_freeList;
+    m_freeList = m_nextFree[proxyId];
+    m_state[proxyId] = LIVE;
+    m_userData[proxyId] = userData;
+    ++m_proxyCount;
+
+    // Fatten the aabb
+    final AABB proxyAABB = m_aabb[proxyId];
+    proxyAABB.lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
+    proxyAABB.lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
+    proxyAABB.upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
+    proxyAABB.upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+
+    // The endpoints start past everything else and are swept into place, meeting each overlap.
+    final int end = proxyId << 1;
+    for (int i = 0; i < 2; i++) {
+      m_endsX[m_endCount] = m_endsY[m_endCount] = end | i;
+      m_valuesX[m_endCount] = m_valuesY[m_endCount] = Double.MAX_VALUE;
+      m_positionsX[end | i] = m_positionsY[end | i] = m_endCount;
+      m_endCount++;
+    }
+    sweep(proxyId);
+    return proxyId;
+  }
+
+  @Override
+  public final void destroyProxy(int proxyId) {
+    assert (0 <= proxyId && proxyId < m_proxyCapacity && m_state[proxyId] == LIVE);
+    // The contacts go with their fixtures, only the endpoints are left to remove.
+    m_state[proxyId] = DEAD;
+    m_userData[proxyId] = null;
+    --m_proxyCount;
+    ++m_deadCount;
+  }
+
+  @Override
+  public final void moveProxy(int proxyId, final AABB aabb, final Vec2 displacement) {
+    assert (aabb.isValid());
+    assert (0 <= proxyId && proxyId < m_proxyCapacity && m_state[proxyId] == LIVE);
+
+    final AABB proxyAABB = m_aabb[proxyId];
+    if (proxyAABB.lowerBound.x <= aabb.lowerBound.x && proxyAABB.lowerBound.y <= aabb.lowerBound.y
+        && aabb.upperBound.x <= proxyAABB.upperBound.x
+        && aabb.upperBound.y <= proxyAABB.upperBound.y) {
+      return;
+    }
+
+    // Extend AABB
+    final Vec2 lowerBound = proxyAABB.lowerBound;
+    final Vec2 upperBound = proxyAABB.upperBound;
+    lowerBound.x = aabb.lowerBound.x - Settings.aabbExtension;
+    lowerBound.y = aabb.lowerBound.y - Settings.aabbExtension;
+    upperBound.x = aabb.upperBound.x + Settings.aabbExtension;
+    upperBound.y = aabb.upperBound.y + Settings.aabbExtension;
+
+    // Predict AABB displacement.
+    final double dx = displacement.x * Settings.aabbMultiplier;
+    final double dy = displacement.y * Settings.aabbMultiplier;
+    if (dx < 0.0f) {
+      lowerBound.x += dx;
+    } else {
+      upperBound.x += dx;
+    }
+
+    if (dy < 0.0f) {
+      lowerBound.y += dy;
+    } else {
+      upperBound.y += dy;
+    }
+
+    sweep(proxyId);
+  }
+
+  @Override
+  public void touchProxy(int proxyId) {
+    if (m_touchCount == m_touchBuffer.length) {
+      int[] old = m_touchBuffer;
+      m_touchBuffer = new int[old.length * 2];
+      System.arraycopy(old, 0, m_touchBuffer, 0, old.length);
+    }
+    m_touchBuffer[m_touchCount++] = proxyId;
+  }
+
+  @Override
+  public void setProxyStatic(int proxyId, AABB aabb, boolean isStatic) {}
+
+  @Override
+  public Object getUserData(int proxyId) {
+    assert (0 <= proxyId && proxyId < m_proxyCapacity);
+    return m_userData[proxyId];
+  }
+
+  @Override
+  public AABB getFatAABB(int proxyId) {
+    assert (0 <= proxyId && proxyId < m_proxyCapacity);
+    return m_aabb[proxyId];
+  }
+
+  @Override
+  public boolean testOverlap(int proxyIdA, int proxyIdB) {
+    return AABB.testOverlap(m_aabb[proxyIdA], m_aabb[proxyIdB]);
+  }
+
+  @Override
+  public final int getProxyCount() {
+    return m_proxyCount;
+  }
+
+  @Override
+  public void drawTree(DebugDraw argDraw) {
+    for (int i = 0; i < m_proxyCapacity; i++) {
+      if (m_state[i] == LIVE) {
+        m_aabb[i].getVertices(drawVecs);
+        argDraw.drawPolygon(drawVecs, 4, color);
+      }
+    }
+  }
+
+  /**
+   * Reports the overlaps started and ended since the last update, and every overlap of the
+   * touched proxies. Each event is checked against the proxies as they are now, so one undone by a
+   * later move, or left by a destroyed proxy, is dropped.
+   */
+  @Override
+  public final void updatePairs(PairCallback callback) {
+    for (int i = 0; i < m_eventCount; i++) {
+      final int proxyA = (int) (m_events[i] >>> 32);
+      final int proxyB = (int) m_events[i];
+      if (m_state[proxyA] != LIVE || m_state[proxyB] != LIVE) {
+        continue;
+      }
+      boolean overlap = testOverlap(proxyA, proxyB);
+      if (m_eventAdds[i] && overlap) {
+        callback.addPair(m_userData[proxyA], m_userData[proxyB]);
+      } else if (!m_eventAdds[i] && !overlap) {
+        callback.removePair(m_userData[proxyA], m_userData[proxyB]);
+      }
+    }
+    m_eventCount = 0;
+
+    for (int i = 0; i < m_touchCount; i++) {
+      final int proxyId = m_touchBuffer[i];
+      if (m_state[proxyId] != LIVE) {
+        continue;
+      }
+      final AABB aabb = m_aabb[proxyId];
+      final int end = scanEnd(aabb);
+      for (int j = scanStart(aabb); j < end; j++) {
+        final int other = m_endsX[j] >> 1;
+        if ((m_endsX[j] & 1) == 0 && other != proxyId && m_state[other] == LIVE
+            && testOverlap(proxyId, other)) {
+          if (other < proxyId) {
+            callback.addPair(m_userData[other], m_userData[proxyId]);
+          } else {
+            callback.addPair(m_userData[proxyId], m_userData[other]);
+          }
+        }
+      }
+    }
+    m_touchCount = 0;
+
+    if (m_deadCount > 0) {
+      compact();
+    }
+  }
+
+  @Override
+  public final void query(final TreeCallback callback, final AABB aabb) {
+    final int end = scanEnd(aabb);
+    for (int i = scanStart(aabb); i < end; i++) {
+      final int proxyId = m_endsX[i] >> 1;
+      if ((m_endsX[i] & 1) == 0 && m_state[proxyId] == LIVE
+          && AABB.testOverlap(m_aabb[proxyId], aabb) && !callback.treeCallback(proxyId)) {
+        return;
+      }
+    }
+  }
+
+  // djm pooling, ray-casts
+  private final AABB segAABB = new AABB();
+  private final RayCastInput subInput = new RayCastInput();
+
+  @Override
+  public final void raycast(final TreeRayCastCallback callback, final RayCastInput input) {
+    final double p1x = input.p1.x, p1y = input.p1.y;
+    final double rx = input.p2.x - p1x, ry = input.p2.y - p1y;
+    final double length = Math.sqrt(rx * rx + ry * ry);
+    assert (length > 0);
+
+    // v is perpendicular to the segment.
+    final double vx = -ry / length;
+    final double vy = rx / length;
+    double maxFraction = input.maxFraction;
+    setSegmentAABB(input, maxFraction);
+
+    final int end = scanEnd(segAABB);
+    for (int i = scanStart(segAABB); i < end; i++) {
+      final int proxyId = m_endsX[i] >> 1;
+      if ((m_endsX[i] & 1) != 0 || m_state[proxyId] != LIVE) {
+        continue;
+      }
+      final AABB proxyAABB = m_aabb[proxyId];
+      if (!AABB.testOverlap(proxyAABB, segAABB)) {
+        continue;
+      }
+
+      // Separating axis for segment (Gino, p80).
+      // |dot(v, p1 - c)| > dot(|v|, h)
+      double cx = (proxyAABB.lowerBound.x + proxyAABB.upperBound.x) * .5;
+      double cy = (proxyAABB.lowerBound.y + proxyAABB.upperBound.y) * .5;
+      double hx = (proxyAABB.upperBound.x - proxyAABB.lowerBound.x) * .5;
+      double hy = (proxyAABB.upperBound.y - proxyAABB.lowerBound.y) * .5;
+      double separation =
+          Math.abs(vx * (p1x - cx) + vy * (p1y - cy)) - (Math.abs(vx) * hx + Math.abs(vy) * hy);
+      if (separation > 0.0f) {
+        continue;
+      }
+
+      subInput.p1.set(input.p1);
+      subInput.p2.set(input.p2);
+      subInput.maxFraction = maxFraction;
+      double value = callback.raycastCallback(subInput, proxyId);
+      if (value == 0.0f) {
+        // The client has terminated the ray cast.
+        return;
+      }
+      if (value > 0.0f) {
+        maxFraction = value;
+        setSegmentAABB(input, maxFraction);
+      }
+    }
+  }
+
+  private void setSegmentAABB(RayCastInput input, double maxFraction) {
+    final double p1x = input.p1.x, p1y = input.p1.y;
+    double tempx = (input.p2.x - p1x) * maxFraction + p1x;
+    double tempy = (input.p2.y - p1y) * maxFraction + p1y;
+    segAABB.lowerBound.x = p1x < tempx ? p1x : tempx;
+    segAABB.lowerBound.y = p1y < tempy ? p1y : tempy;
+    segAABB.upperBound.x = p1x > tempx ? p1x : tempx;
+    segAABB.upperBound.y = p1y > tempy ? p1y : tempy;
+  }
+
+  /**
+   * Tests the proxies one by one in x order, there is no hierarchy to narrow the packet with.
+   */
+  @Override
+  public final void queryPacket(TreePacketCallback callback, long mask, PacketStack stack) {
+    for (int i = 0; i < m_endCount; i++) {
+      final int proxyId = m_endsX[i] >> 1;
+      if ((m_endsX[i] & 1) != 0 || m_state[proxyId] != LIVE) {
+        continue;
+      }
+      final AABB proxyAABB = m_aabb[proxyId];
+      long active =
+          callback.testNode(proxyAABB.lowerBound.x, proxyAABB.lowerBound.y,
+              proxyAABB.upperBound.x, proxyAABB.upperBound.y, mask);
+      if (active != 0 && !callback.packetCallback(proxyId, active)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Pairs come out of the endpoint swaps of the moves themselves, there is nothing to split.
+   */
+  @Override
+  public void setPairThreads(int threads) {
+    assert (threads > 0);
+  }
+
+  @Override
+  public int getPairThreads() {
+    return 1;
+  }
+
+  @Override
+  public void flush() {}
+
+  /**
+   * The endpoints are always sorted, and those of destroyed proxies go on the next update.
+   */
+  @Override
+  public void rebuild() {}
+
+  /** Sweep and prune has no tree, the methods about its shape return 0. */
+  @Override
+  public final int getTreeHeight() {
+    return 0;
+  }
+
+  @Override
+  public int getTreeBalance() {
+    return 0;
+  }
+
+  @Override
+  public double getTreeQuality() {
+    return 0;
+  }
+
+  /**
+   * Moves the proxy's endpoints to its fat AABB, x then y. Lower bounds moving down go first and
+   * upper bounds moving up go first, so a proxy's bounds never pass each other.
+   */
+  private void sweep(int proxyId) {
+    final AABB aabb = m_aabb[proxyId];
+    final int lower = proxyId << 1, upper = lower | 1;
+    if (aabb.lowerBound.x < m_valuesX[m_positionsX[lower]]) {
+      sweepEnd(true, lower, aabb.lowerBound.x);
+      sweepEnd(true, upper, aabb.upperBound.x);
+    } else {
+      sweepEnd(true, upper, aabb.upperBound.x);
+      sweepEnd(true, lower, aabb.lowerBound.x);
+    }
+    if (aabb.lowerBound.y < m_valuesY[m_positionsY[lower]]) {
+      sweepEnd(false, lower, aabb.lowerBound.y);
+      sweepEnd(false, upper, aabb.upperBound.y);
+    } else {
+      sweepEnd(false, upper, aabb.upperBound.y);
+      sweepEnd(false, lower, aabb.lowerBound.y);
+    }
+    m_maxExtentX = Math.max(m_maxExtentX, aabb.upperBound.x - aabb.lowerBound.x);
+  }
+
+  private void sweepEnd(boolean axisX, int end, double value) {
+    final int[] ends = axisX ? m_endsX : m_endsY;
+    final double[] values = axisX ? m_valuesX : m_valuesY;
+    final int[] positions = axisX ? m_positionsX : m_positionsY;
+    final int proxyId = end >> 1;
+    final boolean upper = (end & 1) != 0;
+    int i = positions[end];
+
+    // Down past the endpoints above the new value. A lower bound passing an upper one starts an
+    // overlap on this axis, an upper bound passing a lower one ends it.
+    while (i > 0 && sortsBefore(value, upper, values[i - 1], ends[i - 1])) {
+      final int other = ends[i - 1];
+      if ((other & 1) != (end & 1) && (other >> 1) != proxyId && m_state[other >> 1] == LIVE) {
+        overlapChanged(axisX, proxyId, other >> 1, !upper);
+      }
+      ends[i] = other;
+      values[i] = values[i - 1];
+      positions[other] = i;
+      i--;
+    }
+    // Up past the endpoints below it, the other way around.
+    while (i < m_endCount - 1 && sortsBefore(values[i + 1], (ends[i + 1] & 1) != 0, value, end)) {
+      final int other = ends[i + 1];
+      if ((other & 1) != (end & 1) && (other >> 1) != proxyId && m_state[other >> 1] == LIVE) {
+        overlapChanged(axisX, proxyId, other >> 1, upper);
+      }
+      ends[i] = other;
+      values[i] = values[i + 1];
+      positions[other] = i;
+      i++;
+    }
+    ends[i] = end;
+    values[i] = value;
+    positions[end] = i;
+  }
+
+  private static boolean sortsBefore(double value, boolean upper, double otherValue, int other) {
+    return value < otherValue || (value == otherValue && !upper && (other & 1) != 0);
+  }
+
+  /**
+   * Records an overlap on one axis starting or ending, if the proxies overlap on the other.
+   */
+  private void overlapChanged(boolean axisX, int proxyA, int proxyB, boolean started) {
+    final double[] values = axisX ? m_valuesY : m_valuesX;
+    final int[] positions = axisX ? m_positionsY : m_positionsX;
+    if (values[positions[proxyA << 1]] > values[positions[proxyB << 1 | 1]]
+        || values[positions[proxyB << 1]] > values[positions[proxyA << 1 | 1]]) {
+      return;
+    }
+
+    if (m_eventCount == m_events.length) {
+      long[] oldEvents = m_events;
+      boolean[] oldAdds = m_eventAdds;
+      m_events = new long[m_eventCount * 2];
+      m_eventAdds = new boolean[m_eventCount * 2];
+      System.arraycopy(oldEvents, 0, m_events, 0, m_eventCount);
+      System.arraycopy(oldAdds, 0, m_eventAdds, 0, m_eventCount);
+    }
+    if (proxyA > proxyB) {
+      int t = proxyA;
+      proxyA = proxyB;
+      proxyB = t;
+    }
+    m_events[m_eventCount] = ((long) proxyA << 32) | proxyB;
+    m_eventAdds[m_eventCount] = started;
+    m_eventCount++;
+  }
+
+  /**
+   * @return the first x endpoint a box query has to look at.
+   */
+  private int scanStart(AABB aabb) {
+    // The first value not below the box's lower bound less the widest proxy.
+    final double min = aabb.lowerBound.x - m_maxExtentX;
+    int low = 0, high = m_endCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (m_valuesX[mid] < min) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the x endpoint after the last a box query has to look at.
+   */
+  private int scanEnd(AABB aabb) {
+    final double max = aabb.upperBound.x;
+    int low = 0, high = m_endCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (m_valuesX[mid] <= max) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Drops the endpoints of destroyed proxies and frees their ids.
+   */
+  private void compact() {
+    int count = compact(m_endsX, m_valuesX, m_positionsX);
+    compact(m_endsY, m_valuesY, m_positionsY);
+    m_endCount = count;
+
+    m_maxExtentX = 0;
+    for (int i = 0; i < m_proxyCapacity; i++) {
+      if (m_state[i] == DEAD) {
+        m_state[i] = FREE;
+        m_nextFree[i] = m_freeList;
+        m_freeList = i;
+      } else if (m_state[i] == LIVE) {
+        m_maxExtentX = Math.max(m_maxExtentX, m_aabb[i].upperBound.x - m_aabb[i].lowerBound.x);
+      }
+    }
+    m_deadCount = 0;
+  }
+
+  private int compact(int[] ends, double[] values, int[] positions) {
+    int count = 0;
+    for (int i = 0; i < m_endCount; i++) {
+      final int end = ends[i];
+      if (m_state[end >> 1] == LIVE) {
+        ends[count] = end;
+        values[count] = values[i];
+        positions[end] = count;
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private void growProxies() {
+    final int oldCapacity = m_proxyCapacity;
+    m_proxyCapacity *= 2;
+    AABB[] aabbs = new AABB[m_proxyCapacity];
+    System.arraycopy(m_aabb, 0, aabbs, 0, oldCapacity);
+    m_aabb = aabbs;
+    Object[] userData = new Object[m_proxyCapacity];
+    System.arraycopy(m_userData, 0, userData, 0, oldCapacity);
+    m_userData = userData;
+    m_state = grow(m_state, m_proxyCapacity);
+    m_nextFree = grow(m_nextFree, m_proxyCapacity);
+    for (int i = oldCapacity; i < m_proxyCapacity; i++) {
+      m_aabb[i] = new AABB();
+      m_nextFree[i] = i + 1 < m_proxyCapacity ? i + 1 : NULL_PROXY;
+    }
+    m_freeList = oldCapacity;
+
+    m_endsX = grow(m_endsX, m_proxyCapacity * 2);
+    m_endsY = grow(m_endsY, m_proxyCapacity * 2);
+    m_positionsX = grow(m_positionsX, m_proxyCapacity * 2);
+    m_positionsY = grow(m_positionsY, m_proxyCapacity * 2);
+    double[] valuesX = new double[m_proxyCapacity * 2];
+    System.arraycopy(m_valuesX, 0, valuesX, 0, m_valuesX.length);
+    m_valuesX = valuesX;
+    double[] valuesY = new double[m_proxyCapacity * 2];
+    System.arraycopy(m_valuesY, 0, valuesY, 0, m_valuesY.length);
+    m_valuesY = valuesY;
+  }
+
+  private static int[] grow(int[] array, int capacity) {
+    int[] grown = new int[capacity];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
@@ -0,0 +1,414 @@
+package physics.collision.shapes;
+
+import java.util.Arrays;
+
+import physics.collision.AABB;
+import physics.collision.RayCastInput;
+import physics.collision.RayCastOutput;
+import physics.common.Rot;
+import physics.common.Settings;
+import physics.common.Transform;
+import physics.common.Vec2;
+
+/**
+ * A grid of square solid or empty cells, collided as the union of its solid cells. Only the faces
+ * between a solid and an empty cell collide, so bodies slide over a flat run of cells as if it were
+ * one edge.
+ *
+ * The grid is bordered by a ring of cells that never collide themselves but hide the faces next to
+ * them, so grids tiling a larger one (chunks of it) collide like the larger grid would.
+ *
+ * The exposed faces are merged into straight runs, which are the children of the grid like the edges
+ * of a chain. Each run collides as its face, an edge connected to the faces around it, or as the box
+ * of cells behind that face, see {@link #getChildEdge} and {@link #getChildBox}.
+ */
+public class GridShape extends Shape {
+  /** The outward normals of the faces of a cell, indexed by the face of a run. */
+  private static final int[] FACE_NX = { 0, 0, 1, -1 };
+  private static final int[] FACE_NY = { 1, -1, 0, 0 };
+  private static final int RUN_SIZE = 5;
+
+  /** The lower left corner of cell (0, 0), body coordinates. */
+  public final Vec2 m_origin = new Vec2();
+  public double m_cellSize;
+  public int m_width, m_height;
+
+  /** Cell occupancy including the border, (width + 2) by (height + 2), see {@link #isSolid}. */
+  public boolean[] m_cells;
+
+  /** The number of solid cells inside the border and the cells bounding them, upper exclusive. */
+  public int m_count;
+  public int m_lowerX, m_lowerY, m_upperX, m_upperY;
+
+  /**
+   * The runs of exposed faces, {@link #m_runCount} of them. Each is the cells behind it, lower x and y
+   * then upper x and y exclusive, followed by the index of its face.
+   */
+  public int[] m_runs;
+  public int m_runCount;
+
+  public GridShape() {
+    super(ShapeType.GRID);
+    m_radius = Settings.polygonRadius;
+  }
+
+  /**
+   * Sets the cells of the grid.
+   *
+   * @param cells row by row from (-1, -1) to (width, height), the border included. Copied.
+   * @param origin the lower left corner of cell (0, 0)
+   */
+  public GridShape set(boolean[] cells, int width, int height, double cellSize, Vec2 origin) {
+    assert (cells.length >= (width + 2) * (height + 2));
+    m_width = width;
+    m_height = height;
+    m_cellSize = cellSize;
+    m_origin.set(origin);
+    m_cells = new boolean[(width + 2) * (height + 2)];
+    System.arraycopy(cells, 0, m_cells, 0, m_cells.length);
+
+    m_count = 0;
+    m_lowerX = m_lowerY = Integer.MAX_VALUE;
+    m_upperX = m_upperY = Integer.MIN_VALUE;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (isSolid(x, y)) {
+          m_count++;
+          m_lowerX = Math.min(m_lowerX, x);
+          m_lowerY = Math.min(m_lowerY, y);
+          m_upperX = Math.max(m_upperX, x + 1);
+          m_upperY = Math.max(m_upperY, y + 1);
+        }
+      }
+    }
+    if (m_count == 0) {
+      m_lowerX = m_lowerY = m_upperX = m_upperY = 0;
+    }
+
+    // Merge the exposed faces into runs, the faces with outward normal n run along d.
+    int[] runs = new int[16 * RUN_SIZE];
+    m_runCount = 0;
+    for (int face = 0; face < 4; face++) {
+      final int nx = FACE_NX[face];
+      final int ny = FACE_NY[face];
+      final int dx = -ny;
+      final int dy = nx;
+      for (int y = m_lowerY; y < m_upperY; y++) {
+        for (int x = m_lowerX; x < m_upperX; x++) {
+          if (!isExposed(x, y, nx, ny)
+              || (collides(x - dx, y - dy) && isExposed(x - dx, y - dy, nx, ny))) {
+            continue;
+          }
+          int ex = x, ey = y;
+          while (collides(ex + dx, ey + dy) && isExposed(ex + dx, ey + dy, nx, ny)) {
+            ex += dx;
+            ey += dy;
+          }
+
+          if ((m_runCount + 1) * RUN_SIZE > runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+          }
+          final int i = m_runCount * RUN_SIZE;
+          runs[i] = Math.min(x, ex);
+          runs[i + 1] = Math.min(y, ey);
+          runs[i + 2] = Math.max(x, ex) + 1;
+          runs[i + 3] = Math.max(y, ey) + 1;
+          runs[i + 4] = face;
+          m_runCount++;
+        }
+      }
+    }
+    m_runs = Arrays.copyOf(runs, m_runCount * RUN_SIZE);
+    return this;
+  }
+
+  /**
+   * @return true if the cell is solid, border cells included. False outside the border.
+   */
+  public final boolean isSolid(int x, int y) {
+    if (x < -1 || y < -1 || x > m_width || y > m_height) {
+      return false;
+    }
+    return m_cells[(x + 1) + (y + 1) * (m_width + 2)];
+  }
+
+  private boolean collides(int x, int y) {
+    return x >= 0 && y >= 0 && x < m_width && y < m_height && isSolid(x, y);
+  }
+
+  private boolean isExposed(int x, int y, int nx, int ny) {
+    return isSolid(x, y) && !isSolid(x + nx, y + ny);
+  }
+
+  @Override
+  public int getChildCount() {
+    return m_runCount;
+  }
+
+  /**
+   * Gets a run as its face, connected to the faces around it by the adjacent vertices so bodies slide
+   * over the corners of the runs.
+   */
+  public void getChildEdge(EdgeShape edge, int index) {
+    assert (0 <= index && index < m_runCount);
+    final int i = index * RUN_SIZE;
+    final int face = m_runs[i + 4];
+    final int nx = FACE_NX[face];
+    final int ny = FACE_NY[face];
+    final int dx = -ny;
+    final int dy = nx;
+
+    // the first and last cells along d
+    final int x = dx < 0 ? m_runs[i + 2] - 1 : m_runs[i];
+    final int y = dy < 0 ? m_runs[i + 3] - 1 : m_runs[i + 1];
+    final int ex = dx > 0 ? m_runs[i + 2] - 1 : m_runs[i];
+    final int ey = dy > 0 ? m_runs[i + 3] - 1 : m_runs[i + 1];
+
+    // corners of the run, in cells
+    final double qx = x + .5 + nx * .5 - dx * .5, qy = y + .5 + ny * .5 - dy * .5;
+    final double px = ex + .5 + nx * .5 + dx * .5, py = ey + .5 + ny * .5 + dy * .5;
+    edge.m_radius = m_radius;
+    setVertex(edge.m_vertex1, qx, qy);
+    setVertex(edge.m_vertex2, px, py);
+
+    // Adjacent vertices: straight on if the faces go on into the border, else round a convex or
+    // concave corner.
+    final int sx = x - dx, sy = y - dy;
+    if (isExposed(sx, sy, nx, ny)) {
+      setVertex(edge.m_vertex0, qx - dx, qy - dy);
+    } else if (!isSolid(sx, sy)) {
+      setVertex(edge.m_vertex0, qx - nx, qy - ny);
+    } else {
+      setVertex(edge.m_vertex0, qx + nx, qy + ny);
+    }
+    final int ax = ex + dx, ay = ey + dy;
+    if (isExposed(ax, ay, nx, ny)) {
+      setVertex(edge.m_vertex3, px + dx, py + dy);
+    } else if (!isSolid(ax, ay)) {
+      setVertex(edge.m_vertex3, px - nx, py - ny);
+    } else {
+      setVertex(edge.m_vertex3, px + nx, py + ny);
+    }
+    edge.m_hasVertex0 = true;
+    edge.m_hasVertex3 = true;
+  }
+
+  /**
+   * Gets a run as the box of cells behind its face.
+   */
+  public void getChildBox(PolygonShape box, int index) {
+    assert (0 <= index && index < m_runCount);
+    final int i = index * RUN_SIZE;
+    final double hx = (m_runs[i + 2] - m_runs[i]) * .5 * m_cellSize;
+    final double hy = (m_runs[i + 3] - m_runs[i + 1]) * .5 * m_cellSize;
+    final double cx = m_origin.x + m_runs[i] * m_cellSize + hx;
+    final double cy = m_origin.y + m_runs[i + 1] * m_cellSize + hy;
+    box.setAsBox(hx, hy);
+    for (int j = 0; j < box.m_count; j++) {
+      box.m_vertices[j].x += cx;
+      box.m_vertices[j].y += cy;
+    }
+    box.m_centroid.set(cx, cy);
+    box.m_radius = m_radius;
+  }
+
+  /**
+   * Gets the corners of the box of cells behind a run, counter-clockwise from the lower left. This
+   * is what the run sweeps as in time of impact.
+   */
+  public void getChildCorners(Vec2[] out, int index) {
+    assert (0 <= index && index < m_runCount);
+    final int i = index * RUN_SIZE;
+    final double lx = m_origin.x + m_runs[i] * m_cellSize;
+    final double ly = m_origin.y + m_runs[i + 1] * m_cellSize;
+    final double ux = m_origin.x + m_runs[i + 2] * m_cellSize;
+    final double uy = m_origin.y + m_runs[i + 3] * m_cellSize;
+    out[0].set(lx, ly);
+    out[1].set(ux, ly);
+    out[2].set(ux, uy);
+    out[3].set(lx, uy);
+  }
+
+  private void setVertex(Vec2 out, double x, double y) {
+    out.x = m_origin.x + x * m_cellSize;
+    out.y = m_origin.y + y * m_cellSize;
+  }
+
+  @Override
+  public boolean testPoint(Transform xf, Vec2 p) {
+    final Rot q = xf.q;
+    double tx = p.x - xf.p.x;
+    double ty = p.y - xf.p.y;
+    double px = ((q.c * tx + q.s * ty) - m_origin.x) / m_cellSize;
+    double py = ((-q.s * tx + q.c * ty) - m_origin.y) / m_cellSize;
+    return collides((int) Math.floor(px), (int) Math.floor(py));
+  }
+
+  @Override
+  public double computeDistanceToOut(Transform xf, Vec2 p, int childIndex, Vec2 normalOut) {
+    final Rot q = xf.q;
+    double tx = p.x - xf.p.x;
+    double ty = p.y - xf.p.y;
+    double px = ((q.c * tx + q.s * ty) - m_origin.x) / m_cellSize;
+    double py = ((-q.s * tx + q.c * ty) - m_origin.y) / m_cellSize;
+    int cx = (int) Math.floor(px);
+    int cy = (int) Math.floor(py);
+
+    double nx, ny, distance;
+    if (collides(cx, cy)) {
+      // Inside, out through the nearest face of the cell.
+      nx = -1;
+      ny = 0;
+      distance = px - cx;
+      if (cx + 1 - px < distance) {
+        nx = 1;
+        distance = cx + 1 - px;
+      }
+      if (py - cy < distance) {
+        nx = 0;
+        ny = -1;
+        distance = py - cy;
+      }
+      if (cy + 1 - py < distance) {
+        nx = 0;
+        ny = 1;
+        distance = cy + 1 - py;
+      }
+      distance = -distance;
+    } else {
+      double best = Double.MAX_VALUE;
+      double bestX = px, bestY = py;
+      for (int y = m_lowerY; y < m_upperY; y++) {
+        for (int x = m_lowerX; x < m_upperX; x++) {
+          if (!collides(x, y)) {
+            continue;
+          }
+          double qx = px < x ? x : px > x + 1 ? x + 1 : px;
+          double qy = py < y ? y : py > y + 1 ? y + 1 : py;
+          double d = (px - qx) * (px - qx) + (py - qy) * (py - qy);
+          if (d < best) {
+            best = d;
+            bestX = qx;
+            bestY = qy;
+          }
+        }
+      }
+      distance = Math.sqrt(best);
+      nx = distance > Settings.EPSILON ? (px - bestX) / distance : 0;
+      ny = distance > Settings.EPSILON ? (py - bestY) / distance : 0;
+    }
+
+    normalOut.x = q.c * nx - q.s * ny;
+    normalOut.y = q.s * nx + q.c * ny;
+    return distance * m_cellSize;
+  }
+
+  @Override
+  public boolean raycast(RayCastOutput output, RayCastInput input, Transform xf, int childIndex) {
+    assert (0 <= childIndex && childIndex < m_runCount);
+    final int i = childIndex * RUN_SIZE;
+    final int face = m_runs[i + 4];
+    final int nx = FACE_NX[face];
+    final int ny = FACE_NY[face];
+
+    // Put the ray into the grid's frame, in cells.
+    final Rot q = xf.q;
+    double tx = input.p1.x - xf.p.x;
+    double ty = input.p1.y - xf.p.y;
+    final double p1x = ((q.c * tx + q.s * ty) - m_origin.x) / m_cellSize;
+    final double p1y = ((-q.s * tx + q.c * ty) - m_origin.y) / m_cellSize;
+    tx = input.p2.x - xf.p.x;
+    ty = input.p2.y - xf.p.y;
+    final double dx = ((q.c * tx + q.s * ty) - m_origin.x) / m_cellSize - p1x;
+    final double dy = ((-q.s * tx + q.c * ty) - m_origin.y) / m_cellSize - p1y;
+
+    // The face is only hit from its open side, the first solid cell a ray enters is behind one.
+    if (dx * nx + dy * ny >= 0) {
+      return false;
+    }
+
+    double t, along;
+    int lower, upper;
+    if (nx != 0) {
+      t = ((nx > 0 ? m_runs[i + 2] : m_runs[i]) - p1x) / dx;
+      along = p1y + t * dy;
+      lower = m_runs[i + 1];
+      upper = m_runs[i + 3];
+    } else {
+      t = ((ny > 0 ? m_runs[i + 3] : m_runs[i + 1]) - p1y) / dy;
+      along = p1x + t * dx;
+      lower = m_runs[i];
+      upper = m_runs[i + 2];
+    }
+    if (t < 0 || t > input.maxFraction || along < lower || along > upper) {
+      return false;
+    }
+
+    output.fraction = t;
+    output.normal.x = q.c * nx - q.s * ny;
+    output.normal.y = q.s * nx + q.c * ny;
+    return true;
+  }
+
+  @Override
+  public void computeAABB(AABB aabb, Transform xf, int childIndex) {
+    assert (0 <= childIndex && childIndex < m_runCount);
+    final int i = childIndex * RUN_SIZE;
+    final Rot q = xf.q;
+    final double lx = m_origin.x + m_runs[i] * m_cellSize;
+    final double ly = m_origin.y + m_runs[i + 1] * m_cellSize;
+    final double ux = m_origin.x + m_runs[i + 2] * m_cellSize;
+    final double uy = m_origin.y + m_runs[i + 3] * m_cellSize;
+
+    // The corners of the box are the extremes of their rotation.
+    final double cx = (lx + ux) * .5;
+    final double cy = (ly + uy) * .5;
+    final double hx = (ux - lx) * .5;
+    final double hy = (uy - ly) * .5;
+    final double ex = Math.abs(q.c) * hx + Math.abs(q.s) * hy + m_radius;
+    final double ey = Math.abs(q.s) * hx + Math.abs(q.c) * hy + m_radius;
+    final double px = q.c * cx - q.s * cy + xf.p.x;
+    final double py = q.s * cx + q.c * cy + xf.p.y;
+    aabb.lowerBound.x = px - ex;
+    aabb.lowerBound.y = py - ey;
+    aabb.upperBound.x = px + ex;
+    aabb.upperBound.y = py + ey;
+  }
+
+  @Override
+  public void computeMass(MassData massData, double density) {
+    // Each cell is a square of side s, I = m * s * s / 6 about its center.
+    final double area = m_cellSize * m_cellSize;
+    double sumX = 0, sumY = 0, sumSquares = 0;
+    for (int y = m_lowerY; y < m_upperY; y++) {
+      for (int x = m_lowerX; x < m_upperX; x++) {
+        if (collides(x, y)) {
+          double cx = m_origin.x + (x + .5) * m_cellSize;
+          double cy = m_origin.y + (y + .5) * m_cellSize;
+          sumX += cx;
+          sumY += cy;
+          sumSquares += cx * cx + cy * cy;
+        }
+      }
+    }
+
+    final double cellMass = density * area;
+    massData.mass = cellMass * m_count;
+    if (m_count == 0) {
+      massData.center.setZero();
+    } else {
+      massData.center.set(sumX / m_count, sumY / m_count);
+    }
+    massData.I = cellMass * (m_count * area / 6 + sumSquares);
+  }
+
+  @Override
+  public Shape clone() {
+    GridShape clone = new GridShape();
+    clone.m_radius = m_radius;
+    if (m_cells != null) {
+      clone.set(m_cells, m_width, m_height, m_cellSize, m_origin);
+    }
+    return clone;
+  }
+}
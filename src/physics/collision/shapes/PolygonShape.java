@@ -63,6 +63,13 @@ public class PolygonShape extends Shape {
    */
   public int m_count;
 
+  /**
+   * True if the shape was made by setAsBox. Its four vertices and normals are in the order setAsBox
+   * gives them, and two boxes collide through
+   * {@link physics.collision.Collision#collideBoxes}.
+   */
+  public boolean m_box;
+
   // pooling
   private final Vec2 pool1 = new Vec2();
   private final Vec2 pool2 = new Vec2();
@@ -96,6 +103,7 @@ public final Shape clone() {
     }
     shape.setRadius(this.getRadius());
     shape.m_count = this.m_count;
+    shape.m_box = this.m_box;
     return shape;
   }
 
@@ -209,6 +217,7 @@ public final Shape clone() {
     }
 
     this.m_count = m;
+    this.m_box = false;
 
     // Copy vertices.
     for (int i = 0; i < m_count; ++i) {
@@ -243,6 +252,7 @@ public final Shape clone() {
    */
   public final void setAsBox(final double hx, final double hy) {
     m_count = 4;
+    m_box = true;
     m_vertices[0].set(-hx, -hy);
     m_vertices[1].set(hx, -hy);
     m_vertices[2].set(hx, hy);
@@ -265,6 +275,7 @@ public final Shape clone() {
    */
   public final Shape setAsBox(final double hx, final double hy, final Vec2 center, final double angle) {
     m_count = 4;
+    m_box = true;
     m_vertices[0].set(-hx, -hy);
     m_vertices[1].set(hx, -hy);
     m_vertices[2].set(hx, hy);
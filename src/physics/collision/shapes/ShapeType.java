@@ -28,5 +28,5 @@ package physics.collision.shapes;
  * @author Daniel
  */
 public enum ShapeType {
-	CIRCLE, EDGE, POLYGON, CHAIN
+	CIRCLE, EDGE, POLYGON, CHAIN, GRID
 }
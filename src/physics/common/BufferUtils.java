@@ -42,6 +42,16 @@ public class BufferUtils {
     return newBuffer;
   }
 
+  /** Reallocate a buffer. */
+  public static float[] reallocateBuffer(float[] oldBuffer, int oldCapacity, int newCapacity) {
+    assert (newCapacity > oldCapacity);
+    float[] newBuffer = new float[newCapacity];
+    if (oldBuffer != null) {
+      System.arraycopy(oldBuffer, 0, newBuffer, 0, oldCapacity);
+    }
+    return newBuffer;
+  }
+
   /**
    * Reallocate a buffer. A 'deferred' buffer is reallocated only if it is not NULL. If
    * 'userSuppliedCapacity' is not zero, buffer is user supplied and must be kept.
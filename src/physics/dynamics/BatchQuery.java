@@ -0,0 +1,344 @@
+package physics.dynamics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import physics.callbacks.TreePacketCallback;
+import physics.collision.RayCastInput;
+import physics.collision.RayCastOutput;
+import physics.collision.broadphase.BroadPhase;
+import physics.collision.broadphase.PacketStack;
+import physics.collision.shapes.ShapeType;
+
+/**
+ * Runs batches of box queries and ray-casts against the broad-phase. The queries are cut into
+ * packets of {@link #PACKET_SIZE} neighbouring entries and the tree is walked once per packet,
+ * each node being tested against the queries still active below it. Packets are shared out between
+ * the threads, each thread owning its scratch, and the hits go straight into the caller's arrays.
+ *
+ * Packets only pay off when their queries are close together, rays fanned out from one point in
+ * angle order or boxes in scan order, for example.
+ */
+class BatchQuery {
+  static final int PACKET_SIZE = 64;
+
+  private final World m_world;
+  private final ForkJoinPool m_executor;
+  private final Worker[] m_workers;
+
+  // the batch being run
+  private BroadPhase m_broadPhase;
+  private boolean m_rays;
+  private double[] m_input;
+  private int m_count;
+  private Fixture[] m_fixtures;
+  private int[] m_hitCounts;
+  private int m_maxHits;
+  private double[] m_fractions;
+  private double[] m_points;
+  private double[] m_normals;
+
+  private final AtomicInteger m_nextPacket = new AtomicInteger();
+
+  BatchQuery(World world, int threads) {
+    assert (threads > 0);
+    m_world = world;
+    m_executor = threads > 1 ? new ForkJoinPool(threads - 1) : null;
+    m_workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      m_workers[i] = new Worker();
+    }
+  }
+
+  int getThreadCount() {
+    return m_workers.length;
+  }
+
+  void shutdown() {
+    if (m_executor != null) {
+      m_executor.shutdown();
+    }
+  }
+
+  int queryAABBs(double[] boxes, int count, Fixture[] fixtures, int[] hitCounts, int maxHits) {
+    assert (boxes.length >= count * 4);
+    assert (hitCounts.length >= count && fixtures.length >= count * maxHits);
+    m_rays = false;
+    m_input = boxes;
+    m_count = count;
+    m_fixtures = fixtures;
+    m_hitCounts = hitCounts;
+    m_maxHits = maxHits;
+    int hits = run();
+    m_input = null;
+    m_fixtures = null;
+    m_hitCounts = null;
+    return hits;
+  }
+
+  int raycastClosest(double[] rays, int count, Fixture[] fixtures, double[] fractions,
+      double[] points, double[] normals) {
+    assert (rays.length >= count * 4);
+    assert (fixtures.length >= count && fractions.length >= count);
+    assert (points == null || points.length >= count * 2);
+    assert (normals == null || normals.length >= count * 2);
+    m_rays = true;
+    m_input = rays;
+    m_count = count;
+    m_fixtures = fixtures;
+    m_fractions = fractions;
+    m_points = points;
+    m_normals = normals;
+    int hits = run();
+    m_input = null;
+    m_fixtures = null;
+    m_fractions = null;
+    m_points = null;
+    m_normals = null;
+    return hits;
+  }
+
+  private int run() {
+    if (m_count == 0) {
+      return 0;
+    }
+    m_broadPhase = m_world.getContactManager().m_broadPhase;
+    // the walks below only read the tree
+    m_broadPhase.flush();
+    m_nextPacket.set(0);
+
+    int packets = (m_count + PACKET_SIZE - 1) / PACKET_SIZE;
+    int workers = Math.min(m_workers.length, packets);
+    for (int i = 0; i < workers; i++) {
+      m_workers[i].begin();
+    }
+    for (int i = 1; i < workers; i++) {
+      m_executor.execute(m_workers[i]);
+    }
+    m_workers[0].runPackets();
+    for (int i = 1; i < workers; i++) {
+      m_workers[i].join();
+    }
+
+    int hits = 0;
+    for (int i = 0; i < workers; i++) {
+      hits += m_workers[i].hits;
+    }
+    return hits;
+  }
+
+  private class Worker extends RecursiveAction implements TreePacketCallback {
+    private static final long serialVersionUID = 1L;
+
+    final PacketStack stack = new PacketStack();
+    int hits;
+
+    // the packet being walked
+    private int base;
+    private double unionLowerX, unionLowerY, unionUpperX, unionUpperY;
+
+    // per ray of the packet: the segment up to the closest hit so far, its bounds and normal
+    private final double[] p1x = new double[PACKET_SIZE];
+    private final double[] p1y = new double[PACKET_SIZE];
+    private final double[] p2x = new double[PACKET_SIZE];
+    private final double[] p2y = new double[PACKET_SIZE];
+    private final double[] maxFraction = new double[PACKET_SIZE];
+    private final double[] lowerX = new double[PACKET_SIZE];
+    private final double[] lowerY = new double[PACKET_SIZE];
+    private final double[] upperX = new double[PACKET_SIZE];
+    private final double[] upperY = new double[PACKET_SIZE];
+    private final double[] vx = new double[PACKET_SIZE];
+    private final double[] vy = new double[PACKET_SIZE];
+
+    // djm pooling
+    private final RayCastInput input = new RayCastInput();
+    private final RayCastOutput output = new RayCastOutput();
+
+    void begin() {
+      reinitialize();
+      hits = 0;
+    }
+
+    @Override
+    protected void compute() {
+      runPackets();
+    }
+
+    void runPackets() {
+      while ((base = m_nextPacket.getAndIncrement() * PACKET_SIZE) < m_count) {
+        int size = Math.min(PACKET_SIZE, m_count - base);
+        long mask = m_rays ? beginRays(size) : beginBoxes(size);
+        if (mask != 0) {
+          m_broadPhase.queryPacket(this, mask, stack);
+        }
+        if (m_rays) {
+          for (int i = 0; i < size; i++) {
+            if (m_fixtures[base + i] != null) {
+              hits++;
+            }
+          }
+        }
+      }
+    }
+
+    private long beginBoxes(int size) {
+      final double[] boxes = m_input;
+      unionLowerX = unionLowerY = Double.MAX_VALUE;
+      unionUpperX = unionUpperY = -Double.MAX_VALUE;
+      for (int i = 0; i < size; i++) {
+        int q = (base + i) * 4;
+        unionLowerX = Math.min(unionLowerX, boxes[q]);
+        unionLowerY = Math.min(unionLowerY, boxes[q + 1]);
+        unionUpperX = Math.max(unionUpperX, boxes[q + 2]);
+        unionUpperY = Math.max(unionUpperY, boxes[q + 3]);
+        m_hitCounts[base + i] = 0;
+      }
+      return size == PACKET_SIZE ? -1L : (1L << size) - 1;
+    }
+
+    private long beginRays(int size) {
+      final double[] rays = m_input;
+      long mask = 0;
+      unionLowerX = unionLowerY = Double.MAX_VALUE;
+      unionUpperX = unionUpperY = -Double.MAX_VALUE;
+      for (int i = 0; i < size; i++) {
+        int q = (base + i) * 4;
+        m_fixtures[base + i] = null;
+        m_fractions[base + i] = 1;
+        double ax = rays[q], ay = rays[q + 1], bx = rays[q + 2], by = rays[q + 3];
+        double rx = bx - ax, ry = by - ay;
+        double length = Math.sqrt(rx * rx + ry * ry);
+        if (length == 0) {
+          continue;
+        }
+        p1x[i] = ax;
+        p1y[i] = ay;
+        p2x[i] = bx;
+        p2y[i] = by;
+        maxFraction[i] = 1;
+        // v is perpendicular to the segment.
+        vx[i] = -ry / length;
+        vy[i] = rx / length;
+        setSegmentBounds(i);
+        unionLowerX = Math.min(unionLowerX, lowerX[i]);
+        unionLowerY = Math.min(unionLowerY, lowerY[i]);
+        unionUpperX = Math.max(unionUpperX, upperX[i]);
+        unionUpperY = Math.max(unionUpperY, upperY[i]);
+        mask |= 1L << i;
+      }
+      return mask;
+    }
+
+    private void setSegmentBounds(int i) {
+      double tx = (p2x[i] - p1x[i]) * maxFraction[i] + p1x[i];
+      double ty = (p2y[i] - p1y[i]) * maxFraction[i] + p1y[i];
+      lowerX[i] = p1x[i] < tx ? p1x[i] : tx;
+      lowerY[i] = p1y[i] < ty ? p1y[i] : ty;
+      upperX[i] = p1x[i] > tx ? p1x[i] : tx;
+      upperY[i] = p1y[i] > ty ? p1y[i] : ty;
+    }
+
+    @Override
+    public long testNode(double nodeLowerX, double nodeLowerY, double nodeUpperX,
+        double nodeUpperY, long mask) {
+      if (unionLowerX > nodeUpperX || unionLowerY > nodeUpperY || nodeLowerX > unionUpperX
+          || nodeLowerY > unionUpperY) {
+        return 0;
+      }
+
+      long active = 0;
+      if (m_rays) {
+        double cx = (nodeLowerX + nodeUpperX) * .5;
+        double cy = (nodeLowerY + nodeUpperY) * .5;
+        double hx = (nodeUpperX - nodeLowerX) * .5;
+        double hy = (nodeUpperY - nodeLowerY) * .5;
+        for (long m = mask; m != 0; m &= m - 1) {
+          int i = Long.numberOfTrailingZeros(m);
+          if (lowerX[i] > nodeUpperX || lowerY[i] > nodeUpperY || nodeLowerX > upperX[i]
+              || nodeLowerY > upperY[i]) {
+            continue;
+          }
+          // Separating axis for segment (Gino, p80).
+          // |dot(v, p1 - c)| > dot(|v|, h)
+          double separation =
+              Math.abs(vx[i] * (p1x[i] - cx) + vy[i] * (p1y[i] - cy))
+                  - (Math.abs(vx[i]) * hx + Math.abs(vy[i]) * hy);
+          if (separation <= 0) {
+            active |= 1L << i;
+          }
+        }
+      } else {
+        final double[] boxes = m_input;
+        for (long m = mask; m != 0; m &= m - 1) {
+          int i = Long.numberOfTrailingZeros(m);
+          int q = (base + i) * 4;
+          if (boxes[q] <= nodeUpperX && boxes[q + 1] <= nodeUpperY && nodeLowerX <= boxes[q + 2]
+              && nodeLowerY <= boxes[q + 3]) {
+            active |= 1L << i;
+          }
+        }
+      }
+      return active;
+    }
+
+    @Override
+    public boolean packetCallback(int proxyId, long mask) {
+      FixtureProxy proxy = (FixtureProxy) m_broadPhase.getUserData(proxyId);
+      Fixture fixture = proxy.fixture;
+
+      if (!m_rays) {
+        for (long m = mask; m != 0; m &= m - 1) {
+          int q = base + Long.numberOfTrailingZeros(m);
+          int count = m_hitCounts[q];
+          if (count < m_maxHits) {
+            m_fixtures[q * m_maxHits + count] = fixture;
+          }
+          m_hitCounts[q] = count + 1;
+          hits++;
+        }
+        return true;
+      }
+
+      for (long m = mask; m != 0; m &= m - 1) {
+        int i = Long.numberOfTrailingZeros(m);
+        input.p1.x = p1x[i];
+        input.p1.y = p1y[i];
+        input.p2.x = p2x[i];
+        input.p2.y = p2y[i];
+        input.maxFraction = maxFraction[i];
+        if (!raycast(fixture, proxy.childIndex)) {
+          continue;
+        }
+
+        double fraction = output.fraction;
+        int q = base + i;
+        m_fixtures[q] = fixture;
+        m_fractions[q] = fraction;
+        if (m_points != null) {
+          m_points[q * 2] = (1 - fraction) * p1x[i] + fraction * p2x[i];
+          m_points[q * 2 + 1] = (1 - fraction) * p1y[i] + fraction * p2y[i];
+        }
+        if (m_normals != null) {
+          m_normals[q * 2] = output.normal.x;
+          m_normals[q * 2 + 1] = output.normal.y;
+        }
+        maxFraction[i] = fraction;
+        setSegmentBounds(i);
+      }
+      return true;
+    }
+
+    private boolean raycast(Fixture fixture, int childIndex) {
+      ShapeType type = fixture.getType();
+      if (m_executor == null || type == ShapeType.POLYGON || type == ShapeType.CIRCLE
+        || type == ShapeType.GRID) {
+        return fixture.raycast(output, input, childIndex);
+      }
+      // edge and chain shapes ray-cast through scratch of their own
+      synchronized (fixture.m_shape) {
+        return fixture.raycast(output, input, childIndex);
+      }
+    }
+  }
+}
@@ -54,6 +54,18 @@ public class Body {
 
 	public int m_islandIndex;
 
+	/**
+	 * The persistent island this body belongs to, null for static and inactive bodies.
+	 */
+	public PersistentIsland m_island;
+	public Body m_islandPrev;
+	public Body m_islandNext;
+
+	/**
+	 * Position of this body in the world's awake set, -1 when it is not in there.
+	 */
+	public int m_awakeIndex = -1;
+
 	/**
 	 * The body origin transform.
 	 */
@@ -131,6 +143,7 @@ public class Body {
 
 		m_xf.p.set(bd.position);
 		m_xf.q.set(bd.angle);
+		m_xf0.set(m_xf);
 
 		m_sweep.localCenter.setZero();
 		m_sweep.c0.set(m_xf.p);
@@ -333,6 +346,11 @@ public class Body {
 		m_sweep.c0.set(m_sweep.c);
 		m_sweep.a0 = m_sweep.a;
 
+		// Only awake bodies get their previous transform refreshed by the step.
+		if (m_awakeIndex < 0) {
+			m_xf0.set(m_xf);
+		}
+
 		BroadPhase broadPhase = m_world.m_contactManager.m_broadPhase;
 		for (Fixture f = m_fixtureList; f != null; f = f.m_next) {
 			f.synchronize(broadPhase, m_xf, m_xf);
@@ -883,6 +901,8 @@ public class Body {
 			return;
 		}
 
+		m_world.m_islandGraph.detach(this);
+
 		m_type = type;
 
 		resetMassData();
@@ -896,6 +916,7 @@ public class Body {
 		}
 
 		setAwake(true);
+		m_world.updateAwakeSet(this);
 
 		m_force.setZero();
 		m_torque = 0.0f;
@@ -914,9 +935,13 @@ public class Body {
 		for (Fixture f = m_fixtureList; f != null; f = f.m_next) {
 			int proxyCount = f.m_proxyCount;
 			for (int i = 0; i < proxyCount; ++i) {
-				broadPhase.touchProxy(f.m_proxies[i].proxyId);
+				FixtureProxy proxy = f.m_proxies[i];
+				broadPhase.setProxyStatic(proxy.proxyId, proxy.aabb, m_type == BodyType.STATIC);
+				broadPhase.touchProxy(proxy.proxyId);
 			}
 		}
+
+		m_world.m_islandGraph.attach(this);
 	}
 
 	/** Is this body treated like a bullet for continuous collision detection? */
@@ -967,9 +992,17 @@ public class Body {
 			if ((m_flags & e_awakeFlag) == 0) {
 				m_flags |= e_awakeFlag;
 				m_sleepTime = 0.0f;
+				if (m_island != null) {
+					++m_island.m_awakeCount;
+				}
+				m_world.updateAwakeSet(this);
 			}
 		} else {
+			if ((m_flags & e_awakeFlag) != 0 && m_island != null) {
+				--m_island.m_awakeCount;
+			}
 			m_flags &= ~e_awakeFlag;
+			m_world.updateAwakeSet(this);
 			m_sleepTime = 0.0f;
 			m_linearVelocity.setZero();
 			m_angularVelocity = 0.0f;
@@ -1006,6 +1039,8 @@ public class Body {
 			return;
 		}
 
+		m_world.m_islandGraph.detach(this);
+
 		if (flag) {
 			m_flags |= e_activeFlag;
 
@@ -1034,6 +1069,8 @@ public class Body {
 			}
 			m_contactList = null;
 		}
+
+		m_world.m_islandGraph.attach(this);
 	}
 
 	/**
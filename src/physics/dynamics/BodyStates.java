@@ -0,0 +1,72 @@
+package physics.dynamics;
+
+/**
+ * The solver state of the bodies in an island, one column per component. A body's row is its
+ * {@link Body#m_islandIndex}. The island fills the rows before solving and copies them back to the
+ * bodies afterwards, the contact solver and the joints read and write the columns in between.
+ */
+public class BodyStates {
+  /** Center of mass, world coordinates. */
+  public double[] cx, cy;
+  /** Angle. */
+  public double[] a;
+  /** Linear velocity of the center of mass. */
+  public double[] vx, vy;
+  /** Angular velocity. */
+  public double[] w;
+  /** Inverse mass and rotational inertia, zero for static and kinematic bodies. */
+  public double[] invMass, invI;
+
+  private int m_capacity;
+
+  public BodyStates() {
+    allocate(16);
+  }
+
+  public int getCapacity() {
+    return m_capacity;
+  }
+
+  /**
+   * Makes room for at least {@code capacity} rows, keeping the ones already there.
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > m_capacity) {
+      allocate(Math.max(capacity, m_capacity * 2));
+    }
+  }
+
+  /**
+   * Loads a body's solver state into row {@code i}.
+   */
+  public void set(int i, Body b) {
+    cx[i] = b.m_sweep.c.x;
+    cy[i] = b.m_sweep.c.y;
+    a[i] = b.m_sweep.a;
+    vx[i] = b.m_linearVelocity.x;
+    vy[i] = b.m_linearVelocity.y;
+    w[i] = b.m_angularVelocity;
+    invMass[i] = b.m_invMass;
+    invI[i] = b.m_invI;
+  }
+
+  private void allocate(int capacity) {
+    cx = grow(cx, capacity);
+    cy = grow(cy, capacity);
+    a = grow(a, capacity);
+    vx = grow(vx, capacity);
+    vy = grow(vy, capacity);
+    w = grow(w, capacity);
+    invMass = grow(invMass, capacity);
+    invI = grow(invI, capacity);
+    m_capacity = capacity;
+  }
+
+  private double[] grow(double[] column, int capacity) {
+    double[] grown = new double[capacity];
+    if (column != null) {
+      System.arraycopy(column, 0, grown, 0, m_capacity);
+    }
+    return grown;
+  }
+}
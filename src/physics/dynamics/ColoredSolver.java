@@ -0,0 +1,335 @@
+package physics.dynamics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RecursiveAction;
+
+import physics.common.Settings;
+import physics.dynamics.contacts.Contact;
+import physics.dynamics.contacts.ContactSolver;
+import physics.dynamics.joints.Joint;
+import physics.dynamics.joints.JointType;
+import physics.pooling.IWorldPool;
+import physics.pooling.normal.DefaultWorldPool;
+
+/**
+ * Solves the constraints of one large island on several threads. The contacts and joints are
+ * colored so that no two constraints of a color move the same body, then each velocity and position
+ * iteration solves the colors one after another, a color's constraints split between the threads.
+ * Static and kinematic bodies are never moved by the solver and do not count.
+ *
+ * A body touched by more constraints than there are colors sends the rest to an overflow set,
+ * solved on the calling thread after the colors. So are gear and constant volume joints, which move
+ * more than two bodies. The order constraints are solved in differs from the serial solver, but
+ * depends only on the island, not on the number of threads.
+ */
+class ColoredSolver {
+  static final int MAX_COLORS = 16;
+  static final int DEFAULT_MIN_CONSTRAINTS = 256;
+
+  private final ForkJoinPool m_executor;
+  private final Worker[] m_workers;
+  private final Phaser m_barrier;
+  private int m_minConstraints = DEFAULT_MIN_CONSTRAINTS;
+
+  // the island being solved
+  private Island m_island;
+  private SolverData m_data;
+  private int m_velocityIterations;
+  private int m_positionIterations;
+  private boolean m_positionSolved;
+
+  // Constraints sorted by color, the overflow last. Each color holds contact indices followed by
+  // joint indices.
+  private int[] m_order = new int[64];
+  private int[] m_colors = new int[64];
+  private final int[] m_colorStarts = new int[MAX_COLORS + 2];
+  private final int[] m_jointStarts = new int[MAX_COLORS + 1];
+  private final int[] m_contactCounts = new int[MAX_COLORS + 1];
+  private final int[] m_jointCounts = new int[MAX_COLORS + 1];
+  private long[] m_bodyColors = new long[64];
+  private IWorldPool[] m_jointPools = new IWorldPool[16];
+
+  ColoredSolver(int threads) {
+    assert (threads > 1);
+    m_executor = new ForkJoinPool(threads - 1);
+    m_barrier = new Phaser(threads);
+    m_workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      m_workers[i] = new Worker(i);
+    }
+  }
+
+  int getThreadCount() {
+    return m_workers.length;
+  }
+
+  void shutdown() {
+    m_executor.shutdown();
+  }
+
+  void setMinConstraints(int minConstraints) {
+    m_minConstraints = minConstraints;
+  }
+
+  int getMinConstraints() {
+    return m_minConstraints;
+  }
+
+  /**
+   * Colors the constraints of an island whose contact solver and joints are initialized.
+   *
+   * @return false if the island is too small to be worth splitting, and was left alone.
+   */
+  boolean begin(Island island, ContactSolver contactSolver, SolverData data) {
+    final int contactCount = island.m_contactCount;
+    final int jointCount = island.m_jointCount;
+    final int count = contactCount + jointCount;
+    if (count == 0 || count < m_minConstraints) {
+      return false;
+    }
+
+    m_island = island;
+    m_data = data;
+
+    if (m_order.length < count) {
+      m_order = new int[Math.max(m_order.length * 2, count)];
+      m_colors = new int[m_order.length];
+    }
+    if (m_bodyColors.length < island.m_bodyCount) {
+      m_bodyColors = new long[Math.max(m_bodyColors.length * 2, island.m_bodyCount)];
+    }
+    if (m_jointPools.length < jointCount) {
+      m_jointPools = new IWorldPool[Math.max(m_jointPools.length * 2, jointCount)];
+    }
+    for (int i = 0; i < island.m_bodyCount; i++) {
+      m_bodyColors[i] = 0;
+    }
+    for (int c = 0; c <= MAX_COLORS; c++) {
+      m_contactCounts[c] = 0;
+      m_jointCounts[c] = 0;
+    }
+
+    for (int i = 0; i < contactCount; i++) {
+      Contact contact = island.m_contacts[i];
+      int color =
+          color(contact.m_fixtureA.m_body.m_islandIndex, contact.m_fixtureB.m_body.m_islandIndex);
+      m_colors[i] = color;
+      m_contactCounts[color]++;
+    }
+    for (int i = 0; i < jointCount; i++) {
+      Joint joint = island.m_joints[i];
+      JointType type = joint.getType();
+      int color = MAX_COLORS;
+      if (type != JointType.GEAR && type != JointType.CONSTANT_VOLUME) {
+        color = color(joint.getBodyA().m_islandIndex, joint.getBodyB().m_islandIndex);
+      }
+      m_colors[contactCount + i] = color;
+      m_jointCounts[color]++;
+    }
+
+    int start = 0;
+    for (int c = 0; c <= MAX_COLORS; c++) {
+      m_colorStarts[c] = start;
+      m_jointStarts[c] = start + m_contactCounts[c];
+      start += m_contactCounts[c] + m_jointCounts[c];
+      // fill pointers
+      m_contactCounts[c] = m_colorStarts[c];
+      m_jointCounts[c] = m_jointStarts[c];
+    }
+    m_colorStarts[MAX_COLORS + 1] = start;
+    for (int i = 0; i < contactCount; i++) {
+      m_order[m_contactCounts[m_colors[i]]++] = i;
+    }
+    for (int i = 0; i < jointCount; i++) {
+      m_order[m_jointCounts[m_colors[contactCount + i]]++] = i;
+    }
+
+    for (int i = 0; i < m_workers.length; i++) {
+      m_workers[i].contactSolver.share(contactSolver);
+    }
+
+    // Joints take temporaries from a pool, give each worker's joints the worker's own.
+    for (int i = 0; i < jointCount; i++) {
+      m_jointPools[i] = island.m_joints[i].getPool();
+    }
+    for (int c = 0; c < MAX_COLORS; c++) {
+      int jointStart = m_jointStarts[c];
+      int jointEnd = m_colorStarts[c + 1];
+      for (int w = 1; w < m_workers.length; w++) {
+        for (int i = slice(jointStart, jointEnd, w); i < slice(jointStart, jointEnd, w + 1); i++) {
+          island.m_joints[m_order[i]].setPool(m_workers[w].pool);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Puts the joints back on their own pools.
+   */
+  void end() {
+    Island island = m_island;
+    for (int i = 0; i < island.m_jointCount; i++) {
+      island.m_joints[i].setPool(m_jointPools[i]);
+      m_jointPools[i] = null;
+    }
+    m_island = null;
+    m_data = null;
+  }
+
+  void solveVelocityConstraints(int iterations) {
+    m_velocityIterations = iterations;
+    m_positionIterations = 0;
+    run();
+  }
+
+  /**
+   * @return true if the position errors became small enough to stop early.
+   */
+  boolean solvePositionConstraints(int iterations) {
+    m_velocityIterations = 0;
+    m_positionIterations = iterations;
+    m_positionSolved = false;
+    run();
+    return m_positionSolved;
+  }
+
+  private int color(int indexA, int indexB) {
+    final BodyStates states = m_island.m_states;
+    boolean movesA = states.invMass[indexA] != 0 || states.invI[indexA] != 0;
+    boolean movesB = states.invMass[indexB] != 0 || states.invI[indexB] != 0;
+    long used = (movesA ? m_bodyColors[indexA] : 0) | (movesB ? m_bodyColors[indexB] : 0);
+    int color = Long.numberOfTrailingZeros(~used);
+    if (color >= MAX_COLORS) {
+      return MAX_COLORS;
+    }
+    if (movesA) {
+      m_bodyColors[indexA] |= 1L << color;
+    }
+    if (movesB) {
+      m_bodyColors[indexB] |= 1L << color;
+    }
+    return color;
+  }
+
+  private int slice(int start, int end, int worker) {
+    return start + (end - start) * worker / m_workers.length;
+  }
+
+  private void run() {
+    for (int i = 1; i < m_workers.length; i++) {
+      m_workers[i].reinitialize();
+      m_executor.execute(m_workers[i]);
+    }
+    m_workers[0].solve();
+    for (int i = 1; i < m_workers.length; i++) {
+      m_workers[i].join();
+    }
+  }
+
+  private class Worker extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final int index;
+    final ContactSolver contactSolver = new ContactSolver();
+    final IWorldPool pool = new DefaultWorldPool(World.WORLD_POOL_SIZE,
+        World.WORLD_POOL_CONTAINER_SIZE);
+
+    // per iteration, alternating so a worker running ahead never clears what another still reads
+    final double[] minSeparation = new double[2];
+    final boolean[] jointsOkay = new boolean[2];
+
+    Worker(int index) {
+      this.index = index;
+    }
+
+    @Override
+    protected void compute() {
+      solve();
+    }
+
+    void solve() {
+      final boolean overflow = m_colorStarts[MAX_COLORS] < m_colorStarts[MAX_COLORS + 1];
+
+      for (int i = 0; i < m_velocityIterations; ++i) {
+        for (int c = 0; c < MAX_COLORS; c++) {
+          if (m_colorStarts[c] == m_colorStarts[c + 1]) {
+            break;
+          }
+          solveVelocity(slice(m_colorStarts[c], m_jointStarts[c], index),
+              slice(m_colorStarts[c], m_jointStarts[c], index + 1),
+              slice(m_jointStarts[c], m_colorStarts[c + 1], index),
+              slice(m_jointStarts[c], m_colorStarts[c + 1], index + 1));
+          m_barrier.arriveAndAwaitAdvance();
+        }
+        if (overflow) {
+          if (index == 0) {
+            solveVelocity(m_colorStarts[MAX_COLORS], m_jointStarts[MAX_COLORS],
+                m_jointStarts[MAX_COLORS], m_colorStarts[MAX_COLORS + 1]);
+          }
+          m_barrier.arriveAndAwaitAdvance();
+        }
+      }
+
+      for (int i = 0; i < m_positionIterations; ++i) {
+        final int slot = i & 1;
+        minSeparation[slot] = 0;
+        jointsOkay[slot] = true;
+        for (int c = 0; c < MAX_COLORS; c++) {
+          if (m_colorStarts[c] == m_colorStarts[c + 1]) {
+            break;
+          }
+          solvePosition(slot, slice(m_colorStarts[c], m_jointStarts[c], index),
+              slice(m_colorStarts[c], m_jointStarts[c], index + 1),
+              slice(m_jointStarts[c], m_colorStarts[c + 1], index),
+              slice(m_jointStarts[c], m_colorStarts[c + 1], index + 1));
+          m_barrier.arriveAndAwaitAdvance();
+        }
+        if (overflow) {
+          if (index == 0) {
+            solvePosition(slot, m_colorStarts[MAX_COLORS], m_jointStarts[MAX_COLORS],
+                m_jointStarts[MAX_COLORS], m_colorStarts[MAX_COLORS + 1]);
+          }
+          m_barrier.arriveAndAwaitAdvance();
+        }
+
+        double separation = 0;
+        boolean okay = true;
+        for (int w = 0; w < m_workers.length; w++) {
+          separation = Math.min(separation, m_workers[w].minSeparation[slot]);
+          okay = okay && m_workers[w].jointsOkay[slot];
+        }
+        // We can't expect minSpeparation >= -linearSlop because we don't
+        // push the separation above -linearSlop.
+        if (separation >= -3.0f * Settings.linearSlop && okay) {
+          // Exit early if the position errors are small.
+          if (index == 0) {
+            m_positionSolved = true;
+          }
+          break;
+        }
+      }
+    }
+
+    private void solveVelocity(int contactStart, int contactEnd, int jointStart, int jointEnd) {
+      final Joint[] joints = m_island.m_joints;
+      for (int j = jointStart; j < jointEnd; ++j) {
+        joints[m_order[j]].solveVelocityConstraints(m_data);
+      }
+      contactSolver.solveVelocityConstraints(m_order, contactStart, contactEnd);
+    }
+
+    private void solvePosition(int slot, int contactStart, int contactEnd, int jointStart,
+        int jointEnd) {
+      double separation = contactSolver.solvePositionConstraints(m_order, contactStart, contactEnd);
+      minSeparation[slot] = Math.min(minSeparation[slot], separation);
+
+      final Joint[] joints = m_island.m_joints;
+      for (int j = jointStart; j < jointEnd; ++j) {
+        boolean jointOkay = joints[m_order[j]].solvePositionConstraints(m_data);
+        jointsOkay[slot] = jointsOkay[slot] && jointOkay;
+      }
+    }
+  }
+}
@@ -28,7 +28,6 @@ import physics.callbacks.ContactListener;
 import physics.callbacks.PairCallback;
 import physics.collision.broadphase.BroadPhase;
 import physics.dynamics.contacts.Contact;
-import physics.dynamics.contacts.ContactEdge;
 
 /**
  * Delegate of World.
@@ -43,7 +42,17 @@ public class ContactManager implements PairCallback {
   public ContactFilter m_contactFilter;
   public ContactListener m_contactListener;
 
+  // Touching contacts keep their manifold while their bodies move less than this relative to each
+  // other, 0 to evaluate every contact every step.
+  public double m_manifoldLinearTolerance;
+  public double m_manifoldAngularTolerance;
+  // contact updates, and how many of them kept their manifold
+  public long m_contactUpdateCount;
+  public long m_manifoldReuseCount;
+
   private final World pool;
+  private final ContactTable m_contactTable = new ContactTable();
+  private ParallelNarrowPhase m_narrowPhase;
 
   public ContactManager(World argPool, BroadPhase broadPhase) {
     m_contactList = null;
@@ -79,29 +88,10 @@ public void addPair(Object proxyUserDataA, Object proxyUserDataB) {
       return;
     }
 
-    // TODO_ERIN use a hash table to remove a potential bottleneck when both
-    // bodies have a lot of contacts.
     // Does a contact already exist?
-    ContactEdge edge = bodyB.getContactList();
-    while (edge != null) {
-      if (edge.other == bodyA) {
-        Fixture fA = edge.contact.getFixtureA();
-        Fixture fB = edge.contact.getFixtureB();
-        int iA = edge.contact.getChildIndexA();
-        int iB = edge.contact.getChildIndexB();
-
-        if (fA == fixtureA && iA == indexA && fB == fixtureB && iB == indexB) {
-          // A contact already exists.
-          return;
-        }
-
-        if (fA == fixtureB && iA == indexB && fB == fixtureA && iB == indexA) {
-          // A contact already exists.
-          return;
-        }
-      }
-
-      edge = edge.next;
+    final long key = ContactTable.key(proxyA.proxyId, proxyB.proxyId);
+    if (m_contactTable.get(key) != null) {
+      return;
     }
 
     // Does a joint override collision? is at least one body dynamic?
@@ -129,6 +119,8 @@ public void addPair(Object proxyUserDataA, Object proxyUserDataB) {
     bodyB = fixtureB.getBody();
 
     // Insert into the world.
+    c.m_pairKey = key;
+    m_contactTable.put(key, c);
     c.m_prev = null;
     c.m_next = m_contactList;
     if (m_contactList != null) {
@@ -169,6 +161,19 @@ public void addPair(Object proxyUserDataA, Object proxyUserDataB) {
     ++m_contactCount;
   }
 
+  /**
+   * Broad-phase callback, the fat AABBs of the proxies no longer overlap.
+   */
+  @Override
+  public void removePair(Object proxyUserDataA, Object proxyUserDataB) {
+    FixtureProxy proxyA = (FixtureProxy) proxyUserDataA;
+    FixtureProxy proxyB = (FixtureProxy) proxyUserDataB;
+    Contact c = m_contactTable.get(ContactTable.key(proxyA.proxyId, proxyB.proxyId));
+    if (c != null) {
+      destroy(c);
+    }
+  }
+
   public void findNewContacts() {
     m_broadPhase.updatePairs(this);
   }
@@ -183,7 +188,12 @@ public void addPair(Object proxyUserDataA, Object proxyUserDataB) {
       m_contactListener.endContact(c);
     }
 
+    if (c.m_island != null) {
+      pool.getIslandGraph().unlink(c);
+    }
+
     // Remove from the world.
+    m_contactTable.remove(c.m_pairKey);
     if (c.m_prev != null) {
       c.m_prev.m_next = c.m_next;
     }
@@ -225,69 +235,109 @@ public void addPair(Object proxyUserDataA, Object proxyUserDataB) {
     // Call the factory.
     pool.pushContact(c);
     --m_contactCount;
+    assert (m_contactTable.getCount() == m_contactCount);
   }
 
   /**
-   * This is the top level collision call for the time step. Here all the narrow phase collision is
-   * processed for the world contact list.
+   * Set the number of threads contact manifolds are updated on, see
+   * {@link World#setNarrowPhaseThreads(int)}.
    */
-  public void collide() {
-    // Update awake contacts.
-    Contact c = m_contactList;
-    while (c != null) {
-      Fixture fixtureA = c.getFixtureA();
-      Fixture fixtureB = c.getFixtureB();
-      int indexA = c.getChildIndexA();
-      int indexB = c.getChildIndexB();
-      Body bodyA = fixtureA.getBody();
-      Body bodyB = fixtureB.getBody();
-
-      // is this contact flagged for filtering?
-      if ((c.m_flags & Contact.FILTER_FLAG) == Contact.FILTER_FLAG) {
-        // Should these bodies collide?
-        if (bodyB.shouldCollide(bodyA) == false) {
-          Contact cNuke = c;
-          c = cNuke.getNext();
-          destroy(cNuke);
-          continue;
-        }
+  public void setNarrowPhaseThreads(int threads) {
+    assert (threads > 0);
+    if (threads == getNarrowPhaseThreads()) {
+      return;
+    }
 
-        // Check user filtering.
-        if (m_contactFilter != null && m_contactFilter.shouldCollide(fixtureA, fixtureB) == false) {
-          Contact cNuke = c;
-          c = cNuke.getNext();
-          destroy(cNuke);
-          continue;
-        }
+    if (m_narrowPhase != null) {
+      m_narrowPhase.shutdown();
+      m_narrowPhase = null;
+    }
 
-        // Clear the filtering flag.
-        c.m_flags &= ~Contact.FILTER_FLAG;
-      }
+    if (threads > 1) {
+      m_narrowPhase = new ParallelNarrowPhase(this, pool.getPool(), threads);
+    }
+  }
 
-      boolean activeA = bodyA.isAwake() && bodyA.m_type != BodyType.STATIC;
-      boolean activeB = bodyB.isAwake() && bodyB.m_type != BodyType.STATIC;
+  public int getNarrowPhaseThreads() {
+    return m_narrowPhase == null ? 1 : m_narrowPhase.getThreadCount();
+  }
 
-      // At least one body must be awake and it must be dynamic or kinematic.
-      if (activeA == false && activeB == false) {
-        c = c.getNext();
-        continue;
-      }
+  static final int SKIP = 0;
+  static final int UPDATE = 1;
+  static final int DESTROY = 2;
+
+  /**
+   * Decide what the narrow phase does with a contact this step: destroy it if it is filtered out or
+   * its proxies no longer overlap, skip it if neither body is awake, otherwise update it.
+   */
+  int classify(Contact c) {
+    Fixture fixtureA = c.getFixtureA();
+    Fixture fixtureB = c.getFixtureB();
+    int indexA = c.getChildIndexA();
+    int indexB = c.getChildIndexB();
+    Body bodyA = fixtureA.getBody();
+    Body bodyB = fixtureB.getBody();
 
-      int proxyIdA = fixtureA.m_proxies[indexA].proxyId;
-      int proxyIdB = fixtureB.m_proxies[indexB].proxyId;
-      boolean overlap = m_broadPhase.testOverlap(proxyIdA, proxyIdB);
+    // is this contact flagged for filtering?
+    if ((c.m_flags & Contact.FILTER_FLAG) == Contact.FILTER_FLAG) {
+      // Should these bodies collide?
+      if (bodyB.shouldCollide(bodyA) == false) {
+        return DESTROY;
+      }
 
-      // Here we destroy contacts that cease to overlap in the broad-phase.
-      if (overlap == false) {
-        Contact cNuke = c;
-        c = cNuke.getNext();
-        destroy(cNuke);
-        continue;
+      // Check user filtering.
+      if (m_contactFilter != null && m_contactFilter.shouldCollide(fixtureA, fixtureB) == false) {
+        return DESTROY;
       }
 
-      // The contact persists.
-      c.update(m_contactListener);
-      c = c.getNext();
+      // Clear the filtering flag.
+      c.m_flags &= ~Contact.FILTER_FLAG;
+    }
+
+    boolean activeA = bodyA.isAwake() && bodyA.m_type != BodyType.STATIC;
+    boolean activeB = bodyB.isAwake() && bodyB.m_type != BodyType.STATIC;
+
+    // At least one body must be awake and it must be dynamic or kinematic.
+    if (activeA == false && activeB == false) {
+      return SKIP;
+    }
+
+    int proxyIdA = fixtureA.m_proxies[indexA].proxyId;
+    int proxyIdB = fixtureB.m_proxies[indexB].proxyId;
+    boolean overlap = m_broadPhase.testOverlap(proxyIdA, proxyIdB);
+
+    // Here we destroy contacts that cease to overlap in the broad-phase.
+    if (overlap == false) {
+      return DESTROY;
+    }
+    return UPDATE;
+  }
+
+  /**
+   * This is the top level collision call for the time step. Here all the narrow phase collision is
+   * processed for the world contact list.
+   */
+  public void collide() {
+    if (m_narrowPhase != null) {
+      m_narrowPhase.collide();
+      return;
+    }
+
+    // Update awake contacts.
+    Contact c = m_contactList;
+    while (c != null) {
+      Contact next = c.getNext();
+      int state = classify(c);
+      if (state == DESTROY) {
+        destroy(c);
+      } else if (state == UPDATE) {
+        // The contact persists.
+        ++m_contactUpdateCount;
+        if (c.update(m_contactListener, m_manifoldLinearTolerance, m_manifoldAngularTolerance)) {
+          ++m_manifoldReuseCount;
+        }
+      }
+      c = next;
     }
   }
 }
@@ -0,0 +1,130 @@
+package physics.dynamics;
+
+import java.util.Arrays;
+
+import physics.dynamics.contacts.Contact;
+
+/**
+ * Open addressing table of the contacts in the world, keyed by the broad-phase proxy ids of their
+ * two fixture children. Lets the contact manager find an existing contact for a pair without
+ * walking the contact list of a body.
+ */
+class ContactTable {
+  private static final long EMPTY = -1L;
+
+  private long[] m_keys;
+  private Contact[] m_contacts;
+  private int m_mask;
+  private int m_count;
+
+  ContactTable() {
+    this(64);
+  }
+
+  ContactTable(int capacity) {
+    allocate(Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1);
+  }
+
+  /**
+   * Packs a pair of proxy ids into a key that does not depend on their order.
+   */
+  static long key(int proxyIdA, int proxyIdB) {
+    if (proxyIdA > proxyIdB) {
+      int t = proxyIdA;
+      proxyIdA = proxyIdB;
+      proxyIdB = t;
+    }
+    return ((long) proxyIdA << 32) | (proxyIdB & 0xFFFFFFFFL);
+  }
+
+  int getCount() {
+    return m_count;
+  }
+
+  Contact get(long key) {
+    final long[] keys = m_keys;
+    int i = slot(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) {
+        return m_contacts[i];
+      }
+      i = (i + 1) & m_mask;
+    }
+    return null;
+  }
+
+  void put(long key, Contact contact) {
+    assert (key != EMPTY);
+    if (2 * (m_count + 1) > m_keys.length) {
+      rehash(m_keys.length * 2);
+    }
+    final long[] keys = m_keys;
+    int i = slot(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) {
+        m_contacts[i] = contact;
+        return;
+      }
+      i = (i + 1) & m_mask;
+    }
+    keys[i] = key;
+    m_contacts[i] = contact;
+    ++m_count;
+  }
+
+  void remove(long key) {
+    final long[] keys = m_keys;
+    final Contact[] contacts = m_contacts;
+    int i = slot(key);
+    while (keys[i] != key) {
+      if (keys[i] == EMPTY) {
+        return;
+      }
+      i = (i + 1) & m_mask;
+    }
+
+    // Shift the following entries back into the hole so that probing never needs tombstones.
+    int hole = i;
+    int j = i;
+    while (true) {
+      j = (j + 1) & m_mask;
+      if (keys[j] == EMPTY) {
+        break;
+      }
+      int home = slot(keys[j]);
+      // move the entry unless its home lies cyclically in (hole, j]
+      if (hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+        keys[hole] = keys[j];
+        contacts[hole] = contacts[j];
+        hole = j;
+      }
+    }
+    keys[hole] = EMPTY;
+    contacts[hole] = null;
+    --m_count;
+  }
+
+  private int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & m_mask;
+  }
+
+  private void rehash(int capacity) {
+    final long[] oldKeys = m_keys;
+    final Contact[] oldContacts = m_contacts;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        put(oldKeys[i], oldContacts[i]);
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    m_keys = new long[capacity];
+    Arrays.fill(m_keys, EMPTY);
+    m_contacts = new Contact[capacity];
+    m_mask = capacity - 1;
+    m_count = 0;
+  }
+}
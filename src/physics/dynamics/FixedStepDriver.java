@@ -0,0 +1,214 @@
+package physics.dynamics;
+
+import physics.callbacks.StepListener;
+import physics.common.Settings;
+import physics.common.Transform;
+
+/**
+ * Steps a world at a fixed rate from a variable frame rate. Real time is collected in an
+ * accumulator and spent in whole steps of the same length, so the simulation runs at the same
+ * speed and gives the same results however fast frames are drawn. The time left over is exposed
+ * as an interpolation factor between the last two states, see
+ * {@link #getInterpolatedTransform(Body, Transform)}.
+ *
+ * A long frame would ask for more steps, which make the next frame longer still. To stop that, the
+ * time fed in per frame is capped and at most {@link #getMaxSteps()} steps run per update, anything
+ * beyond is dropped and the simulation slows down instead.
+ */
+public class FixedStepDriver {
+  public static final int DEFAULT_MAX_STEPS = 5;
+  public static final double DEFAULT_MAX_FRAME_TIME = 0.25;
+
+  private final World m_world;
+  private final double m_dt;
+  private final int m_velocityIterations;
+  private final int m_positionIterations;
+
+  private int m_maxSteps = DEFAULT_MAX_STEPS;
+  private double m_maxFrameTime = DEFAULT_MAX_FRAME_TIME;
+  private StepListener m_listener;
+
+  private double m_accumulator;
+  private double m_alpha;
+  private long m_lastTime = -1;
+  private long m_stepTime;
+
+  private int m_lastStepCount;
+  private long m_stepCount;
+  private long m_droppedStepCount;
+
+  /**
+   * @param world the world to step.
+   * @param dt the length of a step, in seconds.
+   * @param velocityIterations passed to {@link World#step(double, int, int)}.
+   * @param positionIterations passed to {@link World#step(double, int, int)}.
+   */
+  public FixedStepDriver(World world, double dt, int velocityIterations, int positionIterations) {
+    assert (dt > 0);
+    m_world = world;
+    m_dt = dt;
+    m_velocityIterations = velocityIterations;
+    m_positionIterations = positionIterations;
+  }
+
+  /**
+   * Advances by the real time since the last call, the first call only starts the clock.
+   *
+   * @return the number of steps taken.
+   */
+  public int update() {
+    long now = System.nanoTime();
+    if (m_lastTime < 0) {
+      m_lastTime = now;
+      return update(0);
+    }
+    double frameTime = (now - m_lastTime) * 1e-9;
+    m_lastTime = now;
+    int steps = update(frameTime);
+    if (steps > 0) {
+      m_stepTime = now - (long) (m_accumulator * 1e9);
+    }
+    return steps;
+  }
+
+  /**
+   * Advances by {@code frameTime} seconds, taking as many fixed steps as fit.
+   *
+   * @return the number of steps taken.
+   */
+  public int update(double frameTime) {
+    assert (frameTime >= 0);
+    m_accumulator += Math.min(frameTime, m_maxFrameTime);
+
+    int steps = 0;
+    while (m_accumulator >= m_dt) {
+      if (steps == m_maxSteps) {
+        // We can't keep up, drop the whole steps but keep the fraction for interpolation.
+        long dropped = (long) (m_accumulator / m_dt);
+        m_droppedStepCount += dropped;
+        m_accumulator -= dropped * m_dt;
+        break;
+      }
+
+      m_world.step(m_dt, m_velocityIterations, m_positionIterations);
+      if (m_listener != null) {
+        m_listener.postStep(m_dt);
+      }
+      m_accumulator -= m_dt;
+      ++steps;
+    }
+
+    m_lastStepCount = steps;
+    m_stepCount += steps;
+    m_alpha = m_accumulator / m_dt;
+    return steps;
+  }
+
+  /**
+   * Forgets the time collected so far, use it after a pause so the world doesn't try to catch up.
+   */
+  public void reset() {
+    m_accumulator = 0;
+    m_alpha = 0;
+    m_lastTime = -1;
+  }
+
+  /**
+   * Gets the transform of a body between its last two steps, for drawing. Bodies that did not
+   * move in the last step come out at their current transform.
+   *
+   * @param body a body of the stepped world.
+   * @param out receives the transform.
+   */
+  public void getInterpolatedTransform(Body body, Transform out) {
+    interpolate(body.m_xf0, body.m_xf, m_alpha, out);
+  }
+
+  /**
+   * Blends two transforms, {@code t} = 0 gives {@code xf0} and 1 gives {@code xf}.
+   */
+  public static void interpolate(Transform xf0, Transform xf, double t, Transform out) {
+    out.p.x = xf0.p.x + t * (xf.p.x - xf0.p.x);
+    out.p.y = xf0.p.y + t * (xf.p.y - xf0.p.y);
+
+    // normalized lerp of the rotations, close enough for the angle covered in one step
+    double c = xf0.q.c + t * (xf.q.c - xf0.q.c);
+    double s = xf0.q.s + t * (xf.q.s - xf0.q.s);
+    double length = Math.sqrt(c * c + s * s);
+    if (length > Settings.EPSILON) {
+      out.q.c = c / length;
+      out.q.s = s / length;
+    } else {
+      out.q.set(xf.q);
+    }
+  }
+
+  /**
+   * @return how far the world is between its last two steps, in [0, 1).
+   */
+  public double getAlpha() {
+    return m_alpha;
+  }
+
+  /**
+   * @return the {@link System#nanoTime()} the last step taken by {@link #update()} was due at, the
+   *         real time that matches an alpha of 0. Drawing can interpolate from it on other threads.
+   */
+  public long getStepTime() {
+    return m_stepTime;
+  }
+
+  public double getTimeStep() {
+    return m_dt;
+  }
+
+  public World getWorld() {
+    return m_world;
+  }
+
+  public void setStepListener(StepListener listener) {
+    m_listener = listener;
+  }
+
+  public int getMaxSteps() {
+    return m_maxSteps;
+  }
+
+  /**
+   * Sets the most steps taken per update.
+   */
+  public void setMaxSteps(int maxSteps) {
+    assert (maxSteps > 0);
+    m_maxSteps = maxSteps;
+  }
+
+  public double getMaxFrameTime() {
+    return m_maxFrameTime;
+  }
+
+  /**
+   * Sets the most time, in seconds, a single update adds to the accumulator.
+   */
+  public void setMaxFrameTime(double maxFrameTime) {
+    assert (maxFrameTime > 0);
+    m_maxFrameTime = maxFrameTime;
+  }
+
+  /**
+   * @return the number of steps taken by the last update.
+   */
+  public int getLastStepCount() {
+    return m_lastStepCount;
+  }
+
+  public long getStepCount() {
+    return m_stepCount;
+  }
+
+  /**
+   * @return the number of steps skipped because updates fell too far behind.
+   */
+  public long getDroppedStepCount() {
+    return m_droppedStepCount;
+  }
+}
@@ -380,7 +380,7 @@ public class Fixture {
     for (int i = 0; i < m_proxyCount; ++i) {
       FixtureProxy proxy = m_proxies[i];
       m_shape.computeAABB(proxy.aabb, xf, i);
-      proxy.proxyId = broadPhase.createProxy(proxy.aabb, proxy);
+      proxy.proxyId = broadPhase.createProxy(proxy.aabb, proxy, m_body.m_type == BodyType.STATIC);
       proxy.fixture = this;
       proxy.childIndex = i;
     }
@@ -33,8 +33,6 @@ import physics.dynamics.contacts.Contact;
 import physics.dynamics.contacts.ContactSolver;
 import physics.dynamics.contacts.ContactSolver.ContactSolverDef;
 import physics.dynamics.contacts.ContactVelocityConstraint;
-import physics.dynamics.contacts.Position;
-import physics.dynamics.contacts.Velocity;
 import physics.dynamics.joints.Joint;
 
 /*
@@ -168,8 +166,7 @@ public class Island {
   public Contact[] m_contacts;
   public Joint[] m_joints;
 
-  public Position[] m_positions;
-  public Velocity[] m_velocities;
+  public final BodyStates m_states = new BodyStates();
 
   public int m_bodyCount;
   public int m_jointCount;
@@ -205,25 +202,7 @@ public class Island {
       m_contacts = new Contact[m_contactCapacity];
     }
 
-    // dynamic array
-    if (m_velocities == null || m_bodyCapacity > m_velocities.length) {
-      final Velocity[] old = m_velocities == null ? new Velocity[0] : m_velocities;
-      m_velocities = new Velocity[m_bodyCapacity];
-      System.arraycopy(old, 0, m_velocities, 0, old.length);
-      for (int i = old.length; i < m_velocities.length; i++) {
-        m_velocities[i] = new Velocity();
-      }
-    }
-
-    // dynamic array
-    if (m_positions == null || m_bodyCapacity > m_positions.length) {
-      final Position[] old = m_positions == null ? new Position[0] : m_positions;
-      m_positions = new Position[m_bodyCapacity];
-      System.arraycopy(old, 0, m_positions, 0, old.length);
-      for (int i = old.length; i < m_positions.length; i++) {
-        m_positions[i] = new Position();
-      }
-    }
+    m_states.ensureCapacity(m_bodyCapacity);
   }
 
   public void clear() {
@@ -232,23 +211,47 @@ public class Island {
     m_jointCount = 0;
   }
 
+  /** Splits large islands between threads when set, see {@link World#setConstraintThreads}. */
+  ColoredSolver m_coloredSolver;
+
   private final ContactSolver contactSolver = new ContactSolver();
   private final Timer timer = new Timer();
   private final SolverData solverData = new SolverData();
   private final ContactSolverDef solverDef = new ContactSolverDef();
 
   public void solve(Profile profile, TimeStep step, Vec2 gravity, boolean allowSleep) {
+    boolean sleep = solveIsland(profile, step, gravity, allowSleep);
+
+    report(contactSolver.m_velocityConstraints);
+
+    if (sleep) {
+      for (int i = 0; i < m_bodyCount; ++i) {
+        Body b = m_bodies[i];
+        b.setAwake(false);
+      }
+    }
+  }
+
+  /**
+   * Solves the island without reporting to the listener or putting bodies to sleep. This is what
+   * the parallel island solver runs on its workers, the caller replays both afterwards.
+   * 
+   * @return true if every body in the island is ready to sleep.
+   */
+  public boolean solveIsland(Profile profile, TimeStep step, Vec2 gravity, boolean allowSleep) {
 
     // System.out.println("Solving Island");
     double h = step.dt;
+    final BodyStates states = m_states;
+    final double[] cx = states.cx, cy = states.cy, ca = states.a;
+    final double[] vx = states.vx, vy = states.vy, vw = states.w;
 
     // Integrate velocities and apply damping. Initialize the body state.
     for (int i = 0; i < m_bodyCount; ++i) {
       final Body b = m_bodies[i];
       final Sweep bm_sweep = b.m_sweep;
-      final Vec2 c = bm_sweep.c;
-      double a = bm_sweep.a;
-      final Vec2 v = b.m_linearVelocity;
+      double vxi = b.m_linearVelocity.x;
+      double vyi = b.m_linearVelocity.y;
       double w = b.m_angularVelocity;
 
       // Store positions for continuous collision.
@@ -258,8 +261,8 @@ public class Island {
       if (b.m_type == BodyType.DYNAMIC) {
         // Integrate velocities.
         // v += h * (b.m_gravityScale * gravity + b.m_invMass * b.m_force);
-        v.x += h * (b.m_gravityScale * gravity.x + b.m_invMass * b.m_force.x);
-        v.y += h * (b.m_gravityScale * gravity.y + b.m_invMass * b.m_force.y);
+        vxi += h * (b.m_gravityScale * gravity.x + b.m_invMass * b.m_force.x);
+        vyi += h * (b.m_gravityScale * gravity.y + b.m_invMass * b.m_force.y);
         w += h * b.m_invI * b.m_torque;
 
         // Apply damping.
@@ -270,32 +273,32 @@ public class Island {
         // v2 = exp(-c * dt) * v1
         // Pade approximation:
         // v2 = v1 * 1 / (1 + c * dt)
-        v.x *= 1.0f / (1.0f + h * b.m_linearDamping);
-        v.y *= 1.0f / (1.0f + h * b.m_linearDamping);
+        vxi *= 1.0f / (1.0f + h * b.m_linearDamping);
+        vyi *= 1.0f / (1.0f + h * b.m_linearDamping);
         w *= 1.0f / (1.0f + h * b.m_angularDamping);
       }
 
-      m_positions[i].c.x = c.x;
-      m_positions[i].c.y = c.y;
-      m_positions[i].a = a;
-      m_velocities[i].v.x = v.x;
-      m_velocities[i].v.y = v.y;
-      m_velocities[i].w = w;
+      cx[i] = bm_sweep.c.x;
+      cy[i] = bm_sweep.c.y;
+      ca[i] = bm_sweep.a;
+      vx[i] = vxi;
+      vy[i] = vyi;
+      vw[i] = w;
+      states.invMass[i] = b.m_invMass;
+      states.invI[i] = b.m_invI;
     }
 
     timer.reset();
 
     // Solver data
     solverData.step = step;
-    solverData.positions = m_positions;
-    solverData.velocities = m_velocities;
+    solverData.states = states;
 
     // Initialize velocity constraints.
     solverDef.step = step;
     solverDef.contacts = m_contacts;
     solverDef.count = m_contactCount;
-    solverDef.positions = m_positions;
-    solverDef.velocities = m_velocities;
+    solverDef.states = states;
 
     contactSolver.init(solverDef);
     // System.out.println("island init vel");
@@ -310,17 +313,24 @@ public class Island {
       m_joints[i].initVelocityConstraints(solverData);
     }
 
+    final boolean colored =
+        m_coloredSolver != null && m_coloredSolver.begin(this, contactSolver, solverData);
+
     profile.solveInit.accum(timer.getMilliseconds());
 
     // Solve velocity constraints
     timer.reset();
     // System.out.println("island solving velocities");
-    for (int i = 0; i < step.velocityIterations; ++i) {
-      for (int j = 0; j < m_jointCount; ++j) {
-        m_joints[j].solveVelocityConstraints(solverData);
-      }
+    if (colored) {
+      m_coloredSolver.solveVelocityConstraints(step.velocityIterations);
+    } else {
+      for (int i = 0; i < step.velocityIterations; ++i) {
+        for (int j = 0; j < m_jointCount; ++j) {
+          m_joints[j].solveVelocityConstraints(solverData);
+        }
 
-      contactSolver.solveVelocityConstraints();
+        contactSolver.solveVelocityConstraints();
+      }
     }
 
     // Store impulses for warm starting
@@ -329,20 +339,19 @@ public class Island {
 
     // Integrate positions
     for (int i = 0; i < m_bodyCount; ++i) {
-      final Vec2 c = m_positions[i].c;
-      double a = m_positions[i].a;
-      final Vec2 v = m_velocities[i].v;
-      double w = m_velocities[i].w;
+      double vxi = vx[i];
+      double vyi = vy[i];
+      double w = vw[i];
 
       // Check for large velocities
-      double translationx = v.x * h;
-      double translationy = v.y * h;
+      double translationx = vxi * h;
+      double translationy = vyi * h;
 
       if (translationx * translationx + translationy * translationy > Settings.maxTranslationSquared) {
         double ratio = Settings.maxTranslation
             / Math.sqrt(translationx * translationx + translationy * translationy);
-        v.x *= ratio;
-        v.y *= ratio;
+        vxi *= ratio;
+        vyi *= ratio;
       }
 
       double rotation = h * w;
@@ -352,49 +361,53 @@ public class Island {
       }
 
       // Integrate
-      c.x += h * v.x;
-      c.y += h * v.y;
-      a += h * w;
+      cx[i] += h * vxi;
+      cy[i] += h * vyi;
+      ca[i] += h * w;
 
-      m_positions[i].a = a;
-      m_velocities[i].w = w;
+      vx[i] = vxi;
+      vy[i] = vyi;
+      vw[i] = w;
     }
 
     // Solve position constraints
     timer.reset();
     boolean positionSolved = false;
-    for (int i = 0; i < step.positionIterations; ++i) {
-      boolean contactsOkay = contactSolver.solvePositionConstraints();
-
-      boolean jointsOkay = true;
-      for (int j = 0; j < m_jointCount; ++j) {
-        boolean jointOkay = m_joints[j].solvePositionConstraints(solverData);
-        jointsOkay = jointsOkay && jointOkay;
-      }
+    if (colored) {
+      positionSolved = m_coloredSolver.solvePositionConstraints(step.positionIterations);
+      m_coloredSolver.end();
+    } else {
+      for (int i = 0; i < step.positionIterations; ++i) {
+        boolean contactsOkay = contactSolver.solvePositionConstraints();
+
+        boolean jointsOkay = true;
+        for (int j = 0; j < m_jointCount; ++j) {
+          boolean jointOkay = m_joints[j].solvePositionConstraints(solverData);
+          jointsOkay = jointsOkay && jointOkay;
+        }
 
-      if (contactsOkay && jointsOkay) {
-        // Exit early if the position errors are small.
-        positionSolved = true;
-        break;
+        if (contactsOkay && jointsOkay) {
+          // Exit early if the position errors are small.
+          positionSolved = true;
+          break;
+        }
       }
     }
 
     // Copy state buffers back to the bodies
     for (int i = 0; i < m_bodyCount; ++i) {
       Body body = m_bodies[i];
-      body.m_sweep.c.x = m_positions[i].c.x;
-      body.m_sweep.c.y = m_positions[i].c.y;
-      body.m_sweep.a = m_positions[i].a;
-      body.m_linearVelocity.x = m_velocities[i].v.x;
-      body.m_linearVelocity.y = m_velocities[i].v.y;
-      body.m_angularVelocity = m_velocities[i].w;
+      body.m_sweep.c.x = cx[i];
+      body.m_sweep.c.y = cy[i];
+      body.m_sweep.a = ca[i];
+      body.m_linearVelocity.x = vx[i];
+      body.m_linearVelocity.y = vy[i];
+      body.m_angularVelocity = vw[i];
       body.synchronizeTransform();
     }
 
     profile.solvePosition.accum(timer.getMilliseconds());
 
-    report(contactSolver.m_velocityConstraints);
-
     if (allowSleep) {
       double minSleepTime = Float.MAX_VALUE;
 
@@ -419,12 +432,11 @@ public class Island {
       }
 
       if (minSleepTime >= Settings.timeToSleep && positionSolved) {
-        for (int i = 0; i < m_bodyCount; ++i) {
-          Body b = m_bodies[i];
-          b.setAwake(false);
-        }
+        return true;
       }
     }
+
+    return false;
   }
 
   private final ContactSolver toiContactSolver = new ContactSolver();
@@ -435,20 +447,17 @@ public class Island {
     assert (toiIndexB < m_bodyCount);
 
     // Initialize the body state.
+    final BodyStates states = m_states;
     for (int i = 0; i < m_bodyCount; ++i) {
-      m_positions[i].c.x = m_bodies[i].m_sweep.c.x;
-      m_positions[i].c.y = m_bodies[i].m_sweep.c.y;
-      m_positions[i].a = m_bodies[i].m_sweep.a;
-      m_velocities[i].v.x = m_bodies[i].m_linearVelocity.x;
-      m_velocities[i].v.y = m_bodies[i].m_linearVelocity.y;
-      m_velocities[i].w = m_bodies[i].m_angularVelocity;
+      states.set(i, m_bodies[i]);
     }
+    final double[] cx = states.cx, cy = states.cy, ca = states.a;
+    final double[] vx = states.vx, vy = states.vy, vw = states.w;
 
     toiSolverDef.contacts = m_contacts;
     toiSolverDef.count = m_contactCount;
     toiSolverDef.step = subStep;
-    toiSolverDef.positions = m_positions;
-    toiSolverDef.velocities = m_velocities;
+    toiSolverDef.states = states;
     toiContactSolver.init(toiSolverDef);
 
     // Solve position constraints.
@@ -492,11 +501,12 @@ public class Island {
     // #endif
 
     // Leap of faith to new safe state.
-    m_bodies[toiIndexA].m_sweep.c0.x = m_positions[toiIndexA].c.x;
-    m_bodies[toiIndexA].m_sweep.c0.y = m_positions[toiIndexA].c.y;
-    m_bodies[toiIndexA].m_sweep.a0 = m_positions[toiIndexA].a;
-    m_bodies[toiIndexB].m_sweep.c0.set(m_positions[toiIndexB].c);
-    m_bodies[toiIndexB].m_sweep.a0 = m_positions[toiIndexB].a;
+    m_bodies[toiIndexA].m_sweep.c0.x = cx[toiIndexA];
+    m_bodies[toiIndexA].m_sweep.c0.y = cy[toiIndexA];
+    m_bodies[toiIndexA].m_sweep.a0 = ca[toiIndexA];
+    m_bodies[toiIndexB].m_sweep.c0.x = cx[toiIndexB];
+    m_bodies[toiIndexB].m_sweep.c0.y = cy[toiIndexB];
+    m_bodies[toiIndexB].m_sweep.a0 = ca[toiIndexB];
 
     // No warm starting is needed for TOI events because warm
     // starting impulses were applied in the discrete solver.
@@ -514,19 +524,19 @@ public class Island {
 
     // Integrate positions
     for (int i = 0; i < m_bodyCount; ++i) {
-      Vec2 c = m_positions[i].c;
-      double a = m_positions[i].a;
-      Vec2 v = m_velocities[i].v;
-      double w = m_velocities[i].w;
+      double vxi = vx[i];
+      double vyi = vy[i];
+      double w = vw[i];
 
       // Check for large velocities
-      double translationx = v.x * h;
-      double translationy = v.y * h;
+      double translationx = vxi * h;
+      double translationy = vyi * h;
       if (translationx * translationx + translationy * translationy > Settings.maxTranslationSquared) {
         double ratio =
             Settings.maxTranslation
                 / Math.sqrt(translationx * translationx + translationy * translationy);
-        v.mulLocal(ratio);
+        vxi *= ratio;
+        vyi *= ratio;
       }
 
       double rotation = h * w;
@@ -536,24 +546,24 @@ public class Island {
       }
 
       // Integrate
-      c.x += v.x * h;
-      c.y += v.y * h;
-      a += h * w;
+      double c_x = cx[i] + vxi * h;
+      double c_y = cy[i] + vyi * h;
+      double a = ca[i] + h * w;
 
-      m_positions[i].c.x = c.x;
-      m_positions[i].c.y = c.y;
-      m_positions[i].a = a;
-      m_velocities[i].v.x = v.x;
-      m_velocities[i].v.y = v.y;
-      m_velocities[i].w = w;
+      cx[i] = c_x;
+      cy[i] = c_y;
+      ca[i] = a;
+      vx[i] = vxi;
+      vy[i] = vyi;
+      vw[i] = w;
 
       // Sync bodies
       Body body = m_bodies[i];
-      body.m_sweep.c.x = c.x;
-      body.m_sweep.c.y = c.y;
+      body.m_sweep.c.x = c_x;
+      body.m_sweep.c.y = c_y;
       body.m_sweep.a = a;
-      body.m_linearVelocity.x = v.x;
-      body.m_linearVelocity.y = v.y;
+      body.m_linearVelocity.x = vxi;
+      body.m_linearVelocity.y = vyi;
       body.m_angularVelocity = w;
       body.synchronizeTransform();
     }
@@ -561,6 +571,21 @@ public class Island {
     report(toiContactSolver.m_velocityConstraints);
   }
 
+  /**
+   * Loads a static body into the slot it was given before the island was built. Static bodies are
+   * shared between islands, so the parallel solver assigns their indices up front instead of
+   * letting each island overwrite {@link Body#m_islandIndex}.
+   */
+  public void addStatic(Body body) {
+    assert (body.m_type == BodyType.STATIC);
+    final int i = body.m_islandIndex;
+    assert (i < m_bodyCapacity);
+    m_states.set(i, body);
+    m_states.vx[i] = 0;
+    m_states.vy[i] = 0;
+    m_states.w[i] = 0;
+  }
+
   public void add(Body body) {
     assert (m_bodyCount < m_bodyCapacity);
     body.m_islandIndex = m_bodyCount;
@@ -580,6 +605,23 @@ public class Island {
 
   private final ContactImpulse impulse = new ContactImpulse();
 
+  /**
+   * Copies the impulses of the last solve into {@code impulses}, starting at {@code offset}, so
+   * that they can be reported later from another thread.
+   */
+  public void storeImpulses(ContactImpulse[] impulses, int offset) {
+    ContactVelocityConstraint[] constraints = contactSolver.m_velocityConstraints;
+    for (int i = 0; i < m_contactCount; ++i) {
+      ContactVelocityConstraint vc = constraints[i];
+      ContactImpulse out = impulses[offset + i];
+      out.count = vc.pointCount;
+      for (int j = 0; j < vc.pointCount; ++j) {
+        out.normalImpulses[j] = vc.points[j].normalImpulse;
+        out.tangentImpulses[j] = vc.points[j].tangentImpulse;
+      }
+    }
+  }
+
   public void report(ContactVelocityConstraint[] constraints) {
     if (m_listener == null) {
       return;
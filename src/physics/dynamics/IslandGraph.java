@@ -0,0 +1,477 @@
+package physics.dynamics;
+
+import physics.dynamics.contacts.Contact;
+import physics.dynamics.contacts.ContactEdge;
+import physics.dynamics.joints.Joint;
+import physics.dynamics.joints.JointEdge;
+
+/**
+ * Keeps the island graph of a world between steps. Islands are merged as soon as a contact starts
+ * touching or a joint is created. Removing a constraint only marks its island, the island is split
+ * the next time it is solved, so the cost of a step follows the changes to the graph rather than
+ * the size of the world.
+ */
+public class IslandGraph {
+  private PersistentIsland m_islandList;
+  private int m_islandCount;
+
+  // islands that lost a constraint, may hold islands that were merged away since
+  private PersistentIsland[] m_dirty = new PersistentIsland[16];
+  private int m_dirtyCount;
+
+  private Body[] m_stack = new Body[16];
+  private Body[] m_bodies = new Body[16];
+
+  public PersistentIsland getIslandList() {
+    return m_islandList;
+  }
+
+  public int getIslandCount() {
+    return m_islandCount;
+  }
+
+  /**
+   * Does the body take part in the island graph? Static and inactive bodies don't.
+   */
+  public static boolean isMember(Body body) {
+    return body.m_type != BodyType.STATIC && body.isActive();
+  }
+
+  /**
+   * Adds the body to the graph if it can take part in it, then links the joints on it.
+   */
+  public void attach(Body body) {
+    if (body.m_island == null && isMember(body)) {
+      PersistentIsland island = createIsland();
+      addBody(island, body);
+    }
+
+    for (JointEdge je = body.m_jointList; je != null; je = je.next) {
+      if (je.joint.m_island == null) {
+        link(je.joint);
+      }
+    }
+  }
+
+  /**
+   * Removes the body and every constraint on it from the graph. Call this before changing anything
+   * that {@link #isMember(Body)} depends on, and {@link #attach(Body)} after.
+   */
+  public void detach(Body body) {
+    for (JointEdge je = body.m_jointList; je != null; je = je.next) {
+      if (je.joint.m_island != null) {
+        unlink(je.joint);
+      }
+    }
+
+    for (ContactEdge ce = body.m_contactList; ce != null; ce = ce.next) {
+      if (ce.contact.m_island != null) {
+        unlink(ce.contact);
+      }
+    }
+
+    PersistentIsland island = body.m_island;
+    if (island == null) {
+      return;
+    }
+
+    if (body.m_islandPrev != null) {
+      body.m_islandPrev.m_islandNext = body.m_islandNext;
+    }
+    if (body.m_islandNext != null) {
+      body.m_islandNext.m_islandPrev = body.m_islandPrev;
+    }
+    if (body == island.m_bodyList) {
+      island.m_bodyList = body.m_islandNext;
+    }
+    body.m_islandPrev = null;
+    body.m_islandNext = null;
+    body.m_island = null;
+
+    --island.m_bodyCount;
+    if (body.isAwake()) {
+      --island.m_awakeCount;
+    }
+
+    if (island.m_bodyCount == 0) {
+      assert (island.m_contactCount == 0 && island.m_jointCount == 0);
+      destroyIsland(island);
+    }
+  }
+
+  /**
+   * Called when a contact starts touching. Merges the islands of the two bodies.
+   */
+  public void link(Contact contact) {
+    assert (contact.m_island == null);
+    Body bodyA = contact.m_fixtureA.m_body;
+    Body bodyB = contact.m_fixtureB.m_body;
+
+    PersistentIsland island = merge(bodyA.m_island, bodyB.m_island);
+    if (island == null) {
+      return;
+    }
+
+    contact.m_island = island;
+    contact.m_islandPrev = null;
+    contact.m_islandNext = island.m_contactList;
+    if (island.m_contactList != null) {
+      island.m_contactList.m_islandPrev = contact;
+    }
+    island.m_contactList = contact;
+    ++island.m_contactCount;
+  }
+
+  /**
+   * Called when a contact stops touching or is destroyed. The island is split lazily.
+   */
+  public void unlink(Contact contact) {
+    PersistentIsland island = contact.m_island;
+    assert (island != null);
+
+    if (contact.m_islandPrev != null) {
+      contact.m_islandPrev.m_islandNext = contact.m_islandNext;
+    }
+    if (contact.m_islandNext != null) {
+      contact.m_islandNext.m_islandPrev = contact.m_islandPrev;
+    }
+    if (contact == island.m_contactList) {
+      island.m_contactList = contact.m_islandNext;
+    }
+    contact.m_islandPrev = null;
+    contact.m_islandNext = null;
+    contact.m_island = null;
+    --island.m_contactCount;
+
+    if (contact.m_fixtureA.m_body.m_island != null && contact.m_fixtureB.m_body.m_island != null) {
+      markDirty(island);
+    }
+  }
+
+  /**
+   * Called when a joint is created or one of its bodies joins the graph.
+   */
+  public void link(Joint joint) {
+    assert (joint.m_island == null);
+    Body bodyA = joint.getBodyA();
+    Body bodyB = joint.getBodyB();
+
+    // Don't simulate joints connected to inactive bodies.
+    if (bodyA.isActive() == false || bodyB.isActive() == false) {
+      return;
+    }
+
+    PersistentIsland island = merge(bodyA.m_island, bodyB.m_island);
+    if (island == null) {
+      return;
+    }
+
+    joint.m_island = island;
+    joint.m_islandPrev = null;
+    joint.m_islandNext = island.m_jointList;
+    if (island.m_jointList != null) {
+      island.m_jointList.m_islandPrev = joint;
+    }
+    island.m_jointList = joint;
+    ++island.m_jointCount;
+  }
+
+  /**
+   * Called when a joint is destroyed or one of its bodies leaves the graph.
+   */
+  public void unlink(Joint joint) {
+    PersistentIsland island = joint.m_island;
+    assert (island != null);
+
+    if (joint.m_islandPrev != null) {
+      joint.m_islandPrev.m_islandNext = joint.m_islandNext;
+    }
+    if (joint.m_islandNext != null) {
+      joint.m_islandNext.m_islandPrev = joint.m_islandPrev;
+    }
+    if (joint == island.m_jointList) {
+      island.m_jointList = joint.m_islandNext;
+    }
+    joint.m_islandPrev = null;
+    joint.m_islandNext = null;
+    joint.m_island = null;
+    --island.m_jointCount;
+
+    if (joint.getBodyA().m_island != null && joint.getBodyB().m_island != null) {
+      markDirty(island);
+    }
+  }
+
+  /**
+   * Splits every awake island that lost a constraint. Sleeping islands are left until they wake.
+   */
+  public void splitDirty() {
+    int kept = 0;
+    for (int i = 0; i < m_dirtyCount; i++) {
+      PersistentIsland island = m_dirty[i];
+      m_dirty[i] = null;
+      if (island.m_removed) {
+        continue;
+      }
+
+      if (island.m_awakeCount == 0) {
+        m_dirty[kept++] = island;
+        continue;
+      }
+
+      island.m_dirty = false;
+      split(island);
+    }
+    m_dirtyCount = kept;
+  }
+
+  /**
+   * Breaks an island into its connected parts. The first part keeps the island.
+   */
+  public void split(PersistentIsland island) {
+    island.m_constraintRemoveCount = 0;
+
+    int bodyCount = island.m_bodyCount;
+    if (m_bodies.length < bodyCount) {
+      m_bodies = new Body[Math.max(m_bodies.length * 2, bodyCount)];
+      m_stack = new Body[m_bodies.length];
+    }
+
+    int i = 0;
+    for (Body b = island.m_bodyList; b != null; b = b.m_islandNext) {
+      m_bodies[i++] = b;
+    }
+    assert (i == bodyCount);
+
+    // The continuous solver also marks contacts, start from clean flags.
+    for (Contact c = island.m_contactList; c != null; c = c.m_islandNext) {
+      c.m_flags &= ~Contact.ISLAND_FLAG;
+    }
+    for (Joint j = island.m_jointList; j != null; j = j.m_islandNext) {
+      j.m_islandFlag = false;
+    }
+
+    island.m_bodyList = null;
+    island.m_bodyCount = 0;
+    island.m_contactList = null;
+    island.m_contactCount = 0;
+    island.m_jointList = null;
+    island.m_jointCount = 0;
+    island.m_awakeCount = 0;
+
+    PersistentIsland part = island;
+    for (i = 0; i < bodyCount; i++) {
+      Body seed = m_bodies[i];
+      if ((seed.m_flags & Body.e_islandFlag) != 0) {
+        continue;
+      }
+
+      if (part == null) {
+        part = createIsland();
+      }
+
+      int stackCount = 0;
+      m_stack[stackCount++] = seed;
+      seed.m_flags |= Body.e_islandFlag;
+
+      while (stackCount > 0) {
+        Body b = m_stack[--stackCount];
+        addBody(part, b);
+
+        for (ContactEdge ce = b.m_contactList; ce != null; ce = ce.next) {
+          Contact contact = ce.contact;
+          if (contact.m_island == null || (contact.m_flags & Contact.ISLAND_FLAG) != 0) {
+            continue;
+          }
+
+          contact.m_flags |= Contact.ISLAND_FLAG;
+          contact.m_island = part;
+          contact.m_islandPrev = null;
+          contact.m_islandNext = part.m_contactList;
+          if (part.m_contactList != null) {
+            part.m_contactList.m_islandPrev = contact;
+          }
+          part.m_contactList = contact;
+          ++part.m_contactCount;
+
+          Body other = ce.other;
+          if (other.m_island != null && (other.m_flags & Body.e_islandFlag) == 0) {
+            m_stack[stackCount++] = other;
+            other.m_flags |= Body.e_islandFlag;
+          }
+        }
+
+        for (JointEdge je = b.m_jointList; je != null; je = je.next) {
+          Joint joint = je.joint;
+          if (joint.m_island == null || joint.m_islandFlag) {
+            continue;
+          }
+
+          joint.m_islandFlag = true;
+          joint.m_island = part;
+          joint.m_islandPrev = null;
+          joint.m_islandNext = part.m_jointList;
+          if (part.m_jointList != null) {
+            part.m_jointList.m_islandPrev = joint;
+          }
+          part.m_jointList = joint;
+          ++part.m_jointCount;
+
+          Body other = je.other;
+          if (other.m_island != null && (other.m_flags & Body.e_islandFlag) == 0) {
+            m_stack[stackCount++] = other;
+            other.m_flags |= Body.e_islandFlag;
+          }
+        }
+      }
+
+      // No other part can reach these constraints, body flags are cleared at the end.
+      for (Contact c = part.m_contactList; c != null; c = c.m_islandNext) {
+        c.m_flags &= ~Contact.ISLAND_FLAG;
+      }
+      for (Joint j = part.m_jointList; j != null; j = j.m_islandNext) {
+        j.m_islandFlag = false;
+      }
+
+      part = null;
+    }
+
+    for (i = 0; i < bodyCount; i++) {
+      m_bodies[i].m_flags &= ~Body.e_islandFlag;
+      m_bodies[i] = null;
+    }
+  }
+
+  private PersistentIsland merge(PersistentIsland islandA, PersistentIsland islandB) {
+    if (islandA == null) {
+      return islandB;
+    }
+    if (islandB == null || islandA == islandB) {
+      return islandA;
+    }
+
+    // Move the smaller island into the larger one.
+    PersistentIsland big = islandA, small = islandB;
+    if (big.m_bodyCount < small.m_bodyCount) {
+      big = islandB;
+      small = islandA;
+    }
+
+    Body lastBody = null;
+    for (Body b = small.m_bodyList; b != null; b = b.m_islandNext) {
+      b.m_island = big;
+      lastBody = b;
+    }
+    lastBody.m_islandNext = big.m_bodyList;
+    if (big.m_bodyList != null) {
+      big.m_bodyList.m_islandPrev = lastBody;
+    }
+    big.m_bodyList = small.m_bodyList;
+    big.m_bodyCount += small.m_bodyCount;
+    big.m_awakeCount += small.m_awakeCount;
+
+    if (small.m_contactList != null) {
+      Contact last = null;
+      for (Contact c = small.m_contactList; c != null; c = c.m_islandNext) {
+        c.m_island = big;
+        last = c;
+      }
+      last.m_islandNext = big.m_contactList;
+      if (big.m_contactList != null) {
+        big.m_contactList.m_islandPrev = last;
+      }
+      big.m_contactList = small.m_contactList;
+      big.m_contactCount += small.m_contactCount;
+    }
+
+    if (small.m_jointList != null) {
+      Joint last = null;
+      for (Joint j = small.m_jointList; j != null; j = j.m_islandNext) {
+        j.m_island = big;
+        last = j;
+      }
+      last.m_islandNext = big.m_jointList;
+      if (big.m_jointList != null) {
+        big.m_jointList.m_islandPrev = last;
+      }
+      big.m_jointList = small.m_jointList;
+      big.m_jointCount += small.m_jointCount;
+    }
+
+    if (small.m_constraintRemoveCount > 0) {
+      big.m_constraintRemoveCount += small.m_constraintRemoveCount;
+      if (big.m_dirty == false) {
+        big.m_dirty = true;
+        pushDirty(big);
+      }
+    }
+
+    small.m_bodyList = null;
+    small.m_contactList = null;
+    small.m_jointList = null;
+    small.m_bodyCount = 0;
+    small.m_contactCount = 0;
+    small.m_jointCount = 0;
+    small.m_awakeCount = 0;
+    destroyIsland(small);
+
+    return big;
+  }
+
+  private void addBody(PersistentIsland island, Body body) {
+    body.m_island = island;
+    body.m_islandPrev = null;
+    body.m_islandNext = island.m_bodyList;
+    if (island.m_bodyList != null) {
+      island.m_bodyList.m_islandPrev = body;
+    }
+    island.m_bodyList = body;
+    ++island.m_bodyCount;
+    if (body.isAwake()) {
+      ++island.m_awakeCount;
+    }
+  }
+
+  private void markDirty(PersistentIsland island) {
+    ++island.m_constraintRemoveCount;
+    if (island.m_dirty == false) {
+      island.m_dirty = true;
+      pushDirty(island);
+    }
+  }
+
+  private void pushDirty(PersistentIsland island) {
+    if (m_dirtyCount == m_dirty.length) {
+      PersistentIsland[] old = m_dirty;
+      m_dirty = new PersistentIsland[old.length * 2];
+      System.arraycopy(old, 0, m_dirty, 0, old.length);
+    }
+    m_dirty[m_dirtyCount++] = island;
+  }
+
+  private PersistentIsland createIsland() {
+    PersistentIsland island = new PersistentIsland();
+    island.m_prev = null;
+    island.m_next = m_islandList;
+    if (m_islandList != null) {
+      m_islandList.m_prev = island;
+    }
+    m_islandList = island;
+    ++m_islandCount;
+    return island;
+  }
+
+  private void destroyIsland(PersistentIsland island) {
+    if (island.m_prev != null) {
+      island.m_prev.m_next = island.m_next;
+    }
+    if (island.m_next != null) {
+      island.m_next.m_prev = island.m_prev;
+    }
+    if (island == m_islandList) {
+      m_islandList = island.m_next;
+    }
+    island.m_removed = true;
+    --m_islandCount;
+  }
+}
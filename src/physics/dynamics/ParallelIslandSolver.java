@@ -0,0 +1,296 @@
+package physics.dynamics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import physics.callbacks.ContactImpulse;
+import physics.callbacks.ContactListener;
+import physics.common.Vec2;
+import physics.dynamics.contacts.Contact;
+import physics.dynamics.joints.Joint;
+import physics.pooling.IWorldPool;
+import physics.pooling.normal.DefaultWorldPool;
+
+/**
+ * Solves the islands found in a step across a fork-join pool. The world still builds the islands
+ * serially, they are copied in here and solved once the search is done. Each worker owns its own
+ * {@link Island}, and with it a {@link physics.dynamics.contacts.ContactSolver}, and its own
+ * {@link IWorldPool}.
+ *
+ * Islands only share static bodies, which the solver never moves. Those are given a slot after all
+ * the islands are known so no two workers write {@link Body#m_islandIndex}. Post solve callbacks
+ * and sleeping are replayed on the calling thread in the order the islands were found, so the
+ * result of a step does not depend on the number of threads.
+ */
+class ParallelIslandSolver {
+  private final World m_world;
+  private final ForkJoinPool m_executor;
+  private final Worker[] m_workers;
+
+  // islands found this step, as ranges into the flat arrays below
+  private int m_islandCount;
+  private int[] m_bodyEnds = new int[16];
+  private int[] m_staticEnds = new int[16];
+  private int[] m_contactEnds = new int[16];
+  private int[] m_jointEnds = new int[16];
+  private boolean[] m_sleep = new boolean[16];
+
+  private Body[] m_bodies = new Body[64];
+  private int m_bodyCount;
+  private Body[] m_islandStatics = new Body[16];
+  private int m_islandStaticCount;
+  private Contact[] m_contacts = new Contact[64];
+  private int m_contactCount;
+  private Joint[] m_joints = new Joint[16];
+  private int m_jointCount;
+  private ContactImpulse[] m_impulses = new ContactImpulse[0];
+
+  // one entry per static body touched this step, indexed by slot
+  private Body[] m_statics = new Body[16];
+  private int m_staticCount;
+  private int m_staticBase;
+
+  private final AtomicInteger m_nextIsland = new AtomicInteger();
+  private TimeStep m_step;
+  private Vec2 m_gravity;
+  private boolean m_allowSleep;
+
+  ParallelIslandSolver(World world, int threads) {
+    assert (threads > 1);
+    m_world = world;
+    m_executor = new ForkJoinPool(threads - 1);
+    m_workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      m_workers[i] = new Worker();
+    }
+  }
+
+  int getThreadCount() {
+    return m_workers.length;
+  }
+
+  void shutdown() {
+    m_executor.shutdown();
+  }
+
+  /**
+   * Starts collecting the islands of a step.
+   *
+   * @param bodyCount the number of bodies in the world, no island can hold more.
+   */
+  void begin(int bodyCount) {
+    m_islandCount = 0;
+    m_bodyCount = 0;
+    m_islandStaticCount = 0;
+    m_contactCount = 0;
+    m_jointCount = 0;
+    m_staticCount = 0;
+    m_staticBase = bodyCount;
+  }
+
+  /**
+   * Copies a freshly built island in to be solved later.
+   */
+  void add(Island island) {
+    if (m_islandCount == m_bodyEnds.length) {
+      int size = m_islandCount * 2;
+      m_bodyEnds = grow(m_bodyEnds, size);
+      m_staticEnds = grow(m_staticEnds, size);
+      m_contactEnds = grow(m_contactEnds, size);
+      m_jointEnds = grow(m_jointEnds, size);
+      boolean[] sleep = new boolean[size];
+      System.arraycopy(m_sleep, 0, sleep, 0, m_islandCount);
+      m_sleep = sleep;
+    }
+
+    for (int i = 0; i < island.m_bodyCount; i++) {
+      Body b = island.m_bodies[i];
+      if (b.m_type == BodyType.STATIC) {
+        if (m_islandStaticCount == m_islandStatics.length) {
+          m_islandStatics = grow(m_islandStatics, m_islandStaticCount * 2);
+        }
+        m_islandStatics[m_islandStaticCount++] = b;
+      } else {
+        if (m_bodyCount == m_bodies.length) {
+          m_bodies = grow(m_bodies, m_bodyCount * 2);
+        }
+        m_bodies[m_bodyCount++] = b;
+      }
+    }
+
+    if (m_contactCount + island.m_contactCount > m_contacts.length) {
+      m_contacts =
+          grow(m_contacts, Math.max(m_contacts.length * 2, m_contactCount + island.m_contactCount));
+    }
+    System.arraycopy(island.m_contacts, 0, m_contacts, m_contactCount, island.m_contactCount);
+    m_contactCount += island.m_contactCount;
+
+    if (m_jointCount + island.m_jointCount > m_joints.length) {
+      m_joints = grow(m_joints, Math.max(m_joints.length * 2, m_jointCount + island.m_jointCount));
+    }
+    System.arraycopy(island.m_joints, 0, m_joints, m_jointCount, island.m_jointCount);
+    m_jointCount += island.m_jointCount;
+
+    m_bodyEnds[m_islandCount] = m_bodyCount;
+    m_staticEnds[m_islandCount] = m_islandStaticCount;
+    m_contactEnds[m_islandCount] = m_contactCount;
+    m_jointEnds[m_islandCount] = m_jointCount;
+    m_islandCount++;
+  }
+
+  /**
+   * Solves every island added since {@link #begin(int)}, then reports and sleeps them in order.
+   */
+  void solve(Profile profile, TimeStep step, Vec2 gravity, boolean allowSleep,
+      ContactListener listener) {
+    if (m_islandCount == 0) {
+      return;
+    }
+
+    // Give every static body a single slot past the end of the island bodies.
+    for (int i = 0; i < m_islandStaticCount; i++) {
+      Body b = m_islandStatics[i];
+      int slot = b.m_islandIndex - m_staticBase;
+      if (slot >= 0 && slot < m_staticCount && m_statics[slot] == b) {
+        continue;
+      }
+      if (m_staticCount == m_statics.length) {
+        m_statics = grow(m_statics, m_staticCount * 2);
+      }
+      m_statics[m_staticCount] = b;
+      b.m_islandIndex = m_staticBase + m_staticCount;
+      m_staticCount++;
+    }
+
+    if (m_impulses.length < m_contactCount) {
+      ContactImpulse[] old = m_impulses;
+      m_impulses = new ContactImpulse[Math.max(old.length * 2, m_contactCount)];
+      System.arraycopy(old, 0, m_impulses, 0, old.length);
+      for (int i = old.length; i < m_impulses.length; i++) {
+        m_impulses[i] = new ContactImpulse();
+      }
+    }
+
+    m_step = step;
+    m_gravity = gravity;
+    m_allowSleep = allowSleep;
+    m_nextIsland.set(0);
+
+    int workers = Math.min(m_workers.length, m_islandCount);
+    for (int i = 0; i < workers; i++) {
+      m_workers[i].begin(m_staticBase + m_staticCount);
+    }
+    for (int i = 1; i < workers; i++) {
+      m_executor.execute(m_workers[i]);
+    }
+    m_workers[0].solveIslands();
+    for (int i = 1; i < workers; i++) {
+      m_workers[i].join();
+    }
+
+    double init = 0, velocity = 0, position = 0;
+    for (int i = 0; i < workers; i++) {
+      Profile p = m_workers[i].profile;
+      init = Math.max(init, p.solveInit.accum);
+      velocity = Math.max(velocity, p.solveVelocity.accum);
+      position = Math.max(position, p.solvePosition.accum);
+    }
+    profile.solveInit.accum(init);
+    profile.solveVelocity.accum(velocity);
+    profile.solvePosition.accum(position);
+
+    // Replay callbacks and sleeping in island order.
+    int body = 0, statics = 0, contact = 0;
+    for (int k = 0; k < m_islandCount; k++) {
+      if (listener != null) {
+        for (; contact < m_contactEnds[k]; contact++) {
+          listener.postSolve(m_contacts[contact], m_impulses[contact]);
+        }
+      }
+      contact = m_contactEnds[k];
+
+      if (m_sleep[k]) {
+        for (; body < m_bodyEnds[k]; body++) {
+          m_bodies[body].setAwake(false);
+        }
+        for (; statics < m_staticEnds[k]; statics++) {
+          m_islandStatics[statics].setAwake(false);
+        }
+      }
+      body = m_bodyEnds[k];
+      statics = m_staticEnds[k];
+    }
+
+    // don't hold on to bodies the world may destroy
+    for (int i = 0; i < m_staticCount; i++) {
+      m_statics[i] = null;
+    }
+  }
+
+  private static int[] grow(int[] array, int size) {
+    int[] grown = new int[size];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  private static <T> T[] grow(T[] array, int size) {
+    return Arrays.copyOf(array, size);
+  }
+
+  private class Worker extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final Island island = new Island();
+    final IWorldPool pool = new DefaultWorldPool(World.WORLD_POOL_SIZE,
+        World.WORLD_POOL_CONTAINER_SIZE);
+    final Profile profile = new Profile();
+
+    void begin(int bodyCapacity) {
+      reinitialize();
+      island.init(bodyCapacity, m_contactCount, m_jointCount, null);
+      profile.solveInit.startAccum();
+      profile.solveVelocity.startAccum();
+      profile.solvePosition.startAccum();
+    }
+
+    @Override
+    protected void compute() {
+      solveIslands();
+    }
+
+    void solveIslands() {
+      int k;
+      while ((k = m_nextIsland.getAndIncrement()) < m_islandCount) {
+        solveIsland(k);
+      }
+    }
+
+    private void solveIsland(int k) {
+      island.clear();
+
+      for (int i = k == 0 ? 0 : m_bodyEnds[k - 1]; i < m_bodyEnds[k]; i++) {
+        island.add(m_bodies[i]);
+      }
+      for (int i = k == 0 ? 0 : m_staticEnds[k - 1]; i < m_staticEnds[k]; i++) {
+        island.addStatic(m_islandStatics[i]);
+      }
+      int contactStart = k == 0 ? 0 : m_contactEnds[k - 1];
+      for (int i = contactStart; i < m_contactEnds[k]; i++) {
+        island.add(m_contacts[i]);
+      }
+      for (int i = k == 0 ? 0 : m_jointEnds[k - 1]; i < m_jointEnds[k]; i++) {
+        m_joints[i].setPool(pool);
+        island.add(m_joints[i]);
+      }
+
+      m_sleep[k] = island.solveIsland(profile, m_step, m_gravity, m_allowSleep);
+      island.storeImpulses(m_impulses, contactStart);
+
+      for (int i = 0; i < island.m_jointCount; i++) {
+        island.m_joints[i].setPool(m_world.getPool());
+      }
+    }
+  }
+}
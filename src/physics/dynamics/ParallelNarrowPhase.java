@@ -0,0 +1,194 @@
+package physics.dynamics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import physics.collision.Manifold;
+import physics.dynamics.contacts.Contact;
+import physics.pooling.IWorldPool;
+import physics.pooling.normal.DefaultWorldPool;
+
+/**
+ * Updates the manifolds of a step's contacts across a fork-join pool. The contact list is first
+ * copied into an array in order, each contact sorted out as to update, skip or destroy. Workers
+ * then take packets of the array and update the manifolds only, each with its own
+ * {@link IWorldPool}.
+ *
+ * Everything else a contact update does, waking bodies, linking islands and the begin, end and pre
+ * solve callbacks, is left in the contact and replayed on the calling thread in list order. So are
+ * the destroys. When its turn comes each contact is sorted out again, as the serial loop in
+ * {@link ContactManager#collide()} would do it then, in case a listener called for an earlier
+ * contact woke or slept its bodies, flagged it for filtering or made one of its fixtures a sensor.
+ * A manifold updated ahead of time that no longer fits is reverted and, if need be, updated again.
+ * Listeners need not be thread-safe and a step gives the same result as the serial loop, except
+ * where a listener moves a body with {@link Body#setTransform}: the later contacts of that body keep
+ * the manifolds evaluated before the move.
+ */
+class ParallelNarrowPhase {
+  private static final int PACKET_SIZE = 64;
+
+  private final ContactManager m_manager;
+  private final IWorldPool m_worldPool;
+  private final ForkJoinPool m_executor;
+  private final Worker[] m_workers;
+
+  private Contact[] m_contacts = new Contact[64];
+  private int[] m_states = new int[64];
+  private boolean[] m_reused = new boolean[64];
+  private int m_contactCount;
+
+  private final AtomicInteger m_nextPacket = new AtomicInteger();
+  private int m_packetCount;
+
+  private final Manifold m_check = new Manifold();
+
+  ParallelNarrowPhase(ContactManager manager, IWorldPool worldPool, int threads) {
+    assert (threads > 1);
+    m_manager = manager;
+    m_worldPool = worldPool;
+    m_executor = new ForkJoinPool(threads - 1);
+    m_workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      m_workers[i] = new Worker();
+    }
+  }
+
+  int getThreadCount() {
+    return m_workers.length;
+  }
+
+  void shutdown() {
+    m_executor.shutdown();
+  }
+
+  void collide() {
+    final ContactManager manager = m_manager;
+
+    // Sort out the contacts in list order.
+    m_contactCount = 0;
+    for (Contact c = manager.m_contactList; c != null; c = c.getNext()) {
+      if (m_contactCount == m_contacts.length) {
+        int size = m_contactCount * 2;
+        m_contacts = Arrays.copyOf(m_contacts, size);
+        m_states = Arrays.copyOf(m_states, size);
+        m_reused = Arrays.copyOf(m_reused, size);
+      }
+      m_contacts[m_contactCount] = c;
+      m_states[m_contactCount] = manager.classify(c);
+      m_contactCount++;
+    }
+
+    // Update the manifolds.
+    m_packetCount = (m_contactCount + PACKET_SIZE - 1) / PACKET_SIZE;
+    m_nextPacket.set(0);
+    int workers = Math.min(m_workers.length, m_packetCount);
+    for (int i = 1; i < workers; i++) {
+      m_workers[i].reinitialize();
+      m_executor.execute(m_workers[i]);
+    }
+    m_workers[0].updatePackets();
+    for (int i = 1; i < workers; i++) {
+      m_workers[i].join();
+    }
+    assert (checkManifolds());
+
+    // Replay everything else in list order.
+    for (int i = 0; i < m_contactCount; i++) {
+      Contact c = m_contacts[i];
+      m_contacts[i] = null;
+      // a listener called for a contact before this one may have changed what this one does
+      boolean updated = m_states[i] == ContactManager.UPDATE;
+      int state = manager.classify(c);
+      if (updated && (state != ContactManager.UPDATE || c.isSensorChanged())) {
+        c.revertManifold();
+        updated = false;
+      }
+      if (state == ContactManager.UPDATE && !updated) {
+        m_reused[i] = c.updateManifold(manager.m_manifoldLinearTolerance,
+            manager.m_manifoldAngularTolerance);
+      }
+
+      if (state == ContactManager.DESTROY) {
+        manager.destroy(c);
+      } else if (state == ContactManager.UPDATE) {
+        ++manager.m_contactUpdateCount;
+        if (m_reused[i]) {
+          ++manager.m_manifoldReuseCount;
+        }
+        c.commitUpdate(manager.m_contactListener);
+      }
+    }
+  }
+
+  /**
+   * Evaluates every manifold the workers evaluated again on this thread and compares them. Only run
+   * with assertions on, before the replay, while the bodies are where the workers saw them.
+   */
+  private boolean checkManifolds() {
+    for (int i = 0; i < m_contactCount; i++) {
+      Contact c = m_contacts[i];
+      if (m_states[i] != ContactManager.UPDATE || m_reused[i] || c.getFixtureA().isSensor()
+          || c.getFixtureB().isSensor()) {
+        continue;
+      }
+      c.evaluate(m_check, c.getFixtureA().getBody().getTransform(),
+          c.getFixtureB().getBody().getTransform());
+      if (!sameManifold(m_check, c.getManifold())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean sameManifold(Manifold a, Manifold b) {
+    if (a.pointCount != b.pointCount) {
+      return false;
+    }
+    if (a.pointCount == 0) {
+      return true;
+    }
+    if (a.type != b.type || !a.localNormal.equals(b.localNormal)
+        || !a.localPoint.equals(b.localPoint)) {
+      return false;
+    }
+    for (int i = 0; i < a.pointCount; i++) {
+      if (!a.points[i].localPoint.equals(b.points[i].localPoint)
+          || !a.points[i].id.isEqual(b.points[i].id)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private class Worker extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final IWorldPool pool = new DefaultWorldPool(World.WORLD_POOL_SIZE,
+        World.WORLD_POOL_CONTAINER_SIZE);
+
+    @Override
+    protected void compute() {
+      updatePackets();
+    }
+
+    void updatePackets() {
+      final double linearTolerance = m_manager.m_manifoldLinearTolerance;
+      final double angularTolerance = m_manager.m_manifoldAngularTolerance;
+      int k;
+      while ((k = m_nextPacket.getAndIncrement()) < m_packetCount) {
+        int end = Math.min((k + 1) * PACKET_SIZE, m_contactCount);
+        for (int i = k * PACKET_SIZE; i < end; i++) {
+          if (m_states[i] != ContactManager.UPDATE) {
+            continue;
+          }
+          Contact c = m_contacts[i];
+          c.setPool(pool);
+          m_reused[i] = c.updateManifold(linearTolerance, angularTolerance);
+          c.setPool(m_worldPool);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package physics.dynamics;
+
+import physics.dynamics.contacts.Contact;
+import physics.dynamics.joints.Joint;
+
+/**
+ * A set of bodies that are connected by touching contacts or joints, kept between steps by the
+ * {@link IslandGraph}. Static bodies never belong to one, contacts and joints to a static body
+ * belong to the island of the other body.
+ */
+public class PersistentIsland {
+  public Body m_bodyList;
+  public int m_bodyCount;
+
+  public Contact m_contactList;
+  public int m_contactCount;
+
+  public Joint m_jointList;
+  public int m_jointCount;
+
+  /** The number of bodies in the island that are awake. */
+  public int m_awakeCount;
+
+  /** Constraints removed since the island was last split, it may no longer be connected. */
+  public int m_constraintRemoveCount;
+
+  PersistentIsland m_prev;
+  PersistentIsland m_next;
+
+  boolean m_dirty;
+  boolean m_removed;
+
+  public PersistentIsland getNext() {
+    return m_next;
+  }
+
+  public boolean isAwake() {
+    return m_awakeCount > 0;
+  }
+}
@@ -0,0 +1,102 @@
+package physics.dynamics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs a {@link FixedStepDriver} on its own thread so stepping overlaps with rendering. Once this
+ * is started the world belongs to this thread: anything else that wants to touch it has to go
+ * through {@link #invokeLater(Runnable)}, and readers on other threads should only look at what
+ * the publisher hands out.
+ *
+ * After every update that stepped the world the publisher is called, still on this thread, to copy
+ * whatever the other threads need into immutable snapshots. Changes made by tasks show up with the
+ * next step.
+ *
+ * A task that throws is reported to the task error handler and the thread carries on with the next
+ * one, an exception from the step itself ends the thread through its uncaught exception handler.
+ */
+public class PhysicsThread extends Thread {
+  private final FixedStepDriver m_driver;
+  private final ConcurrentLinkedQueue<Runnable> m_tasks = new ConcurrentLinkedQueue<Runnable>();
+  private volatile boolean m_running = true;
+  private Runnable m_publisher;
+  private Consumer<RuntimeException> m_taskErrorHandler;
+
+  public PhysicsThread(FixedStepDriver driver) {
+    super("physics");
+    m_driver = driver;
+    setDaemon(true);
+  }
+
+  public FixedStepDriver getDriver() {
+    return m_driver;
+  }
+
+  /**
+   * Sets what is run after each update to publish the new state, call before starting the thread.
+   */
+  public void setPublisher(Runnable publisher) {
+    m_publisher = publisher;
+  }
+
+  /**
+   * Sets what is told about a task that threw, on this thread. Without one the error goes to the
+   * uncaught exception handler, but the thread keeps running.
+   */
+  public void setTaskErrorHandler(Consumer<RuntimeException> handler) {
+    m_taskErrorHandler = handler;
+  }
+
+  /**
+   * Runs a task on the physics thread before its next update.
+   */
+  public void invokeLater(Runnable task) {
+    m_tasks.add(task);
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Stops the thread after its current update and waits for it.
+   */
+  public void shutdown() {
+    m_running = false;
+    LockSupport.unpark(this);
+    try {
+      join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    m_driver.reset();
+    while (m_running) {
+      Runnable task;
+      while ((task = m_tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          if (m_taskErrorHandler != null) {
+            m_taskErrorHandler.accept(e);
+          } else {
+            getUncaughtExceptionHandler().uncaughtException(this, e);
+          }
+        }
+      }
+
+      // republishing without a step would restart the interpolation of the same two transforms
+      if (m_driver.update() > 0 && m_publisher != null) {
+        m_publisher.run();
+      }
+
+      // sleep until the next step is due, or a task comes in
+      double wait = (1 - m_driver.getAlpha()) * m_driver.getTimeStep();
+      if (m_tasks.isEmpty()) {
+        LockSupport.parkNanos(this, (long) (wait * 1e9));
+      }
+    }
+  }
+}
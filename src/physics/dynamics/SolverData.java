@@ -23,11 +23,7 @@
  ******************************************************************************/
 package physics.dynamics;
 
-import physics.dynamics.contacts.Position;
-import physics.dynamics.contacts.Velocity;
-
 public class SolverData {
   public TimeStep step;
-  public Position[] positions;
-  public Velocity[] velocities;
+  public BodyStates states;
 }
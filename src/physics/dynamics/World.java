@@ -47,6 +47,7 @@ import physics.collision.broadphase.DynamicTree;
 import physics.collision.shapes.ChainShape;
 import physics.collision.shapes.CircleShape;
 import physics.collision.shapes.EdgeShape;
+import physics.collision.shapes.GridShape;
 import physics.collision.shapes.PolygonShape;
 import physics.collision.shapes.Shape;
 import physics.collision.shapes.ShapeType;
@@ -98,12 +99,22 @@ public class World {
 
 	protected ContactManager m_contactManager;
 
+	final IslandGraph m_islandGraph = new IslandGraph();
+
 	private Body m_bodyList;
 	private Joint m_jointList;
 
 	private int m_bodyCount;
 	private int m_jointCount;
 
+	// Awake non-static bodies, in no particular order, see Body.m_awakeIndex.
+	private Body[] m_awakeBodies = new Body[64];
+	private int m_awakeBodyCount;
+
+	// Bodies outside the awake set whose sweep the TOI solver advanced this step.
+	private Body[] m_toiBodies = new Body[16];
+	private int m_toiBodyCount;
+
 	private final Vec2 m_gravity = new Vec2();
 	private boolean m_allowSleep;
 
@@ -145,12 +156,12 @@ public class World {
 	}
 
 	/**
-	 * Construct a world object.
+	 * Construct a world object. Static bodies are kept in a broad-phase tree of their own.
 	 * 
 	 * @param gravity the world gravity vector.
 	 */
 	public World(Vec2 gravity, IWorldPool pool) {
-		this(gravity, pool, new DynamicTree());
+		this(gravity, pool, new DefaultBroadPhaseBuffer(new DynamicTree(), new DynamicTree()));
 	}
 
 	public World(Vec2 gravity, IWorldPool pool, BroadPhaseStrategy strategy) {
@@ -235,6 +246,11 @@ public class World {
 		addType(pool.getEdgePolyContactStack(), ShapeType.EDGE, ShapeType.POLYGON);
 		addType(pool.getChainCircleContactStack(), ShapeType.CHAIN, ShapeType.CIRCLE);
 		addType(pool.getChainPolyContactStack(), ShapeType.CHAIN, ShapeType.POLYGON);
+		addType(pool.getGridCircleContactStack(), ShapeType.GRID, ShapeType.CIRCLE);
+		addType(pool.getGridPolyContactStack(), ShapeType.GRID, ShapeType.POLYGON);
+		addType(pool.getGridContactStack(), ShapeType.GRID, ShapeType.GRID);
+		addType(pool.getEdgeGridContactStack(), ShapeType.EDGE, ShapeType.GRID);
+		addType(pool.getChainGridContactStack(), ShapeType.CHAIN, ShapeType.GRID);
 	}
 
 	public DestructionListener getDestructionListener() {
@@ -351,6 +367,9 @@ public class World {
 		 m_bodyList = b;
 		 ++m_bodyCount;
 
+		 m_islandGraph.attach(b);
+		 updateAwakeSet(b);
+
 		 return b;
 	 }
 
@@ -378,6 +397,9 @@ public class World {
 		 }
 		 m_bodyList = body;
 		 ++m_bodyCount;
+
+		 m_islandGraph.attach(body);
+		 updateAwakeSet(body);
 	 }
 
 	 
@@ -439,6 +461,11 @@ public class World {
 		 body.m_fixtureList = null;
 		 body.m_fixtureCount = 0;
 
+		 m_islandGraph.detach(body);
+		 if (body.m_awakeIndex >= 0) {
+			 removeAwake(body);
+		 }
+
 		 // Remove world body list.
 		 if (body.m_prev != null) {
 			 body.m_prev.m_next = body.m_next;
@@ -503,6 +530,8 @@ public class World {
 		 Body bodyA = def.bodyA;
 		 Body bodyB = def.bodyB;
 
+		 m_islandGraph.link(j);
+
 		 // If the joint prevents collisions, then flag any contacts for filtering.
 		 if (def.collideConnected == false) {
 			 ContactEdge edge = bodyB.getContactList();
@@ -553,6 +582,10 @@ public class World {
 		 Body bodyA = j.getBodyA();
 		 Body bodyB = j.getBodyB();
 
+		 if (j.m_island != null) {
+			 m_islandGraph.unlink(j);
+		 }
+
 		 // Wake up connected bodies.
 		 bodyA.setAwake(true);
 		 bodyB.setAwake(true);
@@ -692,7 +725,9 @@ public class World {
 	  * @see setAutoClearForces
 	  */
 	 public void clearForces() {
-		 for (Body body = m_bodyList; body != null; body = body.getNext()) {
+		 // Forces only ever act on awake dynamic bodies, sleeping clears them.
+		 for (int i = 0; i < m_awakeBodyCount; ++i) {
+			 Body body = m_awakeBodies[i];
 			 body.m_force.setZero();
 			 body.m_torque = 0.0f;
 		 }
@@ -857,6 +892,147 @@ public class World {
 		 m_contactManager.m_broadPhase.raycast(wrcwrapper, input);
 	 }
 
+	 private BatchQuery m_batchQuery = new BatchQuery(this, 1);
+
+	 /**
+	  * Query the world for the fixtures that potentially overlap each of a batch of boxes. Box i is
+	  * stored at {@code boxes[4 * i]} as lower x, lower y, upper x, upper y and its hits go to
+	  * {@code fixtures[maxHits * i]} onward. Neighbouring boxes are walked through the broad-phase
+	  * together, so they should be close to each other.
+	  * 
+	  * @param boxes the query boxes.
+	  * @param count the number of boxes.
+	  * @param fixtures receives up to maxHits fixtures per box.
+	  * @param hitCounts receives the number of hits of each box, which may exceed maxHits.
+	  * @param maxHits
+	  * @return the total number of hits.
+	  */
+	 public int queryAABBs(double[] boxes, int count, Fixture[] fixtures, int[] hitCounts,
+		 int maxHits) {
+		 return m_batchQuery.queryAABBs(boxes, count, fixtures, hitCounts, maxHits);
+	 }
+
+	 /**
+	  * Ray-cast the world for the closest fixture along each of a batch of rays. Ray i is stored at
+	  * {@code rays[4 * i]} as start x, start y, end x, end y. Like {@link #raycast}, rays ignore the
+	  * shapes that contain their start. Neighbouring rays are walked through the broad-phase together,
+	  * so they should be close to each other.
+	  * 
+	  * @param rays the rays.
+	  * @param count the number of rays.
+	  * @param fixtures receives the closest fixture hit by each ray, or null.
+	  * @param fractions receives the fraction of each ray at the hit, 1 if it missed.
+	  * @param points receives x, y of each hit point, may be null.
+	  * @param normals receives x, y of the surface normal at each hit, may be null.
+	  * @return the number of rays that hit something.
+	  */
+	 public int raycastClosest(double[] rays, int count, Fixture[] fixtures, double[] fractions,
+		 double[] points, double[] normals) {
+		 return m_batchQuery.raycastClosest(rays, count, fixtures, fractions, points, normals);
+	 }
+
+	 /**
+	  * Set the number of threads batch queries are split across. The world must not be changed
+	  * while a batch runs.
+	  * 
+	  * @param threads
+	  */
+	 public void setQueryThreads(int threads) {
+		 assert (threads > 0);
+		 if (threads == getQueryThreads()) {
+			 return;
+		 }
+		 m_batchQuery.shutdown();
+		 m_batchQuery = new BatchQuery(this, threads);
+	 }
+
+	 public int getQueryThreads() {
+		 return m_batchQuery.getThreadCount();
+	 }
+
+	 /**
+	  * Set the number of threads the broad-phase looks for new pairs on. Pairs are reported in the
+	  * same order as with one thread, so stepping gives the same results.
+	  * 
+	  * @warning This function is locked during callbacks.
+	  * @param threads
+	  */
+	 public void setPairThreads(int threads) {
+		 assert (threads > 0);
+		 assert (isLocked() == false);
+		 if (isLocked()) {
+			 return;
+		 }
+		 m_contactManager.m_broadPhase.setPairThreads(threads);
+	 }
+
+	 public int getPairThreads() {
+		 return m_contactManager.m_broadPhase.getPairThreads();
+	 }
+
+	 /**
+	  * Set the number of threads contact manifolds are updated on. With more than one thread the
+	  * manifolds are evaluated in parallel, waking bodies, island links and the begin, end and pre
+	  * solve callbacks still happen on the stepping thread in the same order as with one, so
+	  * listeners need not be thread-safe. Stepping gives the same results, unless a listener moves
+	  * a body with {@link Body#setTransform} during the step, see {@link ParallelNarrowPhase}.
+	  * 
+	  * @warning This function is locked during callbacks.
+	  * @param threads
+	  */
+	 public void setNarrowPhaseThreads(int threads) {
+		 assert (threads > 0);
+		 assert (isLocked() == false);
+		 if (isLocked()) {
+			 return;
+		 }
+		 m_contactManager.setNarrowPhaseThreads(threads);
+	 }
+
+	 public int getNarrowPhaseThreads() {
+		 return m_contactManager.getNarrowPhaseThreads();
+	 }
+
+	 /**
+	  * Let touching contacts keep their manifold, skipping the narrow-phase, while their bodies move
+	  * less than the given distance and angle relative to each other since it was evaluated. Zero
+	  * evaluates every contact every step, the default.
+	  * 
+	  * @param linear how far one body may move in the other's frame.
+	  * @param angular how far one body may turn relative to the other, in radians.
+	  */
+	 public void setManifoldTolerance(double linear, double angular) {
+		 m_contactManager.m_manifoldLinearTolerance = linear;
+		 m_contactManager.m_manifoldAngularTolerance = angular;
+	 }
+
+	 public double getManifoldLinearTolerance() {
+		 return m_contactManager.m_manifoldLinearTolerance;
+	 }
+
+	 public double getManifoldAngularTolerance() {
+		 return m_contactManager.m_manifoldAngularTolerance;
+	 }
+
+	 /**
+	  * Get how many times contacts were updated in the collide phase since the last reset.
+	  */
+	 public long getContactUpdateCount() {
+		 return m_contactManager.m_contactUpdateCount;
+	 }
+
+	 /**
+	  * Get how many of the contact updates kept their manifold and skipped the narrow-phase.
+	  */
+	 public long getManifoldReuseCount() {
+		 return m_contactManager.m_manifoldReuseCount;
+	 }
+
+	 public void resetContactUpdateCounts() {
+		 m_contactManager.m_contactUpdateCount = 0;
+		 m_contactManager.m_manifoldReuseCount = 0;
+	 }
+
 	 /**
 	  * Ray-cast the world for all fixtures and particles in the path of the ray. Your callback
 	  * controls whether you get the closest point, any point, or n-points. The ray-cast ignores shapes
@@ -976,6 +1152,61 @@ public class World {
 		 return m_bodyCount;
 	 }
 
+	 /**
+	  * Get the awake non-static bodies. Only the first {@link #getAwakeBodyCount()} entries are
+	  * valid, and the order changes as bodies fall asleep.
+	  * 
+	  * @return
+	  */
+	 public Body[] getAwakeBodies() {
+		 return m_awakeBodies;
+	 }
+
+	 /**
+	  * Get the number of awake non-static bodies.
+	  * 
+	  * @return
+	  */
+	 public int getAwakeBodyCount() {
+		 return m_awakeBodyCount;
+	 }
+
+	 /**
+	  * Adds or removes a body from the awake set to match its awake flag and type.
+	  */
+	 void updateAwakeSet(Body b) {
+		 boolean member = b.isAwake() && b.m_type != BodyType.STATIC;
+		 if (member == (b.m_awakeIndex >= 0)) {
+			 return;
+		 }
+
+		 if (member) {
+			 if (m_awakeBodyCount == m_awakeBodies.length) {
+				 Body[] old = m_awakeBodies;
+				 m_awakeBodies = new Body[old.length * 2];
+				 System.arraycopy(old, 0, m_awakeBodies, 0, old.length);
+			 }
+			 b.m_awakeIndex = m_awakeBodyCount;
+			 m_awakeBodies[m_awakeBodyCount++] = b;
+		 } else {
+			 removeAwake(b);
+		 }
+	 }
+
+	 private void removeAwake(Body b) {
+		 int index = b.m_awakeIndex;
+		 assert (m_awakeBodies[index] == b);
+		 Body last = m_awakeBodies[--m_awakeBodyCount];
+		 m_awakeBodies[index] = last;
+		 last.m_awakeIndex = index;
+		 m_awakeBodies[m_awakeBodyCount] = null;
+		 b.m_awakeIndex = -1;
+
+		 // The step no longer touches the body, leave it at rest.
+		 b.m_xf0.set(b.m_xf);
+		 b.m_sweep.alpha0 = 0.0f;
+	 }
+
 	 /**
 	  * Get the number of joints.
 	  * 
@@ -1083,8 +1314,99 @@ public class World {
 		 return m_profile;
 	 }
 
+	 /**
+	  * Get the island graph, which is kept between steps.
+	  * 
+	  * @return
+	  */
+	 public IslandGraph getIslandGraph() {
+		 return m_islandGraph;
+	 }
+
+	 /**
+	  * Set the number of threads islands are solved on. With more than one thread the islands found
+	  * in a step are solved in parallel, post solve callbacks and sleeping still happen on the
+	  * stepping thread in the same order as with one.
+	  * 
+	  * @warning This function is locked during callbacks.
+	  * @param threads
+	  */
+	 public void setIslandThreads(int threads) {
+		 assert (threads > 0);
+		 assert (isLocked() == false);
+		 if (isLocked() || threads == getIslandThreads()) {
+			 return;
+		 }
+
+		 if (m_islandSolver != null) {
+			 m_islandSolver.shutdown();
+			 m_islandSolver = null;
+		 }
+
+		 if (threads > 1) {
+			 m_islandSolver = new ParallelIslandSolver(this, threads);
+		 }
+	 }
+
+	 public int getIslandThreads() {
+		 return m_islandSolver == null ? 1 : m_islandSolver.getThreadCount();
+	 }
+
+	 /**
+	  * Set the number of threads the constraints of a large island are solved on. With more than one
+	  * thread the contacts and joints of islands with at least
+	  * {@link #setConstraintThreadThreshold(int) threshold} constraints are graph colored and each
+	  * color is solved in parallel. Constraints then run in a different order than with one thread,
+	  * so results differ from the serial solver, but not between thread counts. Only islands solved
+	  * on the stepping thread are split, that is with one {@link #setIslandThreads(int) island
+	  * thread}.
+	  * 
+	  * @warning This function is locked during callbacks.
+	  * @param threads
+	  */
+	 public void setConstraintThreads(int threads) {
+		 assert (threads > 0);
+		 assert (isLocked() == false);
+		 if (isLocked() || threads == getConstraintThreads()) {
+			 return;
+		 }
+
+		 if (island.m_coloredSolver != null) {
+			 island.m_coloredSolver.shutdown();
+			 island.m_coloredSolver = null;
+		 }
+
+		 if (threads > 1) {
+			 island.m_coloredSolver = new ColoredSolver(threads);
+			 island.m_coloredSolver.setMinConstraints(m_constraintThreshold);
+		 }
+	 }
+
+	 public int getConstraintThreads() {
+		 return island.m_coloredSolver == null ? 1 : island.m_coloredSolver.getThreadCount();
+	 }
+
+	 /**
+	  * Set the number of contacts and joints an island needs before its constraints are split
+	  * between threads.
+	  * 
+	  * @param threshold
+	  */
+	 public void setConstraintThreadThreshold(int threshold) {
+		 m_constraintThreshold = threshold;
+		 if (island.m_coloredSolver != null) {
+			 island.m_coloredSolver.setMinConstraints(threshold);
+		 }
+	 }
+
+	 public int getConstraintThreadThreshold() {
+		 return m_constraintThreshold;
+	 }
+
+	 private int m_constraintThreshold = ColoredSolver.DEFAULT_MIN_CONSTRAINTS;
 	 private final Island island = new Island();
-	 private Body[] stack = new Body[10]; // TODO djm find a good initial stack number;
+	 private ParallelIslandSolver m_islandSolver;
+	 private PersistentIsland[] m_solvedIslands = new PersistentIsland[16];
 	 private final Timer broadphaseTimer = new Timer();
 
 	 private void solve(TimeStep step) {
@@ -1093,7 +1415,8 @@ public class World {
 		 m_profile.solvePosition.startAccum();
 
 		 // update previous transforms
-		 for (Body b = m_bodyList; b != null; b = b.m_next) {
+		 for (int i = 0; i < m_awakeBodyCount; ++i) {
+			 Body b = m_awakeBodies[i];
 			 b.m_xf0.set(b.m_xf);
 		 }
 
@@ -1101,120 +1424,60 @@ public class World {
 		 island.init(m_bodyCount, m_contactManager.m_contactCount, m_jointCount,
 			 m_contactManager.m_contactListener);
 
-		 // Clear all the island flags.
-		 for (Body b = m_bodyList; b != null; b = b.m_next) {
-			 b.m_flags &= ~Body.e_islandFlag;
-		 }
-		 for (Contact c = m_contactManager.m_contactList; c != null; c = c.m_next) {
-			 c.m_flags &= ~Contact.ISLAND_FLAG;
-		 }
-		 for (Joint j = m_jointList; j != null; j = j.m_next) {
-			 j.m_islandFlag = false;
-		 }
+		 // Islands that lost a constraint may have come apart.
+		 m_islandGraph.splitDirty();
 
-		 // Build and simulate all awake islands.
-		 int stackSize = m_bodyCount;
-		 if (stack.length < stackSize) {
-			 stack = new Body[stackSize];
+		 if (m_islandSolver != null) {
+			 m_islandSolver.begin(m_bodyCount);
 		 }
-		 for (Body seed = m_bodyList; seed != null; seed = seed.m_next) {
-			 if ((seed.m_flags & Body.e_islandFlag) == Body.e_islandFlag) {
-				 continue;
-			 }
 
-			 if (seed.isAwake() == false || seed.isActive() == false) {
+		 // Simulate all awake islands.
+		 int solvedCount = 0;
+		 for (PersistentIsland seed = m_islandGraph.getIslandList(); seed != null; seed =
+			 seed.getNext()) {
+			 if (seed.isAwake() == false) {
 				 continue;
 			 }
 
-			 // The seed can be dynamic or kinematic.
-			 if (seed.getType() == BodyType.STATIC) {
-				 continue;
+			 if (solvedCount == m_solvedIslands.length) {
+				 PersistentIsland[] old = m_solvedIslands;
+				 m_solvedIslands = new PersistentIsland[old.length * 2];
+				 System.arraycopy(old, 0, m_solvedIslands, 0, old.length);
 			 }
+			 m_solvedIslands[solvedCount++] = seed;
 
-			 // Reset island and stack.
 			 island.clear();
-			 int stackCount = 0;
-			 stack[stackCount++] = seed;
-			 seed.m_flags |= Body.e_islandFlag;
-
-			 // Perform a depth first search (DFS) on the constraint graph.
-			 while (stackCount > 0) {
-				 // Grab the next body off the stack and add it to the island.
-				 Body b = stack[--stackCount];
+			 for (Body b = seed.m_bodyList; b != null; b = b.m_islandNext) {
 				 assert (b.isActive() == true);
 				 island.add(b);
 
 				 // Make sure the body is awake.
 				 b.setAwake(true);
+			 }
 
-				 // To keep islands as small as possible, we don't
-				 // propagate islands across static bodies.
-				 if (b.getType() == BodyType.STATIC) {
+			 // The graph only holds solid touching contacts.
+			 for (Contact contact = seed.m_contactList; contact != null; contact =
+				 contact.m_islandNext) {
+				 if (contact.isEnabled() == false) {
 					 continue;
 				 }
 
-				 // Search all contacts connected to this body.
-				 for (ContactEdge ce = b.m_contactList; ce != null; ce = ce.next) {
-					 Contact contact = ce.contact;
-
-					 // Has this contact already been added to an island?
-					 if ((contact.m_flags & Contact.ISLAND_FLAG) == Contact.ISLAND_FLAG) {
-						 continue;
-					 }
-
-					 // Is this contact solid and touching?
-					 if (contact.isEnabled() == false || contact.isTouching() == false) {
-						 continue;
-					 }
-
-					 // Skip sensors.
-					 boolean sensorA = contact.m_fixtureA.m_isSensor;
-					 boolean sensorB = contact.m_fixtureB.m_isSensor;
-					 if (sensorA || sensorB) {
-						 continue;
-					 }
-
-					 island.add(contact);
-					 contact.m_flags |= Contact.ISLAND_FLAG;
-
-					 Body other = ce.other;
-
-					 // Was the other body already added to this island?
-					 if ((other.m_flags & Body.e_islandFlag) == Body.e_islandFlag) {
-						 continue;
-					 }
-
-					 assert (stackCount < stackSize);
-					 stack[stackCount++] = other;
-					 other.m_flags |= Body.e_islandFlag;
-				 }
-
-				 // Search all joints connect to this body.
-				 for (JointEdge je = b.m_jointList; je != null; je = je.next) {
-					 if (je.joint.m_islandFlag == true) {
-						 continue;
-					 }
-
-					 Body other = je.other;
-
-					 // Don't simulate joints connected to inactive bodies.
-					 if (other.isActive() == false) {
-						 continue;
-					 }
-
-					 island.add(je.joint);
-					 je.joint.m_islandFlag = true;
+				 addStatic(contact.m_fixtureA.m_body);
+				 addStatic(contact.m_fixtureB.m_body);
+				 island.add(contact);
+			 }
 
-					 if ((other.m_flags & Body.e_islandFlag) == Body.e_islandFlag) {
-						 continue;
-					 }
+			 for (Joint joint = seed.m_jointList; joint != null; joint = joint.m_islandNext) {
+				 addStatic(joint.getBodyA());
+				 addStatic(joint.getBodyB());
+				 island.add(joint);
+			 }
 
-					 assert (stackCount < stackSize);
-					 stack[stackCount++] = other;
-					 other.m_flags |= Body.e_islandFlag;
-				 }
+			 if (m_islandSolver != null) {
+				 m_islandSolver.add(island);
+			 } else {
+				 island.solve(m_profile, step, m_gravity, m_allowSleep);
 			 }
-			 island.solve(m_profile, step, m_gravity, m_allowSleep);
 
 			 // Post solve cleanup.
 			 for (int i = 0; i < island.m_bodyCount; ++i) {
@@ -1225,24 +1488,24 @@ public class World {
 				 }
 			 }
 		 }
+
+		 if (m_islandSolver != null) {
+			 m_islandSolver.solve(m_profile, step, m_gravity, m_allowSleep,
+				 m_contactManager.m_contactListener);
+		 }
 		 m_profile.solveInit.endAccum();
 		 m_profile.solveVelocity.endAccum();
 		 m_profile.solvePosition.endAccum();
 
 		 broadphaseTimer.reset();
-		 // Synchronize fixtures, check for out of range bodies.
-		 for (Body b = m_bodyList; b != null; b = b.getNext()) {
-			 // If a body was not in an island then it did not move.
-			 if ((b.m_flags & Body.e_islandFlag) == 0) {
-				 continue;
-			 }
-
-			 if (b.getType() == BodyType.STATIC) {
-				 continue;
+		 // Synchronize fixtures, check for out of range bodies. Bodies outside the solved islands
+		 // did not move.
+		 for (int i = 0; i < solvedCount; ++i) {
+			 for (Body b = m_solvedIslands[i].m_bodyList; b != null; b = b.m_islandNext) {
+				 // Update fixtures (for broad-phase).
+				 b.synchronizeFixtures();
 			 }
-
-			 // Update fixtures (for broad-phase).
-			 b.synchronizeFixtures();
+			 m_solvedIslands[i] = null;
 		 }
 
 		 // Look for new contacts.
@@ -1250,6 +1513,37 @@ public class World {
 		 m_profile.broadphase.record(broadphaseTimer.getMilliseconds());
 	 }
 
+	 /**
+	  * Adds a static body to the island being built, once.
+	  */
+	 private void addStatic(Body b) {
+		 if (b.m_type != BodyType.STATIC || (b.m_flags & Body.e_islandFlag) != 0) {
+			 return;
+		 }
+
+		 island.add(b);
+		 b.setAwake(true);
+		 b.m_flags |= Body.e_islandFlag;
+	 }
+
+	 /**
+	  * Remembers a body outside the awake set whose sweep is about to be advanced, the start of the
+	  * next step only resets the awake ones.
+	  */
+	 private void advancedByTOI(Body b) {
+		 if (b.m_awakeIndex >= 0 || (b.m_flags & Body.e_toiFlag) != 0) {
+			 return;
+		 }
+
+		 if (m_toiBodyCount == m_toiBodies.length) {
+			 Body[] old = m_toiBodies;
+			 m_toiBodies = new Body[old.length * 2];
+			 System.arraycopy(old, 0, m_toiBodies, 0, old.length);
+		 }
+		 b.m_flags |= Body.e_toiFlag;
+		 m_toiBodies[m_toiBodyCount++] = b;
+	 }
+
 	 private final Island toiIsland = new Island();
 	 private final TOIInput toiInput = new TOIInput();
 	 private final TOIOutput toiOutput = new TOIOutput();
@@ -1264,7 +1558,10 @@ public class World {
 		 island.init(2 * Settings.maxTOIContacts, Settings.maxTOIContacts, 0,
 			 m_contactManager.m_contactListener);
 		 if (m_stepComplete) {
-			 for (Body b = m_bodyList; b != null; b = b.m_next) {
+			 // Bodies that left the awake set were reset on the way out, the others by the last
+			 // completed step.
+			 for (int i = 0; i < m_awakeBodyCount; ++i) {
+				 Body b = m_awakeBodies[i];
 				 b.m_flags &= ~Body.e_islandFlag;
 				 b.m_sweep.alpha0 = 0.0f;
 			 }
@@ -1336,9 +1633,11 @@ public class World {
 
 					 if (bA.m_sweep.alpha0 < bB.m_sweep.alpha0) {
 						 alpha0 = bB.m_sweep.alpha0;
+						 advancedByTOI(bA);
 						 bA.m_sweep.advance(alpha0);
 					 } else if (bB.m_sweep.alpha0 < bA.m_sweep.alpha0) {
 						 alpha0 = bA.m_sweep.alpha0;
+						 advancedByTOI(bB);
 						 bB.m_sweep.advance(alpha0);
 					 }
 
@@ -1379,6 +1678,13 @@ public class World {
 			 if (minContact == null || 1.0f - 10.0f * Settings.EPSILON < minAlpha) {
 				 // No more TOI events. Done!
 				 m_stepComplete = true;
+				 for (int i = 0; i < m_toiBodyCount; ++i) {
+					 Body b = m_toiBodies[i];
+					 b.m_flags &= ~Body.e_toiFlag;
+					 b.m_sweep.alpha0 = 0.0f;
+					 m_toiBodies[i] = null;
+				 }
+				 m_toiBodyCount = 0;
 				 break;
 			 }
 
@@ -1391,6 +1697,8 @@ public class World {
 			 backup1.set(bA.m_sweep);
 			 backup2.set(bB.m_sweep);
 
+			 advancedByTOI(bA);
+			 advancedByTOI(bB);
 			 bA.advance(minAlpha);
 			 bB.advance(minAlpha);
 
@@ -1462,6 +1770,7 @@ public class World {
 						 // Tentatively advance the body to the TOI.
 						 backup1.set(other.m_sweep);
 						 if ((other.m_flags & Body.e_islandFlag) == 0) {
+							 advancedByTOI(other);
 							 other.advance(minAlpha);
 						 }
 
@@ -1666,6 +1975,36 @@ public class World {
 				 }
 			 }
 			 break;
+			 case GRID: {
+				 GridShape grid = (GridShape) fixture.getShape();
+				 Vec2 p = v1;
+				 Vec2 q = v2;
+				 Vec2 corner = tlvertices.get(1)[0];
+				 for (int y = grid.m_lowerY; y < grid.m_upperY; ++y) {
+					 for (int x = grid.m_lowerX; x < grid.m_upperX; ++x) {
+						 if (!grid.isSolid(x, y)) {
+							 continue;
+						 }
+						 // the faces with nothing solid behind them
+						 for (int i = 0; i < 4; ++i) {
+							 int nx = i == 0 ? -1 : i == 1 ? 1 : 0;
+							 int ny = i == 2 ? -1 : i == 3 ? 1 : 0;
+							 if (grid.isSolid(x + nx, y + ny)) {
+								 continue;
+							 }
+							 double fx = x + .5 + nx * .5, fy = y + .5 + ny * .5;
+							 corner.set(grid.m_origin.x + (fx - ny * .5) * grid.m_cellSize,
+								 grid.m_origin.y + (fy - nx * .5) * grid.m_cellSize);
+							 Transform.mulToOutUnsafe(xf, corner, p);
+							 corner.set(grid.m_origin.x + (fx + ny * .5) * grid.m_cellSize,
+								 grid.m_origin.y + (fy + nx * .5) * grid.m_cellSize);
+							 Transform.mulToOutUnsafe(xf, corner, q);
+							 m_debugDraw.drawSegment(p, q, color);
+						 }
+					 }
+				 }
+			 }
+			 break;
 			 default:
 				 break;
 		 }
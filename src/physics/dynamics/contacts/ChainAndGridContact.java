@@ -0,0 +1,36 @@
+package physics.dynamics.contacts;
+
+import physics.collision.Manifold;
+import physics.collision.shapes.ChainShape;
+import physics.collision.shapes.EdgeShape;
+import physics.collision.shapes.GridShape;
+import physics.collision.shapes.PolygonShape;
+import physics.collision.shapes.ShapeType;
+import physics.common.Transform;
+import physics.dynamics.Fixture;
+import physics.pooling.IWorldPool;
+
+public class ChainAndGridContact extends Contact {
+
+  public ChainAndGridContact(IWorldPool argPool) {
+    super(argPool);
+  }
+
+  @Override
+  public void init(Fixture fA, int indexA, Fixture fB, int indexB) {
+    super.init(fA, indexA, fB, indexB);
+    assert (m_fixtureA.getType() == ShapeType.CHAIN);
+    assert (m_fixtureB.getType() == ShapeType.GRID);
+  }
+
+  private final EdgeShape edge = new EdgeShape();
+  private final PolygonShape box = new PolygonShape();
+
+  @Override
+  public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+    ChainShape chain = (ChainShape) m_fixtureA.getShape();
+    chain.getChildEdge(edge, m_indexA);
+    ((GridShape) m_fixtureB.getShape()).getChildBox(box, m_indexB);
+    pool.getCollision().collideEdgeAndPolygon(manifold, edge, xfA, box, xfB);
+  }
+}
@@ -32,6 +32,8 @@ import physics.collision.shapes.Shape;
 import physics.common.Transform;
 import physics.dynamics.Body;
 import physics.dynamics.Fixture;
+import physics.dynamics.IslandGraph;
+import physics.dynamics.PersistentIsland;
 import physics.pooling.IWorldPool;
 
 /**
@@ -56,6 +58,8 @@ public abstract class Contact {
   public static final int BULLET_HIT_FLAG = 0x0010;
 
   public static final int TOI_FLAG = 0x0020;
+  // The manifold was evaluated with the bodies at the relative transform kept below.
+  public static final int CACHED_FLAG = 0x0040;
 
   public int m_flags;
 
@@ -63,6 +67,11 @@ public abstract class Contact {
   public Contact m_prev;
   public Contact m_next;
 
+  // Persistent island and island list pointers, set while touching.
+  public PersistentIsland m_island;
+  public Contact m_islandPrev;
+  public Contact m_islandNext;
+
   // Nodes for connecting bodies.
   public ContactEdge m_nodeA = null;
   public ContactEdge m_nodeB = null;
@@ -73,6 +82,9 @@ public abstract class Contact {
   public int m_indexA;
   public int m_indexB;
 
+  // Key of the contact in the contact manager's pair table, the packed proxy ids.
+  public long m_pairKey;
+
   public final Manifold m_manifold;
 
   public double m_toiCount;
@@ -83,7 +95,19 @@ public abstract class Contact {
 
   public double m_tangentSpeed;
 
-  protected final IWorldPool pool;
+  // Body B's transform in body A's frame when the manifold was last evaluated.
+  private double m_relativeX, m_relativeY, m_relativeCos, m_relativeSin;
+
+  protected IWorldPool pool;
+
+  // what the last updateManifold left for commitUpdate
+  private boolean m_wasTouching;
+  private boolean m_wakeBodies;
+
+  // what the last updateManifold started from and whether it saw a sensor, see revertManifold
+  private int m_oldFlags;
+  private double m_oldRelativeX, m_oldRelativeY, m_oldRelativeCos, m_oldRelativeSin;
+  private boolean m_sensor;
 
   protected Contact(IWorldPool argPool) {
     m_fixtureA = null;
@@ -94,6 +118,14 @@ public abstract class Contact {
     pool = argPool;
   }
 
+  /**
+   * Set the pool this contact takes its collision from. Internal, contacts updated on a worker
+   * thread are handed the worker's pool for the duration of the update.
+   */
+  public void setPool(IWorldPool pool) {
+    this.pool = pool;
+  }
+
   /** initialization for pooling */
   public void init(Fixture fA, int indexA, Fixture fB, int indexB) {
     m_flags = ENABLED_FLAG;
@@ -109,6 +141,10 @@ public abstract class Contact {
     m_prev = null;
     m_next = null;
 
+    m_island = null;
+    m_islandPrev = null;
+    m_islandNext = null;
+
     m_nodeA.contact = null;
     m_nodeA.prev = null;
     m_nodeA.next = null;
@@ -258,18 +294,54 @@ public abstract class Contact {
   private final Manifold oldManifold = new Manifold();
 
   public void update(ContactListener listener) {
+    update(listener, 0, 0);
+  }
+
+  /**
+   * Update the contact like {@link #update(ContactListener)}, but keep the manifold of a touching
+   * contact instead of evaluating it again while its bodies have moved less than the given
+   * tolerances relative to each other since the last evaluation. The manifold is in the bodies'
+   * frames, so it moves with them.
+   * 
+   * @param linearTolerance how far body B may move in body A's frame.
+   * @param angularTolerance how far body B may turn relative to body A, in radians.
+   * @return true if the manifold was kept.
+   */
+  public boolean update(ContactListener listener, double linearTolerance,
+      double angularTolerance) {
+    boolean reused = updateManifold(linearTolerance, angularTolerance);
+    commitUpdate(listener);
+    return reused;
+  }
+
+  /**
+   * The first half of {@link #update(ContactListener, double, double)}: evaluate the manifold and
+   * set the touching flag, but leave waking the bodies, the island links and the listener to
+   * {@link #commitUpdate(ContactListener)}. Only this contact is written, so contacts can be updated
+   * on several threads at once, each giving its contacts a pool of its own.
+   * 
+   * @return true if the manifold was kept.
+   */
+  public boolean updateManifold(double linearTolerance, double angularTolerance) {
 
     oldManifold.set(m_manifold);
+    m_oldFlags = m_flags;
+    m_oldRelativeX = m_relativeX;
+    m_oldRelativeY = m_relativeY;
+    m_oldRelativeCos = m_relativeCos;
+    m_oldRelativeSin = m_relativeSin;
 
     // Re-enable this contact.
     m_flags |= ENABLED_FLAG;
 
     boolean touching = false;
+    boolean reused = false;
     boolean wasTouching = (m_flags & TOUCHING_FLAG) == TOUCHING_FLAG;
 
     boolean sensorA = m_fixtureA.isSensor();
     boolean sensorB = m_fixtureB.isSensor();
     boolean sensor = sensorA || sensorB;
+    m_sensor = sensor;
 
     Body bodyA = m_fixtureA.getBody();
     Body bodyB = m_fixtureB.getBody();
@@ -285,9 +357,18 @@ public abstract class Contact {
 
       // Sensors don't generate manifolds.
       m_manifold.pointCount = 0;
+      m_flags &= ~CACHED_FLAG;
+      m_wakeBodies = false;
+    } else if (wasTouching && (m_flags & CACHED_FLAG) == CACHED_FLAG
+        && isRelativeNear(xfA, xfB, linearTolerance, angularTolerance)) {
+      // The manifold and its impulses stay as they are.
+      touching = true;
+      reused = true;
+      m_wakeBodies = false;
     } else {
       evaluate(m_manifold, xfA, xfB);
       touching = m_manifold.pointCount > 0;
+      setRelative(xfA, xfB);
 
       // Match old contact ids to new contact ids and copy the
       // stored impulses to warm start the solver.
@@ -308,10 +389,7 @@ public abstract class Contact {
         }
       }
 
-      if (touching != wasTouching) {
-        bodyA.setAwake(true);
-        bodyB.setAwake(true);
-      }
+      m_wakeBodies = touching != wasTouching;
     }
 
     if (touching) {
@@ -320,6 +398,60 @@ public abstract class Contact {
       m_flags &= ~TOUCHING_FLAG;
     }
 
+    m_wasTouching = wasTouching;
+    return reused;
+  }
+
+  /**
+   * Undo the last {@link #updateManifold(double, double)}, for a contact updated ahead of its turn
+   * that turned out not to be updated, or to be updated differently.
+   */
+  public void revertManifold() {
+    m_manifold.set(oldManifold);
+    final int mask = ENABLED_FLAG | TOUCHING_FLAG | CACHED_FLAG;
+    m_flags = (m_flags & ~mask) | (m_oldFlags & mask);
+    m_relativeX = m_oldRelativeX;
+    m_relativeY = m_oldRelativeY;
+    m_relativeCos = m_oldRelativeCos;
+    m_relativeSin = m_oldRelativeSin;
+  }
+
+  /**
+   * @return true if a fixture became or stopped being a sensor since the last
+   *         {@link #updateManifold(double, double)}.
+   */
+  public boolean isSensorChanged() {
+    return m_sensor != (m_fixtureA.isSensor() || m_fixtureB.isSensor());
+  }
+
+  /**
+   * The second half of {@link #update(ContactListener, double, double)}: wake the bodies if the
+   * contact began or stopped touching, link it into or out of the islands and call the listener,
+   * all on the stepping thread.
+   */
+  public void commitUpdate(ContactListener listener) {
+    boolean wasTouching = m_wasTouching;
+    boolean touching = (m_flags & TOUCHING_FLAG) == TOUCHING_FLAG;
+    boolean sensor = m_fixtureA.isSensor() || m_fixtureB.isSensor();
+    Body bodyA = m_fixtureA.getBody();
+    Body bodyB = m_fixtureB.getBody();
+
+    if (m_wakeBodies) {
+      bodyA.setAwake(true);
+      bodyB.setAwake(true);
+    }
+
+    // Solid touching contacts join the islands of their bodies.
+    boolean linked = touching && sensor == false;
+    if (linked != (m_island != null)) {
+      IslandGraph graph = bodyA.m_world.getIslandGraph();
+      if (linked) {
+        graph.link(this);
+      } else {
+        graph.unlink(this);
+      }
+    }
+
     if (listener == null) {
       return;
     }
@@ -337,6 +469,33 @@ public abstract class Contact {
     }
   }
 
+  private void setRelative(Transform xfA, Transform xfB) {
+    final double cA = xfA.q.c, sA = xfA.q.s;
+    final double dx = xfB.p.x - xfA.p.x, dy = xfB.p.y - xfA.p.y;
+    m_relativeX = cA * dx + sA * dy;
+    m_relativeY = -sA * dx + cA * dy;
+    m_relativeCos = cA * xfB.q.c + sA * xfB.q.s;
+    m_relativeSin = cA * xfB.q.s - sA * xfB.q.c;
+    m_flags |= CACHED_FLAG;
+  }
+
+  private boolean isRelativeNear(Transform xfA, Transform xfB, double linearTolerance,
+      double angularTolerance) {
+    final double cA = xfA.q.c, sA = xfA.q.s;
+    final double dx = xfB.p.x - xfA.p.x, dy = xfB.p.y - xfA.p.y;
+    final double x = cA * dx + sA * dy - m_relativeX;
+    final double y = -sA * dx + cA * dy - m_relativeY;
+    if (x * x + y * y >= linearTolerance * linearTolerance) {
+      return false;
+    }
+    final double c = cA * xfB.q.c + sA * xfB.q.s;
+    final double s = cA * xfB.q.s - sA * xfB.q.c;
+    // the sine and cosine of the turn since the manifold was evaluated
+    final double turnSin = s * m_relativeCos - c * m_relativeSin;
+    final double turnCos = c * m_relativeCos + s * m_relativeSin;
+    return turnCos > 0 && Math.abs(turnSin) < angularTolerance;
+  }
+
   /**
    * Friction mixing law. The idea is to allow either fixture to drive the restitution to zero. For
    * example, anything slides on ice.
@@ -34,6 +34,7 @@ import physics.common.Settings;
 import physics.common.Transform;
 import physics.common.Vec2;
 import physics.dynamics.Body;
+import physics.dynamics.BodyStates;
 import physics.dynamics.Fixture;
 import physics.dynamics.TimeStep;
 import physics.dynamics.contacts.ContactVelocityConstraint.VelocityConstraintPoint;
@@ -57,13 +58,18 @@ public class ContactSolver {
   public static final double k_maxConditionNumber = 100.0f;
 
   public TimeStep m_step;
-  public Position[] m_positions;
-  public Velocity[] m_velocities;
+  public BodyStates m_states;
   public ContactPositionConstraint[] m_positionConstraints;
   public ContactVelocityConstraint[] m_velocityConstraints;
   public Contact[] m_contacts;
   public int m_count;
 
+  // djm pooling, the solver works on copies of the body state
+  private final Vec2 stateCA = new Vec2();
+  private final Vec2 stateCB = new Vec2();
+  private final Vec2 stateVA = new Vec2();
+  private final Vec2 stateVB = new Vec2();
+
   public ContactSolver() {
     m_positionConstraints = new ContactPositionConstraint[INITIAL_NUM_CONSTRAINTS];
     m_velocityConstraints = new ContactVelocityConstraint[INITIAL_NUM_CONSTRAINTS];
@@ -96,8 +102,7 @@ public class ContactSolver {
       }
     }
 
-    m_positions = def.positions;
-    m_velocities = def.velocities;
+    m_states = def.states;
     m_contacts = def.contacts;
 
     for (int i = 0; i < m_count; ++i) {
@@ -123,10 +128,10 @@ public class ContactSolver {
       vc.tangentSpeed = contact.m_tangentSpeed;
       vc.indexA = bodyA.m_islandIndex;
       vc.indexB = bodyB.m_islandIndex;
-      vc.invMassA = bodyA.m_invMass;
-      vc.invMassB = bodyB.m_invMass;
-      vc.invIA = bodyA.m_invI;
-      vc.invIB = bodyB.m_invI;
+      vc.invMassA = m_states.invMass[vc.indexA];
+      vc.invMassB = m_states.invMass[vc.indexB];
+      vc.invIA = m_states.invI[vc.indexA];
+      vc.invIB = m_states.invI[vc.indexB];
       vc.contactIndex = i;
       vc.pointCount = pointCount;
       vc.K.setZero();
@@ -135,12 +140,12 @@ public class ContactSolver {
       ContactPositionConstraint pc = m_positionConstraints[i];
       pc.indexA = bodyA.m_islandIndex;
       pc.indexB = bodyB.m_islandIndex;
-      pc.invMassA = bodyA.m_invMass;
-      pc.invMassB = bodyB.m_invMass;
+      pc.invMassA = vc.invMassA;
+      pc.invMassB = vc.invMassB;
       pc.localCenterA.set(bodyA.m_sweep.localCenter);
       pc.localCenterB.set(bodyB.m_sweep.localCenter);
-      pc.invIA = bodyA.m_invI;
-      pc.invIB = bodyB.m_invI;
+      pc.invIA = vc.invIA;
+      pc.invIB = vc.invIB;
       pc.localNormal.set(manifold.localNormal);
       pc.localPoint.set(manifold.localPoint);
       pc.pointCount = pointCount;
@@ -174,6 +179,19 @@ public class ContactSolver {
     }
   }
 
+  /**
+   * Points this solver at the constraints of another, initialized one. Both can then solve disjoint
+   * batches of the constraints at once, each with its own scratch.
+   */
+  public final void share(ContactSolver solver) {
+    m_step = solver.m_step;
+    m_count = solver.m_count;
+    m_states = solver.m_states;
+    m_contacts = solver.m_contacts;
+    m_positionConstraints = solver.m_positionConstraints;
+    m_velocityConstraints = solver.m_velocityConstraints;
+  }
+
   public void warmStart() {
     // Warm start.
     for (int i = 0; i < m_count; ++i) {
@@ -187,10 +205,10 @@ public class ContactSolver {
       double iB = vc.invIB;
       int pointCount = vc.pointCount;
 
-      Vec2 vA = m_velocities[indexA].v;
-      double wA = m_velocities[indexA].w;
-      Vec2 vB = m_velocities[indexB].v;
-      double wB = m_velocities[indexB].w;
+      final Vec2 vA = stateVA.set(m_states.vx[indexA], m_states.vy[indexA]);
+      double wA = m_states.w[indexA];
+      final Vec2 vB = stateVB.set(m_states.vx[indexB], m_states.vy[indexB]);
+      double wB = m_states.w[indexB];
 
       Vec2 normal = vc.normal;
       double tangentx = 1.0f * normal.y;
@@ -208,8 +226,12 @@ public class ContactSolver {
         vB.x += Px * mB;
         vB.y += Py * mB;
       }
-      m_velocities[indexA].w = wA;
-      m_velocities[indexB].w = wB;
+      m_states.vx[indexA] = vA.x;
+      m_states.vy[indexA] = vA.y;
+      m_states.w[indexA] = wA;
+      m_states.vx[indexB] = vB.x;
+      m_states.vy[indexB] = vB.y;
+      m_states.w[indexB] = wB;
     }
   }
 
@@ -239,15 +261,15 @@ public class ContactSolver {
       Vec2 localCenterA = pc.localCenterA;
       Vec2 localCenterB = pc.localCenterB;
 
-      Vec2 cA = m_positions[indexA].c;
-      double aA = m_positions[indexA].a;
-      Vec2 vA = m_velocities[indexA].v;
-      double wA = m_velocities[indexA].w;
+      final Vec2 cA = stateCA.set(m_states.cx[indexA], m_states.cy[indexA]);
+      double aA = m_states.a[indexA];
+      final Vec2 vA = stateVA.set(m_states.vx[indexA], m_states.vy[indexA]);
+      double wA = m_states.w[indexA];
 
-      Vec2 cB = m_positions[indexB].c;
-      double aB = m_positions[indexB].a;
-      Vec2 vB = m_velocities[indexB].v;
-      double wB = m_velocities[indexB].w;
+      final Vec2 cB = stateCB.set(m_states.cx[indexB], m_states.cy[indexB]);
+      double aB = m_states.a[indexB];
+      final Vec2 vB = stateVB.set(m_states.vx[indexB], m_states.vy[indexB]);
+      double wB = m_states.w[indexB];
 
       assert (manifold.pointCount > 0);
 
@@ -335,419 +357,434 @@ public class ContactSolver {
 
   public final void solveVelocityConstraints() {
     for (int i = 0; i < m_count; ++i) {
-      final ContactVelocityConstraint vc = m_velocityConstraints[i];
-
-      int indexA = vc.indexA;
-      int indexB = vc.indexB;
-
-      double mA = vc.invMassA;
-      double mB = vc.invMassB;
-      double iA = vc.invIA;
-      double iB = vc.invIB;
-      int pointCount = vc.pointCount;
-
-      Vec2 vA = m_velocities[indexA].v;
-      double wA = m_velocities[indexA].w;
-      Vec2 vB = m_velocities[indexB].v;
-      double wB = m_velocities[indexB].w;
-
-      Vec2 normal = vc.normal;
-      final double normalx = normal.x;
-      final double normaly = normal.y;
-      double tangentx = 1.0f * vc.normal.y;
-      double tangenty = -1.0f * vc.normal.x;
-      final double friction = vc.friction;
-
-      assert (pointCount == 1 || pointCount == 2);
-
-      // Solve tangent constraints
-      for (int j = 0; j < pointCount; ++j) {
-        final VelocityConstraintPoint vcp = vc.points[j];
-        final Vec2 a = vcp.rA;
-        double dvx = -wB * vcp.rB.y + vB.x - vA.x + wA * a.y;
-        double dvy = wB * vcp.rB.x + vB.y - vA.y - wA * a.x;
-
-        // Compute tangent force
-        final double vt = dvx * tangentx + dvy * tangenty - vc.tangentSpeed;
-        double lambda = vcp.tangentMass * (-vt);
-
-        // Clamp the accumulated force
-        final double maxFriction = friction * vcp.normalImpulse;
-        final double newImpulse =
-            MathUtils.clamp(vcp.tangentImpulse + lambda, -maxFriction, maxFriction);
-        lambda = newImpulse - vcp.tangentImpulse;
-        vcp.tangentImpulse = newImpulse;
-
-        // Apply contact impulse
-        // Vec2 P = lambda * tangent;
-
-        final double Px = tangentx * lambda;
-        final double Py = tangenty * lambda;
-
-        // vA -= invMassA * P;
-        vA.x -= Px * mA;
-        vA.y -= Py * mA;
-        wA -= iA * (vcp.rA.x * Py - vcp.rA.y * Px);
-
-        // vB += invMassB * P;
-        vB.x += Px * mB;
-        vB.y += Py * mB;
-        wB += iB * (vcp.rB.x * Py - vcp.rB.y * Px);
-      }
-
-      // Solve normal constraints
-      if (vc.pointCount == 1) {
-        final VelocityConstraintPoint vcp = vc.points[0];
-
-        // Relative velocity at contact
-        // Vec2 dv = vB + Cross(wB, vcp.rB) - vA - Cross(wA, vcp.rA);
-
-        double dvx = -wB * vcp.rB.y + vB.x - vA.x + wA * vcp.rA.y;
-        double dvy = wB * vcp.rB.x + vB.y - vA.y - wA * vcp.rA.x;
-
-        // Compute normal impulse
-        final double vn = dvx * normalx + dvy * normaly;
-        double lambda = -vcp.normalMass * (vn - vcp.velocityBias);
-
-        // Clamp the accumulated impulse
-        double a = vcp.normalImpulse + lambda;
-        final double newImpulse = (a > 0.0f ? a : 0.0f);
-        lambda = newImpulse - vcp.normalImpulse;
-        vcp.normalImpulse = newImpulse;
+      solveVelocityConstraint(m_velocityConstraints[i]);
+    }
+  }
 
-        // Apply contact impulse
-        double Px = normalx * lambda;
-        double Py = normaly * lambda;
+  /**
+   * Solves the velocity constraints {@code order[start]} to {@code order[end - 1]}. Constraints
+   * solved at the same time from other threads must not share a body the solver moves.
+   */
+  public final void solveVelocityConstraints(int[] order, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      solveVelocityConstraint(m_velocityConstraints[order[i]]);
+    }
+  }
 
-        // vA -= invMassA * P;
-        vA.x -= Px * mA;
-        vA.y -= Py * mA;
-        wA -= iA * (vcp.rA.x * Py - vcp.rA.y * Px);
+  private void solveVelocityConstraint(final ContactVelocityConstraint vc) {
+
+    int indexA = vc.indexA;
+    int indexB = vc.indexB;
+
+    double mA = vc.invMassA;
+    double mB = vc.invMassB;
+    double iA = vc.invIA;
+    double iB = vc.invIB;
+    int pointCount = vc.pointCount;
+
+    final Vec2 vA = stateVA.set(m_states.vx[indexA], m_states.vy[indexA]);
+    double wA = m_states.w[indexA];
+    final Vec2 vB = stateVB.set(m_states.vx[indexB], m_states.vy[indexB]);
+    double wB = m_states.w[indexB];
+
+    Vec2 normal = vc.normal;
+    final double normalx = normal.x;
+    final double normaly = normal.y;
+    double tangentx = 1.0f * vc.normal.y;
+    double tangenty = -1.0f * vc.normal.x;
+    final double friction = vc.friction;
+
+    assert (pointCount == 1 || pointCount == 2);
+
+    // Solve tangent constraints
+    for (int j = 0; j < pointCount; ++j) {
+      final VelocityConstraintPoint vcp = vc.points[j];
+      final Vec2 a = vcp.rA;
+      double dvx = -wB * vcp.rB.y + vB.x - vA.x + wA * a.y;
+      double dvy = wB * vcp.rB.x + vB.y - vA.y - wA * a.x;
+
+      // Compute tangent force
+      final double vt = dvx * tangentx + dvy * tangenty - vc.tangentSpeed;
+      double lambda = vcp.tangentMass * (-vt);
+
+      // Clamp the accumulated force
+      final double maxFriction = friction * vcp.normalImpulse;
+      final double newImpulse =
+          MathUtils.clamp(vcp.tangentImpulse + lambda, -maxFriction, maxFriction);
+      lambda = newImpulse - vcp.tangentImpulse;
+      vcp.tangentImpulse = newImpulse;
+
+      // Apply contact impulse
+      // Vec2 P = lambda * tangent;
+
+      final double Px = tangentx * lambda;
+      final double Py = tangenty * lambda;
+
+      // vA -= invMassA * P;
+      vA.x -= Px * mA;
+      vA.y -= Py * mA;
+      wA -= iA * (vcp.rA.x * Py - vcp.rA.y * Px);
+
+      // vB += invMassB * P;
+      vB.x += Px * mB;
+      vB.y += Py * mB;
+      wB += iB * (vcp.rB.x * Py - vcp.rB.y * Px);
+    }
 
-        // vB += invMassB * P;
-        vB.x += Px * mB;
-        vB.y += Py * mB;
-        wB += iB * (vcp.rB.x * Py - vcp.rB.y * Px);
-      } else {
-        // Block solver developed in collaboration with Dirk Gregorius (back in 01/07 on
-        // Box2D_Lite).
-        // Build the mini LCP for this contact patch
+    // Solve normal constraints
+    if (vc.pointCount == 1) {
+      final VelocityConstraintPoint vcp = vc.points[0];
+
+      // Relative velocity at contact
+      // Vec2 dv = vB + Cross(wB, vcp.rB) - vA - Cross(wA, vcp.rA);
+
+      double dvx = -wB * vcp.rB.y + vB.x - vA.x + wA * vcp.rA.y;
+      double dvy = wB * vcp.rB.x + vB.y - vA.y - wA * vcp.rA.x;
+
+      // Compute normal impulse
+      final double vn = dvx * normalx + dvy * normaly;
+      double lambda = -vcp.normalMass * (vn - vcp.velocityBias);
+
+      // Clamp the accumulated impulse
+      double a = vcp.normalImpulse + lambda;
+      final double newImpulse = (a > 0.0f ? a : 0.0f);
+      lambda = newImpulse - vcp.normalImpulse;
+      vcp.normalImpulse = newImpulse;
+
+      // Apply contact impulse
+      double Px = normalx * lambda;
+      double Py = normaly * lambda;
+
+      // vA -= invMassA * P;
+      vA.x -= Px * mA;
+      vA.y -= Py * mA;
+      wA -= iA * (vcp.rA.x * Py - vcp.rA.y * Px);
+
+      // vB += invMassB * P;
+      vB.x += Px * mB;
+      vB.y += Py * mB;
+      wB += iB * (vcp.rB.x * Py - vcp.rB.y * Px);
+    } else {
+      // Block solver developed in collaboration with Dirk Gregorius (back in 01/07 on
+      // Box2D_Lite).
+      // Build the mini LCP for this contact patch
+      //
+      // vn = A * x + b, vn >= 0, , vn >= 0, x >= 0 and vn_i * x_i = 0 with i = 1..2
+      //
+      // A = J * W * JT and J = ( -n, -r1 x n, n, r2 x n )
+      // b = vn_0 - velocityBias
+      //
+      // The system is solved using the "Total enumeration method" (s. Murty). The complementary
+      // constraint vn_i * x_i
+      // implies that we must have in any solution either vn_i = 0 or x_i = 0. So for the 2D
+      // contact problem the cases
+      // vn1 = 0 and vn2 = 0, x1 = 0 and x2 = 0, x1 = 0 and vn2 = 0, x2 = 0 and vn1 = 0 need to be
+      // tested. The first valid
+      // solution that satisfies the problem is chosen.
+      //
+      // In order to account of the accumulated impulse 'a' (because of the iterative nature of
+      // the solver which only requires
+      // that the accumulated impulse is clamped and not the incremental impulse) we change the
+      // impulse variable (x_i).
+      //
+      // Substitute:
+      //
+      // x = a + d
+      //
+      // a := old total impulse
+      // x := new total impulse
+      // d := incremental impulse
+      //
+      // For the current iteration we extend the formula for the incremental impulse
+      // to compute the new total impulse:
+      //
+      // vn = A * d + b
+      // = A * (x - a) + b
+      // = A * x + b - A * a
+      // = A * x + b'
+      // b' = b - A * a;
+
+      final VelocityConstraintPoint cp1 = vc.points[0];
+      final VelocityConstraintPoint cp2 = vc.points[1];
+      final Vec2 cp1rA = cp1.rA;
+      final Vec2 cp1rB = cp1.rB;
+      final Vec2 cp2rA = cp2.rA;
+      final Vec2 cp2rB = cp2.rB;
+      double ax = cp1.normalImpulse;
+      double ay = cp2.normalImpulse;
+
+      assert (ax >= 0.0f && ay >= 0.0f);
+      // Relative velocity at contact
+      // Vec2 dv1 = vB + Cross(wB, cp1.rB) - vA - Cross(wA, cp1.rA);
+      double dv1x = -wB * cp1rB.y + vB.x - vA.x + wA * cp1rA.y;
+      double dv1y = wB * cp1rB.x + vB.y - vA.y - wA * cp1rA.x;
+
+      // Vec2 dv2 = vB + Cross(wB, cp2.rB) - vA - Cross(wA, cp2.rA);
+      double dv2x = -wB * cp2rB.y + vB.x - vA.x + wA * cp2rA.y;
+      double dv2y = wB * cp2rB.x + vB.y - vA.y - wA * cp2rA.x;
+
+      // Compute normal velocity
+      double vn1 = dv1x * normalx + dv1y * normaly;
+      double vn2 = dv2x * normalx + dv2y * normaly;
+
+      double bx = vn1 - cp1.velocityBias;
+      double by = vn2 - cp2.velocityBias;
+
+      // Compute b'
+      Mat22 R = vc.K;
+      bx -= R.ex.x * ax + R.ey.x * ay;
+      by -= R.ex.y * ax + R.ey.y * ay;
+
+      // final double k_errorTol = 1e-3f;
+      // B2_NOT_USED(k_errorTol);
+      for (;;) {
         //
-        // vn = A * x + b, vn >= 0, , vn >= 0, x >= 0 and vn_i * x_i = 0 with i = 1..2
+        // Case 1: vn = 0
         //
-        // A = J * W * JT and J = ( -n, -r1 x n, n, r2 x n )
-        // b = vn_0 - velocityBias
+        // 0 = A * x' + b'
         //
-        // The system is solved using the "Total enumeration method" (s. Murty). The complementary
-        // constraint vn_i * x_i
-        // implies that we must have in any solution either vn_i = 0 or x_i = 0. So for the 2D
-        // contact problem the cases
-        // vn1 = 0 and vn2 = 0, x1 = 0 and x2 = 0, x1 = 0 and vn2 = 0, x2 = 0 and vn1 = 0 need to be
-        // tested. The first valid
-        // solution that satisfies the problem is chosen.
+        // Solve for x':
         //
-        // In order to account of the accumulated impulse 'a' (because of the iterative nature of
-        // the solver which only requires
-        // that the accumulated impulse is clamped and not the incremental impulse) we change the
-        // impulse variable (x_i).
+        // x' = - inv(A) * b'
         //
-        // Substitute:
-        //
-        // x = a + d
+        // Vec2 x = - Mul(c.normalMass, b);
+        Mat22 R1 = vc.normalMass;
+        double xx = R1.ex.x * bx + R1.ey.x * by;
+        double xy = R1.ex.y * bx + R1.ey.y * by;
+        xx *= -1;
+        xy *= -1;
+
+        if (xx >= 0.0f && xy >= 0.0f) {
+          // Get the incremental impulse
+          // Vec2 d = x - a;
+          double dx = xx - ax;
+          double dy = xy - ay;
+
+          // Apply incremental impulse
+          // Vec2 P1 = d.x * normal;
+          // Vec2 P2 = d.y * normal;
+          double P1x = dx * normalx;
+          double P1y = dx * normaly;
+          double P2x = dy * normalx;
+          double P2y = dy * normaly;
+
+          /*
+           * vA -= invMassA * (P1 + P2); wA -= invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
+           * 
+           * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
+           */
+
+          vA.x -= mA * (P1x + P2x);
+          vA.y -= mA * (P1y + P2y);
+          vB.x += mB * (P1x + P2x);
+          vB.y += mB * (P1y + P2y);
+
+          wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
+          wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
+
+          // Accumulate
+          cp1.normalImpulse = xx;
+          cp2.normalImpulse = xy;
+
+          /*
+           * #if B2_DEBUG_SOLVER == 1 // Postconditions dv1 = vB + Cross(wB, cp1.rB) - vA -
+           * Cross(wA, cp1.rA); dv2 = vB + Cross(wB, cp2.rB) - vA - Cross(wA, cp2.rA);
+           * 
+           * // Compute normal velocity vn1 = Dot(dv1, normal); vn2 = Dot(dv2, normal);
+           * 
+           * assert(Abs(vn1 - cp1.velocityBias) < k_errorTol); assert(Abs(vn2 - cp2.velocityBias)
+           * < k_errorTol); #endif
+           */
+          if (DEBUG_SOLVER) {
+            // Postconditions
+            Vec2 dv1 = vB.add(Vec2.cross(wB, cp1rB).subLocal(vA).subLocal(Vec2.cross(wA, cp1rA)));
+            Vec2 dv2 = vB.add(Vec2.cross(wB, cp2rB).subLocal(vA).subLocal(Vec2.cross(wA, cp2rA)));
+            // Compute normal velocity
+            vn1 = Vec2.dot(dv1, normal);
+            vn2 = Vec2.dot(dv2, normal);
+
+            assert (Math.abs(vn1 - cp1.velocityBias) < k_errorTol);
+            assert (Math.abs(vn2 - cp2.velocityBias) < k_errorTol);
+          }
+          break;
+        }
+
         //
-        // a := old total impulse
-        // x := new total impulse
-        // d := incremental impulse
+        // Case 2: vn1 = 0 and x2 = 0
         //
-        // For the current iteration we extend the formula for the incremental impulse
-        // to compute the new total impulse:
+        // 0 = a11 * x1' + a12 * 0 + b1'
+        // vn2 = a21 * x1' + a22 * 0 + '
         //
-        // vn = A * d + b
-        // = A * (x - a) + b
-        // = A * x + b - A * a
-        // = A * x + b'
-        // b' = b - A * a;
-
-        final VelocityConstraintPoint cp1 = vc.points[0];
-        final VelocityConstraintPoint cp2 = vc.points[1];
-        final Vec2 cp1rA = cp1.rA;
-        final Vec2 cp1rB = cp1.rB;
-        final Vec2 cp2rA = cp2.rA;
-        final Vec2 cp2rB = cp2.rB;
-        double ax = cp1.normalImpulse;
-        double ay = cp2.normalImpulse;
-
-        assert (ax >= 0.0f && ay >= 0.0f);
-        // Relative velocity at contact
-        // Vec2 dv1 = vB + Cross(wB, cp1.rB) - vA - Cross(wA, cp1.rA);
-        double dv1x = -wB * cp1rB.y + vB.x - vA.x + wA * cp1rA.y;
-        double dv1y = wB * cp1rB.x + vB.y - vA.y - wA * cp1rA.x;
-
-        // Vec2 dv2 = vB + Cross(wB, cp2.rB) - vA - Cross(wA, cp2.rA);
-        double dv2x = -wB * cp2rB.y + vB.x - vA.x + wA * cp2rA.y;
-        double dv2y = wB * cp2rB.x + vB.y - vA.y - wA * cp2rA.x;
-
-        // Compute normal velocity
-        double vn1 = dv1x * normalx + dv1y * normaly;
-        double vn2 = dv2x * normalx + dv2y * normaly;
-
-        double bx = vn1 - cp1.velocityBias;
-        double by = vn2 - cp2.velocityBias;
-
-        // Compute b'
-        Mat22 R = vc.K;
-        bx -= R.ex.x * ax + R.ey.x * ay;
-        by -= R.ex.y * ax + R.ey.y * ay;
-
-        // final double k_errorTol = 1e-3f;
-        // B2_NOT_USED(k_errorTol);
-        for (;;) {
-          //
-          // Case 1: vn = 0
-          //
-          // 0 = A * x' + b'
-          //
-          // Solve for x':
-          //
-          // x' = - inv(A) * b'
-          //
-          // Vec2 x = - Mul(c.normalMass, b);
-          Mat22 R1 = vc.normalMass;
-          double xx = R1.ex.x * bx + R1.ey.x * by;
-          double xy = R1.ex.y * bx + R1.ey.y * by;
-          xx *= -1;
-          xy *= -1;
-
-          if (xx >= 0.0f && xy >= 0.0f) {
-            // Get the incremental impulse
-            // Vec2 d = x - a;
-            double dx = xx - ax;
-            double dy = xy - ay;
-
-            // Apply incremental impulse
-            // Vec2 P1 = d.x * normal;
-            // Vec2 P2 = d.y * normal;
-            double P1x = dx * normalx;
-            double P1y = dx * normaly;
-            double P2x = dy * normalx;
-            double P2y = dy * normaly;
-
-            /*
-             * vA -= invMassA * (P1 + P2); wA -= invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
-             * 
-             * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
-             */
-
-            vA.x -= mA * (P1x + P2x);
-            vA.y -= mA * (P1y + P2y);
-            vB.x += mB * (P1x + P2x);
-            vB.y += mB * (P1y + P2y);
-
-            wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
-            wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
-
-            // Accumulate
-            cp1.normalImpulse = xx;
-            cp2.normalImpulse = xy;
-
-            /*
-             * #if B2_DEBUG_SOLVER == 1 // Postconditions dv1 = vB + Cross(wB, cp1.rB) - vA -
-             * Cross(wA, cp1.rA); dv2 = vB + Cross(wB, cp2.rB) - vA - Cross(wA, cp2.rA);
-             * 
-             * // Compute normal velocity vn1 = Dot(dv1, normal); vn2 = Dot(dv2, normal);
-             * 
-             * assert(Abs(vn1 - cp1.velocityBias) < k_errorTol); assert(Abs(vn2 - cp2.velocityBias)
-             * < k_errorTol); #endif
-             */
-            if (DEBUG_SOLVER) {
-              // Postconditions
-              Vec2 dv1 = vB.add(Vec2.cross(wB, cp1rB).subLocal(vA).subLocal(Vec2.cross(wA, cp1rA)));
-              Vec2 dv2 = vB.add(Vec2.cross(wB, cp2rB).subLocal(vA).subLocal(Vec2.cross(wA, cp2rA)));
-              // Compute normal velocity
-              vn1 = Vec2.dot(dv1, normal);
-              vn2 = Vec2.dot(dv2, normal);
-
-              assert (Math.abs(vn1 - cp1.velocityBias) < k_errorTol);
-              assert (Math.abs(vn2 - cp2.velocityBias) < k_errorTol);
-            }
-            break;
-          }
-
-          //
-          // Case 2: vn1 = 0 and x2 = 0
-          //
-          // 0 = a11 * x1' + a12 * 0 + b1'
-          // vn2 = a21 * x1' + a22 * 0 + '
-          //
-          xx = -cp1.normalMass * bx;
-          xy = 0.0f;
-          vn1 = 0.0f;
-          vn2 = vc.K.ex.y * xx + by;
-
-          if (xx >= 0.0f && vn2 >= 0.0f) {
-            // Get the incremental impulse
-            double dx = xx - ax;
-            double dy = xy - ay;
-
-            // Apply incremental impulse
-            // Vec2 P1 = d.x * normal;
-            // Vec2 P2 = d.y * normal;
-            double P1x = normalx * dx;
-            double P1y = normaly * dx;
-            double P2x = normalx * dy;
-            double P2y = normaly * dy;
-
-            /*
-             * Vec2 P1 = d.x * normal; Vec2 P2 = d.y * normal; vA -= invMassA * (P1 + P2); wA -=
-             * invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
-             * 
-             * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
-             */
-
-            vA.x -= mA * (P1x + P2x);
-            vA.y -= mA * (P1y + P2y);
-            vB.x += mB * (P1x + P2x);
-            vB.y += mB * (P1y + P2y);
-
-            wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
-            wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
-
-            // Accumulate
-            cp1.normalImpulse = xx;
-            cp2.normalImpulse = xy;
-
-            /*
-             * #if B2_DEBUG_SOLVER == 1 // Postconditions dv1 = vB + Cross(wB, cp1.rB) - vA -
-             * Cross(wA, cp1.rA);
-             * 
-             * // Compute normal velocity vn1 = Dot(dv1, normal);
-             * 
-             * assert(Abs(vn1 - cp1.velocityBias) < k_errorTol); #endif
-             */
-            if (DEBUG_SOLVER) {
-              // Postconditions
-              Vec2 dv1 = vB.add(Vec2.cross(wB, cp1rB).subLocal(vA).subLocal(Vec2.cross(wA, cp1rA)));
-              // Compute normal velocity
-              vn1 = Vec2.dot(dv1, normal);
-
-              assert (Math.abs(vn1 - cp1.velocityBias) < k_errorTol);
-            }
-            break;
+        xx = -cp1.normalMass * bx;
+        xy = 0.0f;
+        vn1 = 0.0f;
+        vn2 = vc.K.ex.y * xx + by;
+
+        if (xx >= 0.0f && vn2 >= 0.0f) {
+          // Get the incremental impulse
+          double dx = xx - ax;
+          double dy = xy - ay;
+
+          // Apply incremental impulse
+          // Vec2 P1 = d.x * normal;
+          // Vec2 P2 = d.y * normal;
+          double P1x = normalx * dx;
+          double P1y = normaly * dx;
+          double P2x = normalx * dy;
+          double P2y = normaly * dy;
+
+          /*
+           * Vec2 P1 = d.x * normal; Vec2 P2 = d.y * normal; vA -= invMassA * (P1 + P2); wA -=
+           * invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
+           * 
+           * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
+           */
+
+          vA.x -= mA * (P1x + P2x);
+          vA.y -= mA * (P1y + P2y);
+          vB.x += mB * (P1x + P2x);
+          vB.y += mB * (P1y + P2y);
+
+          wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
+          wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
+
+          // Accumulate
+          cp1.normalImpulse = xx;
+          cp2.normalImpulse = xy;
+
+          /*
+           * #if B2_DEBUG_SOLVER == 1 // Postconditions dv1 = vB + Cross(wB, cp1.rB) - vA -
+           * Cross(wA, cp1.rA);
+           * 
+           * // Compute normal velocity vn1 = Dot(dv1, normal);
+           * 
+           * assert(Abs(vn1 - cp1.velocityBias) < k_errorTol); #endif
+           */
+          if (DEBUG_SOLVER) {
+            // Postconditions
+            Vec2 dv1 = vB.add(Vec2.cross(wB, cp1rB).subLocal(vA).subLocal(Vec2.cross(wA, cp1rA)));
+            // Compute normal velocity
+            vn1 = Vec2.dot(dv1, normal);
+
+            assert (Math.abs(vn1 - cp1.velocityBias) < k_errorTol);
           }
+          break;
+        }
 
-          //
-          // Case 3: wB = 0 and x1 = 0
-          //
-          // vn1 = a11 * 0 + a12 * x2' + b1'
-          // 0 = a21 * 0 + a22 * x2' + '
-          //
-          xx = 0.0f;
-          xy = -cp2.normalMass * by;
-          vn1 = vc.K.ey.x * xy + bx;
-          vn2 = 0.0f;
-
-          if (xy >= 0.0f && vn1 >= 0.0f) {
-            // Resubstitute for the incremental impulse
-            double dx = xx - ax;
-            double dy = xy - ay;
-
-            // Apply incremental impulse
-            /*
-             * Vec2 P1 = d.x * normal; Vec2 P2 = d.y * normal; vA -= invMassA * (P1 + P2); wA -=
-             * invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
-             * 
-             * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
-             */
-
-            double P1x = normalx * dx;
-            double P1y = normaly * dx;
-            double P2x = normalx * dy;
-            double P2y = normaly * dy;
-
-            vA.x -= mA * (P1x + P2x);
-            vA.y -= mA * (P1y + P2y);
-            vB.x += mB * (P1x + P2x);
-            vB.y += mB * (P1y + P2y);
-
-            wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
-            wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
-
-            // Accumulate
-            cp1.normalImpulse = xx;
-            cp2.normalImpulse = xy;
-
-            /*
-             * #if B2_DEBUG_SOLVER == 1 // Postconditions dv2 = vB + Cross(wB, cp2.rB) - vA -
-             * Cross(wA, cp2.rA);
-             * 
-             * // Compute normal velocity vn2 = Dot(dv2, normal);
-             * 
-             * assert(Abs(vn2 - cp2.velocityBias) < k_errorTol); #endif
-             */
-            if (DEBUG_SOLVER) {
-              // Postconditions
-              Vec2 dv2 = vB.add(Vec2.cross(wB, cp2rB).subLocal(vA).subLocal(Vec2.cross(wA, cp2rA)));
-              // Compute normal velocity
-              vn2 = Vec2.dot(dv2, normal);
-
-              assert (Math.abs(vn2 - cp2.velocityBias) < k_errorTol);
-            }
-            break;
+        //
+        // Case 3: wB = 0 and x1 = 0
+        //
+        // vn1 = a11 * 0 + a12 * x2' + b1'
+        // 0 = a21 * 0 + a22 * x2' + '
+        //
+        xx = 0.0f;
+        xy = -cp2.normalMass * by;
+        vn1 = vc.K.ey.x * xy + bx;
+        vn2 = 0.0f;
+
+        if (xy >= 0.0f && vn1 >= 0.0f) {
+          // Resubstitute for the incremental impulse
+          double dx = xx - ax;
+          double dy = xy - ay;
+
+          // Apply incremental impulse
+          /*
+           * Vec2 P1 = d.x * normal; Vec2 P2 = d.y * normal; vA -= invMassA * (P1 + P2); wA -=
+           * invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
+           * 
+           * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
+           */
+
+          double P1x = normalx * dx;
+          double P1y = normaly * dx;
+          double P2x = normalx * dy;
+          double P2y = normaly * dy;
+
+          vA.x -= mA * (P1x + P2x);
+          vA.y -= mA * (P1y + P2y);
+          vB.x += mB * (P1x + P2x);
+          vB.y += mB * (P1y + P2y);
+
+          wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
+          wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
+
+          // Accumulate
+          cp1.normalImpulse = xx;
+          cp2.normalImpulse = xy;
+
+          /*
+           * #if B2_DEBUG_SOLVER == 1 // Postconditions dv2 = vB + Cross(wB, cp2.rB) - vA -
+           * Cross(wA, cp2.rA);
+           * 
+           * // Compute normal velocity vn2 = Dot(dv2, normal);
+           * 
+           * assert(Abs(vn2 - cp2.velocityBias) < k_errorTol); #endif
+           */
+          if (DEBUG_SOLVER) {
+            // Postconditions
+            Vec2 dv2 = vB.add(Vec2.cross(wB, cp2rB).subLocal(vA).subLocal(Vec2.cross(wA, cp2rA)));
+            // Compute normal velocity
+            vn2 = Vec2.dot(dv2, normal);
+
+            assert (Math.abs(vn2 - cp2.velocityBias) < k_errorTol);
           }
+          break;
+        }
 
-          //
-          // Case 4: x1 = 0 and x2 = 0
-          //
-          // vn1 = b1
-          // vn2 = ;
-          xx = 0.0f;
-          xy = 0.0f;
-          vn1 = bx;
-          vn2 = by;
-
-          if (vn1 >= 0.0f && vn2 >= 0.0f) {
-            // Resubstitute for the incremental impulse
-            double dx = xx - ax;
-            double dy = xy - ay;
-
-            // Apply incremental impulse
-            /*
-             * Vec2 P1 = d.x * normal; Vec2 P2 = d.y * normal; vA -= invMassA * (P1 + P2); wA -=
-             * invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
-             * 
-             * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
-             */
-
-            double P1x = normalx * dx;
-            double P1y = normaly * dx;
-            double P2x = normalx * dy;
-            double P2y = normaly * dy;
-
-            vA.x -= mA * (P1x + P2x);
-            vA.y -= mA * (P1y + P2y);
-            vB.x += mB * (P1x + P2x);
-            vB.y += mB * (P1y + P2y);
-
-            wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
-            wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
-
-            // Accumulate
-            cp1.normalImpulse = xx;
-            cp2.normalImpulse = xy;
-
-            break;
-          }
+        //
+        // Case 4: x1 = 0 and x2 = 0
+        //
+        // vn1 = b1
+        // vn2 = ;
+        xx = 0.0f;
+        xy = 0.0f;
+        vn1 = bx;
+        vn2 = by;
+
+        if (vn1 >= 0.0f && vn2 >= 0.0f) {
+          // Resubstitute for the incremental impulse
+          double dx = xx - ax;
+          double dy = xy - ay;
+
+          // Apply incremental impulse
+          /*
+           * Vec2 P1 = d.x * normal; Vec2 P2 = d.y * normal; vA -= invMassA * (P1 + P2); wA -=
+           * invIA * (Cross(cp1.rA, P1) + Cross(cp2.rA, P2));
+           * 
+           * vB += invMassB * (P1 + P2); wB += invIB * (Cross(cp1.rB, P1) + Cross(cp2.rB, P2));
+           */
+
+          double P1x = normalx * dx;
+          double P1y = normaly * dx;
+          double P2x = normalx * dy;
+          double P2y = normaly * dy;
+
+          vA.x -= mA * (P1x + P2x);
+          vA.y -= mA * (P1y + P2y);
+          vB.x += mB * (P1x + P2x);
+          vB.y += mB * (P1y + P2y);
+
+          wA -= iA * (cp1rA.x * P1y - cp1rA.y * P1x + (cp2rA.x * P2y - cp2rA.y * P2x));
+          wB += iB * (cp1rB.x * P1y - cp1rB.y * P1x + (cp2rB.x * P2y - cp2rB.y * P2x));
+
+          // Accumulate
+          cp1.normalImpulse = xx;
+          cp2.normalImpulse = xy;
 
-          // No solution, give up. This is hit sometimes, but it doesn't seem to matter.
           break;
         }
-      }
 
-      // m_velocities[indexA].v.set(vA);
-      m_velocities[indexA].w = wA;
-      // m_velocities[indexB].v.set(vB);
-      m_velocities[indexB].w = wB;
+        // No solution, give up. This is hit sometimes, but it doesn't seem to matter.
+        break;
+      }
     }
+
+    m_states.vx[indexA] = vA.x;
+    m_states.vy[indexA] = vA.y;
+    m_states.w[indexA] = wA;
+    m_states.vx[indexB] = vB.x;
+    m_states.vy[indexB] = vB.y;
+    m_states.w[indexB] = wB;
   }
 
   public void storeImpulses() {
@@ -811,83 +848,7 @@ public class ContactSolver {
     double minSeparation = 0.0f;
 
     for (int i = 0; i < m_count; ++i) {
-      ContactPositionConstraint pc = m_positionConstraints[i];
-
-      int indexA = pc.indexA;
-      int indexB = pc.indexB;
-
-      double mA = pc.invMassA;
-      double iA = pc.invIA;
-      Vec2 localCenterA = pc.localCenterA;
-      final double localCenterAx = localCenterA.x;
-      final double localCenterAy = localCenterA.y;
-      double mB = pc.invMassB;
-      double iB = pc.invIB;
-      Vec2 localCenterB = pc.localCenterB;
-      final double localCenterBx = localCenterB.x;
-      final double localCenterBy = localCenterB.y;
-      int pointCount = pc.pointCount;
-
-      Vec2 cA = m_positions[indexA].c;
-      double aA = m_positions[indexA].a;
-      Vec2 cB = m_positions[indexB].c;
-      double aB = m_positions[indexB].a;
-
-      // Solve normal constraints
-      for (int j = 0; j < pointCount; ++j) {
-        final Rot xfAq = xfA.q;
-        final Rot xfBq = xfB.q;
-        xfAq.set(aA);
-        xfBq.set(aB);
-        xfA.p.x = cA.x - xfAq.c * localCenterAx + xfAq.s * localCenterAy;
-        xfA.p.y = cA.y - xfAq.s * localCenterAx - xfAq.c * localCenterAy;
-        xfB.p.x = cB.x - xfBq.c * localCenterBx + xfBq.s * localCenterBy;
-        xfB.p.y = cB.y - xfBq.s * localCenterBx - xfBq.c * localCenterBy;
-
-        final PositionSolverManifold psm = psolver;
-        psm.initialize(pc, xfA, xfB, j);
-        final Vec2 normal = psm.normal;
-        final Vec2 point = psm.point;
-        final double separation = psm.separation;
-
-        double rAx = point.x - cA.x;
-        double rAy = point.y - cA.y;
-        double rBx = point.x - cB.x;
-        double rBy = point.y - cB.y;
-
-        // Track max constraint error.
-        minSeparation = Math.min(minSeparation, separation);
-
-        // Prevent large corrections and allow slop.
-        final double C =
-            MathUtils.clamp(Settings.baumgarte * (separation + Settings.linearSlop),
-                -Settings.maxLinearCorrection, 0.0f);
-
-        // Compute the effective mass.
-        final double rnA = rAx * normal.y - rAy * normal.x;
-        final double rnB = rBx * normal.y - rBy * normal.x;
-        final double K = mA + mB + iA * rnA * rnA + iB * rnB * rnB;
-
-        // Compute normal impulse
-        final double impulse = K > 0.0f ? -C / K : 0.0f;
-
-        double Px = normal.x * impulse;
-        double Py = normal.y * impulse;
-        
-        cA.x -= Px * mA;
-        cA.y -= Py * mA;
-        aA -= iA * (rAx * Py - rAy * Px);
-
-        cB.x += Px * mB;
-        cB.y += Py * mB;
-        aB += iB * (rBx * Py - rBy * Px);
-      }
-
-      // m_positions[indexA].c.set(cA);
-      m_positions[indexA].a = aA;
-
-      // m_positions[indexB].c.set(cB);
-      m_positions[indexB].a = aB;
+      minSeparation = solvePositionConstraint(m_positionConstraints[i], minSeparation);
     }
 
     // We can't expect minSpeparation >= -linearSlop because we don't
@@ -895,6 +856,103 @@ public class ContactSolver {
     return minSeparation >= -3.0f * Settings.linearSlop;
   }
 
+  /**
+   * Solves the position constraints {@code order[start]} to {@code order[end - 1]}, see
+   * {@link #solveVelocityConstraints(int[], int, int)}.
+   * 
+   * @return the smallest separation found, never more than zero.
+   */
+  public final double solvePositionConstraints(int[] order, int start, int end) {
+    double minSeparation = 0.0f;
+    for (int i = start; i < end; ++i) {
+      minSeparation = solvePositionConstraint(m_positionConstraints[order[i]], minSeparation);
+    }
+    return minSeparation;
+  }
+
+  private double solvePositionConstraint(final ContactPositionConstraint pc,
+      double minSeparation) {
+
+    int indexA = pc.indexA;
+    int indexB = pc.indexB;
+
+    double mA = pc.invMassA;
+    double iA = pc.invIA;
+    Vec2 localCenterA = pc.localCenterA;
+    final double localCenterAx = localCenterA.x;
+    final double localCenterAy = localCenterA.y;
+    double mB = pc.invMassB;
+    double iB = pc.invIB;
+    Vec2 localCenterB = pc.localCenterB;
+    final double localCenterBx = localCenterB.x;
+    final double localCenterBy = localCenterB.y;
+    int pointCount = pc.pointCount;
+
+    final Vec2 cA = stateCA.set(m_states.cx[indexA], m_states.cy[indexA]);
+    double aA = m_states.a[indexA];
+    final Vec2 cB = stateCB.set(m_states.cx[indexB], m_states.cy[indexB]);
+    double aB = m_states.a[indexB];
+
+    // Solve normal constraints
+    for (int j = 0; j < pointCount; ++j) {
+      final Rot xfAq = xfA.q;
+      final Rot xfBq = xfB.q;
+      xfAq.set(aA);
+      xfBq.set(aB);
+      xfA.p.x = cA.x - xfAq.c * localCenterAx + xfAq.s * localCenterAy;
+      xfA.p.y = cA.y - xfAq.s * localCenterAx - xfAq.c * localCenterAy;
+      xfB.p.x = cB.x - xfBq.c * localCenterBx + xfBq.s * localCenterBy;
+      xfB.p.y = cB.y - xfBq.s * localCenterBx - xfBq.c * localCenterBy;
+
+      final PositionSolverManifold psm = psolver;
+      psm.initialize(pc, xfA, xfB, j);
+      final Vec2 normal = psm.normal;
+      final Vec2 point = psm.point;
+      final double separation = psm.separation;
+
+      double rAx = point.x - cA.x;
+      double rAy = point.y - cA.y;
+      double rBx = point.x - cB.x;
+      double rBy = point.y - cB.y;
+
+      // Track max constraint error.
+      minSeparation = Math.min(minSeparation, separation);
+
+      // Prevent large corrections and allow slop.
+      final double C =
+          MathUtils.clamp(Settings.baumgarte * (separation + Settings.linearSlop),
+              -Settings.maxLinearCorrection, 0.0f);
+
+      // Compute the effective mass.
+      final double rnA = rAx * normal.y - rAy * normal.x;
+      final double rnB = rBx * normal.y - rBy * normal.x;
+      final double K = mA + mB + iA * rnA * rnA + iB * rnB * rnB;
+
+      // Compute normal impulse
+      final double impulse = K > 0.0f ? -C / K : 0.0f;
+
+      double Px = normal.x * impulse;
+      double Py = normal.y * impulse;
+      
+      cA.x -= Px * mA;
+      cA.y -= Py * mA;
+      aA -= iA * (rAx * Py - rAy * Px);
+
+      cB.x += Px * mB;
+      cB.y += Py * mB;
+      aB += iB * (rBx * Py - rBy * Px);
+    }
+
+    m_states.cx[indexA] = cA.x;
+    m_states.cy[indexA] = cA.y;
+    m_states.a[indexA] = aA;
+
+    m_states.cx[indexB] = cB.x;
+    m_states.cy[indexB] = cB.y;
+    m_states.a[indexB] = aB;
+    return minSeparation;
+  }
+
   // Sequential position solver for position constraints.
   public boolean solveTOIPositionConstraints(int toiIndexA, int toiIndexB) {
     double minSeparation = 0.0f;
@@ -926,11 +984,11 @@ public class ContactSolver {
         iB = pc.invIB;
       }
 
-      Vec2 cA = m_positions[indexA].c;
-      double aA = m_positions[indexA].a;
+      final Vec2 cA = stateCA.set(m_states.cx[indexA], m_states.cy[indexA]);
+      double aA = m_states.a[indexA];
 
-      Vec2 cB = m_positions[indexB].c;
-      double aB = m_positions[indexB].a;
+      final Vec2 cB = stateCB.set(m_states.cx[indexB], m_states.cy[indexB]);
+      double aB = m_states.a[indexB];
 
       // Solve normal constraints
       for (int j = 0; j < pointCount; ++j) {
@@ -983,11 +1041,13 @@ public class ContactSolver {
         aB += iB * (rBx * Py - rBy * Px);
       }
 
-      // m_positions[indexA].c.set(cA);
-      m_positions[indexA].a = aA;
+      m_states.cx[indexA] = cA.x;
+      m_states.cy[indexA] = cA.y;
+      m_states.a[indexA] = aA;
 
-      // m_positions[indexB].c.set(cB);
-      m_positions[indexB].a = aB;
+      m_states.cx[indexB] = cB.x;
+      m_states.cy[indexB] = cB.y;
+      m_states.a[indexB] = aB;
     }
 
     // We can't expect minSpeparation >= -_linearSlop because we don't
@@ -999,8 +1059,7 @@ public class ContactSolver {
     public TimeStep step;
     public Contact[] contacts;
     public int count;
-    public Position[] positions;
-    public Velocity[] velocities;
+    public BodyStates states;
   }
 }
 
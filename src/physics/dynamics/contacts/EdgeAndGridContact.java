@@ -0,0 +1,34 @@
+package physics.dynamics.contacts;
+
+import physics.collision.Manifold;
+import physics.collision.shapes.EdgeShape;
+import physics.collision.shapes.GridShape;
+import physics.collision.shapes.PolygonShape;
+import physics.collision.shapes.ShapeType;
+import physics.common.Transform;
+import physics.dynamics.Fixture;
+import physics.pooling.IWorldPool;
+
+public class EdgeAndGridContact extends Contact {
+
+  public EdgeAndGridContact(IWorldPool argPool) {
+    super(argPool);
+  }
+
+  @Override
+  public void init(Fixture fA, int indexA, Fixture fB, int indexB) {
+    super.init(fA, indexA, fB, indexB);
+    assert (m_fixtureA.getType() == ShapeType.EDGE);
+    assert (m_fixtureB.getType() == ShapeType.GRID);
+  }
+
+  private final PolygonShape box = new PolygonShape();
+
+  @Override
+  public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+    GridShape grid = (GridShape) m_fixtureB.getShape();
+    grid.getChildBox(box, m_indexB);
+    pool.getCollision().collideEdgeAndPolygon(manifold, (EdgeShape) m_fixtureA.getShape(), xfA,
+        box, xfB);
+  }
+}
@@ -0,0 +1,34 @@
+package physics.dynamics.contacts;
+
+import physics.collision.Manifold;
+import physics.collision.shapes.CircleShape;
+import physics.collision.shapes.EdgeShape;
+import physics.collision.shapes.GridShape;
+import physics.collision.shapes.ShapeType;
+import physics.common.Transform;
+import physics.dynamics.Fixture;
+import physics.pooling.IWorldPool;
+
+public class GridAndCircleContact extends Contact {
+
+  public GridAndCircleContact(IWorldPool argPool) {
+    super(argPool);
+  }
+
+  @Override
+  public void init(Fixture fA, int indexA, Fixture fB, int indexB) {
+    super.init(fA, indexA, fB, indexB);
+    assert (m_fixtureA.getType() == ShapeType.GRID);
+    assert (m_fixtureB.getType() == ShapeType.CIRCLE);
+  }
+
+  private final EdgeShape edge = new EdgeShape();
+
+  @Override
+  public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+    GridShape grid = (GridShape) m_fixtureA.getShape();
+    grid.getChildEdge(edge, m_indexA);
+    pool.getCollision().collideEdgeAndCircle(manifold, edge, xfA,
+        (CircleShape) m_fixtureB.getShape(), xfB);
+  }
+}
@@ -0,0 +1,34 @@
+package physics.dynamics.contacts;
+
+import physics.collision.Manifold;
+import physics.collision.shapes.EdgeShape;
+import physics.collision.shapes.GridShape;
+import physics.collision.shapes.PolygonShape;
+import physics.collision.shapes.ShapeType;
+import physics.common.Transform;
+import physics.dynamics.Fixture;
+import physics.pooling.IWorldPool;
+
+public class GridAndPolygonContact extends Contact {
+
+  public GridAndPolygonContact(IWorldPool argPool) {
+    super(argPool);
+  }
+
+  @Override
+  public void init(Fixture fA, int indexA, Fixture fB, int indexB) {
+    super.init(fA, indexA, fB, indexB);
+    assert (m_fixtureA.getType() == ShapeType.GRID);
+    assert (m_fixtureB.getType() == ShapeType.POLYGON);
+  }
+
+  private final EdgeShape edge = new EdgeShape();
+
+  @Override
+  public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
+    GridShape grid = (GridShape) m_fixtureA.getShape();
+    grid.getChildEdge(edge, m_indexA);
+    pool.getCollision().collideEdgeAndPolygon(manifold, edge, xfA,
+        (PolygonShape) m_fixtureB.getShape(), xfB);
+  }
+}
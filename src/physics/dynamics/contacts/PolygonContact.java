@@ -23,6 +23,7 @@
  ******************************************************************************/
 package physics.dynamics.contacts;
 
+import physics.collision.Collision;
 import physics.collision.Manifold;
 import physics.collision.shapes.PolygonShape;
 import physics.collision.shapes.ShapeType;
@@ -32,6 +33,9 @@ import physics.pooling.IWorldPool;
 
 public class PolygonContact extends Contact {
 
+  // the separating axis or reference face of the last evaluation
+  private int m_axis;
+
   public PolygonContact(IWorldPool argPool) {
     super(argPool);
   }
@@ -40,11 +44,17 @@ public class PolygonContact extends Contact {
     super.init(fixtureA, 0, fixtureB, 0);
     assert (m_fixtureA.getType() == ShapeType.POLYGON);
     assert (m_fixtureB.getType() == ShapeType.POLYGON);
+    m_axis = Collision.NULL_AXIS;
   }
 
   @Override
   public void evaluate(Manifold manifold, Transform xfA, Transform xfB) {
-    pool.getCollision().collidePolygons(manifold, (PolygonShape) m_fixtureA.getShape(), xfA,
-        (PolygonShape) m_fixtureB.getShape(), xfB);
+    PolygonShape polyA = (PolygonShape) m_fixtureA.getShape();
+    PolygonShape polyB = (PolygonShape) m_fixtureB.getShape();
+    if (polyA.m_box && polyB.m_box) {
+      m_axis = pool.getCollision().collideBoxes(manifold, polyA, xfA, polyB, xfB, m_axis);
+    } else {
+      m_axis = pool.getCollision().collidePolygons(manifold, polyA, xfA, polyB, xfB, m_axis);
+    }
   }
 }
@@ -26,10 +26,9 @@ package physics.dynamics.joints;
 import physics.common.Settings;
 import physics.common.Vec2;
 import physics.dynamics.Body;
+import physics.dynamics.BodyStates;
 import physics.dynamics.SolverData;
 import physics.dynamics.World;
-import physics.dynamics.contacts.Position;
-import physics.dynamics.contacts.Velocity;
 
 public class ConstantVolumeJoint extends Joint {
 
@@ -118,24 +117,26 @@ public class ConstantVolumeJoint extends Joint {
     return area;
   }
 
-  private double getSolverArea(Position[] positions) {
+  private double getSolverArea(BodyStates states) {
+    final double[] cx = states.cx, cy = states.cy;
     double area = 0.0f;
     for (int i = 0; i < bodies.length; ++i) {
       final int next = (i == bodies.length - 1) ? 0 : i + 1;
-      area +=
-          positions[bodies[i].m_islandIndex].c.x * positions[bodies[next].m_islandIndex].c.y
-              - positions[bodies[next].m_islandIndex].c.x * positions[bodies[i].m_islandIndex].c.y;
+      final int ii = bodies[i].m_islandIndex;
+      final int in = bodies[next].m_islandIndex;
+      area += cx[ii] * cy[in] - cx[in] * cy[ii];
     }
     area *= .5f;
     return area;
   }
 
-  private boolean constrainEdges(Position[] positions) {
+  private boolean constrainEdges(BodyStates states) {
+    final double[] cx = states.cx, cy = states.cy;
     double perimeter = 0.0f;
     for (int i = 0; i < bodies.length; ++i) {
       final int next = (i == bodies.length - 1) ? 0 : i + 1;
-      double dx = positions[bodies[next].m_islandIndex].c.x - positions[bodies[i].m_islandIndex].c.x;
-      double dy = positions[bodies[next].m_islandIndex].c.y - positions[bodies[i].m_islandIndex].c.y;
+      double dx = cx[bodies[next].m_islandIndex] - cx[bodies[i].m_islandIndex];
+      double dy = cy[bodies[next].m_islandIndex] - cy[bodies[i].m_islandIndex];
       double dist = Math.sqrt(dx * dx + dy * dy);
       if (dist < Settings.EPSILON) {
         dist = 1.0f;
@@ -147,7 +148,7 @@ public class ConstantVolumeJoint extends Joint {
 
     final Vec2 delta = pool.popVec2();
 
-    double deltaArea = targetVolume - getSolverArea(positions);
+    double deltaArea = targetVolume - getSolverArea(states);
     double toExtrude = 0.5f * deltaArea / perimeter; // *relaxationFactor
     // double sumdeltax = 0.0f;
     boolean done = true;
@@ -163,8 +164,8 @@ public class ConstantVolumeJoint extends Joint {
       if (normSqrd > Settings.linearSlop * Settings.linearSlop) {
         done = false;
       }
-      positions[bodies[next].m_islandIndex].c.x += delta.x;
-      positions[bodies[next].m_islandIndex].c.y += delta.y;
+      cx[bodies[next].m_islandIndex] += delta.x;
+      cy[bodies[next].m_islandIndex] += delta.y;
       // bodies[next].m_linearVelocity.x += delta.x * step.inv_dt;
       // bodies[next].m_linearVelocity.y += delta.y * step.inv_dt;
     }
@@ -176,15 +177,15 @@ public class ConstantVolumeJoint extends Joint {
 
   @Override
   public void initVelocityConstraints(final SolverData step) {
-    Velocity[] velocities = step.velocities;
-    Position[] positions = step.positions;
+    final BodyStates states = step.states;
     final Vec2[] d = pool.getVec2Array(bodies.length);
 
     for (int i = 0; i < bodies.length; ++i) {
       final int prev = (i == 0) ? bodies.length - 1 : i - 1;
       final int next = (i == bodies.length - 1) ? 0 : i + 1;
-      d[i].set(positions[bodies[next].m_islandIndex].c);
-      d[i].subLocal(positions[bodies[prev].m_islandIndex].c);
+      final int in = bodies[next].m_islandIndex;
+      final int ip = bodies[prev].m_islandIndex;
+      d[i].set(states.cx[in] - states.cx[ip], states.cy[in] - states.cy[ip]);
     }
 
     if (step.step.warmStarting) {
@@ -195,8 +196,9 @@ public class ConstantVolumeJoint extends Joint {
       // Settings.maxLinearCorrection);
       // m_impulse = lambda;
       for (int i = 0; i < bodies.length; ++i) {
-        velocities[bodies[i].m_islandIndex].v.x += bodies[i].m_invMass * d[i].y * .5f * m_impulse;
-        velocities[bodies[i].m_islandIndex].v.y += bodies[i].m_invMass * -d[i].x * .5f * m_impulse;
+        final int index = bodies[i].m_islandIndex;
+        states.vx[index] += states.invMass[index] * d[i].y * .5f * m_impulse;
+        states.vy[index] += states.invMass[index] * -d[i].x * .5f * m_impulse;
       }
     } else {
       m_impulse = 0.0f;
@@ -205,7 +207,7 @@ public class ConstantVolumeJoint extends Joint {
 
   @Override
   public boolean solvePositionConstraints(SolverData step) {
-    return constrainEdges(step.positions);
+    return constrainEdges(step.states);
   }
 
   @Override
@@ -213,17 +215,18 @@ public class ConstantVolumeJoint extends Joint {
     double crossMassSum = 0.0f;
     double dotMassSum = 0.0f;
 
-    Velocity[] velocities = step.velocities;
-    Position[] positions = step.positions;
+    final BodyStates states = step.states;
     final Vec2 d[] = pool.getVec2Array(bodies.length);
 
     for (int i = 0; i < bodies.length; ++i) {
       final int prev = (i == 0) ? bodies.length - 1 : i - 1;
       final int next = (i == bodies.length - 1) ? 0 : i + 1;
-      d[i].set(positions[bodies[next].m_islandIndex].c);
-      d[i].subLocal(positions[bodies[prev].m_islandIndex].c);
+      final int in = bodies[next].m_islandIndex;
+      final int ip = bodies[prev].m_islandIndex;
+      d[i].set(states.cx[in] - states.cx[ip], states.cy[in] - states.cy[ip]);
+      final int ii = bodies[i].m_islandIndex;
       dotMassSum += (d[i].lengthSquared()) / bodies[i].getMass();
-      crossMassSum += Vec2.cross(velocities[bodies[i].m_islandIndex].v, d[i]);
+      crossMassSum += states.vx[ii] * d[i].y - states.vy[ii] * d[i].x;
     }
     double lambda = -2.0f * crossMassSum / dotMassSum;
     // System.out.println(crossMassSum + " " +dotMassSum);
@@ -232,8 +235,9 @@ public class ConstantVolumeJoint extends Joint {
     m_impulse += lambda;
     // System.out.println(m_impulse);
     for (int i = 0; i < bodies.length; ++i) {
-      velocities[bodies[i].m_islandIndex].v.x += bodies[i].m_invMass * d[i].y * .5f * lambda;
-      velocities[bodies[i].m_islandIndex].v.y += bodies[i].m_invMass * -d[i].x * .5f * lambda;
+      final int index = bodies[i].m_islandIndex;
+      states.vx[index] += states.invMass[index] * d[i].y * .5f * lambda;
+      states.vy[index] += states.invMass[index] * -d[i].x * .5f * lambda;
     }
   }
 
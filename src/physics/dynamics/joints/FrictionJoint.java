@@ -133,13 +133,13 @@ public class FrictionJoint extends Joint {
     m_invIA = m_bodyA.m_invI;
     m_invIB = m_bodyB.m_invI;
 
-    double aA = data.positions[m_indexA].a;
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
+    double aA = data.states.a[m_indexA];
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
 
-    double aB = data.positions[m_indexB].a;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    double aB = data.states.a[m_indexB];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
 
     final Vec2 temp = pool.popVec2();
@@ -199,13 +199,15 @@ public class FrictionJoint extends Joint {
       m_linearImpulse.setZero();
       m_angularImpulse = 0.0f;
     }
-//    data.velocities[m_indexA].v.set(vA);
-    if( data.velocities[m_indexA].w != wA) {
-      assert(data.velocities[m_indexA].w != wA);
+data.states.vx[m_indexA] = vA.x;
+data.states.vy[m_indexA] = vA.y;
+    if( data.states.w[m_indexA] != wA) {
+      assert(data.states.w[m_indexA] != wA);
     }
-    data.velocities[m_indexA].w = wA;
-//    data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+    data.states.w[m_indexA] = wA;
+data.states.vx[m_indexB] = vB.x;
+data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
 
     pool.pushRot(2);
     pool.pushVec2(1);
@@ -214,10 +216,10 @@ public class FrictionJoint extends Joint {
 
   @Override
   public void solveVelocityConstraints(final SolverData data) {
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     double mA = m_invMassA, mB = m_invMassB;
     double iA = m_invIA, iB = m_invIB;
@@ -275,14 +277,16 @@ public class FrictionJoint extends Joint {
       
     }
 
-//    data.velocities[m_indexA].v.set(vA);
-    if( data.velocities[m_indexA].w != wA) {
-      assert(data.velocities[m_indexA].w != wA);
+data.states.vx[m_indexA] = vA.x;
+data.states.vy[m_indexA] = vA.y;
+    if( data.states.w[m_indexA] != wA) {
+      assert(data.states.w[m_indexA] != wA);
     }
-    data.velocities[m_indexA].w = wA;
+    data.states.w[m_indexA] = wA;
    
-//    data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+data.states.vx[m_indexB] = vB.x;
+data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
 
     pool.pushVec2(4);
   }
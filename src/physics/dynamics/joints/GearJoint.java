@@ -96,6 +96,10 @@ public class GearJoint extends Joint {
 
   // Solver temp
   private int m_indexA, m_indexB, m_indexC, m_indexD;
+  private final Vec2 m_stateCC = new Vec2();
+  private final Vec2 m_stateCD = new Vec2();
+  private final Vec2 m_stateVC = new Vec2();
+  private final Vec2 m_stateVD = new Vec2();
   private final Vec2 m_lcA = new Vec2(), m_lcB = new Vec2(), m_lcC = new Vec2(),
       m_lcD = new Vec2();
   private double m_mA, m_mB, m_mC, m_mD;
@@ -244,25 +248,21 @@ public class GearJoint extends Joint {
     m_iC = m_bodyC.m_invI;
     m_iD = m_bodyD.m_invI;
 
-    // Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
+    double aA = data.states.a[m_indexA];
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
 
-    // Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    double aB = data.states.a[m_indexB];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
-    // Vec2 cC = data.positions[m_indexC].c;
-    double aC = data.positions[m_indexC].a;
-    Vec2 vC = data.velocities[m_indexC].v;
-    double wC = data.velocities[m_indexC].w;
+    double aC = data.states.a[m_indexC];
+    final Vec2 vC = m_stateVC.set(data.states.vx[m_indexC], data.states.vy[m_indexC]);
+    double wC = data.states.w[m_indexC];
 
-    // Vec2 cD = data.positions[m_indexD].c;
-    double aD = data.positions[m_indexD].a;
-    Vec2 vD = data.velocities[m_indexD].v;
-    double wD = data.velocities[m_indexD].w;
+    double aD = data.states.a[m_indexD];
+    final Vec2 vD = m_stateVD.set(data.states.vx[m_indexD], data.states.vy[m_indexD]);
+    double wD = data.states.w[m_indexD];
 
     Rot qA = pool.popRot(), qB = pool.popRot(), qC = pool.popRot(), qD = pool.popRot();
     qA.set(aA);
@@ -335,26 +335,30 @@ public class GearJoint extends Joint {
     pool.pushVec2(1);
     pool.pushRot(4);
 
-    // data.velocities[m_indexA].v = vA;
-    data.velocities[m_indexA].w = wA;
-    // data.velocities[m_indexB].v = vB;
-    data.velocities[m_indexB].w = wB;
-    // data.velocities[m_indexC].v = vC;
-    data.velocities[m_indexC].w = wC;
-    // data.velocities[m_indexD].v = vD;
-    data.velocities[m_indexD].w = wD;
+    data.states.vx[m_indexA] = vA.x;
+    data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+    data.states.vx[m_indexB] = vB.x;
+    data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
+    data.states.vx[m_indexC] = vC.x;
+    data.states.vy[m_indexC] = vC.y;
+    data.states.w[m_indexC] = wC;
+    data.states.vx[m_indexD] = vD.x;
+    data.states.vy[m_indexD] = vD.y;
+    data.states.w[m_indexD] = wD;
   }
 
   @Override
   public void solveVelocityConstraints(SolverData data) {
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
-    Vec2 vC = data.velocities[m_indexC].v;
-    double wC = data.velocities[m_indexC].w;
-    Vec2 vD = data.velocities[m_indexD].v;
-    double wD = data.velocities[m_indexD].w;
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
+    final Vec2 vC = m_stateVC.set(data.states.vx[m_indexC], data.states.vy[m_indexC]);
+    double wC = data.states.w[m_indexC];
+    final Vec2 vD = m_stateVD.set(data.states.vx[m_indexD], data.states.vy[m_indexD]);
+    double wD = data.states.w[m_indexD];
 
     Vec2 temp1 = pool.popVec2();
     Vec2 temp2 = pool.popVec2();
@@ -383,14 +387,18 @@ public class GearJoint extends Joint {
     wD -= m_iD * impulse * m_JwD;
 
 
-    // data.velocities[m_indexA].v = vA;
-    data.velocities[m_indexA].w = wA;
-    // data.velocities[m_indexB].v = vB;
-    data.velocities[m_indexB].w = wB;
-    // data.velocities[m_indexC].v = vC;
-    data.velocities[m_indexC].w = wC;
-    // data.velocities[m_indexD].v = vD;
-    data.velocities[m_indexD].w = wD;
+    data.states.vx[m_indexA] = vA.x;
+    data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+    data.states.vx[m_indexB] = vB.x;
+    data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
+    data.states.vx[m_indexC] = vC.x;
+    data.states.vy[m_indexC] = vC.y;
+    data.states.w[m_indexC] = wC;
+    data.states.vx[m_indexD] = vD.x;
+    data.states.vy[m_indexD] = vD.y;
+    data.states.w[m_indexD] = wD;
   }
 
   public Joint getJoint1() {
@@ -403,14 +411,14 @@ public class GearJoint extends Joint {
 
   @Override
   public boolean solvePositionConstraints(SolverData data) {
-    Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
-    Vec2 cC = data.positions[m_indexC].c;
-    double aC = data.positions[m_indexC].a;
-    Vec2 cD = data.positions[m_indexD].c;
-    double aD = data.positions[m_indexD].a;
+    final Vec2 cA = m_stateCA.set(data.states.cx[m_indexA], data.states.cy[m_indexA]);
+    double aA = data.states.a[m_indexA];
+    final Vec2 cB = m_stateCB.set(data.states.cx[m_indexB], data.states.cy[m_indexB]);
+    double aB = data.states.a[m_indexB];
+    final Vec2 cC = m_stateCC.set(data.states.cx[m_indexC], data.states.cy[m_indexC]);
+    double aC = data.states.a[m_indexC];
+    final Vec2 cD = m_stateCD.set(data.states.cx[m_indexD], data.states.cy[m_indexD]);
+    double aD = data.states.a[m_indexD];
 
     Rot qA = pool.popRot(), qB = pool.popRot(), qC = pool.popRot(), qD = pool.popRot();
     qA.set(aA);
@@ -505,14 +513,18 @@ public class GearJoint extends Joint {
     cD.y -= (m_mD * impulse) * JvBD.y;
     aD -= m_iD * impulse * JwD;
 
-    // data.positions[m_indexA].c = cA;
-    data.positions[m_indexA].a = aA;
-    // data.positions[m_indexB].c = cB;
-    data.positions[m_indexB].a = aB;
-    // data.positions[m_indexC].c = cC;
-    data.positions[m_indexC].a = aC;
-    // data.positions[m_indexD].c = cD;
-    data.positions[m_indexD].a = aD;
+    data.states.cx[m_indexA] = cA.x;
+    data.states.cy[m_indexA] = cA.y;
+    data.states.a[m_indexA] = aA;
+    data.states.cx[m_indexB] = cB.x;
+    data.states.cy[m_indexB] = cB.y;
+    data.states.a[m_indexB] = aB;
+    data.states.cx[m_indexC] = cC.x;
+    data.states.cy[m_indexC] = cC.y;
+    data.states.a[m_indexC] = aC;
+    data.states.cx[m_indexD] = cD.x;
+    data.states.cy[m_indexD] = cD.y;
+    data.states.a[m_indexD] = aD;
 
     // TODO_ERIN not implemented
     return linearError < Settings.linearSlop;
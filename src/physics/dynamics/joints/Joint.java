@@ -25,6 +25,7 @@ package physics.dynamics.joints;
 
 import physics.common.Vec2;
 import physics.dynamics.Body;
+import physics.dynamics.PersistentIsland;
 import physics.dynamics.SolverData;
 import physics.dynamics.World;
 import physics.pooling.IWorldPool;
@@ -84,12 +85,24 @@ public abstract class Joint {
   protected Body m_bodyB;
 
   public boolean m_islandFlag;
+
+  // Persistent island and island list pointers.
+  public PersistentIsland m_island;
+  public Joint m_islandPrev;
+  public Joint m_islandNext;
   private boolean m_collideConnected;
 
   public Object m_userData;
 
   protected IWorldPool pool;
 
+  // Copies of the body state the solver methods work on. They are loaded from the body state
+  // columns and stored back before returning.
+  protected final Vec2 m_stateCA = new Vec2();
+  protected final Vec2 m_stateCB = new Vec2();
+  protected final Vec2 m_stateVA = new Vec2();
+  protected final Vec2 m_stateVB = new Vec2();
+
   // Cache here per time step to reduce cache misses.
   // final Vec2 m_localCenterA, m_localCenterB;
   // double m_invMassA, m_invIA;
@@ -217,6 +230,21 @@ public abstract class Joint {
     return m_bodyA.isActive() && m_bodyB.isActive();
   }
 
+  /**
+   * Get the pool this joint takes temporaries from.
+   */
+  public IWorldPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Set the pool this joint takes temporaries from. Internal, islands solved on a worker thread
+   * hand their joints the worker's pool for the duration of the solve.
+   */
+  public void setPool(IWorldPool pool) {
+    this.pool = pool;
+  }
+
   /** Internal */
   public abstract void initVelocityConstraints(SolverData data);
 
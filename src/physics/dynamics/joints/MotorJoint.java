@@ -177,15 +177,15 @@ public double getReactionTorque(double inv_dt) {
     m_invIA = m_bodyA.m_invI;
     m_invIB = m_bodyB.m_invI;
 
-    final Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    final Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
+    final Vec2 cA = m_stateCA.set(data.states.cx[m_indexA], data.states.cy[m_indexA]);
+    double aA = data.states.a[m_indexA];
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
 
-    final Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
-    final Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 cB = m_stateCB.set(data.states.cx[m_indexB], data.states.cy[m_indexB]);
+    double aB = data.states.a[m_indexB];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     final Rot qA = pool.popRot();
     final Rot qB = pool.popRot();
@@ -254,18 +254,20 @@ public double getReactionTorque(double inv_dt) {
     pool.pushMat22(1);
     pool.pushRot(2);
 
-    // data.velocities[m_indexA].v = vA;
-    data.velocities[m_indexA].w = wA;
-    // data.velocities[m_indexB].v = vB;
-    data.velocities[m_indexB].w = wB;
+    data.states.vx[m_indexA] = vA.x;
+    data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+    data.states.vx[m_indexB] = vB.x;
+    data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
   }
 
   @Override
   public void solveVelocityConstraints(SolverData data) {
-    final Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
-    final Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     double mA = m_invMassA, mB = m_invMassB;
     double iA = m_invIA, iB = m_invIB;
@@ -328,10 +330,12 @@ public double getReactionTorque(double inv_dt) {
 
     pool.pushVec2(3);
 
-    // data.velocities[m_indexA].v.set(vA);
-    data.velocities[m_indexA].w = wA;
-    // data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+    data.states.vx[m_indexA] = vA.x;
+    data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+    data.states.vx[m_indexB] = vB.x;
+    data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
   }
 
   @Override
@@ -148,10 +148,10 @@ public class MouseJoint extends Joint {
     m_invMassB = m_bodyB.m_invMass;
     m_invIB = m_bodyB.m_invI;
 
-    Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 cB = m_stateCB.set(data.states.cx[m_indexB], data.states.cy[m_indexB]);
+    double aB = data.states.a[m_indexB];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     final Rot qB = pool.popRot();
 
@@ -210,8 +210,9 @@ public class MouseJoint extends Joint {
       m_impulse.setZero();
     }
 
-//    data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+data.states.vx[m_indexB] = vB.x;
+data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
 
     pool.pushVec2(1);
     pool.pushMat22(1);
@@ -226,8 +227,8 @@ public class MouseJoint extends Joint {
   @Override
   public void solveVelocityConstraints(final SolverData data) {
 
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     // Cdot = v + cross(w, r)
     final Vec2 Cdot = pool.popVec2();
@@ -253,8 +254,9 @@ public class MouseJoint extends Joint {
     vB.y += m_invMassB * impulse.y;
     wB += m_invIB * Vec2.cross(m_rB, impulse);
 
-//    data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+data.states.vx[m_indexB] = vB.x;
+data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
     
     pool.pushVec2(3);
   }
@@ -63,15 +63,15 @@ public class RopeJoint extends Joint {
     m_invIA = m_bodyA.m_invI;
     m_invIB = m_bodyB.m_invI;
 
-    Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
+    final Vec2 cA = m_stateCA.set(data.states.cx[m_indexA], data.states.cy[m_indexA]);
+    double aA = data.states.a[m_indexA];
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
 
-    Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 cB = m_stateCB.set(data.states.cx[m_indexB], data.states.cy[m_indexB]);
+    double aB = data.states.a[m_indexB];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     final Rot qA = pool.popRot();
     final Rot qB = pool.popRot();
@@ -131,18 +131,20 @@ public class RopeJoint extends Joint {
     pool.pushRot(2);
     pool.pushVec2(1);
 
-    // data.velocities[m_indexA].v = vA;
-    data.velocities[m_indexA].w = wA;
-    // data.velocities[m_indexB].v = vB;
-    data.velocities[m_indexB].w = wB;
+    data.states.vx[m_indexA] = vA.x;
+    data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+    data.states.vx[m_indexB] = vB.x;
+    data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
   }
 
   @Override
   public void solveVelocityConstraints(final SolverData data) {
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     // Cdot = dot(u, v + cross(w, r))
     Vec2 vpA = pool.popVec2();
@@ -178,18 +180,20 @@ public class RopeJoint extends Joint {
 
     pool.pushVec2(3);
 
-    // data.velocities[m_indexA].v = vA;
-    data.velocities[m_indexA].w = wA;
-    // data.velocities[m_indexB].v = vB;
-    data.velocities[m_indexB].w = wB;
+    data.states.vx[m_indexA] = vA.x;
+    data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+    data.states.vx[m_indexB] = vB.x;
+    data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
   }
 
   @Override
   public boolean solvePositionConstraints(final SolverData data) {
-    Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
+    final Vec2 cA = m_stateCA.set(data.states.cx[m_indexA], data.states.cy[m_indexA]);
+    double aA = data.states.a[m_indexA];
+    final Vec2 cB = m_stateCB.set(data.states.cx[m_indexB], data.states.cy[m_indexB]);
+    double aB = data.states.a[m_indexB];
 
     final Rot qA = pool.popRot();
     final Rot qB = pool.popRot();
@@ -225,10 +229,12 @@ public class RopeJoint extends Joint {
     pool.pushRot(2);
     pool.pushVec2(4);
 
-    // data.positions[m_indexA].c = cA;
-    data.positions[m_indexA].a = aA;
-    // data.positions[m_indexB].c = cB;
-    data.positions[m_indexB].a = aB;
+    data.states.cx[m_indexA] = cA.x;
+    data.states.cy[m_indexA] = cA.y;
+    data.states.a[m_indexA] = aA;
+    data.states.cx[m_indexB] = cB.x;
+    data.states.cy[m_indexB] = cB.y;
+    data.states.a[m_indexB] = aB;
 
     return length - m_maxLength < Settings.linearSlop;
   }
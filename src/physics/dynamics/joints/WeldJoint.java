@@ -154,15 +154,13 @@ public class WeldJoint extends Joint {
     m_invIA = m_bodyA.m_invI;
     m_invIB = m_bodyB.m_invI;
 
-    // Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
+    double aA = data.states.a[m_indexA];
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
 
-    // Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    double aB = data.states.a[m_indexB];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     final Rot qA = pool.popRot();
     final Rot qB = pool.popRot();
@@ -249,10 +247,12 @@ public class WeldJoint extends Joint {
       m_impulse.setZero();
     }
 
-//    data.velocities[m_indexA].v.set(vA);
-    data.velocities[m_indexA].w = wA;
-//    data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+data.states.vx[m_indexA] = vA.x;
+data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+data.states.vx[m_indexB] = vB.x;
+data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
 
     pool.pushVec2(1);
     pool.pushRot(2);
@@ -261,10 +261,10 @@ public class WeldJoint extends Joint {
 
   @Override
   public void solveVelocityConstraints(final SolverData data) {
-    Vec2 vA = data.velocities[m_indexA].v;
-    double wA = data.velocities[m_indexA].w;
-    Vec2 vB = data.velocities[m_indexB].v;
-    double wB = data.velocities[m_indexB].w;
+    final Vec2 vA = m_stateVA.set(data.states.vx[m_indexA], data.states.vy[m_indexA]);
+    double wA = data.states.w[m_indexA];
+    final Vec2 vB = m_stateVB.set(data.states.vx[m_indexB], data.states.vy[m_indexB]);
+    double wB = data.states.w[m_indexB];
 
     double mA = m_invMassA, mB = m_invMassB;
     double iA = m_invIA, iB = m_invIB;
@@ -326,20 +326,22 @@ public class WeldJoint extends Joint {
       pool.pushVec3(2);
     }
 
-//    data.velocities[m_indexA].v.set(vA);
-    data.velocities[m_indexA].w = wA;
-//    data.velocities[m_indexB].v.set(vB);
-    data.velocities[m_indexB].w = wB;
+data.states.vx[m_indexA] = vA.x;
+data.states.vy[m_indexA] = vA.y;
+    data.states.w[m_indexA] = wA;
+data.states.vx[m_indexB] = vB.x;
+data.states.vy[m_indexB] = vB.y;
+    data.states.w[m_indexB] = wB;
 
     pool.pushVec2(3);
   }
 
   @Override
   public boolean solvePositionConstraints(final SolverData data) {
-    Vec2 cA = data.positions[m_indexA].c;
-    double aA = data.positions[m_indexA].a;
-    Vec2 cB = data.positions[m_indexB].c;
-    double aB = data.positions[m_indexB].a;
+    final Vec2 cA = m_stateCA.set(data.states.cx[m_indexA], data.states.cy[m_indexA]);
+    double aA = data.states.a[m_indexA];
+    final Vec2 cB = m_stateCB.set(data.states.cx[m_indexB], data.states.cy[m_indexB]);
+    double aB = data.states.a[m_indexB];
     final Rot qA = pool.popRot();
     final Rot qB = pool.popRot();
     final Vec2 temp = pool.popVec2();
@@ -410,10 +412,12 @@ public class WeldJoint extends Joint {
       pool.pushVec3(2);
     }
 
-//    data.positions[m_indexA].c.set(cA);
-    data.positions[m_indexA].a = aA;
-//    data.positions[m_indexB].c.set(cB);
-    data.positions[m_indexB].a = aB;
+data.states.cx[m_indexA] = cA.x;
+data.states.cy[m_indexA] = cA.y;
+    data.states.a[m_indexA] = aA;
+data.states.cx[m_indexB] = cB.x;
+data.states.cy[m_indexB] = cB.y;
+    data.states.a[m_indexB] = aB;
 
     pool.pushVec2(5);
     pool.pushRot(2);
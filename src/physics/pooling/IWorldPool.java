@@ -55,6 +55,16 @@ public interface IWorldPool {
     
     public IDynamicStack<Contact> getChainPolyContactStack();
     
+    public IDynamicStack<Contact> getGridCircleContactStack();
+
+    public IDynamicStack<Contact> getGridPolyContactStack();
+
+    public IDynamicStack<Contact> getGridContactStack();
+
+    public IDynamicStack<Contact> getEdgeGridContactStack();
+
+    public IDynamicStack<Contact> getChainGridContactStack();
+
 	public Vec2 popVec2();
 
 	public Vec2[] popVec2(int num);
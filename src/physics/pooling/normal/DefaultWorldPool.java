@@ -39,11 +39,16 @@ import physics.common.Settings;
 import physics.common.Vec2;
 import physics.common.Vec3;
 import physics.dynamics.contacts.ChainAndCircleContact;
+import physics.dynamics.contacts.ChainAndGridContact;
 import physics.dynamics.contacts.ChainAndPolygonContact;
 import physics.dynamics.contacts.CircleContact;
 import physics.dynamics.contacts.Contact;
 import physics.dynamics.contacts.EdgeAndCircleContact;
+import physics.dynamics.contacts.EdgeAndGridContact;
 import physics.dynamics.contacts.EdgeAndPolygonContact;
+import physics.dynamics.contacts.GridAndCircleContact;
+import physics.dynamics.contacts.GridAndPolygonContact;
+import physics.dynamics.contacts.GridContact;
 import physics.dynamics.contacts.PolygonAndCircleContact;
 import physics.dynamics.contacts.PolygonContact;
 import physics.pooling.IDynamicStack;
@@ -126,6 +131,46 @@ public class DefaultWorldPool implements IWorldPool {
 		protected Contact[] newArray(int size) { return new ChainAndPolygonContact[size]; }
 	};
 
+	private final MutableStack<Contact> gcstack =
+		new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+		@Override
+		protected Contact newInstance () { return new GridAndCircleContact(world); }
+		@Override
+		protected Contact[] newArray(int size) { return new GridAndCircleContact[size]; }
+	};
+
+	private final MutableStack<Contact> gpstack =
+		new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+		@Override
+		protected Contact newInstance () { return new GridAndPolygonContact(world); }
+		@Override
+		protected Contact[] newArray(int size) { return new GridAndPolygonContact[size]; }
+	};
+
+	private final MutableStack<Contact> ggstack =
+		new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+		@Override
+		protected Contact newInstance () { return new GridContact(world); }
+		@Override
+		protected Contact[] newArray(int size) { return new GridContact[size]; }
+	};
+
+	private final MutableStack<Contact> egstack =
+		new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+		@Override
+		protected Contact newInstance () { return new EdgeAndGridContact(world); }
+		@Override
+		protected Contact[] newArray(int size) { return new EdgeAndGridContact[size]; }
+	};
+
+	private final MutableStack<Contact> chgstack =
+		new MutableStack<Contact>(Settings.CONTACT_STACK_INIT_SIZE) {
+		@Override
+		protected Contact newInstance () { return new ChainAndGridContact(world); }
+		@Override
+		protected Contact[] newArray(int size) { return new ChainAndGridContact[size]; }
+	};
+
 	private final Collision collision;
 	private final TimeOfImpact toi;
 	private final Distance dist;
@@ -196,6 +241,31 @@ public class DefaultWorldPool implements IWorldPool {
 		return chpstack;
 	}
 
+	@Override
+	public IDynamicStack<Contact> getGridCircleContactStack() {
+		return gcstack;
+	}
+
+	@Override
+	public IDynamicStack<Contact> getGridPolyContactStack() {
+		return gpstack;
+	}
+
+	@Override
+	public IDynamicStack<Contact> getGridContactStack() {
+		return ggstack;
+	}
+
+	@Override
+	public IDynamicStack<Contact> getEdgeGridContactStack() {
+		return egstack;
+	}
+
+	@Override
+	public IDynamicStack<Contact> getChainGridContactStack() {
+		return chgstack;
+	}
+
 	@Override
 	public final Vec2 popVec2() {
 		return vecs.pop();
@@ -0,0 +1,127 @@
+package physics.profile;
+
+import java.util.Random;
+
+import physics.collision.Collision;
+import physics.collision.Manifold;
+import physics.collision.shapes.PolygonShape;
+import physics.common.Transform;
+import physics.common.Vec2;
+import physics.pooling.normal.DefaultWorldPool;
+
+/**
+ * Microbenchmark - box against box manifolds, the generic polygon routine against the box one.
+ * Pairs of touching and nearly touching boxes drift a little every frame, both routines are timed
+ * with and without the cached axis. Halfway through the box test, when the pairs are deepest, the
+ * manifolds of both routines are compared, none should differ.
+ */
+public class BoxCollisionBenchmark extends BasicPerformanceTest {
+	public static int iters = 10;
+	public static int frames = 200;
+	public static int pairs = 2000;
+	public static String[] names = { "Generic", "Box", "Generic cached", "Box cached" };
+
+	private final Collision collision = new Collision(new DefaultWorldPool(100, 10));
+	private final PolygonShape[] shapesA = new PolygonShape[pairs];
+	private final PolygonShape[] shapesB = new PolygonShape[pairs];
+	private final Transform[] xfsA = new Transform[pairs];
+	private final Transform[] xfsB = new Transform[pairs];
+	private final Vec2[] drifts = new Vec2[pairs];
+	private final int[] axes = new int[pairs];
+	private final Manifold manifold = new Manifold();
+	private final Manifold check = new Manifold();
+	private int mismatches;
+
+	public BoxCollisionBenchmark() {
+		super(names.length, iters);
+		Random random = new Random(0);
+		for (int i = 0; i < pairs; i++) {
+			double hx = 0.25 + random.nextDouble() * 0.5;
+			double hy = 0.25 + random.nextDouble() * 0.5;
+			shapesA[i] = new PolygonShape();
+			shapesA[i].setAsBox(hx, hy);
+			shapesB[i] = new PolygonShape();
+			shapesB[i].setAsBox(0.25 + random.nextDouble() * 0.5, 0.25 + random.nextDouble() * 0.5,
+					new Vec2(random.nextDouble() * 0.1, 0), random.nextDouble() * 0.1);
+			xfsA[i] = new Transform();
+			xfsB[i] = new Transform();
+			Vec2 position = new Vec2(random.nextDouble() * hx * 2 - hx, hy * 2 + 0.2 + random.nextDouble() * 0.1);
+			xfsB[i].set(position, random.nextDouble() * 0.2 - 0.1);
+			drifts[i] = new Vec2(random.nextDouble() * 0.002 - 0.001, -0.002);
+		}
+	}
+
+	public static void main(String[] args) {
+		BoxCollisionBenchmark benchmark = new BoxCollisionBenchmark();
+		benchmark.go();
+		benchmark.println("Manifolds that differ: " + benchmark.mismatches);
+	}
+
+	@Override
+	public void runTest(int testNum) {
+		boolean box = (testNum & 1) != 0;
+		boolean cached = testNum >= 2;
+		for (int i = 0; i < pairs; i++) {
+			axes[i] = Collision.NULL_AXIS;
+		}
+		Vec2 p = new Vec2();
+		for (int frame = 0; frame < frames; frame++) {
+			// sink each pair into contact and back out
+			double sign = frame < frames / 2 ? 1 : -1;
+			for (int i = 0; i < pairs; i++) {
+				Transform xfB = xfsB[i];
+				p.set(xfB.p).addLocal(drifts[i].x * sign, drifts[i].y * sign);
+				xfB.p.set(p);
+				int axis = cached ? axes[i] : Collision.NULL_AXIS;
+				if (box) {
+					axes[i] = collision.collideBoxes(manifold, shapesA[i], xfsA[i], shapesB[i], xfB, axis);
+				} else {
+					axes[i] = collision.collidePolygons(manifold, shapesA[i], xfsA[i], shapesB[i], xfB, axis);
+				}
+			}
+			if (testNum == 1 && frame == frames / 2) {
+				countMismatches();
+			}
+		}
+	}
+
+	private void countMismatches() {
+		for (int i = 0; i < pairs; i++) {
+			collision.collidePolygons(check, shapesA[i], xfsA[i], shapesB[i], xfsB[i]);
+			collision.collideBoxes(manifold, shapesA[i], xfsA[i], shapesB[i], xfsB[i], Collision.NULL_AXIS);
+			if (!sameManifold(check, manifold)) {
+				mismatches++;
+			}
+		}
+	}
+
+	private static boolean sameManifold(Manifold a, Manifold b) {
+		if (a.pointCount != b.pointCount) {
+			return false;
+		}
+		if (a.pointCount == 0) {
+			return true;
+		}
+		if (a.type != b.type || !a.localNormal.equals(b.localNormal)
+				|| !a.localPoint.equals(b.localPoint)) {
+			return false;
+		}
+		for (int i = 0; i < a.pointCount; i++) {
+			if (!a.points[i].localPoint.equals(b.points[i].localPoint)
+					|| !a.points[i].id.isEqual(b.points[i].id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String getTestName(int testNum) {
+		return names[testNum];
+	}
+
+	@Override
+	public int getFrames(int testNum) {
+		return frames;
+	}
+}
@@ -0,0 +1,71 @@
+package physics.profile;
+
+import physics.collision.shapes.PolygonShape;
+import physics.common.Vec2;
+import physics.dynamics.Body;
+import physics.dynamics.BodyDef;
+import physics.dynamics.BodyType;
+import physics.dynamics.World;
+
+/**
+ * Benchmark - one pyramid of boxes, a single island with a few thousand contacts. Compares the
+ * serial solver with the colored solver on an increasing number of threads.
+ */
+public class ColoredSolverBenchmark extends BasicPerformanceTest {
+	public static int iters = 5;
+	public static int frames = 300;
+	public static int rows = 40;
+	public static int[] threads = { 1, 2, 4, 8 };
+	public static double timeStep = 1f / 60;
+	public static int velIters = 8;
+	public static int posIters = 3;
+
+	public ColoredSolverBenchmark() {
+		super(threads.length, iters);
+	}
+
+	public static void main(String[] args) {
+		ColoredSolverBenchmark benchmark = new ColoredSolverBenchmark();
+		benchmark.go();
+	}
+
+	@Override
+	public void runTest(int testNum) {
+		World world = new World(new Vec2(0.0f, -10.0f));
+		world.setConstraintThreads(threads[testNum]);
+		{
+			PolygonShape shape = new PolygonShape();
+			shape.setAsBox(100.0f, 1.0f);
+			Body ground = world.createBody(new BodyDef());
+			ground.createFixture(shape, 0);
+		}
+
+		{
+			PolygonShape shape = new PolygonShape();
+			shape.setAsBox(0.5f, 0.5f);
+			BodyDef bd = new BodyDef();
+			bd.type = BodyType.DYNAMIC;
+			for (int y = 0; y < rows; y++) {
+				for (int x = 0; x < rows - y; x++) {
+					bd.position.set(x * 1.05f - (rows - y) * 0.525f, 1.5f + y);
+					world.createBody(bd).createFixture(shape, 1.0f);
+				}
+			}
+		}
+
+		for (int i = 0; i < frames; i++) {
+			world.step(timeStep, velIters, posIters);
+		}
+		world.setConstraintThreads(1);
+	}
+
+	@Override
+	public String getTestName(int testNum) {
+		return threads[testNum] == 1 ? "Serial" : "Colored " + threads[testNum] + " threads";
+	}
+
+	@Override
+	public int getFrames(int testNum) {
+		return frames;
+	}
+}
@@ -25,6 +25,8 @@ package physics.profile;
 
 import physics.collision.broadphase.BroadPhaseStrategy;
 import physics.collision.broadphase.DynamicTree;
+import physics.collision.broadphase.SpatialHash;
+import physics.collision.broadphase.SweepAndPrune;
 import physics.collision.shapes.CircleShape;
 import physics.collision.shapes.PolygonShape;
 import physics.common.MathUtils;
@@ -46,6 +48,7 @@ import physics.pooling.normal.DefaultWorldPool;
  * 
  * NOTE: some iterations cause objects to fall through the piston
  * 
+ * Runs once on a dynamic tree, once on a spatial hash and once on sweep-and-prune.
  */
 public class PistonBenchmark extends BasicPerformanceTest {
 	public static int iters = 5;
@@ -53,13 +56,14 @@ public class PistonBenchmark extends BasicPerformanceTest {
 	public static double timeStep = 1f / 60;
 	public static int velIters = 8;
 	public static int posIters = 3;
+	public static double hashCellSize = SpatialHash.DEFAULT_CELL_SIZE;
 
 	public RevoluteJoint m_joint1;
 	public PrismaticJoint m_joint2;
 	public World world;
 
 	public PistonBenchmark() {
-		super(1, iters);
+		super(3, iters);
 	}
 
 	public static void main(String[] args) {
@@ -69,9 +73,15 @@ public class PistonBenchmark extends BasicPerformanceTest {
 	
 	@Override
 	public void runTest(int testNum) {
-		BroadPhaseStrategy strategy = new DynamicTree();
-
-		world = new World(new Vec2(0.0f, -10.0f), new DefaultWorldPool(100, 10), strategy);
+		DefaultWorldPool pool = new DefaultWorldPool(100, 10);
+		Vec2 gravity = new Vec2(0.0f, -10.0f);
+		if (testNum == 2) {
+			world = new World(gravity, pool, new SweepAndPrune());
+		} else {
+			BroadPhaseStrategy strategy =
+					testNum == 0 ? new DynamicTree() : new SpatialHash(hashCellSize);
+			world = new World(gravity, pool, strategy);
+		}
 		Body ground = null;
 		{
 			BodyDef bd = new BodyDef();
@@ -272,6 +282,6 @@ public class PistonBenchmark extends BasicPerformanceTest {
 
 	@Override
 	public String getTestName(int testNum) {
-		return "Piston Test";
+		return testNum == 0 ? "Piston Tree" : testNum == 1 ? "Piston Hash" : "Piston SAP";
 	}
 }